@@ -271,6 +271,77 @@ class HttpBuildCacheServiceTest extends Specification {
         cache.store(key, writer("".bytes))
     }
 
+    def "can check for a batch of entries with a single request"() {
+        def otherKey = Stub(BuildCacheKey) {
+            getHashCode() >> "fedcba9876543210"
+        }
+        server.expect("/cache/${HttpBuildCacheService.CONTAINS_PATH}", ["POST"], new HttpServer.ActionSupport("return contained keys") {
+            void handle(HttpServletRequest request, HttpServletResponse response) {
+                assert request.getHeader(HttpHeaders.ACCEPT) == HttpBuildCacheService.CONTAINS_CONTENT_TYPE
+                assert request.inputStream.text.readLines() as Set == [key.hashCode, otherKey.hashCode] as Set
+                response.setStatus(200)
+                response.setContentType(HttpBuildCacheService.CONTAINS_CONTENT_TYPE)
+                response.outputStream << key.hashCode << "\n"
+            }
+        })
+
+        when:
+        def contained = (cache as HttpBuildCacheService).contains([key, otherKey])
+
+        then:
+        contained == [key] as Set
+    }
+
+    def "stops checking for batches of entries when server responds with #httpCode"() {
+        server.expect("/cache/${HttpBuildCacheService.CONTAINS_PATH}", ["POST"], new HttpServer.ActionSupport("not supported") {
+            void handle(HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(httpCode)
+            }
+        })
+
+        when:
+        def contained = (cache as HttpBuildCacheService).contains([key])
+
+        then:
+        contained == null
+
+        when:
+        contained = (cache as HttpBuildCacheService).contains([key])
+
+        then:
+        contained == null
+
+        where:
+        httpCode << [404, 405, 415]
+    }
+
+    def "keeps checking for batches of entries after a transient failure"() {
+        server.expect("/cache/${HttpBuildCacheService.CONTAINS_PATH}", ["POST"], new HttpServer.ActionSupport("unavailable") {
+            void handle(HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(503)
+            }
+        })
+        server.expect("/cache/${HttpBuildCacheService.CONTAINS_PATH}", ["POST"], new HttpServer.ActionSupport("return contained keys") {
+            void handle(HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(200)
+                response.setContentType(HttpBuildCacheService.CONTAINS_CONTENT_TYPE)
+                response.outputStream << key.hashCode << "\n"
+            }
+        })
+
+        when:
+        (cache as HttpBuildCacheService).contains([key])
+
+        then:
+        thrown(BuildCacheException)
+
+        when:
+        def contained = (cache as HttpBuildCacheService).contains([key])
+
+        then:
+        contained == [key] as Set
+    }
+
     def "does preemptive authentication"() {
         def configuration = new HttpBuildCache()
         configuration.url = server.uri.resolve("/cache/")
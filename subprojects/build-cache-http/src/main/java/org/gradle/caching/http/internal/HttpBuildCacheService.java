@@ -23,33 +23,53 @@
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.NonRepeatableRequestException;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.caching.BatchingBuildCacheService;
 import org.gradle.caching.BuildCacheEntryReader;
 import org.gradle.caching.BuildCacheEntryWriter;
 import org.gradle.caching.BuildCacheException;
 import org.gradle.caching.BuildCacheKey;
-import org.gradle.caching.BuildCacheService;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.resource.transport.http.HttpClientHelper;
 import org.gradle.internal.resource.transport.http.HttpClientResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Build cache implementation that delegates to a service accessible via HTTP.
+ *
+ * Servers can optionally support checking for a batch of entries with a single request.
+ * Such a request POSTs the newline separated keys to {@value #CONTAINS_PATH} below the cache root, and expects the keys of the contained entries
+ * in the same format, with a content type of {@value #CONTAINS_CONTENT_TYPE}.
+ * A 404, 405 or 415 response, or a successful response with a different content type, is taken as the server not supporting batched queries,
+ * and no further batched queries are attempted. Other failures only affect the current batch.
  */
-public class HttpBuildCacheService implements BuildCacheService {
+public class HttpBuildCacheService implements BatchingBuildCacheService {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpBuildCacheService.class);
     static final String BUILD_CACHE_CONTENT_TYPE = "application/vnd.gradle.build-cache-artifact.v1";
+    static final String CONTAINS_CONTENT_TYPE = "application/vnd.gradle.build-cache-contains.v1";
+    static final String CONTAINS_PATH = "_contains";
 
     private static final Set<Integer> FATAL_HTTP_ERROR_CODES = ImmutableSet.of(
         HttpStatus.SC_USE_PROXY,
@@ -62,9 +82,16 @@ public class HttpBuildCacheService implements BuildCacheService {
         511 // network authentication required
     );
 
+    private static final Set<Integer> CONTAINS_UNSUPPORTED_HTTP_CODES = ImmutableSet.of(
+        HttpStatus.SC_NOT_FOUND,
+        HttpStatus.SC_METHOD_NOT_ALLOWED,
+        HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE
+    );
+
     private final URI root;
     private final HttpClientHelper httpClientHelper;
     private final HttpBuildCacheRequestCustomizer requestCustomizer;
+    private volatile boolean containsSupported = true;
 
     public HttpBuildCacheService(HttpClientHelper httpClientHelper, URI url, HttpBuildCacheRequestCustomizer requestCustomizer) {
         this.requestCustomizer = requestCustomizer;
@@ -106,6 +133,59 @@ public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws Buil
         }
     }
 
+    @Nullable
+    @Override
+    public Set<BuildCacheKey> contains(Collection<BuildCacheKey> keys) throws BuildCacheException {
+        if (!containsSupported) {
+            return null;
+        }
+        Map<String, BuildCacheKey> keysByHashCode = new HashMap<>();
+        keys.forEach(key -> keysByHashCode.put(key.getHashCode(), key));
+
+        final URI uri = root.resolve("./" + CONTAINS_PATH);
+        HttpPost httpPost = new HttpPost(uri);
+        httpPost.addHeader(HttpHeaders.ACCEPT, CONTAINS_CONTENT_TYPE);
+        httpPost.setEntity(new StringEntity(String.join("\n", keysByHashCode.keySet()), ContentType.create(CONTAINS_CONTENT_TYPE, StandardCharsets.UTF_8)));
+        requestCustomizer.customize(httpPost);
+
+        try (HttpClientResponse response = httpClientHelper.performHttpRequest(httpPost)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Response for POST {}: {}", safeUri(uri), statusLine);
+            }
+            int statusCode = statusLine.getStatusCode();
+            if (CONTAINS_UNSUPPORTED_HTTP_CODES.contains(statusCode)) {
+                return containsNotSupported();
+            }
+            if (!isHttpSuccess(statusCode)) {
+                // Possibly a transient failure, so ask again for the next batch
+                throw new BuildCacheException(String.format("Checking for entries at '%s' response status %d: %s", safeUri(uri), statusCode, statusLine.getReasonPhrase()));
+            }
+            String contentType = response.getHeader(HttpHeaders.CONTENT_TYPE);
+            if (contentType == null || !contentType.startsWith(CONTAINS_CONTENT_TYPE)) {
+                return containsNotSupported();
+            }
+            Set<BuildCacheKey> contained = new HashSet<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.getContent(), StandardCharsets.UTF_8));
+            for (String hashCode : reader.lines().map(String::trim).collect(Collectors.toList())) {
+                BuildCacheKey key = keysByHashCode.get(hashCode);
+                if (key != null) {
+                    contained.add(key);
+                }
+            }
+            return contained;
+        } catch (IOException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Nullable
+    private Set<BuildCacheKey> containsNotSupported() {
+        LOGGER.debug("Remote build cache at '{}' does not support batched queries, loading entries one by one.", safeUri(root));
+        containsSupported = false;
+        return null;
+    }
+
     private boolean handleRedirect(URI uri, HttpClientResponse response, int statusCode, String defaultMessage, String action) {
         String locationHeader = response.getHeader(HttpHeaders.LOCATION);
         if (locationHeader == null) {
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression codecs supported for build cache entries.
+ *
+ * The id of a codec is recorded in the header of each entry, so it must never change.
+ * The id also identifies the format written by the codec: an incompatible change to a format, like the chunk framing of {@link #PARALLEL_GZIP}, requires a new codec with a new id.
+ * Codecs can use the given executor to compress and decompress parts of an entry concurrently.
+ */
+public enum BuildCacheEntryCompression {
+    GZIP(0) {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) throws IOException {
+            return new GZIPInputStream(input, BUFFER_SIZE);
+        }
+    },
+    LZ4(1) {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new FramedLZ4CompressorOutputStream(output);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) throws IOException {
+            return new FramedLZ4CompressorInputStream(input);
+        }
+    },
+    NONE(2) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return input;
+        }
+    },
+    PARALLEL_GZIP(3) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return compress(output, Runnable::run);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output, Executor executor) {
+            return new ParallelGzipOutputStream(output, executor);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return decompress(input, Runnable::run);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input, Executor executor) {
+            return new ParallelGzipInputStream(input, executor);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int id;
+
+    BuildCacheEntryCompression(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public abstract OutputStream compress(OutputStream output) throws IOException;
+
+    public abstract InputStream decompress(InputStream input) throws IOException;
+
+    public OutputStream compress(OutputStream output, Executor executor) throws IOException {
+        return compress(output);
+    }
+
+    public InputStream decompress(InputStream input, Executor executor) throws IOException {
+        return decompress(input);
+    }
+
+    public static BuildCacheEntryCompression forId(int id) {
+        for (BuildCacheEntryCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalStateException("Cached entry format error, unknown compression: " + id);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import com.google.common.primitives.Ints;
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Compresses build cache entries with a configurable {@link BuildCacheEntryCompression}.
+ *
+ * Gzip compressed entries are written without a header, so they remain plain {@code .tar.gz} files.
+ * Entries using any other compression start with a header identifying the compression.
+ * Codecs that support it compress and decompress entries concurrently on the given executor.
+ * Uncompressed entries read from a file are unpacked straight from the file channel.
+ */
+public class CompressingBuildCacheEntryPacker implements BuildCacheEntryPacker {
+    private static final byte[] HEADER_MAGIC = {'G', 'B', 'C', 'E'};
+    private static final int HEADER_LENGTH = HEADER_MAGIC.length + 1;
+
+    private final BuildCacheEntryPacker delegate;
+    private final Supplier<BuildCacheEntryCompression> compressionSelector;
+    private final Executor executor;
+
+    public CompressingBuildCacheEntryPacker(BuildCacheEntryPacker delegate, Supplier<BuildCacheEntryCompression> compressionSelector) {
+        this(delegate, compressionSelector, Runnable::run);
+    }
+
+    public CompressingBuildCacheEntryPacker(BuildCacheEntryPacker delegate, Supplier<BuildCacheEntryCompression> compressionSelector, Executor executor) {
+        this.delegate = delegate;
+        this.compressionSelector = compressionSelector;
+        this.executor = executor;
+    }
+
+    @Override
+    public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        BuildCacheEntryCompression compression = compressionSelector.get();
+        writeCompression(output, compression);
+        try (OutputStream compressedOutput = compression.compress(output, executor)) {
+            return delegate.pack(entity, snapshots, compressedOutput, writeOrigin);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+        long start = input instanceof FileInputStream ? ((FileInputStream) input).getChannel().position() : 0;
+        InputStream bufferedInput = new BufferedInputStream(input);
+        BuildCacheEntryCompression compression = readCompression(bufferedInput);
+        if (compression == BuildCacheEntryCompression.NONE && input instanceof FileInputStream) {
+            // The buffered input has read ahead, so continue reading right after the header
+            FileChannelInputStream channelInput = new FileChannelInputStream(((FileInputStream) input).getChannel(), start + HEADER_LENGTH);
+            return delegate.unpack(entity, channelInput, readOrigin);
+        }
+        try (InputStream decompressedInput = compression.decompress(bufferedInput, executor)) {
+            return delegate.unpack(entity, decompressedInput, readOrigin);
+        }
+    }
+
+    /**
+     * Writes the header identifying the given compression.
+     */
+    public static void writeCompression(OutputStream output, BuildCacheEntryCompression compression) throws IOException {
+        if (compression != BuildCacheEntryCompression.GZIP) {
+            output.write(HEADER_MAGIC);
+            output.write(compression.getId());
+        }
+    }
+
+    /**
+     * Reads the header identifying the compression of an entry, leaving the input positioned at the compressed content.
+     *
+     * The input must support {@link InputStream#mark(int)}.
+     */
+    public static BuildCacheEntryCompression readCompression(InputStream input) throws IOException {
+        input.mark(HEADER_LENGTH);
+        byte[] header = new byte[HEADER_LENGTH];
+        int read = 0;
+        while (read < HEADER_LENGTH) {
+            int count = input.read(header, read, HEADER_LENGTH - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        if (read == HEADER_LENGTH && Ints.fromByteArray(header) == Ints.fromByteArray(HEADER_MAGIC)) {
+            return BuildCacheEntryCompression.forId(header[HEADER_MAGIC.length]);
+        }
+        // Entries without a header are gzip compressed
+        input.reset();
+        return BuildCacheEntryCompression.GZIP;
+    }
+}
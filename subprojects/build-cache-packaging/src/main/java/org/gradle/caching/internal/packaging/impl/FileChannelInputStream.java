@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a file through its channel, keeping track of the position in the file.
+ *
+ * Allows copying parts of the file to another file without moving the content through the heap.
+ * The channel is owned by the caller, and is not closed by this stream.
+ */
+class FileChannelInputStream extends InputStream {
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE));
+
+    private final FileChannel channel;
+    private long position;
+
+    public FileChannelInputStream(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int read = channel.read(ByteBuffer.wrap(bytes, offset, length), position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(count, Math.max(0, channel.size() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - position));
+    }
+
+    /**
+     * Copies the next {@code count} bytes to the given channel without consuming them, updating the checksum with the copied content.
+     */
+    public void copyTo(long count, FileChannel target, CRC32 checksum) throws IOException {
+        ByteBuffer buffer = TRANSFER_BUFFERS.get();
+        long offset = position;
+        long end = position + count;
+        while (offset < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Cached entry format error, unexpected end of file content.");
+            }
+            buffer.flip();
+            checksum.update(buffer);
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            offset += read;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads content written by {@link ParallelGzipOutputStream}.
+ *
+ * The chunks following the one currently being read are decompressed ahead of time and concurrently on the given executor.
+ * Closing the stream waits for the chunks that are being decompressed, so that no work outlives the stream.
+ */
+public class ParallelGzipInputStream extends InputStream {
+    private static final int READ_AHEAD_CHUNKS = 8;
+
+    private final DataInputStream input;
+    private final Executor executor;
+    private final Deque<CompletableFuture<byte[]>> pendingChunks = new ArrayDeque<>();
+    private byte[] chunk = new byte[0];
+    private int position;
+    private boolean endOfInput;
+    private volatile boolean closed;
+
+    public ParallelGzipInputStream(InputStream input, Executor executor) {
+        this.input = new DataInputStream(input);
+        this.executor = executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int count = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (position < chunk.length) {
+            return true;
+        }
+        while (!endOfInput && pendingChunks.size() < READ_AHEAD_CHUNKS) {
+            readChunk();
+        }
+        if (pendingChunks.isEmpty()) {
+            return false;
+        }
+        try {
+            chunk = pendingChunks.remove().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        position = 0;
+        return true;
+    }
+
+    private void readChunk() throws IOException {
+        int length = input.readInt();
+        if (length == 0) {
+            endOfInput = true;
+            return;
+        }
+        int compressedLength = input.readInt();
+        if (length < 0 || length > ParallelGzipOutputStream.CHUNK_SIZE || compressedLength < 0) {
+            throw new IOException("Cached entry format error, invalid chunk length.");
+        }
+        byte[] compressed = new byte[compressedLength];
+        input.readFully(compressed);
+        pendingChunks.add(CompletableFuture.supplyAsync(() -> closed ? null : decompress(compressed, length), executor));
+    }
+
+    private static byte[] decompress(byte[] compressed, int length) {
+        byte[] content = new byte[length];
+        try (InputStream gzipInput = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            int read = 0;
+            while (read < length) {
+                int count = gzipInput.read(content, read, length - read);
+                if (count < 0) {
+                    throw new EOFException("Cached entry format error, chunk is shorter than expected.");
+                }
+                read += count;
+            }
+            if (gzipInput.read() >= 0) {
+                throw new IOException("Cached entry format error, chunk is longer than expected.");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Chunks that have not been started yet are skipped, nobody is going to read them
+        closed = true;
+        try {
+            for (CompletableFuture<byte[]> pendingChunk : pendingChunks) {
+                try {
+                    pendingChunk.join();
+                } catch (CompletionException e) {
+                    // Ignore, nobody is going to read the chunk
+                }
+            }
+            pendingChunks.clear();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Splits its content into fixed size chunks and compresses each chunk independently using gzip.
+ *
+ * Chunks are compressed concurrently on the given executor and written in order, each preceded by its uncompressed and compressed length.
+ * The end of the content is marked by an empty chunk. See {@link ParallelGzipInputStream} for the reading side.
+ * Closing the stream waits for all chunks to be compressed, even when writing the content fails.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_PENDING_CHUNKS = 16;
+
+    private final DataOutputStream output;
+    private final Executor executor;
+    private final Deque<CompletableFuture<byte[]>> pendingChunks = new ArrayDeque<>();
+    private byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream output, Executor executor) {
+        this.output = new DataOutputStream(output);
+        this.executor = executor;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (chunkLength == CHUNK_SIZE) {
+            submitChunk();
+        }
+        chunk[chunkLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (chunkLength == CHUNK_SIZE) {
+                submitChunk();
+            }
+            int count = Math.min(len, CHUNK_SIZE - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void submitChunk() throws IOException {
+        byte[] content = chunk;
+        int length = chunkLength;
+        pendingChunks.add(CompletableFuture.supplyAsync(() -> compress(content, length), executor));
+        chunk = new byte[CHUNK_SIZE];
+        chunkLength = 0;
+        // Limit the memory used by chunks waiting to be written
+        while (pendingChunks.size() > MAX_PENDING_CHUNKS) {
+            writeChunk(pendingChunks.remove());
+        }
+    }
+
+    private void writeChunk(CompletableFuture<byte[]> pendingChunk) throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pendingChunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        output.write(compressed);
+    }
+
+    private static byte[] compress(byte[] content, int length) {
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            DataOutputStream header = new DataOutputStream(compressed);
+            header.writeInt(length);
+            // Reserve space for the compressed length, which is filled in below
+            header.writeInt(0);
+            try (GZIPOutputStream gzipOutput = new GZIPOutputStream(compressed)) {
+                gzipOutput.write(content, 0, length);
+            }
+            byte[] result = compressed.toByteArray();
+            int compressedLength = result.length - 2 * Integer.BYTES;
+            result[4] = (byte) (compressedLength >>> 24);
+            result[5] = (byte) (compressedLength >>> 16);
+            result[6] = (byte) (compressedLength >>> 8);
+            result[7] = (byte) compressedLength;
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitPendingChunks() {
+        for (CompletableFuture<byte[]> pendingChunk : pendingChunks) {
+            try {
+                pendingChunk.join();
+            } catch (CompletionException e) {
+                // Ignore, writing the content has already failed
+            }
+        }
+        pendingChunks.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (chunkLength > 0) {
+                submitChunk();
+            }
+            while (!pendingChunks.isEmpty()) {
+                writeChunk(pendingChunks.remove());
+            }
+            output.writeInt(0);
+        } finally {
+            try {
+                awaitPendingChunks();
+            } finally {
+                output.close();
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Interner;
 import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -50,7 +52,10 @@
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -61,19 +66,41 @@
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
 
 import static org.gradle.internal.file.FileMetadata.AccessType.DIRECT;
 import static org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder.EmptyDirectoryHandlingStrategy.INCLUDE_EMPTY_DIRS;
 
 /**
  * Packages build cache entries to a POSIX TAR file.
+ *
+ * Since format version 2, the content hashes of the packed files are recorded in the archive, together with a checksum over the whole content.
+ * The hashes are verified against the bytes written to the archive when packing.
+ * When unpacking, the recorded hashes are used for the resulting snapshots instead of hashing every file again.
+ * Archives of version 1, which don't record the format version, are still supported.
+ * When the archive is read from a {@link FileChannelInputStream}, file contents are copied between the file channels directly.
+ * Otherwise, small files of directory trees are read into memory and written to disk concurrently on the given executor,
+ * while the archive is being read further.
  */
 public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
@@ -88,25 +115,47 @@ private interface UnixPermissions {
 
     private static final Charset ENCODING = StandardCharsets.UTF_8;
     private static final String METADATA_PATH = "METADATA";
+    private static final String FORMAT_VERSION_PATH = "FORMAT-VERSION";
+    private static final String FILE_HASHES_PATH = "FILE-HASHES";
+    private static final String CHECKSUM_PATH = "CHECKSUM";
+    /**
+     * Version 1 archives only contain the metadata and the trees.
+     * Version 2 archives also contain the format version, the hashes of the packed files and a checksum over the content, all preceding the trees.
+     */
+    private static final int FORMAT_VERSION = 2;
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final int MAX_CONCURRENT_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_PENDING_FILE_BYTES = 16 * 1024 * 1024;
 
     private final TarPackerFileSystemSupport fileSystemSupport;
     private final FilePermissionAccess filePermissionAccess;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
+    private final Executor fileWriteExecutor;
 
     public TarBuildCacheEntryPacker(
         TarPackerFileSystemSupport fileSystemSupport,
         FilePermissionAccess filePermissionAccess,
         StreamHasher streamHasher,
         Interner<String> stringInterner
+    ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, Runnable::run);
+    }
+
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        Executor fileWriteExecutor
     ) {
         this.fileSystemSupport = fileSystemSupport;
         this.filePermissionAccess = filePermissionAccess;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.fileWriteExecutor = fileWriteExecutor;
     }
 
     @Override
@@ -122,7 +171,11 @@ public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemS
             tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
             tarOutput.setAddPaxHeadersForNonAsciiNames(true);
             packMetadata(writeOrigin, tarOutput);
-            long entryCount = pack(entity, snapshots, tarOutput);
+            packFormatVersion(tarOutput);
+            Checksum checksum = new CRC32();
+            packFileHashes(entity, snapshots, tarOutput, checksum);
+            long entryCount = pack(entity, snapshots, tarOutput, checksum);
+            packChecksum(checksum, tarOutput);
             return new PackResult(entryCount + 1);
         }
     }
@@ -135,12 +188,55 @@ private void packMetadata(OriginWriter writeMetadata, TarArchiveOutputStream tar
         tarOutput.closeArchiveEntry();
     }
 
-    private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, TarArchiveOutputStream tarOutput) {
+    private static void packFormatVersion(TarArchiveOutputStream tarOutput) throws IOException {
+        byte[] bytes = Ints.toByteArray(FORMAT_VERSION);
+        createTarEntry(FORMAT_VERSION_PATH, bytes.length, UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
+        tarOutput.write(bytes);
+        tarOutput.closeArchiveEntry();
+    }
+
+    /**
+     * Records the content hashes of all regular files, in the order they are packed.
+     * The hashes are taken from the snapshots, and each file is verified against its hash while it is packed.
+     */
+    private static void packFileHashes(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, TarArchiveOutputStream tarOutput, Checksum checksum) throws IOException {
+        List<HashCode> hashes = new ArrayList<>();
+        entity.visitOutputTrees((treeName, type, root) -> snapshots.get(treeName).accept(snapshot -> {
+            if (snapshot.getType() == FileType.RegularFile) {
+                hashes.add(snapshot.getHash());
+            }
+            return SnapshotVisitResult.CONTINUE;
+        }));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(hashes.size());
+        for (HashCode hash : hashes) {
+            byte[] bytes = hash.toByteArray();
+            data.writeByte(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+        byte[] bytes = output.toByteArray();
+        checksum.update(bytes, 0, bytes.length);
+        createTarEntry(FILE_HASHES_PATH, bytes.length, UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
+        tarOutput.write(bytes);
+        tarOutput.closeArchiveEntry();
+    }
+
+    private static void packChecksum(Checksum checksum, TarArchiveOutputStream tarOutput) throws IOException {
+        byte[] bytes = Longs.toByteArray(checksum.getValue());
+        createTarEntry(CHECKSUM_PATH, bytes.length, UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
+        tarOutput.write(bytes);
+        tarOutput.closeArchiveEntry();
+    }
+
+    private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, TarArchiveOutputStream tarOutput, Checksum checksum) {
         AtomicLong entries = new AtomicLong();
         entity.visitOutputTrees((treeName, type, root) -> {
             FileSystemSnapshot treeSnapshots = snapshots.get(treeName);
             try {
-                long entryCount = packTree(treeName, type, treeSnapshots, tarOutput);
+                long entryCount = packTree(treeName, type, treeSnapshots, tarOutput, checksum);
                 entries.addAndGet(entryCount);
             } catch (Exception ex) {
                 throw new RuntimeException(String.format("Could not pack tree '%s': %s", treeName, ex.getMessage()), ex);
@@ -149,8 +245,8 @@ private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapsh
         return entries.get();
     }
 
-    private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess);
+    private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput, Checksum checksum) {
+        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess, streamHasher, checksum);
         snapshots.accept(new RelativePathTracker(), packingVisitor);
         return packingVisitor.getPackedEntryCount();
     }
@@ -164,7 +260,9 @@ private static void createTarEntry(String path, long size, int mode, TarArchiveO
 
     @Override
     public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
-        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input, ENCODING.name())) {
+        try (TarArchiveInputStream tarInput = input instanceof FileChannelInputStream
+            ? new FileChannelTarArchiveInputStream((FileChannelInputStream) input)
+            : new TarArchiveInputStream(input, ENCODING.name())) {
             return unpack(entity, tarInput, readOrigin);
         }
     }
@@ -177,18 +275,29 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
         TarArchiveEntry tarEntry;
         OriginMetadata originMetadata = null;
         Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        ContentVerifier verifier = new ContentVerifier();
 
         tarEntry = tarInput.getNextTarEntry();
         AtomicLong entries = new AtomicLong();
         while (tarEntry != null) {
-            entries.incrementAndGet();
             String path = tarEntry.getName();
 
             if (path.equals(METADATA_PATH)) {
                 // handle origin metadata
+                entries.incrementAndGet();
                 originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
                 tarEntry = tarInput.getNextTarEntry();
+            } else if (path.equals(FORMAT_VERSION_PATH)) {
+                verifier.readFormatVersion(tarInput);
+                tarEntry = tarInput.getNextTarEntry();
+            } else if (path.equals(FILE_HASHES_PATH)) {
+                verifier.readRecordedHashes(tarInput);
+                tarEntry = tarInput.getNextTarEntry();
+            } else if (path.equals(CHECKSUM_PATH)) {
+                verifier.readChecksum(tarInput);
+                tarEntry = tarInput.getNextTarEntry();
             } else {
+                entries.incrementAndGet();
                 // handle tree
                 Matcher matcher = TREE_PATH.matcher(path);
                 if (!matcher.matches()) {
@@ -203,12 +312,13 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
 
                 boolean missing = matcher.group(1) != null;
                 String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
+                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries, verifier);
             }
         }
         if (originMetadata == null) {
             throw new IllegalStateException("Cached result format error, no origin metadata was found.");
         }
+        verifier.assertVerified();
 
         return new UnpackResult(originMetadata, entries.get(), snapshots);
     }
@@ -232,7 +342,7 @@ public File getRoot() {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, ContentVerifier verifier) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -249,7 +359,7 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName(), verifier);
             snapshots.put(treeName, fileSnapshot);
             return input.getNextTarEntry();
         }
@@ -259,60 +369,315 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
         }
         chmodUnpackedFile(rootEntry, treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName, verifier);
+    }
+
+    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName, ContentVerifier verifier) throws IOException {
+        HashCode hash = verifier.nextRecordedHash();
+        long length;
+        try (FileOutputStream fileOutput = new FileOutputStream(file)) {
+            if (hash == null) {
+                CountingOutputStream output = new CountingOutputStream(fileOutput);
+                hash = streamHasher.hashCopy(input, output);
+                length = output.getCount();
+            } else if (input instanceof FileChannelTarArchiveInputStream) {
+                length = ((FileChannelTarArchiveInputStream) input).transferEntry(entry, fileOutput.getChannel(), verifier.getChecksum());
+            } else {
+                CountingOutputStream output = new CountingOutputStream(fileOutput);
+                copy(input, output, verifier.getChecksum());
+                length = output.getCount();
+            }
+        }
+        return snapshotUnpackedFile(entry, file, fileName, hash, length);
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
-        try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
-            HashCode hash = streamHasher.hashCopy(input, output);
-            chmodUnpackedFile(entry, file);
-            String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
-            String internedFileName = stringInterner.intern(fileName);
-            return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(output.getCount(), file.lastModified(), DIRECT));
+    /**
+     * Reads the content of a small file into memory and writes it to disk on the executor. Larger files are unpacked right away.
+     */
+    private CompletableFuture<RegularFileSnapshot> unpackFileConcurrently(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName, ContentVerifier verifier, FileWriteQueue writes) throws IOException {
+        if (entry.getSize() > MAX_CONCURRENT_FILE_SIZE || input instanceof FileChannelTarArchiveInputStream) {
+            return CompletableFuture.completedFuture(unpackFile(input, entry, file, fileName, verifier));
+        }
+        HashCode recordedHash = verifier.nextRecordedHash();
+        byte[] content = new byte[(int) entry.getSize()];
+        IOUtils.readFully(input, content);
+        HashCode hash;
+        if (recordedHash == null) {
+            hash = streamHasher.hash(new ByteArrayInputStream(content));
+        } else {
+            verifier.getChecksum().update(content, 0, content.length);
+            hash = recordedHash;
         }
+        return writes.submit(content.length, () -> {
+            try (FileOutputStream fileOutput = new FileOutputStream(file)) {
+                fileOutput.write(content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return snapshotUnpackedFile(entry, file, fileName, hash, content.length);
+        });
+    }
+
+    private RegularFileSnapshot snapshotUnpackedFile(TarArchiveEntry entry, File file, String fileName, HashCode hash, long length) {
+        chmodUnpackedFile(entry, file);
+        String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
+        String internedFileName = stringInterner.intern(fileName);
+        return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(length, file.lastModified(), DIRECT));
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName, ContentVerifier verifier) throws IOException {
         RelativePathParser parser = new RelativePathParser(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
-        builder.enterDirectory(DIRECT, stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()), INCLUDE_EMPTY_DIRS);
+        // Files may still be written when their snapshot is visited, so record the steps to build the snapshot and replay them once all files have been written
+        List<Consumer<MerkleDirectorySnapshotBuilder>> snapshotSteps = new ArrayList<>();
+        Runnable leaveDirectory = () -> snapshotSteps.add(MerkleDirectorySnapshotBuilder::leaveDirectory);
+        String internedRootPath = stringInterner.intern(treeRoot.getAbsolutePath());
+        String internedRootName = stringInterner.intern(treeRoot.getName());
+        snapshotSteps.add(builder -> builder.enterDirectory(DIRECT, internedRootPath, internedRootName, INCLUDE_EMPTY_DIRS));
 
+        FileWriteQueue writes = new FileWriteQueue(fileWriteExecutor);
         TarArchiveEntry entry;
-
-        while ((entry = input.getNextTarEntry()) != null) {
-            boolean isDir = entry.isDirectory();
-            boolean outsideOfRoot = parser.nextPath(entry.getName(), isDir, builder::leaveDirectory);
-            if (outsideOfRoot) {
-                break;
-            }
-            entries.incrementAndGet();
-
-            File file = new File(treeRoot, parser.getRelativePath());
-            if (isDir) {
-                FileUtils.forceMkdir(file);
-                chmodUnpackedFile(entry, file);
-                String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
-                String internedName = stringInterner.intern(parser.getName());
-                builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS);
-            } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visitLeafElement(fileSnapshot);
+        try {
+            while ((entry = input.getNextTarEntry()) != null) {
+                boolean isDir = entry.isDirectory();
+                boolean outsideOfRoot = parser.nextPath(entry.getName(), isDir, leaveDirectory);
+                if (outsideOfRoot) {
+                    break;
+                }
+                entries.incrementAndGet();
+
+                File file = new File(treeRoot, parser.getRelativePath());
+                if (isDir) {
+                    FileUtils.forceMkdir(file);
+                    chmodUnpackedFile(entry, file);
+                    String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
+                    String internedName = stringInterner.intern(parser.getName());
+                    snapshotSteps.add(builder -> builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS));
+                } else {
+                    CompletableFuture<RegularFileSnapshot> fileSnapshot = unpackFileConcurrently(input, entry, file, parser.getName(), verifier, writes);
+                    snapshotSteps.add(builder -> builder.visitLeafElement(fileSnapshot.join()));
+                }
             }
+        } catch (IOException | RuntimeException e) {
+            // Don't leave files being written behind
+            writes.awaitAllIgnoringFailures();
+            throw e;
         }
+        writes.awaitAll();
 
-        parser.exitToRoot(builder::leaveDirectory);
-        builder.leaveDirectory();
+        parser.exitToRoot(leaveDirectory);
+        leaveDirectory.run();
 
+        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        snapshotSteps.forEach(step -> step.accept(builder));
         snapshots.put(treeName, builder.getResult());
         return entry;
     }
 
+    /**
+     * Writes files on an executor, limiting the amount of file content held in memory while waiting to be written.
+     */
+    private static class FileWriteQueue {
+        private final Executor executor;
+        private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+        private long pendingBytes;
+
+        public FileWriteQueue(Executor executor) {
+            this.executor = executor;
+        }
+
+        public CompletableFuture<RegularFileSnapshot> submit(int size, Supplier<RegularFileSnapshot> write) throws IOException {
+            CompletableFuture<RegularFileSnapshot> result = CompletableFuture.supplyAsync(write, executor);
+            pendingWrites.add(new PendingWrite(result, size));
+            pendingBytes += size;
+            while (pendingBytes > MAX_PENDING_FILE_BYTES) {
+                PendingWrite pendingWrite = pendingWrites.remove();
+                pendingBytes -= pendingWrite.size;
+                await(pendingWrite.result);
+            }
+            return result;
+        }
+
+        /**
+         * Waits for all pending writes to complete, and rethrows the first failure.
+         */
+        public void awaitAll() throws IOException {
+            Exception failure = null;
+            while (!pendingWrites.isEmpty()) {
+                try {
+                    await(pendingWrites.remove().result);
+                } catch (IOException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            pendingBytes = 0;
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        }
+
+        public void awaitAllIgnoringFailures() {
+            try {
+                awaitAll();
+            } catch (IOException | RuntimeException e) {
+                // Ignore, unpacking has already failed
+            }
+        }
+
+        private static void await(CompletableFuture<?> result) throws IOException {
+            try {
+                result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
+        }
+
+        private static class PendingWrite {
+            private final CompletableFuture<RegularFileSnapshot> result;
+            private final int size;
+
+            public PendingWrite(CompletableFuture<RegularFileSnapshot> result, int size) {
+                this.result = result;
+                this.size = size;
+            }
+        }
+    }
+
     private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
         filePermissionAccess.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
     }
 
+    private static void copy(InputStream input, OutputStream output, Checksum checksum) throws IOException {
+        byte[] buffer = COPY_BUFFERS.get();
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            checksum.update(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Reads an uncompressed archive from a file, allowing the content of entries to be copied without going through the heap.
+     */
+    private static class FileChannelTarArchiveInputStream extends TarArchiveInputStream {
+        private final FileChannelInputStream source;
+
+        public FileChannelTarArchiveInputStream(FileChannelInputStream source) {
+            super(source, ENCODING.name());
+            this.source = source;
+        }
+
+        /**
+         * Copies the content of the current entry to the given channel, and skips over it.
+         */
+        public long transferEntry(TarArchiveEntry entry, FileChannel target, CRC32 checksum) throws IOException {
+            long size = entry.getSize();
+            source.copyTo(size, target, checksum);
+            if (skip(size) != size) {
+                throw new IllegalStateException("Cached entry format error, unexpected end of entry: " + entry.getName());
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Hands out the file hashes recorded in the archive, and verifies the checksum over the whole content of the archive.
+     */
+    private static class ContentVerifier {
+        private final CRC32 checksum = new CRC32();
+        private int formatVersion = 1;
+        private Iterator<HashCode> recordedHashes;
+        private Long expectedChecksum;
+        private boolean filesUnpacked;
+
+        public CRC32 getChecksum() {
+            return checksum;
+        }
+
+        public void readFormatVersion(InputStream input) throws IOException {
+            assertNoFilesUnpacked(FORMAT_VERSION_PATH);
+            byte[] bytes = IOUtils.toByteArray(input);
+            int version = bytes.length == 4 ? Ints.fromByteArray(bytes) : -1;
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException("Cached entry format error, unsupported format version: " + version);
+            }
+            formatVersion = version;
+        }
+
+        public void readRecordedHashes(InputStream input) throws IOException {
+            if (formatVersion < 2) {
+                throw new IllegalStateException("Cached entry format error, recorded hashes found in an entry of format version " + formatVersion);
+            }
+            assertNoFilesUnpacked(FILE_HASHES_PATH);
+            byte[] bytes = IOUtils.toByteArray(input);
+            checksum.update(bytes, 0, bytes.length);
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            int count = data.readInt();
+            List<HashCode> hashes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] hash = new byte[data.readUnsignedByte()];
+                data.readFully(hash);
+                hashes.add(HashCode.fromBytes(hash));
+            }
+            recordedHashes = hashes.iterator();
+        }
+
+        private void assertNoFilesUnpacked(String path) {
+            if (filesUnpacked) {
+                throw new IllegalStateException("Cached entry format error, " + path + " found after the first file.");
+            }
+        }
+
+        /**
+         * Returns the recorded hash for the next file in the archive, or {@code null} if the format of the archive does not record hashes.
+         */
+        @Nullable
+        public HashCode nextRecordedHash() {
+            filesUnpacked = true;
+            if (formatVersion < 2) {
+                return null;
+            }
+            if (recordedHashes == null) {
+                throw new IllegalStateException("Cached entry format error, no recorded hashes were found.");
+            }
+            if (!recordedHashes.hasNext()) {
+                throw new IllegalStateException("Cached entry format error, more files than recorded hashes found.");
+            }
+            return recordedHashes.next();
+        }
+
+        public void readChecksum(InputStream input) throws IOException {
+            expectedChecksum = Longs.fromByteArray(IOUtils.toByteArray(input));
+        }
+
+        public void assertVerified() {
+            if (formatVersion < 2) {
+                return;
+            }
+            if (recordedHashes == null) {
+                throw new IllegalStateException("Cached entry format error, no recorded hashes were found.");
+            }
+            if (recordedHashes.hasNext()) {
+                throw new IllegalStateException("Cached entry format error, fewer files than recorded hashes found.");
+            }
+            if (expectedChecksum == null) {
+                throw new IllegalStateException("Cached result format error, no checksum was found.");
+            }
+            if (expectedChecksum != checksum.getValue()) {
+                throw new IllegalStateException("Cached entry format error, checksum mismatch.");
+            }
+        }
+    }
+
     private static String escape(String name) {
         try {
             return URLEncoder.encode(name, ENCODING.name());
@@ -335,15 +700,19 @@ private static class PackingVisitor implements RelativePathTrackingFileSystemSna
         private final String treeRoot;
         private final FilePermissionAccess filePermissionAccess;
         private final TreeType type;
+        private final StreamHasher streamHasher;
+        private final Checksum checksum;
 
         private long packedEntryCount;
 
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess) {
+        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess, StreamHasher streamHasher, Checksum checksum) {
             this.tarOutput = tarOutput;
             this.treePath = "tree-" + escape(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
             this.filePermissionAccess = filePermissionAccess;
+            this.streamHasher = streamHasher;
+            this.checksum = checksum;
         }
 
         @Override
@@ -364,7 +733,7 @@ public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     assertCorrectType(isRoot, snapshot);
                     File file = new File(snapshot.getAbsolutePath());
                     int fileMode = filePermissionAccess.getUnixMode(file);
-                    storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                    storeFileEntry(file, targetPath, file.length(), fileMode, fileSnapshot.getHash(), tarOutput);
                 }
 
                 @Override
@@ -426,11 +795,18 @@ private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream t
             }
         }
 
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
+        /**
+         * Packs the file, and verifies that the packed bytes match the hash recorded for the file, so that an entry never records a hash that doesn't match its content.
+         */
+        private void storeFileEntry(File inputFile, String path, long size, int mode, HashCode recordedHash, TarArchiveOutputStream tarOutput) {
             try {
                 createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
+                HashCode packedHash;
                 try (FileInputStream input = new FileInputStream(inputFile)) {
-                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    packedHash = streamHasher.hashCopy(input, new CheckedOutputStream(tarOutput, checksum));
+                }
+                if (!packedHash.equals(recordedHash)) {
+                    throw new IllegalStateException(String.format("File '%s' has changed since its snapshot was taken.", inputFile));
                 }
                 tarOutput.closeArchiveEntry();
             } catch (IOException e) {
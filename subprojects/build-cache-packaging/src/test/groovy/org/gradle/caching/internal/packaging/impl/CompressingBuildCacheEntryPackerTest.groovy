@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.origin.OriginReader
+import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Executors
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+class CompressingBuildCacheEntryPackerTest extends Specification {
+    def content = "content " * 100
+    def entity = Stub(CacheableEntity)
+    def delegate = new BuildCacheEntryPacker() {
+        @Override
+        BuildCacheEntryPacker.PackResult pack(CacheableEntity entity, Map snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+            output.write(content.bytes)
+            return new BuildCacheEntryPacker.PackResult(1)
+        }
+
+        @Override
+        BuildCacheEntryPacker.UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+            assert new String(input.bytes) == content
+            return new BuildCacheEntryPacker.UnpackResult(null, 1, [:])
+        }
+    }
+
+    @Unroll
+    def "can unpack entry compressed with #compression"() {
+        def packer = new CompressingBuildCacheEntryPacker(delegate, { compression })
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer.pack(entity, [:], output, Stub(OriginWriter))
+        def result = packer.unpack(entity, new ByteArrayInputStream(output.toByteArray()), Stub(OriginReader))
+
+        then:
+        result.entries == 1
+
+        where:
+        compression << BuildCacheEntryCompression.values()
+    }
+
+    def "gzip compressed entries are written without header"() {
+        def packer = new CompressingBuildCacheEntryPacker(delegate, { BuildCacheEntryCompression.GZIP })
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer.pack(entity, [:], output, Stub(OriginWriter))
+
+        then:
+        new String(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).bytes) == content
+    }
+
+    def "can unpack entries written without header"() {
+        def packer = new CompressingBuildCacheEntryPacker(delegate, { BuildCacheEntryCompression.LZ4 })
+        def output = new ByteArrayOutputStream()
+        new GZIPOutputStream(output).withStream { it.write(content.bytes) }
+
+        when:
+        def result = packer.unpack(entity, new ByteArrayInputStream(output.toByteArray()), Stub(OriginReader))
+
+        then:
+        result.entries == 1
+    }
+
+    def "can compress and decompress large content concurrently"() {
+        def executor = Executors.newFixedThreadPool(4)
+        def random = new Random(1234L)
+        def largeContent = new byte[ParallelGzipOutputStream.CHUNK_SIZE * 5 + 1234]
+        random.nextBytes(largeContent)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        new ParallelGzipOutputStream(output, executor).withStream { it.write(largeContent) }
+        def decompressed = new ParallelGzipInputStream(new ByteArrayInputStream(output.toByteArray()), executor).bytes
+
+        then:
+        decompressed == largeContent
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "fails for truncated parallel gzip content"() {
+        def output = new ByteArrayOutputStream()
+        new ParallelGzipOutputStream(output, { it.run() }).withStream { it.write(content.bytes) }
+        def truncated = Arrays.copyOf(output.toByteArray(), output.size() - 20)
+
+        when:
+        new ParallelGzipInputStream(new ByteArrayInputStream(truncated), { it.run() }).bytes
+
+        then:
+        thrown IOException
+    }
+
+    def "fails for unknown compression"() {
+        def packer = new CompressingBuildCacheEntryPacker(delegate, { BuildCacheEntryCompression.NONE })
+        def input = new ByteArrayInputStream(['G', 'B', 'C', 'E', 42].collect { it instanceof String ? (byte) (it as char) : (byte) it } as byte[])
+
+        when:
+        packer.unpack(entity, input, Stub(OriginReader))
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached entry format error, unknown compression: 42"
+    }
+}
@@ -16,13 +16,20 @@
 
 package org.gradle.caching.internal.packaging.impl
 
+import com.google.common.primitives.Ints
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.internal.snapshot.FileSystemSnapshot
+import org.gradle.internal.snapshot.RegularFileSnapshot
 import org.gradle.internal.file.Deleter
 import org.gradle.internal.nativeintegration.filesystem.FileSystem
 import org.gradle.util.Requires
 import org.gradle.util.TestPrecondition
 import spock.lang.Unroll
 
+import java.util.concurrent.Executors
+
 import static org.gradle.internal.file.TreeType.DIRECTORY
 import static org.gradle.internal.file.TreeType.FILE
 
@@ -242,4 +249,177 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         then:
         targetDir.assertIsEmptyDir()
     }
+
+    def "uses recorded hashes for unpacked files"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        pack output, prop(FILE, sourceOutputFile)
+
+        when:
+        def input = new ByteArrayInputStream(output.toByteArray())
+        def result = unpack input, prop(FILE, targetOutputFile)
+
+        then:
+        targetOutputFile.text == "output"
+        def snapshot = result.snapshots["test"] as RegularFileSnapshot
+        snapshot.hash == streamHasher.hash(new ByteArrayInputStream("output".bytes))
+        result.entries == 2
+    }
+
+    def "detects corrupted content when using recorded hashes"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        pack output, prop(FILE, sourceOutputFile)
+        def bytes = output.toByteArray()
+        def contentIndex = Collections.indexOfSubList(bytes as List, "output".bytes as List)
+        bytes[contentIndex] = (byte) ('O' as char)
+
+        when:
+        unpack new ByteArrayInputStream(bytes), prop(FILE, targetOutputFile)
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached entry format error, checksum mismatch."
+    }
+
+    def "can unpack entries without recorded hashes"() {
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        def tarOutput = new TarArchiveOutputStream(output)
+        ["METADATA": "", "tree-test": "output"].each { path, content ->
+            def entry = new TarArchiveEntry(path, true)
+            entry.size = content.bytes.length
+            entry.mode = 0100644
+            tarOutput.putArchiveEntry(entry)
+            tarOutput.write(content.bytes)
+            tarOutput.closeArchiveEntry()
+        }
+        tarOutput.close()
+
+        when:
+        def result = unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, targetOutputFile)
+
+        then:
+        targetOutputFile.text == "output"
+        (result.snapshots["test"] as RegularFileSnapshot).hash == streamHasher.hash(new ByteArrayInputStream("output".bytes))
+    }
+
+    def "does not pack file that has changed since its snapshot was taken"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        FileSystemSnapshot snapshot = null
+        fileSystemAccess.read(sourceOutputFile.absolutePath) { snapshot = it }
+        sourceOutputFile.text = "change"
+
+        when:
+        packer.pack(entity(prop(FILE, sourceOutputFile)), [test: snapshot], new ByteArrayOutputStream(), writeOrigin)
+
+        then:
+        def ex = thrown RuntimeException
+        ex.message == "Could not pack tree 'test': File '${sourceOutputFile}' has changed since its snapshot was taken."
+    }
+
+    def "does not unpack entries of unsupported format version"() {
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        def tarOutput = new TarArchiveOutputStream(output)
+        ["METADATA": new byte[0], "FORMAT-VERSION": Ints.toByteArray(3), "tree-test": "output".bytes].each { path, content ->
+            def entry = new TarArchiveEntry(path, true)
+            entry.size = content.length
+            entry.mode = 0100644
+            tarOutput.putArchiveEntry(entry)
+            tarOutput.write(content)
+            tarOutput.closeArchiveEntry()
+        }
+        tarOutput.close()
+
+        when:
+        unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, targetOutputFile)
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached entry format error, unsupported format version: 3"
+    }
+
+    def "can unpack directly from file channel"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def largeContent = new byte[1024 * 1024 + 123]
+        new Random(1234L).nextBytes(largeContent)
+        sourceOutputDir.file("large.bin").bytes = largeContent
+        sourceOutputDir.file("subdir/small.txt").text = "small"
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def archive = temporaryFolder.file("archive.tar")
+        archive.withOutputStream { output ->
+            output.write("header".bytes)
+            pack output, prop(DIRECTORY, sourceOutputDir)
+        }
+
+        when:
+        def result = new FileInputStream(archive).withCloseable { input ->
+            unpack new FileChannelInputStream(input.channel, "header".length()), prop(DIRECTORY, targetOutputDir)
+        }
+
+        then:
+        targetOutputDir.file("large.bin").bytes == largeContent
+        targetOutputDir.file("subdir/small.txt").text == "small"
+        result.entries == 5
+    }
+
+    def "writes files concurrently when unpacking directory trees"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        100.times {
+            sourceOutputDir.file("dir${it % 10}/file${it}.txt").text = "content $it"
+        }
+        def largeContent = new byte[1024 * 1024 + 123]
+        new Random(1234L).nextBytes(largeContent)
+        sourceOutputDir.file("large.bin").bytes = largeContent
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def output = new ByteArrayOutputStream()
+        def packResult = pack output, prop(DIRECTORY, sourceOutputDir)
+        def executor = Executors.newFixedThreadPool(4)
+        packer = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, executor)
+
+        when:
+        def result = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        100.times {
+            assert targetOutputDir.file("dir${it % 10}/file${it}.txt").text == "content $it"
+        }
+        targetOutputDir.file("large.bin").bytes == largeContent
+        result.entries == packResult.entries
+        def unpackedSnapshot = result.snapshots["test"]
+        TestFiles.fileSystemAccess().read(targetOutputDir.absolutePath) { snapshot ->
+            assert snapshot.hash == unpackedSnapshot.hash
+        }
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "detects corrupted content when unpacking from file channel"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        pack output, prop(FILE, sourceOutputFile)
+        def bytes = output.toByteArray()
+        def contentIndex = Collections.indexOfSubList(bytes as List, "output".bytes as List)
+        bytes[contentIndex] = (byte) ('O' as char)
+        def archive = temporaryFolder.file("archive.tar")
+        archive.bytes = bytes
+
+        when:
+        new FileInputStream(archive).withCloseable { input ->
+            unpack new FileChannelInputStream(input.channel, 0), prop(FILE, targetOutputFile)
+        }
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached entry format error, checksum mismatch."
+    }
 }
@@ -8,6 +8,7 @@ dependencies {
     api(project(":snapshots"))
 
     implementation(project(":base-services"))
+    implementation(project(":build-cache-packaging"))
     implementation(project(":core-api"))
     implementation(project(":files"))
     implementation(project(":file-temp"))
@@ -19,6 +20,7 @@ dependencies {
     implementation(libs.slf4jApi)
     implementation(libs.guava)
     implementation(libs.inject)
+    implementation(libs.commonsCompress)
 
     jmhImplementation(platform(project(":distributions-dependencies")))
     jmhImplementation(libs.ant)
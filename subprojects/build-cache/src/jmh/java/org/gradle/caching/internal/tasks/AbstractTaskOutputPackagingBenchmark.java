@@ -35,6 +35,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Fork(1)
 @Warmup(iterations = 3)
@@ -42,6 +44,11 @@
 @State(Scope.Benchmark)
 public abstract class AbstractTaskOutputPackagingBenchmark {
     private static final DefaultDirectoryProvider DIRECTORY_PROVIDER = new DefaultDirectoryProvider();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "packing");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private static final Map<String, Packer> PACKERS = ImmutableMap.<String, Packer>builder()
         .put("tar.snappy", new SnappyPacker(new AntTarPacker(4)))
@@ -55,6 +62,8 @@ public abstract class AbstractTaskOutputPackagingBenchmark {
         .put("tar.small", new AntTarPacker(2))
         .put("tar.large", new AntTarPacker(64))
         .put("tar.gz", new GzipPacker(new AntTarPacker(4)))
+        .put("tar.gz.parallel", new ParallelGzipPacker(new AntTarPacker(4), EXECUTOR))
+        .put("tar.gz.parallel.single", new ParallelGzipPacker(new AntTarPacker(4), Runnable::run))
         .put("zip", new ZipPacker(4))
         .build();
 
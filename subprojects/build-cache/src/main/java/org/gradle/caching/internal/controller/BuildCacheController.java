@@ -16,9 +16,11 @@
 
 package org.gradle.caching.internal.controller;
 
+import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.Optional;
 
 /**
@@ -36,4 +38,9 @@ public interface BuildCacheController extends Closeable {
 
     void store(BuildCacheStoreCommand command);
 
+    /**
+     * Hints that entries for the given keys are likely to be loaded soon, so they can be fetched from the remote cache ahead of time.
+     */
+    void prefetch(Collection<BuildCacheKey> keys);
+
 }
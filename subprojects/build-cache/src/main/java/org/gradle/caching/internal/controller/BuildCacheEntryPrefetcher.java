@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.api.internal.file.temp.TemporaryFileProvider;
+import org.gradle.caching.BatchingBuildCacheService;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.LoadTarget;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Downloads entries from the remote build cache before they are requested.
+ *
+ * Asks the remote cache which of the prefetched keys it contains, and starts downloading the hits in the background.
+ * Keys requested while a query is in flight are collected and checked together with the next query, so work items
+ * that resolve their cache keys at the same time share a single request.
+ * When the remote cache does not support batched queries, nothing is prefetched and entries are loaded one by one as before.
+ */
+class BuildCacheEntryPrefetcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheEntryPrefetcher.class);
+    private static final int CONCURRENT_DOWNLOADS = 4;
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final BuildCacheServiceHandle remote;
+    private final BatchingBuildCacheService service;
+    private final TemporaryFileProvider temporaryFileProvider;
+    private final ManagedExecutor executor;
+    private final ConcurrentMap<String, CompletableFuture<PrefetchedEntry>> entries = new ConcurrentHashMap<>();
+    /**
+     * The entries that have not been checked yet.
+     */
+    private final Map<BuildCacheKey, CompletableFuture<PrefetchedEntry>> pending = new LinkedHashMap<>();
+    private boolean queryScheduled;
+    private volatile boolean unsupported;
+
+    BuildCacheEntryPrefetcher(BuildCacheServiceHandle remote, BatchingBuildCacheService service, TemporaryFileProvider temporaryFileProvider, ExecutorFactory executorFactory) {
+        this.remote = remote;
+        this.service = service;
+        this.temporaryFileProvider = temporaryFileProvider;
+        this.executor = executorFactory.create("Build cache prefetching", CONCURRENT_DOWNLOADS);
+    }
+
+    public void prefetch(Collection<BuildCacheKey> keys) {
+        if (unsupported || !remote.canLoad()) {
+            return;
+        }
+        synchronized (pending) {
+            for (BuildCacheKey key : keys) {
+                CompletableFuture<PrefetchedEntry> future = new CompletableFuture<>();
+                if (entries.putIfAbsent(key.getHashCode(), future) == null) {
+                    pending.put(key, future);
+                }
+            }
+            if (!pending.isEmpty() && !queryScheduled) {
+                queryScheduled = true;
+                executor.execute(this::queryPending);
+            }
+        }
+    }
+
+    private void queryPending() {
+        while (true) {
+            Map<BuildCacheKey, CompletableFuture<PrefetchedEntry>> batch = new LinkedHashMap<>();
+            synchronized (pending) {
+                Iterator<Map.Entry<BuildCacheKey, CompletableFuture<PrefetchedEntry>>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                    Map.Entry<BuildCacheKey, CompletableFuture<PrefetchedEntry>> entry = iterator.next();
+                    iterator.remove();
+                    // Skip entries that have been discarded in the meantime
+                    if (!entry.getValue().isDone()) {
+                        batch.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (batch.isEmpty()) {
+                    queryScheduled = false;
+                    return;
+                }
+            }
+            query(batch);
+        }
+    }
+
+    private void query(Map<BuildCacheKey, CompletableFuture<PrefetchedEntry>> batch) {
+        Set<BuildCacheKey> hits;
+        try {
+            hits = unsupported ? null : service.contains(batch.keySet());
+            if (hits == null) {
+                unsupported = true;
+            }
+        } catch (Exception e) {
+            // Load the entries of this batch one by one, and try again with the next batch
+            LOGGER.debug("Could not query remote build cache for {} entries", batch.size(), e);
+            hits = null;
+        }
+        if (hits == null) {
+            batch.values().forEach(future -> future.complete(PrefetchedEntry.UNKNOWN));
+            return;
+        }
+        for (Map.Entry<BuildCacheKey, CompletableFuture<PrefetchedEntry>> entry : batch.entrySet()) {
+            BuildCacheKey key = entry.getKey();
+            CompletableFuture<PrefetchedEntry> future = entry.getValue();
+            if (hits.contains(key)) {
+                executor.execute(() -> {
+                    try {
+                        if (!future.isDone()) {
+                            PrefetchedEntry downloaded = download(key);
+                            if (!future.complete(downloaded)) {
+                                downloaded.discard();
+                            }
+                        }
+                    } finally {
+                        // Make sure nobody waits for an entry that failed to download
+                        future.complete(PrefetchedEntry.UNKNOWN);
+                    }
+                });
+            } else {
+                future.complete(PrefetchedEntry.MISS);
+            }
+        }
+    }
+
+    private PrefetchedEntry download(BuildCacheKey key) {
+        File file;
+        try {
+            file = temporaryFileProvider.createTemporaryFile("build-cache-prefetch-", ".bin");
+        } catch (Exception e) {
+            return PrefetchedEntry.UNKNOWN;
+        }
+        LoadTarget loadTarget = new LoadTarget(file);
+        remote.load(key, loadTarget);
+        if (loadTarget.isLoaded()) {
+            return new PrefetchedEntry(file);
+        }
+        // The entry may have been evicted in the meantime, or the download failed
+        GFileUtils.deleteQuietly(file);
+        return PrefetchedEntry.UNKNOWN;
+    }
+
+    /**
+     * Takes the prefetched entry for the given key, waiting for it to be downloaded if necessary.
+     *
+     * The caller is responsible for discarding the returned entry.
+     */
+    public PrefetchedEntry take(BuildCacheKey key) {
+        CompletableFuture<PrefetchedEntry> future = entries.remove(key.getHashCode());
+        return future == null
+            ? PrefetchedEntry.UNKNOWN
+            : future.join();
+    }
+
+    /**
+     * Discards the prefetched entry for the given key, if any, without waiting for it to be downloaded.
+     */
+    public void discard(BuildCacheKey key) {
+        CompletableFuture<PrefetchedEntry> future = entries.remove(key.getHashCode());
+        if (future != null) {
+            future.complete(PrefetchedEntry.UNKNOWN);
+            future.thenAccept(PrefetchedEntry::discard);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.stop();
+        entries.values().forEach(future -> future.thenAccept(PrefetchedEntry::discard));
+        entries.clear();
+    }
+
+    static class PrefetchedEntry {
+        static final PrefetchedEntry UNKNOWN = new PrefetchedEntry(null);
+        static final PrefetchedEntry MISS = new PrefetchedEntry(null);
+
+        private final File file;
+
+        private PrefetchedEntry(@Nullable File file) {
+            this.file = file;
+        }
+
+        /**
+         * The downloaded entry, or {@code null} if the entry was not downloaded.
+         */
+        @Nullable
+        File getFile() {
+            return file;
+        }
+
+        boolean isMiss() {
+            return this == MISS;
+        }
+
+        void discard() {
+            if (file != null) {
+                GFileUtils.deleteQuietly(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import java.util.Map;
+
+/**
+ * Statistics about the use of the build cache during a build.
+ */
+public interface BuildCacheStatistics {
+    int getLocalHits();
+    int getLocalMisses();
+
+    int getRemoteHits();
+    int getRemoteMisses();
+
+    long getRemoteBytesDownloaded();
+    long getRemoteBytesUploaded();
+
+    Latency getRemoteLoadLatency();
+    Latency getRemoteStoreLatency();
+
+    /**
+     * Time spent packing and unpacking entries, by the type of work the entries belong to.
+     */
+    Map<String, PackingTime> getPackingTimeByType();
+
+    interface Latency {
+        int getRequests();
+        long getMedianMillis();
+        long get90thPercentileMillis();
+        long get99thPercentileMillis();
+        long getMaxMillis();
+    }
+
+    interface PackingTime {
+        int getPacked();
+        long getPackMillis();
+
+        int getUnpacked();
+        long getUnpackMillis();
+    }
+}
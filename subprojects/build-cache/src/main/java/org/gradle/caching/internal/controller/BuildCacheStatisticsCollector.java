@@ -0,0 +1,296 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates {@link BuildCacheStatistics} from the build cache operations of a build.
+ *
+ * Can be used from multiple threads at the same time.
+ */
+public class BuildCacheStatisticsCollector {
+
+    private final AtomicInteger localHits = new AtomicInteger();
+    private final AtomicInteger localMisses = new AtomicInteger();
+    private final AtomicInteger remoteHits = new AtomicInteger();
+    private final AtomicInteger remoteMisses = new AtomicInteger();
+    private final AtomicLong remoteBytesDownloaded = new AtomicLong();
+    private final AtomicLong remoteBytesUploaded = new AtomicLong();
+    private final LatencyRecorder remoteLoadLatency = new LatencyRecorder();
+    private final LatencyRecorder remoteStoreLatency = new LatencyRecorder();
+    private final ConcurrentMap<String, PackingTimeRecorder> packingTimeByType = new ConcurrentHashMap<>();
+
+    public void recordLocalLoad(boolean hit) {
+        (hit ? localHits : localMisses).incrementAndGet();
+    }
+
+    public void recordRemoteLoad(boolean hit) {
+        (hit ? remoteHits : remoteMisses).incrementAndGet();
+    }
+
+    public void recordRemoteLoadRequest(long durationNanos, long bytesDownloaded) {
+        remoteLoadLatency.record(durationNanos);
+        remoteBytesDownloaded.addAndGet(bytesDownloaded);
+    }
+
+    public void recordRemoteStoreRequest(long durationNanos, long bytesUploaded) {
+        remoteStoreLatency.record(durationNanos);
+        remoteBytesUploaded.addAndGet(bytesUploaded);
+    }
+
+    public void recordPack(String type, long durationNanos) {
+        packingTimeFor(type).record(durationNanos, true);
+    }
+
+    public void recordUnpack(String type, long durationNanos) {
+        packingTimeFor(type).record(durationNanos, false);
+    }
+
+    private PackingTimeRecorder packingTimeFor(String type) {
+        return packingTimeByType.computeIfAbsent(type, key -> new PackingTimeRecorder());
+    }
+
+    public BuildCacheStatistics getStatistics() {
+        ImmutableSortedMap.Builder<String, BuildCacheStatistics.PackingTime> packingTime = ImmutableSortedMap.naturalOrder();
+        packingTimeByType.forEach((type, recorder) -> packingTime.put(type, recorder.snapshot()));
+        return new DefaultBuildCacheStatistics(
+            localHits.get(),
+            localMisses.get(),
+            remoteHits.get(),
+            remoteMisses.get(),
+            remoteBytesDownloaded.get(),
+            remoteBytesUploaded.get(),
+            remoteLoadLatency.snapshot(),
+            remoteStoreLatency.snapshot(),
+            packingTime.build()
+        );
+    }
+
+    /**
+     * Keeps all recorded durations, so that exact percentiles can be reported.
+     * A build performs at most a few thousand requests, so this stays small.
+     */
+    private static class LatencyRecorder {
+        private long[] durations = new long[64];
+        private int count;
+
+        synchronized void record(long durationNanos) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = durationNanos;
+        }
+
+        synchronized BuildCacheStatistics.Latency snapshot() {
+            long[] sorted = Arrays.copyOf(durations, count);
+            Arrays.sort(sorted);
+            return new DefaultLatency(count, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1));
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+        }
+    }
+
+    private static class PackingTimeRecorder {
+        private final AtomicInteger packed = new AtomicInteger();
+        private final AtomicLong packNanos = new AtomicLong();
+        private final AtomicInteger unpacked = new AtomicInteger();
+        private final AtomicLong unpackNanos = new AtomicLong();
+
+        void record(long durationNanos, boolean pack) {
+            if (pack) {
+                packed.incrementAndGet();
+                packNanos.addAndGet(durationNanos);
+            } else {
+                unpacked.incrementAndGet();
+                unpackNanos.addAndGet(durationNanos);
+            }
+        }
+
+        BuildCacheStatistics.PackingTime snapshot() {
+            return new DefaultPackingTime(packed.get(), TimeUnit.NANOSECONDS.toMillis(packNanos.get()), unpacked.get(), TimeUnit.NANOSECONDS.toMillis(unpackNanos.get()));
+        }
+    }
+
+    private static class DefaultBuildCacheStatistics implements BuildCacheStatistics {
+        private final int localHits;
+        private final int localMisses;
+        private final int remoteHits;
+        private final int remoteMisses;
+        private final long remoteBytesDownloaded;
+        private final long remoteBytesUploaded;
+        private final Latency remoteLoadLatency;
+        private final Latency remoteStoreLatency;
+        private final Map<String, PackingTime> packingTimeByType;
+
+        DefaultBuildCacheStatistics(
+            int localHits,
+            int localMisses,
+            int remoteHits,
+            int remoteMisses,
+            long remoteBytesDownloaded,
+            long remoteBytesUploaded,
+            Latency remoteLoadLatency,
+            Latency remoteStoreLatency,
+            Map<String, PackingTime> packingTimeByType
+        ) {
+            this.localHits = localHits;
+            this.localMisses = localMisses;
+            this.remoteHits = remoteHits;
+            this.remoteMisses = remoteMisses;
+            this.remoteBytesDownloaded = remoteBytesDownloaded;
+            this.remoteBytesUploaded = remoteBytesUploaded;
+            this.remoteLoadLatency = remoteLoadLatency;
+            this.remoteStoreLatency = remoteStoreLatency;
+            this.packingTimeByType = packingTimeByType;
+        }
+
+        @Override
+        public int getLocalHits() {
+            return localHits;
+        }
+
+        @Override
+        public int getLocalMisses() {
+            return localMisses;
+        }
+
+        @Override
+        public int getRemoteHits() {
+            return remoteHits;
+        }
+
+        @Override
+        public int getRemoteMisses() {
+            return remoteMisses;
+        }
+
+        @Override
+        public long getRemoteBytesDownloaded() {
+            return remoteBytesDownloaded;
+        }
+
+        @Override
+        public long getRemoteBytesUploaded() {
+            return remoteBytesUploaded;
+        }
+
+        @Override
+        public Latency getRemoteLoadLatency() {
+            return remoteLoadLatency;
+        }
+
+        @Override
+        public Latency getRemoteStoreLatency() {
+            return remoteStoreLatency;
+        }
+
+        @Override
+        public Map<String, PackingTime> getPackingTimeByType() {
+            return packingTimeByType;
+        }
+    }
+
+    private static class DefaultLatency implements BuildCacheStatistics.Latency {
+        private final int requests;
+        private final long medianMillis;
+        private final long percentile90Millis;
+        private final long percentile99Millis;
+        private final long maxMillis;
+
+        DefaultLatency(int requests, long medianMillis, long percentile90Millis, long percentile99Millis, long maxMillis) {
+            this.requests = requests;
+            this.medianMillis = medianMillis;
+            this.percentile90Millis = percentile90Millis;
+            this.percentile99Millis = percentile99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        public int getRequests() {
+            return requests;
+        }
+
+        @Override
+        public long getMedianMillis() {
+            return medianMillis;
+        }
+
+        @Override
+        public long get90thPercentileMillis() {
+            return percentile90Millis;
+        }
+
+        @Override
+        public long get99thPercentileMillis() {
+            return percentile99Millis;
+        }
+
+        @Override
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    private static class DefaultPackingTime implements BuildCacheStatistics.PackingTime {
+        private final int packed;
+        private final long packMillis;
+        private final int unpacked;
+        private final long unpackMillis;
+
+        DefaultPackingTime(int packed, long packMillis, int unpacked, long unpackMillis) {
+            this.packed = packed;
+            this.packMillis = packMillis;
+            this.unpacked = unpacked;
+            this.unpackMillis = unpackMillis;
+        }
+
+        @Override
+        public int getPacked() {
+            return packed;
+        }
+
+        @Override
+        public long getPackMillis() {
+            return packMillis;
+        }
+
+        @Override
+        public int getUnpacked() {
+            return unpacked;
+        }
+
+        @Override
+        public long getUnpackMillis() {
+            return unpackMillis;
+        }
+    }
+}
@@ -18,6 +18,8 @@
 
 import org.gradle.caching.BuildCacheKey;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -25,6 +27,12 @@ public interface BuildCacheStoreCommand {
 
     BuildCacheKey getKey();
 
+    /**
+     * The type of the entity the artifact belongs to, used to break down build cache statistics.
+     */
+    @Nullable
+    Class<?> getEntityType();
+
     /**
      * Called at-most-once to initiate writing the artifact to the output stream.
      *
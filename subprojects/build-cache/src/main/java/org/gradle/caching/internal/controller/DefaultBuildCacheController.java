@@ -20,13 +20,20 @@
 import com.google.common.io.Closer;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
+import org.gradle.api.UncheckedIOException;
 import org.gradle.api.internal.file.temp.TemporaryFileProvider;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.caching.BatchingBuildCacheService;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.internal.controller.operations.PackOperationDetails;
 import org.gradle.caching.internal.controller.operations.PackOperationResult;
+import org.gradle.caching.internal.controller.operations.StatisticsOperationDetails;
+import org.gradle.caching.internal.controller.operations.StatisticsOperationResult;
 import org.gradle.caching.internal.controller.operations.UnpackOperationDetails;
 import org.gradle.caching.internal.controller.operations.UnpackOperationResult;
+import org.gradle.caching.internal.controller.service.AsyncStoreBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
@@ -40,6 +47,7 @@
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -51,10 +59,16 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 public class DefaultBuildCacheController implements BuildCacheController {
 
+    private static final Logger LOGGER = Logging.getLogger(DefaultBuildCacheController.class);
+
     @VisibleForTesting
     final BuildCacheServiceHandle remote;
 
@@ -62,8 +76,12 @@ public class DefaultBuildCacheController implements BuildCacheController {
     final LocalBuildCacheServiceHandle local;
 
     private final BuildCacheTempFileStore tmp;
+    @Nullable
+    private final BuildCacheEntryPrefetcher prefetcher;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
+    private final BuildCacheStatisticsCollector statistics = new BuildCacheStatisticsCollector();
+    private final boolean reportStatistics;
 
     private boolean closed;
 
@@ -74,12 +92,38 @@ public DefaultBuildCacheController(
         boolean logStackTraces,
         boolean emitDebugLogging,
         boolean disableRemoteOnError
+    ) {
+        this(config, buildOperationExecutor, temporaryFileProvider, logStackTraces, emitDebugLogging, disableRemoteOnError, null, 0, false);
+    }
+
+    /**
+     * When {@code remoteStoreConcurrency} is positive, entries are stored in the remote cache in the background, using at most that many threads.
+     * The statistics about the use of the build cache are reported by a {@link org.gradle.caching.internal.operations.BuildCacheStatisticsBuildOperationType} build operation when the controller is closed.
+     * When {@code reportStatistics} is set, a summary of them is logged as well.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        TemporaryFileProvider temporaryFileProvider,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean disableRemoteOnError,
+        @Nullable ExecutorFactory executorFactory,
+        int remoteStoreConcurrency,
+        boolean reportStatistics
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
         this.emitDebugLogging = emitDebugLogging;
+        this.reportStatistics = reportStatistics;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
-        this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError);
+        BuildCacheServiceHandle remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError, statistics);
+        this.remote = remote.canStore() && executorFactory != null && remoteStoreConcurrency > 0
+            ? new AsyncStoreBuildCacheServiceHandle(remote, temporaryFileProvider, executorFactory, remoteStoreConcurrency)
+            : remote;
         this.tmp = toTempFileStore(config.getLocal(), temporaryFileProvider);
+        this.prefetcher = remote.getService() instanceof BatchingBuildCacheService && executorFactory != null
+            ? new BuildCacheEntryPrefetcher(remote, (BatchingBuildCacheService) remote.getService(), temporaryFileProvider, executorFactory)
+            : null;
     }
 
     @Override
@@ -98,32 +142,42 @@ public <T> Optional<T> load(BuildCacheLoadCommand<T> command) {
 
         if (local.canLoad()) {
             try {
-                local.load(command.getKey(), unpack);
+                local.read(command.getKey(), unpack);
             } catch (Exception e) {
                 throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from local build cache is invalid", e);
             }
 
+            statistics.recordLocalLoad(unpack.result != null);
             if (unpack.result != null) {
+                if (prefetcher != null) {
+                    prefetcher.discard(command.getKey());
+                }
                 return Optional.of(unpack.result.getMetadata());
             }
         }
 
         if (remote.canLoad()) {
-            tmp.withTempFile(command.getKey(), file -> {
-                LoadTarget loadTarget = new LoadTarget(file);
-                remote.load(command.getKey(), loadTarget);
-
-                if (loadTarget.isLoaded()) {
-                    try {
-                        unpack.execute(file);
-                    } catch (Exception e) {
-                        throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from remote build cache is invalid", e);
-                    }
-                    if (local.canStore()) {
-                        local.store(command.getKey(), file);
-                    }
+            BuildCacheEntryPrefetcher.PrefetchedEntry prefetched = prefetcher == null
+                ? BuildCacheEntryPrefetcher.PrefetchedEntry.UNKNOWN
+                : prefetcher.take(command.getKey());
+            try {
+                File prefetchedFile = prefetched.getFile();
+                if (prefetchedFile != null) {
+                    unpackRemote(command.getKey(), unpack, prefetchedFile);
+                } else if (!prefetched.isMiss()) {
+                    tmp.withTempFile(command.getKey(), file -> {
+                        LoadTarget loadTarget = new LoadTarget(file);
+                        remote.load(command.getKey(), loadTarget);
+
+                        if (loadTarget.isLoaded()) {
+                            unpackRemote(command.getKey(), unpack, file);
+                        }
+                    });
                 }
-            });
+            } finally {
+                prefetched.discard();
+            }
+            statistics.recordRemoteLoad(unpack.result != null);
         }
 
         BuildCacheLoadCommand.Result<T> result = unpack.result;
@@ -132,7 +186,18 @@ public <T> Optional<T> load(BuildCacheLoadCommand<T> command) {
             : Optional.of(result.getMetadata());
     }
 
-    private class Unpack<T> implements Action<File> {
+    private void unpackRemote(BuildCacheKey key, Unpack<?> unpack, File file) {
+        try {
+            unpack.execute(file);
+        } catch (Exception e) {
+            throw new GradleException("Build cache entry " + key.getHashCode() + " from remote build cache is invalid", e);
+        }
+        if (local.canStore()) {
+            local.store(key, file);
+        }
+    }
+
+    private class Unpack<T> implements Action<File>, LocalBuildCacheService.EntryReader {
         private final BuildCacheLoadCommand<T> command;
 
         private BuildCacheLoadCommand.Result<T> result;
@@ -143,21 +208,30 @@ private Unpack(BuildCacheLoadCommand<T> command) {
 
         @Override
         public void execute(File file) {
+            try (InputStream input = new FileInputStream(file)) {
+                readFrom(input, file.length());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void readFrom(InputStream input, long size) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) throws IOException {
-                    try (InputStream input = new FileInputStream(file)) {
-                        result = command.load(input);
-                        context.setResult(new UnpackOperationResult(
-                            result.getArtifactEntryCount()
-                        ));
-                    }
+                    long start = System.nanoTime();
+                    result = command.load(input);
+                    statistics.recordUnpack(typeName(command.getEntityType()), System.nanoTime() - start);
+                    context.setResult(new UnpackOperationResult(
+                        result.getArtifactEntryCount()
+                    ));
                 }
 
                 @Override
                 public BuildOperationDescriptor.Builder description() {
                     return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey().getHashCode())
-                        .details(new UnpackOperationDetails(command.getKey(), file.length()))
+                        .details(new UnpackOperationDetails(command.getKey(), size))
                         .progressDisplayName("Unpacking build cache entry");
                 }
             });
@@ -199,8 +273,10 @@ public void execute(final File file) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) throws IOException {
+                    long start = System.nanoTime();
                     try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
                         BuildCacheStoreCommand.Result result = command.store(fileOutputStream);
+                        statistics.recordPack(typeName(command.getEntityType()), System.nanoTime() - start);
                         context.setResult(new PackOperationResult(
                             result.getArtifactEntryCount(),
                             file.length()
@@ -218,6 +294,26 @@ public BuildOperationDescriptor.Builder description() {
         }
     }
 
+    @Override
+    public void prefetch(Collection<BuildCacheKey> keys) {
+        if (prefetcher != null) {
+            // Entries in the local cache are loaded from there, so don't download them again
+            prefetcher.prefetch(local.canLoad()
+                ? keys.stream().filter(key -> !isInLocalCache(key)).collect(Collectors.toList())
+                : keys);
+        }
+    }
+
+    private boolean isInLocalCache(BuildCacheKey key) {
+        AtomicBoolean found = new AtomicBoolean();
+        try {
+            local.read(key, (input, size) -> found.set(true));
+        } catch (Exception e) {
+            LOGGER.debug("Could not check local build cache for entry {}", key.getHashCode(), e);
+        }
+        return found.get();
+    }
+
     @Override
     public void close() throws IOException {
         if (!closed) {
@@ -225,14 +321,65 @@ public void close() throws IOException {
             Closer closer = Closer.create();
             closer.register(local);
             closer.register(remote);
+            if (prefetcher != null) {
+                closer.register(prefetcher);
+            }
             closer.close();
+            // Pending remote stores have finished now, so the statistics are complete
+            reportStatistics(statistics.getStatistics());
+        }
+    }
+
+    private void reportStatistics(BuildCacheStatistics statistics) {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                context.setResult(new StatisticsOperationResult(statistics));
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Report build cache statistics")
+                    .details(StatisticsOperationDetails.INSTANCE);
+            }
+        });
+        if (reportStatistics) {
+            logStatistics(statistics);
+        }
+    }
+
+    private static void logStatistics(BuildCacheStatistics statistics) {
+        StringBuilder summary = new StringBuilder("Build cache statistics:");
+        summary.append(String.format("%n  Local: %d hits, %d misses", statistics.getLocalHits(), statistics.getLocalMisses()));
+        summary.append(String.format("%n  Remote: %d hits, %d misses, %d bytes downloaded, %d bytes uploaded",
+            statistics.getRemoteHits(), statistics.getRemoteMisses(), statistics.getRemoteBytesDownloaded(), statistics.getRemoteBytesUploaded()));
+        appendLatency(summary, "Remote load latency", statistics.getRemoteLoadLatency());
+        appendLatency(summary, "Remote store latency", statistics.getRemoteStoreLatency());
+        for (Map.Entry<String, BuildCacheStatistics.PackingTime> entry : statistics.getPackingTimeByType().entrySet()) {
+            BuildCacheStatistics.PackingTime packingTime = entry.getValue();
+            summary.append(String.format("%n  %s: packed %d entries in %d ms, unpacked %d entries in %d ms",
+                entry.getKey(), packingTime.getPacked(), packingTime.getPackMillis(), packingTime.getUnpacked(), packingTime.getUnpackMillis()));
+        }
+        LOGGER.lifecycle(summary.toString());
+    }
+
+    private static void appendLatency(StringBuilder summary, String name, BuildCacheStatistics.Latency latency) {
+        if (latency.getRequests() > 0) {
+            summary.append(String.format("%n  %s: %d requests, median %d ms, p90 %d ms, p99 %d ms, max %d ms",
+                name, latency.getRequests(), latency.getMedianMillis(), latency.get90thPercentileMillis(), latency.get99thPercentileMillis(), latency.getMaxMillis()));
         }
     }
 
-    private static BuildCacheServiceHandle toRemoteHandle(@Nullable BuildCacheService service, boolean push, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, boolean disableOnError) {
+    private static String typeName(@Nullable Class<?> type) {
+        return type == null ? "unknown" : type.getSimpleName();
+    }
+
+    private static BuildCacheServiceHandle toRemoteHandle(@Nullable BuildCacheService service, boolean push, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, boolean disableOnError, BuildCacheStatisticsCollector statistics) {
         return service == null
             ? NullBuildCacheServiceHandle.INSTANCE
-            : new OpFiringBuildCacheServiceHandle(service, push, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces, disableOnError);
+            : new StatisticsCollectingBuildCacheServiceHandle(
+                new OpFiringBuildCacheServiceHandle(service, push, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces, disableOnError),
+                statistics);
     }
 
     private static LocalBuildCacheServiceHandle toLocalHandle(@Nullable LocalBuildCacheService local, boolean localPush) {
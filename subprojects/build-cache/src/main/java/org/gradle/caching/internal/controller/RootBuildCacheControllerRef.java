@@ -16,6 +16,9 @@
 
 package org.gradle.caching.internal.controller;
 
+import org.gradle.caching.BuildCacheKey;
+
+import java.util.Collection;
 import java.util.Optional;
 
 public class RootBuildCacheControllerRef {
@@ -68,6 +71,11 @@ public void store(BuildCacheStoreCommand command) {
             delegate.store(command);
         }
 
+        @Override
+        public void prefetch(Collection<BuildCacheKey> keys) {
+            delegate.prefetch(keys);
+        }
+
         @Override
         public void close() {
         }
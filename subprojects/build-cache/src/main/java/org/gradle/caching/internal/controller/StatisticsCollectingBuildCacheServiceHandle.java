@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.LoadTarget;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records the latency of the requests to the remote build cache, and the amount of data transferred.
+ */
+class StatisticsCollectingBuildCacheServiceHandle implements BuildCacheServiceHandle {
+
+    private final BuildCacheServiceHandle delegate;
+    private final BuildCacheStatisticsCollector statistics;
+
+    StatisticsCollectingBuildCacheServiceHandle(BuildCacheServiceHandle delegate, BuildCacheStatisticsCollector statistics) {
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Nullable
+    @Override
+    public BuildCacheService getService() {
+        return delegate.getService();
+    }
+
+    @Override
+    public boolean canLoad() {
+        return delegate.canLoad();
+    }
+
+    @Override
+    public void load(BuildCacheKey key, LoadTarget loadTarget) {
+        long start = System.nanoTime();
+        delegate.load(key, loadTarget);
+        statistics.recordRemoteLoadRequest(System.nanoTime() - start, loadTarget.isLoaded() ? loadTarget.getLoadedSize() : 0);
+    }
+
+    @Override
+    public boolean canStore() {
+        return delegate.canStore();
+    }
+
+    @Override
+    public void store(BuildCacheKey key, StoreTarget storeTarget) {
+        long start = System.nanoTime();
+        delegate.store(key, storeTarget);
+        statistics.recordRemoteStoreRequest(System.nanoTime() - start, storeTarget.isStored() ? storeTarget.getSize() : 0);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
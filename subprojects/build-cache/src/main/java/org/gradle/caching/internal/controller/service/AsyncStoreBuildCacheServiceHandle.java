@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service;
+
+import org.gradle.api.internal.file.temp.TemporaryFileProvider;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.BuildCacheService;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.operations.BuildOperationRef;
+import org.gradle.internal.operations.BuildOperationState;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Stores entries in the background, so that the worker thread that packed an entry can move on while the entry is being uploaded.
+ *
+ * At most {@code concurrency} entries are uploaded at the same time.
+ * When too many entries are waiting to be uploaded, storing another entry blocks until an upload finishes.
+ * Pending uploads are finished when the handle is closed.
+ * Each upload runs as a child of the build operation that stored the entry, so that the operations of the upload are attributed to it.
+ */
+public class AsyncStoreBuildCacheServiceHandle implements BuildCacheServiceHandle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncStoreBuildCacheServiceHandle.class);
+    private static final int PENDING_STORES_PER_UPLOAD = 8;
+
+    private final BuildCacheServiceHandle delegate;
+    private final TemporaryFileProvider temporaryFileProvider;
+    private final ManagedExecutor executor;
+    private final Semaphore pendingStores;
+    private final int maxPendingStores;
+
+    public AsyncStoreBuildCacheServiceHandle(BuildCacheServiceHandle delegate, TemporaryFileProvider temporaryFileProvider, ExecutorFactory executorFactory, int concurrency) {
+        this.delegate = delegate;
+        this.temporaryFileProvider = temporaryFileProvider;
+        this.executor = executorFactory.create("Build cache uploads", concurrency);
+        this.maxPendingStores = concurrency * PENDING_STORES_PER_UPLOAD;
+        this.pendingStores = new Semaphore(maxPendingStores);
+    }
+
+    @Nullable
+    @Override
+    public BuildCacheService getService() {
+        return delegate.getService();
+    }
+
+    @Override
+    public boolean canLoad() {
+        return delegate.canLoad();
+    }
+
+    @Override
+    public void load(BuildCacheKey key, LoadTarget loadTarget) {
+        delegate.load(key, loadTarget);
+    }
+
+    @Override
+    public boolean canStore() {
+        return delegate.canStore();
+    }
+
+    @Override
+    public void store(BuildCacheKey key, StoreTarget storeTarget) {
+        // The packed entry is deleted as soon as this method returns, so the upload needs its own copy
+        File upload;
+        try {
+            upload = copyForUpload(storeTarget.getFile());
+        } catch (IOException e) {
+            LOGGER.debug("Could not copy entry {} for uploading it in the background, storing it right away", key.getDisplayName(), e);
+            delegate.store(key, storeTarget);
+            return;
+        }
+
+        BuildOperationRef parentOperation = CurrentBuildOperationRef.instance().get();
+        acquirePendingStore(key);
+        try {
+            executor.execute(() -> {
+                CurrentBuildOperationRef.instance().set(continuationOf(parentOperation));
+                try {
+                    delegate.store(key, new StoreTarget(upload));
+                } finally {
+                    CurrentBuildOperationRef.instance().clear();
+                    GFileUtils.deleteQuietly(upload);
+                    pendingStores.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            GFileUtils.deleteQuietly(upload);
+            pendingStores.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns an operation to run the upload under, in place of the operation that stored the entry.
+     *
+     * The upload usually outlives the operation that stored the entry, while operations must not be started or finished after their parent has completed.
+     * So the upload runs under a continuation of that operation, which has the same identity and stays running until the upload is done.
+     */
+    @Nullable
+    private static BuildOperationRef continuationOf(@Nullable BuildOperationRef operation) {
+        if (!(operation instanceof BuildOperationState)) {
+            return operation;
+        }
+        BuildOperationState state = (BuildOperationState) operation;
+        BuildOperationState continuation = new BuildOperationState(state.getDescription(), state.getStartTime());
+        continuation.setRunning(true);
+        return continuation;
+    }
+
+    private File copyForUpload(File file) throws IOException {
+        File upload = temporaryFileProvider.createTemporaryFile("build-cache-upload-", ".bin");
+        try {
+            // Avoid copying the entry when it can be hard linked
+            Files.delete(upload.toPath());
+            Files.createLink(upload.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(file.toPath(), upload.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return upload;
+    }
+
+    private void acquirePendingStore(BuildCacheKey key) {
+        if (pendingStores.tryAcquire()) {
+            return;
+        }
+        LOGGER.debug("Waiting for pending uploads to remote build cache before storing entry {}", key.getDisplayName());
+        try {
+            pendingStores.acquire();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        int pending = maxPendingStores - pendingStores.availablePermits();
+        if (pending > 0) {
+            LOGGER.info("Waiting for {} pending uploads to remote build cache to finish.", pending);
+        }
+        try {
+            executor.stop();
+        } finally {
+            delegate.close();
+        }
+    }
+}
@@ -49,6 +49,11 @@ public void load(BuildCacheKey key, Action<? super File> reader) {
         service.loadLocally(key, reader);
     }
 
+    @Override
+    public void read(BuildCacheKey key, LocalBuildCacheService.EntryReader reader) {
+        service.readLocally(key, reader);
+    }
+
     @Override
     public boolean canStore() {
         return pushEnabled;
@@ -36,6 +36,8 @@ public interface LocalBuildCacheServiceHandle extends Closeable {
     // TODO: what if this errors?
     void load(BuildCacheKey key, Action<? super File> reader);
 
+    void read(BuildCacheKey key, LocalBuildCacheService.EntryReader reader);
+
     boolean canStore();
 
     // TODO: what if this errors?
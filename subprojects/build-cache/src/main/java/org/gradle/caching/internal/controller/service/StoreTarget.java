@@ -50,6 +50,10 @@ public void writeTo(OutputStream output) throws IOException {
         }
     }
 
+    public File getFile() {
+        return file;
+    }
+
     public boolean isStored() {
         return stored;
     }
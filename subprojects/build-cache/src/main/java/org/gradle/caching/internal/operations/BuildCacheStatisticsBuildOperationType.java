@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.operations;
+
+import org.gradle.caching.internal.controller.BuildCacheStatistics;
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * Reports the statistics about the use of the build cache during a build.
+ *
+ * Runs when the build cache controller is closed at the end of the build, after pending stores have finished.
+ */
+public final class BuildCacheStatisticsBuildOperationType implements BuildOperationType<BuildCacheStatisticsBuildOperationType.Details, BuildCacheStatisticsBuildOperationType.Result> {
+
+    public interface Details {
+    }
+
+    public interface Result {
+
+        BuildCacheStatistics getStatistics();
+
+    }
+
+    private BuildCacheStatisticsBuildOperationType() {
+    }
+}
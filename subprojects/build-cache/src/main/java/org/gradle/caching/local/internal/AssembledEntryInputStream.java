@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.gradle.caching.internal.packaging.impl.BuildCacheEntryCompression;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Reassembles the archive of a content-addressed build cache entry while it is being read.
+ *
+ * The content of blobs is read straight from the blob files, so the archive is never written to disk.
+ * Reassembled archives are only read once, so we don't spend time compressing them again.
+ */
+class AssembledEntryInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Iterator<ContentAddressedEntryManifest.Entry> entries;
+    private final File blobsDir;
+    private final Buffer buffer = new Buffer();
+    private final TarArchiveOutputStream tarOutput;
+    private final byte[] blobBuffer = new byte[BUFFER_SIZE];
+    @Nullable
+    private InputStream blobInput;
+    private boolean finished;
+    private int position;
+
+    AssembledEntryInputStream(ContentAddressedEntryManifest manifest, File blobsDir, String encoding) throws IOException {
+        this.entries = manifest.getEntries().iterator();
+        this.blobsDir = blobsDir;
+        CompressingBuildCacheEntryPacker.writeCompression(buffer, BuildCacheEntryCompression.NONE);
+        this.tarOutput = new TarArchiveOutputStream(buffer, encoding);
+        tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] singleByte = new byte[1];
+        int count = read(singleByte, 0, 1);
+        return count == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (position == buffer.size()) {
+            buffer.reset();
+            position = 0;
+            if (!assembleMore()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, buffer.size() - position);
+        System.arraycopy(buffer.bytes(), position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Writes the next piece of the archive to the buffer. Returns {@code false} when the archive is complete.
+     */
+    private boolean assembleMore() throws IOException {
+        if (blobInput != null) {
+            int count = blobInput.read(blobBuffer);
+            if (count == -1) {
+                closeBlob();
+                tarOutput.closeArchiveEntry();
+            } else {
+                tarOutput.write(blobBuffer, 0, count);
+            }
+            return true;
+        }
+        if (entries.hasNext()) {
+            ContentAddressedEntryManifest.Entry entry = entries.next();
+            TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getPath(), true);
+            tarEntry.setSize(entry.getSize());
+            tarEntry.setMode(entry.getMode());
+            tarOutput.putArchiveEntry(tarEntry);
+            switch (entry.getKind()) {
+                case DIRECTORY:
+                    tarOutput.closeArchiveEntry();
+                    break;
+                case INLINE:
+                    tarOutput.write(entry.getContent());
+                    tarOutput.closeArchiveEntry();
+                    break;
+                case BLOB:
+                    blobInput = new FileInputStream(ContentAddressedBuildCacheService.blobFile(blobsDir, entry.getBlobHash()));
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            return true;
+        }
+        if (!finished) {
+            finished = true;
+            tarOutput.close();
+            return true;
+        }
+        return false;
+    }
+
+    private void closeBlob() throws IOException {
+        InputStream input = blobInput;
+        blobInput = null;
+        input.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (blobInput != null) {
+            closeBlob();
+        }
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(BUFFER_SIZE);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
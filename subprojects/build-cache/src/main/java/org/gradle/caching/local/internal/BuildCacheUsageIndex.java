@@ -0,0 +1,533 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.internal.file.FileAccessTimeJournal;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent index of the size and last access time of the entries stored by a {@link DirectoryBuildCacheService},
+ * used to keep the build cache within a size budget.
+ *
+ * The index is a journal of records in the order the entries have been used, where later records for an entry supersede earlier ones.
+ * It starts with a checksummed header holding the total size of the indexed entries and the length of the journal it accounts for,
+ * so that recording a store or an access only appends a record and rewrites the header, without reading the journal.
+ * Records written after the last header update by an interrupted build are applied when the index is opened, and a partially written record is discarded.
+ *
+ * Evicting entries reads the journal once per process to know the least recently used entries, and only reads the records appended since afterwards.
+ * Evicted entries are recorded as removals, and the journal is compacted when it holds too many superseded records.
+ *
+ * Entries stored by Gradle versions that do not maintain the index are picked up when the index needs to be rebuilt.
+ * Must only be used while holding the file lock of the build cache.
+ */
+public class BuildCacheUsageIndex {
+
+    public static final String INDEX_FILE_NAME = "usage.bin";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheUsageIndex.class);
+
+    private static final int MAGIC = 0x47435549;
+    private static final int VERSION = 2;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int CHECKSUM_OFFSET = GENERATION_OFFSET + 4 + 8 + 4 + 4 + 8;
+    private static final int HEADER_SIZE = CHECKSUM_OFFSET + 4;
+    private static final int RECORD_SIZE_WITHOUT_KEY = 2 + 8 + 8 + 8;
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+    private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]+");
+
+    /**
+     * When the size budget is exceeded, entries are evicted until the cache is this fraction of the budget,
+     * so that eviction does not need to run again for every following entry.
+     */
+    private static final double EVICTION_TARGET_RATIO = 0.9;
+
+    private final File baseDir;
+    private final File indexFile;
+    private final long maxSize;
+    private final FileAccessTimeJournal fileAccessTimeJournal;
+
+    /**
+     * The indexed entries, least recently used first, as of {@link #loadedLength} of the journal with {@link #loadedGeneration}.
+     * Only loaded when entries need to be evicted.
+     */
+    @Nullable
+    private LinkedHashMap<String, Record> entries;
+    private int loadedGeneration;
+    private long loadedLength;
+
+    public BuildCacheUsageIndex(File baseDir, long maxSize, FileAccessTimeJournal fileAccessTimeJournal) {
+        this.baseDir = baseDir;
+        this.indexFile = new File(baseDir, INDEX_FILE_NAME);
+        this.maxSize = maxSize;
+        this.fileAccessTimeJournal = fileAccessTimeJournal;
+    }
+
+    /**
+     * Records that an entry has been stored, evicting the least recently used entries when the cache grows beyond its size budget.
+     *
+     * @param previousSize the size of the entry that has been replaced, or -1 if there was none.
+     */
+    public synchronized void recordStore(String key, long previousSize, long size) {
+        try (Journal journal = openJournal()) {
+            if (!journal.rebuilt) {
+                journal.append(Collections.singletonList(new Record(key, size, previousSize, System.currentTimeMillis())));
+            }
+            Header header = journal.header;
+            if (header.totalSize > maxSize) {
+                long targetSize = (long) (maxSize * EVICTION_TARGET_RATIO);
+                LOGGER.debug("Build cache in {} has grown to {} bytes, evicting entries down to {} bytes.", baseDir, header.totalSize, targetSize);
+                evict(journal, targetSize, 0);
+            } else if (header.needsCompaction()) {
+                compact(journal);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records that an entry has been used.
+     */
+    public synchronized void recordAccess(String key, long size) {
+        try (Journal journal = openJournal()) {
+            if (!journal.rebuilt) {
+                journal.append(Collections.singletonList(new Record(key, size, size, System.currentTimeMillis())));
+            }
+            if (journal.header.needsCompaction()) {
+                compact(journal);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the total size of the indexed entries.
+     */
+    public synchronized long getTotalSize() {
+        try (Journal journal = openJournal()) {
+            return journal.header.totalSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Evicts the entries that have not been used on or after the given timestamp, and the least recently used entries beyond the size budget.
+     *
+     * @return the number of evicted entries.
+     */
+    public synchronized int evictUnused(long minimumTimestamp) {
+        try (Journal journal = openJournal()) {
+            return evict(journal, maxSize, minimumTimestamp);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int evict(Journal journal, long targetSize, long minimumTimestamp) throws IOException {
+        long totalSize = journal.header.totalSize;
+        long now = System.currentTimeMillis();
+        List<Record> removals = new ArrayList<>();
+        for (Record entry : loadEntries(journal).values()) {
+            if (entry.timestamp >= minimumTimestamp && totalSize <= targetSize) {
+                break;
+            }
+            File file = new File(baseDir, entry.key);
+            GFileUtils.deleteQuietly(file);
+            fileAccessTimeJournal.deleteLastAccessTime(file);
+            removals.add(new Record(entry.key, -1, entry.size, now));
+            totalSize -= entry.size;
+        }
+        if (!removals.isEmpty()) {
+            journal.append(removals);
+        }
+        if (journal.header.needsCompaction()) {
+            compact(journal);
+        }
+        return removals.size();
+    }
+
+    private void compact(Journal journal) throws IOException {
+        Collection<Record> leastRecentlyUsedFirst = loadEntries(journal).values();
+        // The journal is replaced by the compacted one
+        journal.close();
+        writeCompacted(leastRecentlyUsedFirst);
+    }
+
+    /**
+     * Brings the indexed entries up to date with the journal, reading only the records appended since they were last loaded.
+     */
+    private Map<String, Record> loadEntries(Journal journal) throws IOException {
+        Header header = journal.header;
+        LinkedHashMap<String, Record> entries = this.entries;
+        if (entries == null || loadedGeneration != header.generation || loadedLength > header.validLength) {
+            entries = new LinkedHashMap<>();
+            this.entries = entries;
+            loadedGeneration = header.generation;
+            loadedLength = HEADER_SIZE;
+        }
+        if (loadedLength < header.validLength) {
+            journal.readRecords(loadedLength, header.validLength, this::applyToEntries);
+            loadedLength = header.validLength;
+        }
+        return entries;
+    }
+
+    private void applyToEntries(Record record) {
+        // Re-insert, so that entries are ordered by their latest record
+        entries.remove(record.key);
+        if (record.size >= 0) {
+            entries.put(record.key, record);
+        }
+    }
+
+    private Journal openJournal() throws IOException {
+        FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Header header;
+        try {
+            header = readHeader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (header != null) {
+            return new Journal(channel, header, false);
+        }
+        channel.close();
+        LOGGER.debug("Rebuilding build cache usage index {}.", indexFile);
+        List<Record> records = scanCacheDirectory();
+        // The sort is stable, so entries used within the same millisecond stay in directory order
+        records.sort(Comparator.comparingLong(record -> record.timestamp));
+        header = writeCompacted(records);
+        return new Journal(FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE), header, true);
+    }
+
+    /**
+     * Reads the header, and applies the records written after it has last been updated.
+     *
+     * @return the header, or {@code null} when the index needs to be rebuilt.
+     */
+    @Nullable
+    private static Header readHeader(FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt(CHECKSUM_OFFSET) != checksum(buffer.array())) {
+            return null;
+        }
+        Header header = new Header(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+        if (header.validLength < HEADER_SIZE || header.validLength > length) {
+            return null;
+        }
+        if (header.validLength < length) {
+            applyUnaccountedRecords(channel, header, length);
+        }
+        return header;
+    }
+
+    /**
+     * Applies the complete records following the length accounted for by the header, which a build has written before being interrupted,
+     * and truncates the journal after them.
+     */
+    private static void applyUnaccountedRecords(FileChannel channel, Header header, long length) throws IOException {
+        DataInputStream input = newInputStream(channel, header.validLength);
+        Record record;
+        while ((record = readValidRecord(input, length - header.validLength)) != null) {
+            header.apply(record);
+        }
+        if (header.validLength < length) {
+            LOGGER.debug("Discarding {} bytes of a partially written record in the build cache usage index.", length - header.validLength);
+            channel.truncate(header.validLength);
+        }
+        writeHeader(channel, header);
+    }
+
+    /**
+     * Reads the next record, or returns {@code null} when it is incomplete or invalid.
+     */
+    @Nullable
+    private static Record readValidRecord(DataInputStream input, long remainingLength) throws IOException {
+        if (remainingLength < RECORD_SIZE_WITHOUT_KEY) {
+            return null;
+        }
+        int keyLength = input.readUnsignedShort();
+        if (keyLength == 0 || RECORD_SIZE_WITHOUT_KEY + keyLength > remainingLength) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        input.readFully(key);
+        for (byte ch : key) {
+            if (!(ch >= '0' && ch <= '9' || ch >= 'a' && ch <= 'f')) {
+                return null;
+            }
+        }
+        long size = input.readLong();
+        long previousSize = input.readLong();
+        long timestamp = input.readLong();
+        if (size < -1 || previousSize < -1) {
+            return null;
+        }
+        return new Record(new String(key, StandardCharsets.UTF_8), size, previousSize, timestamp);
+    }
+
+    private List<Record> scanCacheDirectory() {
+        List<Record> records = new ArrayList<>();
+        File[] files = baseDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && ENTRY_NAME.matcher(file.getName()).matches()) {
+                    long size = file.length();
+                    records.add(new Record(file.getName(), size, size, fileAccessTimeJournal.getLastAccessTime(file)));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Replaces the journal with one holding a single record per entry, in the given order.
+     */
+    private Header writeCompacted(Collection<Record> leastRecentlyUsedFirst) throws IOException {
+        long totalSize = 0;
+        long length = HEADER_SIZE;
+        for (Record record : leastRecentlyUsedFirst) {
+            totalSize += record.size;
+            length += record.length();
+        }
+        int count = leastRecentlyUsedFirst.size();
+        // A new generation, so other processes know that they need to reload the entries
+        Header header = new Header(ThreadLocalRandom.current().nextInt(), totalSize, count, count, length);
+        File partialIndexFile = new File(baseDir, INDEX_FILE_NAME + BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialIndexFile)))) {
+            output.write(encodeHeader(header).array());
+            for (Record record : leastRecentlyUsedFirst) {
+                writeRecord(output, record);
+            }
+        }
+        Files.move(partialIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        LinkedHashMap<String, Record> entries = new LinkedHashMap<>();
+        for (Record record : leastRecentlyUsedFirst) {
+            entries.put(record.key, record);
+        }
+        this.entries = entries;
+        loadedGeneration = header.generation;
+        loadedLength = length;
+        return header;
+    }
+
+    private static void writeHeader(FileChannel channel, Header header) throws IOException {
+        write(channel, encodeHeader(header), 0);
+    }
+
+    private static ByteBuffer encodeHeader(Header header) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(header.generation);
+        buffer.putLong(header.totalSize);
+        buffer.putInt(header.entryCount);
+        buffer.putInt(header.recordCount);
+        buffer.putLong(header.validLength);
+        buffer.putInt(checksum(buffer.array()));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int checksum(byte[] header) {
+        CRC32 crc = new CRC32();
+        crc.update(header, GENERATION_OFFSET, CHECKSUM_OFFSET - GENERATION_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static DataInputStream newInputStream(FileChannel channel, long position) throws IOException {
+        // The stream is not closed, since that would close the channel
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+    }
+
+    private static void writeRecord(DataOutputStream output, Record record) throws IOException {
+        byte[] key = record.key.getBytes(StandardCharsets.UTF_8);
+        output.writeShort(key.length);
+        output.write(key);
+        output.writeLong(record.size);
+        output.writeLong(record.previousSize);
+        output.writeLong(record.timestamp);
+    }
+
+    private static Record readRecord(DataInputStream input) throws IOException {
+        byte[] key = new byte[input.readUnsignedShort()];
+        input.readFully(key);
+        return new Record(new String(key, StandardCharsets.UTF_8), input.readLong(), input.readLong(), input.readLong());
+    }
+
+    /**
+     * The index file, opened for a single operation.
+     */
+    private static class Journal implements Closeable {
+        private final FileChannel channel;
+        final Header header;
+        /**
+         * Whether the index has just been rebuilt from the cache directory, so it already includes the entry being recorded.
+         */
+        final boolean rebuilt;
+
+        Journal(FileChannel channel, Header header, boolean rebuilt) {
+            this.channel = channel;
+            this.header = header;
+            this.rebuilt = rebuilt;
+        }
+
+        void append(List<Record> records) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            for (Record record : records) {
+                writeRecord(output, record);
+            }
+            write(channel, ByteBuffer.wrap(bytes.toByteArray()), header.validLength);
+            for (Record record : records) {
+                header.apply(record);
+            }
+            writeHeader(channel, header);
+        }
+
+        void readRecords(long start, long end, Consumer<Record> consumer) throws IOException {
+            DataInputStream input = newInputStream(channel, start);
+            for (long position = start; position < end; ) {
+                Record record;
+                try {
+                    record = readRecord(input);
+                } catch (EOFException e) {
+                    throw new IOException("Build cache usage index is shorter than its header says.", e);
+                }
+                consumer.accept(record);
+                position += record.length();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class Header {
+        final int generation;
+        long totalSize;
+        int entryCount;
+        int recordCount;
+        /**
+         * The length of the journal which the header accounts for.
+         */
+        long validLength;
+
+        Header(int generation, long totalSize, int entryCount, int recordCount, long validLength) {
+            this.generation = generation;
+            this.totalSize = totalSize;
+            this.entryCount = entryCount;
+            this.recordCount = recordCount;
+            this.validLength = validLength;
+        }
+
+        void apply(Record record) {
+            totalSize += Math.max(0, record.size) - Math.max(0, record.previousSize);
+            entryCount += (record.size >= 0 ? 1 : 0) - (record.previousSize >= 0 ? 1 : 0);
+            recordCount++;
+            validLength += record.length();
+        }
+
+        boolean needsCompaction() {
+            return recordCount > 2 * entryCount + MIN_RECORDS_TO_COMPACT;
+        }
+    }
+
+    /**
+     * A store, access or removal of an entry.
+     */
+    private static class Record {
+        final String key;
+        /**
+         * The size of the entry, or -1 if it has been removed.
+         */
+        final long size;
+        /**
+         * The size of the entry before, or -1 if it did not exist.
+         */
+        final long previousSize;
+        final long timestamp;
+
+        Record(String key, long size, long previousSize, long timestamp) {
+            this.key = key;
+            this.size = size;
+            this.previousSize = previousSize;
+            this.timestamp = timestamp;
+        }
+
+        int length() {
+            // Keys are hex strings, so there is one byte per character
+            return RECORD_SIZE_WITHOUT_KEY + key.length();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.gradle.api.Action;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.caching.BuildCacheEntryReader;
+import org.gradle.caching.BuildCacheEntryWriter;
+import org.gradle.caching.BuildCacheException;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.internal.packaging.impl.BuildCacheEntryCompression;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.file.FileAccessTracker;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.HashingOutputStream;
+import org.gradle.util.internal.GFileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A local build cache that de-duplicates the files contained in build cache entries.
+ *
+ * Every entry is split into a small manifest stored under its cache key, and a set of blobs
+ * stored under the hash of their content. Identical outputs produced by different cache keys
+ * are thus only stored once. Unreferenced blobs are removed by {@link UnreferencedBlobsCleanup}.
+ */
+public class ContentAddressedBuildCacheService implements LocalBuildCacheService, BuildCacheService {
+
+    public static final String MANIFESTS_DIR = "manifests";
+    public static final String BLOBS_DIR = "blobs";
+
+    /**
+     * Files up to this size are stored inside the manifest, as a separate blob would cost more than it saves.
+     */
+    private static final int INLINE_THRESHOLD = 4 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ENCODING = StandardCharsets.UTF_8.name();
+
+    private final File manifestsDir;
+    private final File blobsDir;
+    private final PersistentCache persistentCache;
+    private final BuildCacheTempFileStore tempFileStore;
+    private final FileAccessTracker fileAccessTracker;
+    private final String failedFileSuffix;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ContentAddressedBuildCacheService(File baseDir, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+        this.manifestsDir = new File(baseDir, MANIFESTS_DIR);
+        this.blobsDir = new File(baseDir, BLOBS_DIR);
+        this.persistentCache = persistentCache;
+        this.tempFileStore = tempFileStore;
+        this.fileAccessTracker = fileAccessTracker;
+        this.failedFileSuffix = failedFileSuffix;
+    }
+
+    public static File blobFile(File blobsDir, HashCode hash) {
+        String name = hash.toString();
+        return new File(new File(blobsDir, name.substring(0, 2)), name);
+    }
+
+    @Override
+    public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws BuildCacheException {
+        boolean[] loaded = new boolean[1];
+        readLocally(key, (input, size) -> {
+            reader.readFrom(input);
+            loaded[0] = true;
+        });
+        return loaded[0];
+    }
+
+    @Override
+    public void loadLocally(BuildCacheKey key, Action<? super File> reader) {
+        readLocally(key, (input, size) -> tempFileStore.withTempFile(key, archive -> {
+            try (OutputStream output = new FileOutputStream(archive)) {
+                ByteStreams.copy(input, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            reader.execute(archive);
+        }));
+    }
+
+    @Override
+    public void readLocally(BuildCacheKey key, EntryReader reader) {
+        // We need to lock other processes out here because garbage collection can be under way in another process
+        persistentCache.withFileLock(() -> {
+            File manifestFile = new File(manifestsDir, key.getHashCode());
+            long manifestLastModified;
+            Exception failure = null;
+            lock.readLock().lock();
+            try {
+                if (!manifestFile.isFile()) {
+                    return;
+                }
+                manifestLastModified = manifestFile.lastModified();
+                try {
+                    readInsideLock(manifestFile, reader);
+                } catch (Exception e) {
+                    failure = e;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // Other threads may be reading the manifest while we hold the read lock, so we only modify it under the write lock
+            lock.writeLock().lock();
+            try {
+                if (failure == null) {
+                    fileAccessTracker.markAccessed(manifestFile);
+                } else if (manifestFile.lastModified() == manifestLastModified) {
+                    // Move the manifest out of the way in case it is permanently corrupt, unless it has been replaced in the meantime
+                    // Don't delete, so that it can be potentially used for debugging
+                    File failedFile = new File(manifestFile.getAbsolutePath() + failedFileSuffix);
+                    GFileUtils.deleteQuietly(failedFile);
+                    //noinspection ResultOfMethodCallIgnored
+                    manifestFile.renameTo(failedFile);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (failure != null) {
+                throw UncheckedException.throwAsUncheckedException(failure);
+            }
+        });
+    }
+
+    private void readInsideLock(File manifestFile, EntryReader reader) throws IOException {
+        ContentAddressedEntryManifest manifest;
+        try (InputStream input = new BufferedInputStream(new FileInputStream(manifestFile))) {
+            manifest = ContentAddressedEntryManifest.read(input);
+        }
+        long size = manifestFile.length();
+        for (ContentAddressedEntryManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getKind() == ContentAddressedEntryManifest.Kind.BLOB) {
+                size += blobFile(blobsDir, entry.getBlobHash()).length();
+            }
+        }
+        try (InputStream input = new AssembledEntryInputStream(manifest, blobsDir, ENCODING)) {
+            reader.readFrom(input, size);
+        }
+    }
+
+    @Override
+    public void store(BuildCacheKey key, BuildCacheEntryWriter result) throws BuildCacheException {
+        tempFileStore.withTempFile(key, file -> {
+            try (OutputStream output = new FileOutputStream(file)) {
+                result.writeTo(output);
+            } catch (IOException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+            storeLocally(key, file);
+        });
+    }
+
+    @Override
+    public void storeLocally(BuildCacheKey key, File file) {
+        persistentCache.withFileLock(() -> {
+            lock.writeLock().lock();
+            try {
+                storeInsideLock(key, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private void storeInsideLock(BuildCacheKey key, File file) throws IOException {
+        List<ContentAddressedEntryManifest.Entry> entries = new ArrayList<>();
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            BuildCacheEntryCompression compression = CompressingBuildCacheEntryPacker.readCompression(input);
+            try (TarArchiveInputStream tarInput = new TarArchiveInputStream(compression.decompress(input), ENCODING)) {
+                TarArchiveEntry tarEntry;
+                while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                    String path = tarEntry.getName();
+                    int mode = tarEntry.getMode();
+                    if (tarEntry.isDirectory()) {
+                        entries.add(ContentAddressedEntryManifest.Entry.directory(path, mode));
+                    } else if (tarEntry.getSize() <= INLINE_THRESHOLD) {
+                        entries.add(ContentAddressedEntryManifest.Entry.inline(path, mode, ByteStreams.toByteArray(tarInput)));
+                    } else {
+                        HashCode blobHash = storeBlob(tarInput);
+                        entries.add(ContentAddressedEntryManifest.Entry.blob(path, mode, tarEntry.getSize(), blobHash));
+                    }
+                }
+            }
+        }
+
+        GFileUtils.mkdirs(manifestsDir);
+        File manifestFile = new File(manifestsDir, key.getHashCode());
+        File partialManifestFile = new File(manifestsDir, key.getHashCode() + PARTIAL_FILE_SUFFIX);
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(partialManifestFile))) {
+            new ContentAddressedEntryManifest(entries).write(output);
+        }
+        GFileUtils.deleteQuietly(manifestFile);
+        GFileUtils.moveFile(partialManifestFile, manifestFile);
+        fileAccessTracker.markAccessed(manifestFile);
+    }
+
+    private HashCode storeBlob(InputStream content) throws IOException {
+        GFileUtils.mkdirs(blobsDir);
+        File partialBlobFile = Files.createTempFile(blobsDir.toPath(), "blob-", PARTIAL_FILE_SUFFIX).toFile();
+        try {
+            HashCode hash;
+            try (HashingOutputStream output = new HashingOutputStream(Hashing.defaultFunction(), new BufferedOutputStream(new FileOutputStream(partialBlobFile), BUFFER_SIZE))) {
+                ByteStreams.copy(content, output);
+                hash = output.hash();
+            }
+            File blobFile = blobFile(blobsDir, hash);
+            if (!blobFile.isFile()) {
+                GFileUtils.mkdirs(blobFile.getParentFile());
+                GFileUtils.moveFile(partialBlobFile, blobFile);
+            } else {
+                // Protect the blob from a cleanup that started before the manifest referencing it is written
+                //noinspection ResultOfMethodCallIgnored
+                blobFile.setLastModified(System.currentTimeMillis());
+            }
+            return hash;
+        } finally {
+            GFileUtils.deleteQuietly(partialBlobFile);
+        }
+    }
+
+    @Override
+    public void withTempFile(BuildCacheKey key, Action<? super File> action) {
+        persistentCache.withFileLock(() -> tempFileStore.withTempFile(key, action));
+    }
+
+    @Override
+    public void close() {
+        persistentCache.close();
+    }
+}
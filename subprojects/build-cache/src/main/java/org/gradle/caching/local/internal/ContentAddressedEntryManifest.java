@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.internal.hash.HashCode;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Describes the archive entries of a build cache entry stored by the {@link ContentAddressedBuildCacheService}.
+ *
+ * Small file contents are kept inline, larger ones are referenced by the hash of their content.
+ */
+public class ContentAddressedEntryManifest {
+
+    private static final int MAGIC = 0x47434153;
+    private static final int VERSION = 1;
+
+    public enum Kind {
+        DIRECTORY, INLINE, BLOB
+    }
+
+    private final List<Entry> entries;
+
+    public ContentAddressedEntryManifest(List<Entry> entries) {
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            writeBytes(data, entry.getPath().getBytes(StandardCharsets.UTF_8));
+            data.writeInt(entry.getMode());
+            data.writeByte(entry.getKind().ordinal());
+            data.writeLong(entry.getSize());
+            switch (entry.getKind()) {
+                case DIRECTORY:
+                    break;
+                case INLINE:
+                    writeBytes(data, entry.getContent());
+                    break;
+                case BLOB:
+                    writeBytes(data, entry.getBlobHash().toByteArray());
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+        }
+        data.flush();
+    }
+
+    public static ContentAddressedEntryManifest read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a build cache entry manifest.");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported build cache entry manifest version: " + version);
+        }
+        int count = data.readInt();
+        ImmutableList.Builder<Entry> entries = ImmutableList.builderWithExpectedSize(count);
+        Kind[] kinds = Kind.values();
+        for (int i = 0; i < count; i++) {
+            String path = new String(readBytes(data), StandardCharsets.UTF_8);
+            int mode = data.readInt();
+            Kind kind = kinds[data.readByte()];
+            long size = data.readLong();
+            switch (kind) {
+                case DIRECTORY:
+                    entries.add(Entry.directory(path, mode));
+                    break;
+                case INLINE:
+                    entries.add(Entry.inline(path, mode, readBytes(data)));
+                    break;
+                case BLOB:
+                    entries.add(Entry.blob(path, mode, size, HashCode.fromBytes(readBytes(data))));
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+        }
+        return new ContentAddressedEntryManifest(entries.build());
+    }
+
+    private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    public static class Entry {
+        private final String path;
+        private final int mode;
+        private final Kind kind;
+        private final long size;
+        private final byte[] content;
+        private final HashCode blobHash;
+
+        private Entry(String path, int mode, Kind kind, long size, @Nullable byte[] content, @Nullable HashCode blobHash) {
+            this.path = path;
+            this.mode = mode;
+            this.kind = kind;
+            this.size = size;
+            this.content = content;
+            this.blobHash = blobHash;
+        }
+
+        public static Entry directory(String path, int mode) {
+            return new Entry(path, mode, Kind.DIRECTORY, 0, null, null);
+        }
+
+        public static Entry inline(String path, int mode, byte[] content) {
+            return new Entry(path, mode, Kind.INLINE, content.length, content, null);
+        }
+
+        public static Entry blob(String path, int mode, long size, HashCode blobHash) {
+            return new Entry(path, mode, Kind.BLOB, size, null, blobHash);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public byte[] getContent() {
+            if (content == null) {
+                throw new IllegalStateException("Entry " + path + " has no inline content");
+            }
+            return content;
+        }
+
+        public HashCode getBlobHash() {
+            if (blobHash == null) {
+                throw new IllegalStateException("Entry " + path + " does not reference a blob");
+            }
+            return blobHash;
+        }
+    }
+}
@@ -32,6 +32,7 @@
 import org.gradle.util.internal.GFileUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -46,14 +47,20 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
+    private final BuildCacheUsageIndex usageIndex;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+        this(fileStore, persistentCache, tempFileStore, fileAccessTracker, failedFileSuffix, null);
+    }
+
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix, @Nullable BuildCacheUsageIndex usageIndex) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.fileAccessTracker = fileAccessTracker;
         this.failedFileSuffix = failedFileSuffix;
+        this.usageIndex = usageIndex;
     }
 
     private static class LoadAction implements Action<File> {
@@ -112,6 +119,9 @@ private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
 
         File file = resource.getFile();
         fileAccessTracker.markAccessed(file);
+        if (usageIndex != null) {
+            usageIndex.recordAccess(key.getHashCode(), file.length());
+        }
 
         try {
             reader.execute(file);
@@ -166,8 +176,17 @@ public void run() {
     }
 
     private void storeInsideLock(BuildCacheKey key, File file) {
+        if (usageIndex == null) {
+            LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
+            fileAccessTracker.markAccessed(resource.getFile());
+            return;
+        }
+
+        LocallyAvailableResource previous = fileStore.get(key.getHashCode());
+        long previousSize = previous == null ? -1 : previous.getFile().length();
         LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
         fileAccessTracker.markAccessed(resource.getFile());
+        usageIndex.recordStore(key.getHashCode(), previousSize, resource.getFile().length());
     }
 
     @Override
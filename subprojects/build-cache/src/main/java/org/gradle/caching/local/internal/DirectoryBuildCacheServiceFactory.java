@@ -20,9 +20,11 @@
 import org.gradle.api.internal.file.temp.TemporaryFileProvider;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
+import org.gradle.cache.CleanupAction;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.CleanupActionFactory;
+import org.gradle.cache.internal.CompositeCleanupAction;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.internal.VersionStrategy;
@@ -43,9 +45,11 @@
 
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
+    public static final String DEDUPLICATE_PROPERTY = "org.gradle.unsafe.build-cache.local.deduplicate";
 
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
+    private static final String CONTENT_ADDRESSED_BUILD_CACHE_KEY = "build-cache-cas-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
 
@@ -71,24 +75,43 @@ public DirectoryBuildCacheServiceFactory(CacheRepository cacheRepository, CacheS
 
     @Override
     public BuildCacheService createBuildCacheService(DirectoryBuildCache configuration, Describer describer) {
+        boolean deduplicate = Boolean.getBoolean(DEDUPLICATE_PROPERTY);
         Object cacheDirectory = configuration.getDirectory();
         File target;
         if (cacheDirectory != null) {
             target = resolver.resolve(cacheDirectory);
         } else {
-            target = cacheScopeMapping.getBaseDirectory(null, BUILD_CACHE_KEY, VersionStrategy.SharedCache);
+            target = cacheScopeMapping.getBaseDirectory(null, deduplicate ? CONTENT_ADDRESSED_BUILD_CACHE_KEY : BUILD_CACHE_KEY, VersionStrategy.SharedCache);
         }
         checkDirectory(target);
 
         int removeUnusedEntriesAfterDays = configuration.getRemoveUnusedEntriesAfterDays();
+        int maxSizeInMegabytes = configuration.getMaxSizeInMegabytes();
         describer.type(DIRECTORY_BUILD_CACHE_TYPE).
             config("location", target.getAbsolutePath()).
             config("removeUnusedEntriesAfter", String.valueOf(removeUnusedEntriesAfterDays) + " days");
 
+        if (deduplicate) {
+            describer.config("deduplicate", "true");
+            if (maxSizeInMegabytes > 0) {
+                describer.config("maxSize", maxSizeInMegabytes + " MB");
+            }
+            return createContentAddressedBuildCacheService(target, removeUnusedEntriesAfterDays, maxSizeInMegabytes);
+        }
+
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
+        BuildCacheUsageIndex usageIndex = null;
+        CleanupAction cleanupAction;
+        if (maxSizeInMegabytes > 0) {
+            describer.config("maxSize", maxSizeInMegabytes + " MB");
+            usageIndex = new BuildCacheUsageIndex(target, maxSizeInMegabytes * 1024L * 1024L, fileAccessTimeJournal);
+            cleanupAction = new UsageIndexCacheCleanup(usageIndex, removeUnusedEntriesAfterDays);
+        } else {
+            cleanupAction = new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays);
+        }
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
+            .withCleanup(cleanupActionFactory.create(cleanupAction))
             .withDisplayName("Build cache")
             .withLockOptions(mode(OnDemand))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
@@ -96,7 +119,27 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(temporaryFileProvider);
         FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX, usageIndex);
+    }
+
+    private BuildCacheService createContentAddressedBuildCacheService(File target, int removeUnusedEntriesAfterDays, int maxSizeInMegabytes) {
+        File manifestsDir = new File(target, ContentAddressedBuildCacheService.MANIFESTS_DIR);
+        File blobsDir = new File(target, ContentAddressedBuildCacheService.BLOBS_DIR);
+        CompositeCleanupAction cleanupAction = CompositeCleanupAction.builder()
+            .add(manifestsDir, new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays))
+            .add(new UnreferencedBlobsCleanup(manifestsDir, blobsDir, Math.max(0, maxSizeInMegabytes) * 1024L * 1024L, fileAccessTimeJournal))
+            .build();
+        PersistentCache persistentCache = cacheRepository
+            .cache(target)
+            .withCleanup(cleanupActionFactory.create(cleanupAction))
+            .withDisplayName("Build cache")
+            .withLockOptions(mode(OnDemand))
+            .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
+            .open();
+        BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(temporaryFileProvider);
+        FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, manifestsDir, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
+
+        return new ContentAddressedBuildCacheService(target, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
     }
 
     private static void checkDirectory(File directory) {
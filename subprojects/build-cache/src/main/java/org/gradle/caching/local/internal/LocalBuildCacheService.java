@@ -17,10 +17,14 @@
 package org.gradle.caching.local.internal;
 
 import org.gradle.api.Action;
+import org.gradle.api.UncheckedIOException;
 import org.gradle.caching.BuildCacheKey;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * A build cache service that is capable of handling local files directly. The direct access
@@ -34,6 +38,21 @@ public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeab
      */
     void loadLocally(BuildCacheKey key, Action<? super File> reader);
 
+    /**
+     * Loads a cache artifact from a local file store as a stream. If a result is found the {@code reader} is executed.
+     *
+     * Implementations that do not store artifacts as single files can override this to avoid writing the artifact to a file first.
+     */
+    default void readLocally(BuildCacheKey key, EntryReader reader) {
+        loadLocally(key, file -> {
+            try (InputStream input = new FileInputStream(file)) {
+                reader.readFrom(input, file.length());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     /**
      * Store the given file in the local file store as a cache artifact.
      */
@@ -41,4 +60,11 @@ public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeab
 
     @Override
     void close();
+
+    interface EntryReader {
+        /**
+         * Reads the content of a cache artifact that occupies {@code size} bytes in the local file store.
+         */
+        void readFrom(InputStream input, long size) throws IOException;
+    }
 }
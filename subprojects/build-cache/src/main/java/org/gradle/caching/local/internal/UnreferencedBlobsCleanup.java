@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.cache.CleanableStore;
+import org.gradle.cache.CleanupAction;
+import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.internal.file.FileAccessTimeJournal;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deletes blobs of the {@link ContentAddressedBuildCacheService} that are no longer referenced by any manifest.
+ * When the cache has a size budget, the least recently used manifests are deleted first until the manifests and the blobs they reference fit into it.
+ *
+ * Should run after the manifests themselves have been cleaned up.
+ */
+public class UnreferencedBlobsCleanup implements CleanupAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnreferencedBlobsCleanup.class);
+
+    private final File manifestsDir;
+    private final File blobsDir;
+    private final long maxSizeInBytes;
+    private final FileAccessTimeJournal fileAccessTimeJournal;
+
+    public UnreferencedBlobsCleanup(File manifestsDir, File blobsDir) {
+        this(manifestsDir, blobsDir, 0, null);
+    }
+
+    /**
+     * @param maxSizeInBytes the size budget of the cache, or 0 if the cache is not limited in size.
+     */
+    public UnreferencedBlobsCleanup(File manifestsDir, File blobsDir, long maxSizeInBytes, @Nullable FileAccessTimeJournal fileAccessTimeJournal) {
+        if (maxSizeInBytes > 0 && fileAccessTimeJournal == null) {
+            throw new IllegalArgumentException("Limiting the size of the cache requires the file access time journal.");
+        }
+        this.manifestsDir = manifestsDir;
+        this.blobsDir = blobsDir;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.fileAccessTimeJournal = fileAccessTimeJournal;
+    }
+
+    @Override
+    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        // Blobs written after this point may belong to a manifest that is not written yet
+        long cleanupStartTime = System.currentTimeMillis();
+        References references = readReferences();
+        if (maxSizeInBytes > 0) {
+            int manifestsDeleted = references.evictLeastRecentlyUsed(maxSizeInBytes, fileAccessTimeJournal, progressMonitor);
+            LOGGER.info("{} cleanup deleted {} entries to fit into {} MB.", cleanableStore.getDisplayName(), manifestsDeleted, maxSizeInBytes / 1024 / 1024);
+        }
+        int blobsDeleted = 0;
+        for (File prefixDir : listFiles(blobsDir)) {
+            // Partially written blobs live directly in the blobs directory
+            if (!prefixDir.isDirectory()) {
+                continue;
+            }
+            for (File blob : listFiles(prefixDir)) {
+                if (blob.getName().endsWith(BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX)
+                    || references.isReferenced(blob.getName())
+                    || blob.lastModified() > cleanupStartTime) {
+                    progressMonitor.incrementSkipped();
+                } else {
+                    progressMonitor.incrementDeleted();
+                    if (GFileUtils.deleteQuietly(blob)) {
+                        blobsDeleted++;
+                    }
+                }
+            }
+            if (listFiles(prefixDir).length == 0) {
+                GFileUtils.deleteQuietly(prefixDir);
+            }
+        }
+        LOGGER.info("{} cleanup deleted {} unreferenced blobs.", cleanableStore.getDisplayName(), blobsDeleted);
+    }
+
+    private References readReferences() {
+        References references = new References();
+        for (File manifestFile : listFiles(manifestsDir)) {
+            if (manifestFile.getName().endsWith(BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX) || !manifestFile.isFile()) {
+                continue;
+            }
+            ContentAddressedEntryManifest manifest;
+            try (InputStream input = new BufferedInputStream(new FileInputStream(manifestFile))) {
+                manifest = ContentAddressedEntryManifest.read(input);
+            } catch (IOException e) {
+                // The entry cannot be loaded anymore, so the blobs it references are of no use either
+                LOGGER.debug("Removing unreadable build cache manifest {}.", manifestFile, e);
+                GFileUtils.deleteQuietly(manifestFile);
+                continue;
+            }
+            references.add(manifestFile, manifest);
+        }
+        return references;
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * The blobs referenced by each manifest, and the number of manifests referencing each blob.
+     */
+    private static class References {
+        private final Map<File, Set<String>> blobsByManifest = new HashMap<>();
+        private final Map<String, Integer> referenceCounts = new HashMap<>();
+        private final Map<String, Long> blobSizes = new HashMap<>();
+        private long totalSize;
+
+        void add(File manifestFile, ContentAddressedEntryManifest manifest) {
+            Set<String> blobs = new HashSet<>();
+            for (ContentAddressedEntryManifest.Entry entry : manifest.getEntries()) {
+                if (entry.getKind() == ContentAddressedEntryManifest.Kind.BLOB) {
+                    String blob = entry.getBlobHash().toString();
+                    if (blobs.add(blob)) {
+                        if (referenceCounts.merge(blob, 1, Integer::sum) == 1) {
+                            blobSizes.put(blob, entry.getSize());
+                            totalSize += entry.getSize();
+                        }
+                    }
+                }
+            }
+            blobsByManifest.put(manifestFile, blobs);
+            totalSize += manifestFile.length();
+        }
+
+        boolean isReferenced(String blob) {
+            return referenceCounts.containsKey(blob);
+        }
+
+        /**
+         * Deletes the least recently used manifests until the manifests and the blobs they reference fit into the given size.
+         */
+        int evictLeastRecentlyUsed(long maxSize, FileAccessTimeJournal fileAccessTimeJournal, CleanupProgressMonitor progressMonitor) {
+            if (totalSize <= maxSize) {
+                return 0;
+            }
+            List<File> manifests = new ArrayList<>(blobsByManifest.keySet());
+            Map<File, Long> lastAccessTimes = new HashMap<>();
+            manifests.forEach(manifest -> lastAccessTimes.put(manifest, fileAccessTimeJournal.getLastAccessTime(manifest)));
+            manifests.sort(Comparator.comparing(lastAccessTimes::get));
+            int manifestsDeleted = 0;
+            for (File manifest : manifests) {
+                if (totalSize <= maxSize) {
+                    break;
+                }
+                long manifestSize = manifest.length();
+                if (!GFileUtils.deleteQuietly(manifest)) {
+                    continue;
+                }
+                fileAccessTimeJournal.deleteLastAccessTime(manifest);
+                progressMonitor.incrementDeleted();
+                manifestsDeleted++;
+                totalSize -= manifestSize;
+                for (String blob : blobsByManifest.remove(manifest)) {
+                    if (referenceCounts.merge(blob, -1, Integer::sum) == 0) {
+                        referenceCounts.remove(blob);
+                        totalSize -= blobSizes.remove(blob);
+                    }
+                }
+            }
+            return manifestsDeleted;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.cache.CleanableStore;
+import org.gradle.cache.CleanupAction;
+import org.gradle.cache.CleanupProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the entries of a {@link DirectoryBuildCacheService} that have not been used within the specified number of days,
+ * or that do not fit its size budget, based on its {@link BuildCacheUsageIndex}.
+ *
+ * Unlike {@link org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup}, this does not need to walk the cache directory.
+ */
+public class UsageIndexCacheCleanup implements CleanupAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UsageIndexCacheCleanup.class);
+
+    private final BuildCacheUsageIndex usageIndex;
+    private final long minimumTimestamp;
+
+    public UsageIndexCacheCleanup(BuildCacheUsageIndex usageIndex, long numberOfDays) {
+        this.usageIndex = usageIndex;
+        this.minimumTimestamp = Math.max(0, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(numberOfDays));
+    }
+
+    @Override
+    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        LOGGER.info("{} removing entries not accessed on or after {}.", cleanableStore.getDisplayName(), new Date(minimumTimestamp));
+        int entriesDeleted = usageIndex.evictUnused(minimumTimestamp);
+        for (int i = 0; i < entriesDeleted; i++) {
+            progressMonitor.incrementDeleted();
+        }
+        LOGGER.info("{} cleanup deleted {} entries.", cleanableStore.getDisplayName(), entriesDeleted);
+    }
+}
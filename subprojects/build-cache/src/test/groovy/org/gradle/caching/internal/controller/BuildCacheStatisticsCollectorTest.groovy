@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class BuildCacheStatisticsCollectorTest extends Specification {
+    def collector = new BuildCacheStatisticsCollector()
+
+    def "counts hits and misses"() {
+        when:
+        collector.recordLocalLoad(true)
+        collector.recordLocalLoad(false)
+        collector.recordLocalLoad(false)
+        collector.recordRemoteLoad(true)
+        def statistics = collector.statistics
+
+        then:
+        statistics.localHits == 1
+        statistics.localMisses == 2
+        statistics.remoteHits == 1
+        statistics.remoteMisses == 0
+    }
+
+    def "reports latency percentiles and transferred bytes"() {
+        when:
+        (1..100).toList().shuffled(new Random(1234L)).each {
+            collector.recordRemoteLoadRequest(TimeUnit.MILLISECONDS.toNanos(it), 10)
+        }
+        collector.recordRemoteStoreRequest(TimeUnit.MILLISECONDS.toNanos(5), 100)
+        def statistics = collector.statistics
+
+        then:
+        statistics.remoteBytesDownloaded == 1000
+        statistics.remoteBytesUploaded == 100
+        with(statistics.remoteLoadLatency) {
+            requests == 100
+            medianMillis == 50
+            get90thPercentileMillis() == 90
+            get99thPercentileMillis() == 99
+            maxMillis == 100
+        }
+        with(statistics.remoteStoreLatency) {
+            requests == 1
+            medianMillis == 5
+            maxMillis == 5
+        }
+    }
+
+    def "reports no latency without requests"() {
+        expect:
+        with(collector.statistics.remoteLoadLatency) {
+            requests == 0
+            medianMillis == 0
+            maxMillis == 0
+        }
+    }
+
+    def "aggregates packing time by type"() {
+        when:
+        collector.recordPack("Task", TimeUnit.MILLISECONDS.toNanos(10))
+        collector.recordPack("Task", TimeUnit.MILLISECONDS.toNanos(20))
+        collector.recordUnpack("Task", TimeUnit.MILLISECONDS.toNanos(5))
+        collector.recordUnpack("Transform", TimeUnit.MILLISECONDS.toNanos(7))
+        def packingTime = collector.statistics.packingTimeByType
+
+        then:
+        packingTime.keySet() as List == ["Task", "Transform"]
+        with(packingTime["Task"]) {
+            packed == 2
+            packMillis == 30
+            unpacked == 1
+            unpackMillis == 5
+        }
+        with(packingTime["Transform"]) {
+            packed == 0
+            unpacked == 1
+            unpackMillis == 7
+        }
+    }
+}
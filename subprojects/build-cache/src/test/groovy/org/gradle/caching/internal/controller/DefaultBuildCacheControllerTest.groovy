@@ -18,17 +18,28 @@ package org.gradle.caching.internal.controller
 
 import org.gradle.api.Action
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.caching.BatchingBuildCacheService
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
+import org.gradle.caching.BuildCacheException
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.internal.operations.BuildCacheStatisticsBuildOperationType
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.operations.BuildOperationDescriptor
+import org.gradle.internal.operations.BuildOperationState
+import org.gradle.internal.operations.CurrentBuildOperationRef
+import org.gradle.internal.operations.OperationIdentifier
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import spock.lang.Specification
 import org.junit.Rule
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -84,7 +95,7 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     interface Local extends BuildCacheService, LocalBuildCacheService {}
 
-    BuildCacheController getController(boolean disableRemoteOnError = true) {
+    BuildCacheController getController(boolean disableRemoteOnError = true, int remoteStoreConcurrency = 0) {
         new DefaultBuildCacheController(
             new BuildCacheServicesConfiguration(
                 local,
@@ -96,7 +107,10 @@ class DefaultBuildCacheControllerTest extends Specification {
             TestFiles.tmpDirTemporaryFileProvider(tmpDir.root),
             false,
             false,
-            disableRemoteOnError
+            disableRemoteOnError,
+            new DefaultExecutorFactory(),
+            remoteStoreConcurrency,
+            false
         )
     }
 
@@ -108,7 +122,7 @@ class DefaultBuildCacheControllerTest extends Specification {
         controller.load(loadCommand)
 
         then:
-        1 * local.loadLocally(key, _)
+        1 * local.readLocally(key, _)
         0 * local.storeLocally(key, _)
     }
 
@@ -150,10 +164,8 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     def "local load does not stores to local"() {
         given:
-        1 * local.loadLocally(key, _) >> { BuildCacheKey key, Action<File> action ->
-            def file = tmpDir.file("file")
-            file.text = "alma"
-            action.execute(file)
+        1 * local.readLocally(key, _) >> { BuildCacheKey key, LocalBuildCacheService.EntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("alma".bytes), 4)
         }
 
         when:
@@ -165,7 +177,7 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     def "remote load also stores to local"() {
         given:
-        1 * local.loadLocally(key, _) // miss
+        1 * local.readLocally(key, _) // miss
         1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
             reader.readFrom(new ByteArrayInputStream("foo".bytes))
             true
@@ -178,6 +190,28 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * local.storeLocally(key, _)
     }
 
+    def "reports hits and misses when closed"() {
+        given:
+        1 * local.readLocally(key, _) // miss
+        1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("foo".bytes))
+            true
+        }
+
+        when:
+        controller.load(loadCommand)
+        controller.close()
+        def statistics = operations.log.mostRecentResult(BuildCacheStatisticsBuildOperationType).statistics
+
+        then:
+        statistics.localHits == 0
+        statistics.localMisses == 1
+        statistics.remoteHits == 1
+        statistics.remoteMisses == 0
+        statistics.remoteLoadLatency.requests == 1
+        statistics.packingTimeByType["unknown"].unpacked == 1
+    }
+
     def "remote load does not store to local if local is disabled"() {
         given:
         local = null
@@ -196,7 +230,7 @@ class DefaultBuildCacheControllerTest extends Specification {
     def "remote load does not store to local if local push is disabled"() {
         given:
         localPush = false
-        1 * local.loadLocally(key, _) // miss
+        1 * local.readLocally(key, _) // miss
         1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
             reader.readFrom(new ByteArrayInputStream("foo".bytes))
             true
@@ -273,6 +307,133 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * remote.store(key, _)
     }
 
+    def "stores to remote in the background and finishes pending stores when closed"() {
+        def uploadStarted = new CountDownLatch(1)
+        def uploadAllowed = new CountDownLatch(1)
+        def uploaded = null
+        def storeOperation = new BuildOperationState(BuildOperationDescriptor.displayName("store").build(new OperationIdentifier(1), null), 0)
+        storeOperation.running = true
+        BuildOperationState uploadParentOperation = null
+        def uploadParentRunning = false
+        def storeCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_ as OutputStream) >> { OutputStream output ->
+                output.withStream { it.write("entry".bytes) }
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+
+        when:
+        def controller = getController(true, 1)
+        CurrentBuildOperationRef.instance().set(storeOperation)
+        controller.store(storeCommand)
+        CurrentBuildOperationRef.instance().clear()
+        storeOperation.running = false
+        assert uploadStarted.await(10, TimeUnit.SECONDS)
+        uploadAllowed.countDown()
+        controller.close()
+
+        then:
+        1 * local.storeLocally(key, _)
+        1 * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            uploadParentOperation = CurrentBuildOperationRef.instance().get() as BuildOperationState
+            uploadParentRunning = uploadParentOperation.running
+            uploadStarted.countDown()
+            assert uploadAllowed.await(10, TimeUnit.SECONDS)
+            def output = new ByteArrayOutputStream()
+            writer.writeTo(output)
+            uploaded = new String(output.toByteArray())
+        }
+        1 * remote.close()
+        uploaded == "entry"
+        uploadParentOperation.id == storeOperation.id
+        uploadParentOperation.parentId == storeOperation.parentId
+        uploadParentRunning
+    }
+
+    def "loads prefetched entries without requesting them again"() {
+        given:
+        local = null
+        remote = Mock(BatchingBuildCacheService)
+
+        when:
+        def controller = getController()
+        controller.prefetch([key])
+        def result = controller.load(loadCommand)
+
+        then:
+        1 * remote.contains({ it as List == [key] }) >> ([key] as Set)
+        1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("foo".bytes))
+            true
+        }
+        result.get() == loadmetadata
+    }
+
+    def "does not request entries that are known to be missing"() {
+        given:
+        local = null
+        remote = Mock(BatchingBuildCacheService)
+
+        when:
+        def controller = getController()
+        controller.prefetch([key])
+        def result = controller.load(loadCommand)
+
+        then:
+        1 * remote.contains(_) >> ([] as Set)
+        0 * remote.load(_, _)
+        !result.present
+    }
+
+    def "loads entries one by one when remote does not support batched queries"() {
+        given:
+        local = null
+        remote = Mock(BatchingBuildCacheService)
+
+        when:
+        def controller = getController()
+        controller.prefetch([key])
+        controller.load(loadCommand)
+
+        then:
+        1 * remote.contains(_) >> null
+        1 * remote.load(key, _)
+    }
+
+    def "asks again for later batches after a batched query failed"() {
+        given:
+        local = null
+        remote = Mock(BatchingBuildCacheService)
+
+        when:
+        def controller = getController()
+        controller.prefetch([key])
+        controller.load(loadCommand)
+        controller.prefetch([key])
+        controller.load(loadCommand)
+
+        then:
+        2 * remote.contains(_) >> { throw new BuildCacheException("Unavailable") } >> ([] as Set)
+        1 * remote.load(key, _)
+    }
+
+    def "does not prefetch entries that are in the local cache"() {
+        given:
+        remote = Mock(BatchingBuildCacheService)
+
+        when:
+        def controller = getController()
+        controller.prefetch([key])
+        controller.close()
+
+        then:
+        1 * local.readLocally(key, _) >> { BuildCacheKey key, LocalBuildCacheService.EntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream(new byte[0]), 0)
+        }
+        0 * remote.contains(_)
+    }
+
     def "close only closes once"() {
         when:
         def controller = getController()
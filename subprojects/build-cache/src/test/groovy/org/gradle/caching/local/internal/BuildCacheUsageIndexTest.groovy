@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import org.gradle.internal.file.FileAccessTimeJournal
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+@CleanupTestDirectory
+class BuildCacheUsageIndexTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+    def cacheDir = temporaryFolder.createDir("cache")
+    def fileAccessTimeJournal = Mock(FileAccessTimeJournal)
+    def index = new BuildCacheUsageIndex(cacheDir, 1000, fileAccessTimeJournal)
+
+    def "keeps track of the total size of stored entries"() {
+        when:
+        store("aa", 100)
+        store("bb", 200)
+
+        then:
+        index.totalSize == 300
+
+        when:
+        def replaced = cacheDir.file("bb").length()
+        cacheDir.file("bb").bytes = new byte[300]
+        index.recordStore("bb", replaced, 300)
+
+        then:
+        index.totalSize == 400
+    }
+
+    def "evicts least recently used entries when growing beyond the size budget"() {
+        when:
+        store("aa", 400)
+        store("bb", 400)
+        store("cc", 400)
+
+        then:
+        !cacheDir.file("aa").exists()
+        cacheDir.file("bb").exists()
+        cacheDir.file("cc").exists()
+        index.totalSize == 800
+        1 * fileAccessTimeJournal.deleteLastAccessTime(cacheDir.file("aa"))
+    }
+
+    def "does not evict recently used entries"() {
+        store("aa", 400)
+        store("bb", 400)
+
+        when:
+        index.recordAccess("aa", 400)
+        store("cc", 400)
+
+        then:
+        cacheDir.file("aa").exists()
+        !cacheDir.file("bb").exists()
+        cacheDir.file("cc").exists()
+        index.totalSize == 800
+    }
+
+    def "evicts entries not used recently during cleanup"() {
+        entry("aa", 100)
+        entry("bb", 100)
+        fileAccessTimeJournal.getLastAccessTime(cacheDir.file("aa")) >> 100
+        fileAccessTimeJournal.getLastAccessTime(cacheDir.file("bb")) >> 1000
+
+        when:
+        def evicted = index.evictUnused(500)
+
+        then:
+        evicted == 1
+        !cacheDir.file("aa").exists()
+        cacheDir.file("bb").exists()
+        index.totalSize == 100
+    }
+
+    def "rebuilds index from the cache directory"() {
+        entry("aa", 100)
+        entry("bb", 200)
+        cacheDir.file("gc.properties").text = "ignored"
+        cacheDir.file("cc" + BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX).bytes = new byte[300]
+
+        expect:
+        index.totalSize == 300
+    }
+
+    def "rebuilds corrupt index from the cache directory"() {
+        store("aa", 100)
+        entry("bb", 200)
+        cacheDir.file(BuildCacheUsageIndex.INDEX_FILE_NAME).text = "corrupt"
+
+        expect:
+        index.totalSize == 300
+    }
+
+    def "discards a partially written record"() {
+        store("aa", 100)
+        def indexFile = cacheDir.file(BuildCacheUsageIndex.INDEX_FILE_NAME)
+        def validLength = indexFile.length()
+        indexFile << appendedRecord("bb", 200, -1)[0..<10]
+
+        when:
+        store("cc", 300)
+
+        then:
+        index.totalSize == 400
+        indexFile.length() == validLength + appendedRecord("cc", 300, -1).length
+    }
+
+    def "applies records written after the header has last been updated"() {
+        store("aa", 100)
+        entry("bb", 200)
+        cacheDir.file(BuildCacheUsageIndex.INDEX_FILE_NAME) << appendedRecord("bb", 200, -1)
+
+        expect:
+        index.totalSize == 300
+    }
+
+    def "rebuilds index with a corrupt header"() {
+        store("aa", 100)
+        entry("bb", 200)
+        def indexFile = cacheDir.file(BuildCacheUsageIndex.INDEX_FILE_NAME)
+        def bytes = indexFile.bytes
+        bytes[12] = (byte) (bytes[12] + 1)
+        indexFile.bytes = bytes
+
+        expect:
+        index.totalSize == 300
+    }
+
+    def "picks up entries used by another process when evicting"() {
+        store("aa", 400)
+        store("bb", 400)
+
+        when:
+        new BuildCacheUsageIndex(cacheDir, 1000, fileAccessTimeJournal).recordAccess("aa", 400)
+        store("cc", 400)
+
+        then:
+        cacheDir.file("aa").exists()
+        !cacheDir.file("bb").exists()
+        cacheDir.file("cc").exists()
+        index.totalSize == 800
+    }
+
+    private static byte[] appendedRecord(String key, long size, long previousSize) {
+        def bytes = new ByteArrayOutputStream()
+        def output = new DataOutputStream(bytes)
+        output.writeShort(key.length())
+        output.write(key.bytes)
+        output.writeLong(size)
+        output.writeLong(previousSize)
+        output.writeLong(0)
+        return bytes.toByteArray()
+    }
+
+    private void store(String key, int size) {
+        entry(key, size)
+        index.recordStore(key, -1, size)
+    }
+
+    private void entry(String key, int size) {
+        cacheDir.file(key).bytes = new byte[size]
+    }
+}
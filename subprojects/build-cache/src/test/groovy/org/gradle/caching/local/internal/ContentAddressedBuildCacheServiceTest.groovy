@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import com.google.common.io.ByteStreams
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.gradle.api.UncheckedIOException
+import org.gradle.api.internal.file.temp.DefaultTemporaryFileProvider
+import org.gradle.cache.CleanableStore
+import org.gradle.cache.CleanupProgressMonitor
+import org.gradle.cache.PersistentCache
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker
+import org.gradle.internal.file.FileAccessTimeJournal
+import org.gradle.internal.file.FileAccessTracker
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.zip.GZIPOutputStream
+
+@UsesNativeServices
+@CleanupTestDirectory
+class ContentAddressedBuildCacheServiceTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+    def cacheDir = temporaryFolder.createDir("cache")
+    def tmpDir = temporaryFolder.createDir("tmp")
+    def persistentCache = Mock(PersistentCache) {
+        getBaseDir() >> cacheDir
+        withFileLock(_) >> { Runnable r -> r.run() }
+    }
+    def tempFileStore = new DefaultBuildCacheTempFileStore(new DefaultTemporaryFileProvider(() -> tmpDir))
+    def fileAccessTracker = Mock(FileAccessTracker)
+    def service = new ContentAddressedBuildCacheService(cacheDir, persistentCache, tempFileStore, fileAccessTracker, ".failed")
+    def largeContent = "large content " * 1000
+
+    def "stores identical files only once"() {
+        when:
+        service.storeLocally(key("1234"), archive("first.tgz", ["tree-a/": null, "tree-a/lib.jar": largeContent, "tree-a/small.txt": "first"]))
+        service.storeLocally(key("5678"), archive("second.tgz", ["tree-b/": null, "tree-b/other.jar": largeContent, "tree-b/small.txt": "second"]))
+
+        then:
+        blobs().size() == 1
+        cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR).list().sort() == ["1234", "5678"]
+        2 * fileAccessTracker.markAccessed(_)
+    }
+
+    def "reassembles stored entry"() {
+        def entries = ["METADATA": "origin", "tree-a/": null, "tree-a/lib.jar": largeContent, "tree-a/small.txt": "small"]
+        service.storeLocally(key("1234"), archive("entry.tgz", entries))
+
+        when:
+        Map<String, String> loaded = null
+        service.loadLocally(key("1234")) { File file -> loaded = read(file) }
+
+        then:
+        loaded == entries
+    }
+
+    def "reassembles stored entry straight from the blobs while reading"() {
+        def entries = ["METADATA": "origin", "tree-a/": null, "tree-a/lib.jar": largeContent, "tree-a/small.txt": "small"]
+        service.storeLocally(key("1234"), archive("entry.tgz", entries))
+        def manifestFile = cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR, "1234")
+
+        when:
+        Map<String, String> loaded = null
+        long loadedSize = 0
+        service.readLocally(key("1234")) { InputStream input, long size ->
+            loaded = read(input)
+            loadedSize = size
+        }
+
+        then:
+        loaded == entries
+        loadedSize == manifestFile.length() + blobs()*.length().sum()
+        1 * fileAccessTracker.markAccessed(manifestFile)
+        tmpDir.list().length == 0
+    }
+
+    def "moves corrupt entry out of the way"() {
+        service.storeLocally(key("1234"), archive("entry.tgz", ["tree-a/lib.jar": largeContent]))
+        def manifestFile = cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR, "1234")
+        blobs()[0].text = "truncated"
+
+        when:
+        service.readLocally(key("1234")) { InputStream input, long size -> read(input) }
+
+        then:
+        thrown(UncheckedIOException)
+        !manifestFile.exists()
+        cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR, "1234.failed").file
+        0 * fileAccessTracker.markAccessed(_)
+    }
+
+    def "does not load missing entry"() {
+        when:
+        def loaded = false
+        service.loadLocally(key("1234")) { loaded = true }
+
+        then:
+        !loaded
+        0 * fileAccessTracker.markAccessed(_)
+    }
+
+    def "removes only unreferenced blobs during cleanup"() {
+        service.storeLocally(key("1234"), archive("first.tgz", ["tree-a/lib.jar": largeContent]))
+        service.storeLocally(key("5678"), archive("second.tgz", ["tree-a/lib.jar": largeContent, "tree-a/other.jar": largeContent.reverse()]))
+        def manifestsDir = cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR)
+        def blobsDir = cacheDir.file(ContentAddressedBuildCacheService.BLOBS_DIR)
+        def cleanup = new UnreferencedBlobsCleanup(manifestsDir, blobsDir)
+        def store = Stub(CleanableStore) {
+            getDisplayName() >> "Build cache"
+            getBaseDir() >> cacheDir
+        }
+
+        expect:
+        blobs().size() == 2
+
+        when:
+        manifestsDir.file("5678").delete()
+        cleanup.clean(store, CleanupProgressMonitor.NO_OP)
+
+        then:
+        blobs().size() == 1
+
+        when:
+        manifestsDir.file("1234").delete()
+        cleanup.clean(store, CleanupProgressMonitor.NO_OP)
+
+        then:
+        blobs().empty
+    }
+
+    def "cleanup keeps partial blobs and blobs written after it started"() {
+        service.storeLocally(key("1234"), archive("first.tgz", ["tree-a/lib.jar": largeContent]))
+        def manifestsDir = cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR)
+        def blobsDir = cacheDir.file(ContentAddressedBuildCacheService.BLOBS_DIR)
+        manifestsDir.file("1234").delete()
+        def partialBlob = blobsDir.file("blob-1234.part").createFile()
+        def newBlob = blobsDir.file("ab/abcdef").createFile()
+        newBlob.lastModified = System.currentTimeMillis() + 60000
+
+        when:
+        new UnreferencedBlobsCleanup(manifestsDir, blobsDir).clean(store(), CleanupProgressMonitor.NO_OP)
+
+        then:
+        blobs() == [newBlob]
+        partialBlob.exists()
+    }
+
+    def "cleanup removes least recently used entries until the cache fits into its size budget"() {
+        service.storeLocally(key("1111"), archive("first.tgz", ["tree-a/lib.jar": largeContent]))
+        service.storeLocally(key("2222"), archive("second.tgz", ["tree-a/lib.jar": largeContent, "tree-a/other.jar": largeContent.reverse()]))
+        service.storeLocally(key("3333"), archive("third.tgz", ["tree-a/third.jar": largeContent.toUpperCase()]))
+        def manifestsDir = cacheDir.file(ContentAddressedBuildCacheService.MANIFESTS_DIR)
+        def blobsDir = cacheDir.file(ContentAddressedBuildCacheService.BLOBS_DIR)
+        def journal = Stub(FileAccessTimeJournal) {
+            getLastAccessTime(_) >> { File file -> file.name as long }
+        }
+        // Each blob is 14000 bytes, so removing the first entry does not free its blob, as the second entry references it as well
+        def cleanup = new UnreferencedBlobsCleanup(manifestsDir, blobsDir, 30000, journal)
+
+        expect:
+        blobs().size() == 3
+
+        when:
+        cleanup.clean(store(), CleanupProgressMonitor.NO_OP)
+
+        then:
+        manifestsDir.list() as List == ["3333"]
+        blobs().size() == 1
+    }
+
+    private CleanableStore store() {
+        Stub(CleanableStore) {
+            getDisplayName() >> "Build cache"
+            getBaseDir() >> cacheDir
+        }
+    }
+
+    private List<File> blobs() {
+        def blobsDir = cacheDir.file(ContentAddressedBuildCacheService.BLOBS_DIR)
+        return (blobsDir.listFiles() ?: []).findAll { it.directory }.collectMany { it.listFiles() as List }
+    }
+
+    private TestFile archive(String name, Map<String, String> entries) {
+        def file = temporaryFolder.file(name)
+        file.withOutputStream { output ->
+            def tarOutput = new TarArchiveOutputStream(new GZIPOutputStream(output))
+            entries.each { path, content ->
+                def entry = new TarArchiveEntry(path, true)
+                def bytes = content == null ? new byte[0] : content.bytes
+                entry.size = bytes.length
+                tarOutput.putArchiveEntry(entry)
+                tarOutput.write(bytes)
+                tarOutput.closeArchiveEntry()
+            }
+            tarOutput.close()
+        }
+        return file
+    }
+
+    private static Map<String, String> read(File file) {
+        file.withInputStream { input -> read(input) }
+    }
+
+    private static Map<String, String> read(InputStream input) {
+        def result = [:]
+        def bufferedInput = new BufferedInputStream(input)
+        def compression = CompressingBuildCacheEntryPacker.readCompression(bufferedInput)
+        def tarInput = new TarArchiveInputStream(compression.decompress(bufferedInput))
+        def entry
+        while ((entry = tarInput.nextTarEntry) != null) {
+            result[entry.name] = entry.directory ? null : new String(ByteStreams.toByteArray(tarInput))
+        }
+        return result
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+}
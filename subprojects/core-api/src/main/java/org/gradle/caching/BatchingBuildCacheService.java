@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching;
+
+import org.gradle.api.Incubating;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A {@link BuildCacheService} that can check whether it contains a batch of entries with a single request.
+ *
+ * <p>
+ *     Gradle uses this to find out which entries can be loaded from the cache ahead of time, so they can be downloaded in the background.
+ *     Like for the other operations, a non-fatal failure should be reported as a {@link BuildCacheException}.
+ *     Gradle then loads the affected entries one by one, and asks again for later batches.
+ * </p>
+ *
+ * @since 7.1
+ */
+@Incubating
+public interface BatchingBuildCacheService extends BuildCacheService {
+
+    /**
+     * Returns the given keys for which the cache contains an entry.
+     *
+     * @param keys the cache keys to check.
+     * @return the contained keys, or {@code null} when the backend does not support batched queries. Gradle then does not ask again.
+     * @throws BuildCacheException if the cache fails to check for the given keys
+     */
+    @Nullable
+    Set<BuildCacheKey> contains(Collection<BuildCacheKey> keys) throws BuildCacheException;
+}
@@ -16,6 +16,8 @@
 
 package org.gradle.caching.configuration;
 
+import org.gradle.api.Incubating;
+
 /**
  * Base implementation for build cache service configuration.
  *
@@ -24,6 +26,7 @@
 public abstract class AbstractBuildCache implements BuildCache {
     private boolean enabled = true;
     private boolean push;
+    private BuildCacheCompression compression = BuildCacheCompression.GZIP;
 
     /**
      * {@inheritDoc}
@@ -56,4 +59,26 @@ public boolean isPush() {
     public void setPush(boolean push) {
         this.push = push;
     }
+
+    /**
+     * Returns the compression to use for entries stored in this build cache. Defaults to {@link BuildCacheCompression#GZIP}.
+     *
+     * @since 7.1
+     */
+    @Incubating
+    public BuildCacheCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the compression to use for entries stored in this build cache.
+     *
+     * When entries are stored in both the local and the remote build cache, the compression of the remote build cache is used.
+     *
+     * @since 7.1
+     */
+    @Incubating
+    public void setCompression(BuildCacheCompression compression) {
+        this.compression = compression;
+    }
 }
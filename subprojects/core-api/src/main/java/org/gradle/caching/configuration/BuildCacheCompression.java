@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.configuration;
+
+import org.gradle.api.Incubating;
+
+/**
+ * The compression used for build cache entries stored in a build cache.
+ *
+ * The compression is recorded in each entry, so entries can be loaded regardless of the compression configured for the build cache they are loaded from.
+ * Entries using any compression other than {@link #GZIP} can only be loaded by Gradle 7.1 and later, and fail to load with older Gradle versions.
+ * Only use another compression for build caches that are not shared with older Gradle versions.
+ *
+ * @since 7.1
+ */
+@Incubating
+public enum BuildCacheCompression {
+    /**
+     * Compresses entries with gzip. This is the default.
+     */
+    GZIP,
+
+    /**
+     * Compresses entries with the LZ4 frame format, which is considerably faster than gzip at the cost of larger entries.
+     */
+    LZ4,
+
+    /**
+     * Stores entries without compression. Useful when outputs are already compressed, like jar files.
+     */
+    NONE,
+
+    /**
+     * Compresses entries with gzip in independent chunks, which are compressed and decompressed concurrently.
+     * Produces slightly larger entries than {@link #GZIP}, but packs and unpacks large entries considerably faster on multi-core machines.
+     */
+    PARALLEL_GZIP
+}
@@ -16,6 +16,7 @@
 
 package org.gradle.caching.local;
 
+import org.gradle.api.Incubating;
 import org.gradle.caching.configuration.AbstractBuildCache;
 
 import javax.annotation.Nullable;
@@ -29,6 +30,7 @@
 public class DirectoryBuildCache extends AbstractBuildCache {
     private Object directory;
     private int removeUnusedEntriesAfterDays = 7;
+    private int maxSizeInMegabytes;
 
     /**
      * Returns the directory to use to store the build cache.
@@ -69,4 +71,29 @@ public void setRemoveUnusedEntriesAfterDays(int removeUnusedEntriesAfterDays) {
         }
         this.removeUnusedEntriesAfterDays = removeUnusedEntriesAfterDays;
     }
+
+    /**
+     * Returns the maximum size of the build cache in megabytes, or 0 if the size of the build cache is not limited. Defaults to 0.
+     *
+     * @since 7.1
+     */
+    @Incubating
+    public int getMaxSizeInMegabytes() {
+        return maxSizeInMegabytes;
+    }
+
+    /**
+     * Sets the maximum size of the build cache in megabytes. Use 0 to not limit the size of the build cache.
+     *
+     * When storing an entry makes the build cache grow beyond this size, the least recently used entries are removed.
+     *
+     * @since 7.1
+     */
+    @Incubating
+    public void setMaxSizeInMegabytes(int maxSizeInMegabytes) {
+        if (maxSizeInMegabytes < 0) {
+            throw new IllegalArgumentException("Directory build cache size limit cannot be negative.");
+        }
+        this.maxSizeInMegabytes = maxSizeInMegabytes;
+    }
 }
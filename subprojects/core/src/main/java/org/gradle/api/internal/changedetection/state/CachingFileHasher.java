@@ -53,7 +53,8 @@ public CachingFileHasher(
         this.delegate = delegate;
         this.fileSystem = fileSystem;
         this.cache = store.createCache(
-            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer()),
+            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer())
+                .withStorageType(PersistentIndexedCacheParameters.StorageType.BTREE_WITH_WRITE_AHEAD_LOG),
             inMemorySize,
             true);
         this.stringInterner = stringInterner;
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.collect.Interner;
+import org.gradle.cache.CacheRepository;
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.PersistentCache;
+import org.gradle.internal.execution.history.impl.FileSystemSnapshotSerializer;
+import org.gradle.internal.file.FileMetadata;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.file.Stat;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
+import org.gradle.internal.watch.vfs.VirtualFileSystemStateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
+/**
+ * Keeps the snapshots of each watchable hierarchy in a file in the Gradle user home.
+ *
+ * <p>The file is keyed by the absolute path of the hierarchy and the identity of its root directory on the file system,
+ * so a different checkout or volume mounted at the same path does not pick up the state.</p>
+ *
+ * <p>Loaded snapshots are validated without hashing any content: regular files need to have the same length and modification time,
+ * missing files still need to be missing, and directories need to have the same modification time as when the state was persisted,
+ * so no children have been added or removed.
+ * Snapshots with any changed location are discarded as a whole.</p>
+ */
+public class DefaultVirtualFileSystemStateStore implements VirtualFileSystemStateStore, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultVirtualFileSystemStateStore.class);
+
+    private final PersistentCache cache;
+    private final Stat stat;
+    private final FileSystemSnapshotSerializer snapshotSerializer;
+
+    public DefaultVirtualFileSystemStateStore(CacheRepository cacheRepository, Stat stat, Interner<String> stringInterner) {
+        this.cache = cacheRepository.cache("vfs")
+            .withDisplayName("virtual file system state")
+            .withLockOptions(mode(FileLockManager.LockMode.OnDemand))
+            .open();
+        this.stat = stat;
+        this.snapshotSerializer = new FileSystemSnapshotSerializer(stringInterner);
+    }
+
+    @Override
+    public Collection<FileSystemLocationSnapshot> load(File watchableHierarchy) {
+        String key = keyFor(watchableHierarchy);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        File stateFile = stateFileFor(key);
+        return cache.withFileLock(() -> {
+            if (!stateFile.isFile()) {
+                return Collections.<FileSystemLocationSnapshot>emptyList();
+            }
+            List<FileSystemLocationSnapshot> snapshots = new ArrayList<>();
+            int discarded = 0;
+            try (KryoBackedDecoder decoder = new KryoBackedDecoder(new FileInputStream(stateFile))) {
+                if (!decoder.readString().equals(key)) {
+                    return Collections.<FileSystemLocationSnapshot>emptyList();
+                }
+                int count = decoder.readSmallInt();
+                for (int i = 0; i < count; i++) {
+                    FileSystemLocationSnapshot snapshot = (FileSystemLocationSnapshot) snapshotSerializer.read(decoder);
+                    long[] directoryTimestamps = new long[decoder.readSmallInt()];
+                    for (int j = 0; j < directoryTimestamps.length; j++) {
+                        directoryTimestamps[j] = decoder.readLong();
+                    }
+                    if (isUpToDate(snapshot, directoryTimestamps)) {
+                        snapshots.add(snapshot);
+                    } else {
+                        discarded++;
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Could not load the persisted virtual file system state for {}.", watchableHierarchy, e);
+                return Collections.<FileSystemLocationSnapshot>emptyList();
+            }
+            LOGGER.debug("Loaded {} snapshots for {} from the persisted virtual file system state, discarded {} out-of-date snapshots.", snapshots.size(), watchableHierarchy, discarded);
+            return snapshots;
+        });
+    }
+
+    @Override
+    public void store(File watchableHierarchy, Collection<FileSystemLocationSnapshot> snapshots, long unstableSince) {
+        String key = keyFor(watchableHierarchy);
+        if (key == null) {
+            return;
+        }
+        File stateFile = stateFileFor(key);
+        cache.withFileLock(() -> {
+            try (KryoBackedEncoder encoder = new KryoBackedEncoder(new FileOutputStream(stateFile))) {
+                List<FileSystemLocationSnapshot> stableSnapshots = new ArrayList<>(snapshots.size());
+                List<long[]> timestamps = new ArrayList<>(snapshots.size());
+                for (FileSystemLocationSnapshot snapshot : snapshots) {
+                    long[] directoryTimestamps = captureDirectoryTimestamps(snapshot, unstableSince);
+                    if (directoryTimestamps != null) {
+                        stableSnapshots.add(snapshot);
+                        timestamps.add(directoryTimestamps);
+                    }
+                }
+                encoder.writeString(key);
+                encoder.writeSmallInt(stableSnapshots.size());
+                for (int i = 0; i < stableSnapshots.size(); i++) {
+                    snapshotSerializer.write(encoder, stableSnapshots.get(i));
+                    long[] directoryTimestamps = timestamps.get(i);
+                    encoder.writeSmallInt(directoryTimestamps.length);
+                    for (long timestamp : directoryTimestamps) {
+                        encoder.writeLong(timestamp);
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Could not persist the virtual file system state for {}.", watchableHierarchy, e);
+                if (!stateFile.delete() && stateFile.exists()) {
+                    LOGGER.debug("Could not delete {}.", stateFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the modification times of the directories in the snapshot in visiting order,
+     * or {@code null} when the snapshot can't be validated later on.
+     */
+    @Nullable
+    private static long[] captureDirectoryTimestamps(FileSystemLocationSnapshot snapshot, long unstableSince) {
+        List<Long> timestamps = new ArrayList<>();
+        boolean[] stable = {true};
+        snapshot.accept(new FileSystemSnapshotHierarchyVisitor() {
+            @Override
+            public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry) {
+                if (!stable[0]) {
+                    return SnapshotVisitResult.TERMINATE;
+                }
+                // Locations accessed via symlinks can change without their own metadata changing
+                if (entry.getAccessType() != FileMetadata.AccessType.DIRECT) {
+                    stable[0] = false;
+                } else if (entry instanceof DirectorySnapshot) {
+                    long lastModified = lastModified(entry);
+                    // The directory has been modified during the build, possibly after it has been snapshotted
+                    if (lastModified < 0 || lastModified >= unstableSince) {
+                        stable[0] = false;
+                    } else {
+                        timestamps.add(lastModified);
+                    }
+                }
+                return stable[0] ? SnapshotVisitResult.CONTINUE : SnapshotVisitResult.TERMINATE;
+            }
+        });
+        if (!stable[0]) {
+            return null;
+        }
+        return timestamps.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private boolean isUpToDate(FileSystemLocationSnapshot snapshot, long[] directoryTimestamps) {
+        int[] nextDirectory = {0};
+        boolean[] upToDate = {true};
+        snapshot.accept(new FileSystemSnapshotHierarchyVisitor() {
+            @Override
+            public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry) {
+                if (upToDate[0]) {
+                    upToDate[0] = isEntryUpToDate(entry);
+                }
+                return upToDate[0] ? SnapshotVisitResult.CONTINUE : SnapshotVisitResult.TERMINATE;
+            }
+
+            private boolean isEntryUpToDate(FileSystemLocationSnapshot entry) {
+                if (entry instanceof DirectorySnapshot) {
+                    return nextDirectory[0] < directoryTimestamps.length
+                        && lastModified(entry) == directoryTimestamps[nextDirectory[0]++];
+                } else if (entry instanceof RegularFileSnapshot) {
+                    FileMetadata expected = ((RegularFileSnapshot) entry).getMetadata();
+                    FileMetadata actual = stat.stat(new File(entry.getAbsolutePath()));
+                    return actual.getType() == FileType.RegularFile
+                        && actual.getLastModified() == expected.getLastModified()
+                        && actual.getLength() == expected.getLength();
+                } else {
+                    return entry instanceof MissingFileSnapshot
+                        && stat.stat(new File(entry.getAbsolutePath())).getType() == FileType.Missing;
+                }
+            }
+        });
+        return upToDate[0] && nextDirectory[0] == directoryTimestamps.length;
+    }
+
+    private static long lastModified(FileSystemLocationSnapshot directory) {
+        try {
+            return Files.getLastModifiedTime(new File(directory.getAbsolutePath()).toPath()).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Identifies the hierarchy by its path and, where the file system provides one, the file key of its root directory.
+     */
+    @Nullable
+    private static String keyFor(File watchableHierarchy) {
+        try {
+            Object fileKey = Files.readAttributes(watchableHierarchy.toPath(), BasicFileAttributes.class).fileKey();
+            return fileKey == null
+                ? watchableHierarchy.getAbsolutePath()
+                : watchableHierarchy.getAbsolutePath() + File.pathSeparator + fileKey;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private File stateFileFor(String key) {
+        return new File(cache.getBaseDir(), Hashing.hashString(key) + ".bin");
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+}
@@ -65,7 +65,9 @@ public void close() throws IOException {
 
     @Override
     public <V> FileContentCache<V> newCache(String name, int normalizedCacheSize, final Calculator<? extends V> calculator, Serializer<V> serializer) {
+        // Entries are keyed by file content, so they are never replaced once written
         PersistentIndexedCacheParameters<HashCode, V> parameters = PersistentIndexedCacheParameters.of(name, hashCodeSerializer, serializer)
+            .withStorageType(PersistentIndexedCacheParameters.StorageType.MAPPED_LOG)
             .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(normalizedCacheSize, true));
         PersistentIndexedCache<HashCode, V> store = cache.createCache(parameters);
 
@@ -79,6 +79,11 @@ public BuildCacheKey getKey() {
             return cacheKey;
         }
 
+        @Override
+        public Class<?> getEntityType() {
+            return entity.getType();
+        }
+
         @Override
         public BuildCacheLoadCommand.Result<LoadMetadata> load(InputStream input) throws IOException {
             ImmutableList.Builder<String> roots = ImmutableList.builder();
@@ -151,6 +156,11 @@ public BuildCacheKey getKey() {
             return cacheKey;
         }
 
+        @Override
+        public Class<?> getEntityType() {
+            return entity.getType();
+        }
+
         @Override
         public BuildCacheStoreCommand.Result store(OutputStream output) throws IOException {
             final BuildCacheEntryPacker.PackResult packResult = packer.pack(entity, snapshots, output, originMetadataFactory.createWriter(entity, executionTime));
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.work.NoAvailableWorkerLeaseException;
+import org.gradle.internal.work.WorkerLeaseRegistry.WorkerLease;
+import org.gradle.internal.work.WorkerLeaseService;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the parts of packing and unpacking build cache entries that can be processed concurrently.
+ *
+ * Each task runs with a child of the worker lease of the thread that submitted it, so packing never uses more threads than the build is allowed to use workers.
+ * The first child borrows the lease of its parent, which is blocked waiting for the results, further children wait for a worker lease to become available.
+ * Tasks submitted from a thread without a worker lease are run on the submitting thread.
+ */
+public class BuildCacheEntryPackingExecutor implements Executor, Stoppable {
+    private final ManagedExecutor executor;
+    private final WorkerLeaseService workerLeaseService;
+
+    public BuildCacheEntryPackingExecutor(ExecutorFactory executorFactory, WorkerLeaseService workerLeaseService) {
+        this.executor = executorFactory.create("Build cache entry packing", workerLeaseService.getMaxWorkerCount());
+        this.workerLeaseService = workerLeaseService;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        WorkerLease parentWorkerLease;
+        try {
+            parentWorkerLease = workerLeaseService.getCurrentWorkerLease();
+        } catch (NoAvailableWorkerLeaseException e) {
+            command.run();
+            return;
+        }
+        executor.execute(() -> workerLeaseService.withLocks(Collections.singleton(parentWorkerLease.createChild()), command));
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
@@ -18,8 +18,17 @@
 
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 
+import javax.annotation.Nullable;
 import java.io.File;
 
 interface ClasspathFileTransformer {
     File transform(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir);
+
+    /**
+     * Locates the already transformed file in the given cache directory, without writing to it or locking it.
+     *
+     * @return the transformed file, or {@code null} when the cache does not contain it.
+     */
+    @Nullable
+    File findTransformed(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir);
 }
@@ -23,9 +23,17 @@
 import org.gradle.internal.service.scopes.Scopes;
 import org.gradle.internal.service.scopes.ServiceScope;
 
+import java.io.File;
+import java.util.Optional;
+
 @ServiceScope(Scopes.UserHome.class)
 public interface ClasspathTransformerCacheFactory {
     PersistentCache createCache(CacheRepository cacheRepository, FileAccessTimeJournal fileAccessTimeJournal);
 
     FileAccessTracker createFileAccessTracker(FileAccessTimeJournal fileAccessTimeJournal);
+
+    /**
+     * Returns the read-only, pre-populated cache of transformed jars to look into before the writable one, if one is configured.
+     */
+    Optional<File> getReadOnlyCacheDir();
 }
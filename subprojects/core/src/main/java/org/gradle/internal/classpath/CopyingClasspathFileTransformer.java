@@ -21,6 +21,7 @@
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.util.internal.GFileUtils;
 
+import javax.annotation.Nullable;
 import java.io.File;
 
 public class CopyingClasspathFileTransformer implements ClasspathFileTransformer {
@@ -44,11 +45,25 @@ public File transform(File source, FileSystemLocationSnapshot sourceSnapshot, Fi
         }
 
         // Copy the file into the cache
-        File cachedFile = new File(cacheDir, "o_" + sourceSnapshot.getHash().toString() + '/' + source.getName());
+        File cachedFile = cachedFileFor(source, sourceSnapshot, cacheDir);
         if (!cachedFile.isFile()) {
             // Just copy the jar
             GFileUtils.copyFile(source, cachedFile);
         }
         return cachedFile;
     }
+
+    @Nullable
+    @Override
+    public File findTransformed(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir) {
+        if (sourceSnapshot.getType() != FileType.RegularFile) {
+            return null;
+        }
+        File cachedFile = cachedFileFor(source, sourceSnapshot, cacheDir);
+        return cachedFile.isFile() ? cachedFile : null;
+    }
+
+    private static File cachedFileFor(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir) {
+        return new File(cacheDir, "o_" + sourceSnapshot.getHash().toString() + '/' + source.getName());
+    }
 }
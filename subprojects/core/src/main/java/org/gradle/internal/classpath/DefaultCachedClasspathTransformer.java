@@ -52,6 +52,7 @@
 public class DefaultCachedClasspathTransformer implements CachedClasspathTransformer, Closeable {
 
     private final PersistentCache cache;
+    private final File readOnlyCacheDir;
     private final FileAccessTracker fileAccessTracker;
     private final ClasspathWalker classpathWalker;
     private final ClasspathBuilder classpathBuilder;
@@ -77,6 +78,7 @@ public DefaultCachedClasspathTransformer(
         this.globalCacheLocations = globalCacheLocations;
         this.fileLockManager = fileLockManager;
         this.cache = classpathTransformerCacheFactory.createCache(cacheRepository, fileAccessTimeJournal);
+        this.readOnlyCacheDir = classpathTransformerCacheFactory.getReadOnlyCacheDir().orElse(null);
         this.fileAccessTracker = classpathTransformerCacheFactory.createFileAccessTracker(fileAccessTimeJournal);
         this.executor = executorFactory.create("jar transforms", Runtime.getRuntime().availableProcessors());
     }
@@ -190,6 +192,13 @@ private Optional<Either<File, Callable<File>>> cachedFile(
     }
 
     private File transformFile(File original, FileSystemLocationSnapshot snapshot, ClasspathFileTransformer transformer) {
+        if (readOnlyCacheDir != null) {
+            // The read-only cache is not ours to lock or clean up, so we don't track access to it either
+            File readOnlyResult = transformer.findTransformed(original, snapshot, readOnlyCacheDir);
+            if (readOnlyResult != null) {
+                return readOnlyResult;
+            }
+        }
         final File result = transformer.transform(original, snapshot, cache.getBaseDir());
         markAccessed(result, original);
         return result;
@@ -201,7 +210,8 @@ private FileSystemLocationSnapshot snapshotOf(File file) {
 
     private boolean shouldUseFromCache(File original) {
         // Transform everything that has not already been transformed
-        return !original.toPath().startsWith(cache.getBaseDir().toPath());
+        return !original.toPath().startsWith(cache.getBaseDir().toPath())
+            && (readOnlyCacheDir == null || !original.toPath().startsWith(readOnlyCacheDir.toPath()));
     }
 
     private void markAccessed(File result, File original) {
@@ -33,13 +33,19 @@
 import org.gradle.internal.file.FileAccessTracker;
 import org.gradle.internal.file.impl.SingleDepthFileAccessTracker;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Optional;
 
 import static org.gradle.cache.internal.CacheVersionMapping.introducedIn;
 import static org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup.DEFAULT_MAX_AGE_IN_DAYS_FOR_RECREATABLE_CACHE_ENTRIES;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
 public class DefaultClasspathTransformerCacheFactory implements ClasspathTransformerCacheFactory {
+    /**
+     * The same variable that configures the read-only dependency cache, so that one pre-populated copy of the caches directory serves both.
+     */
+    public static final String READONLY_CACHE_ENV_VAR = "GRADLE_RO_DEP_CACHE";
     private static final CacheVersionMapping CACHE_VERSION_MAPPING = introducedIn("2.2")
         .incrementedIn("3.2-rc-1")
         .incrementedIn("3.5-rc-1")
@@ -52,10 +58,21 @@ public class DefaultClasspathTransformerCacheFactory implements ClasspathTransfo
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
 
     private final File cacheDir;
+    private final File readOnlyCacheDir;
     private final UsedGradleVersions usedGradleVersions;
 
     public DefaultClasspathTransformerCacheFactory(CacheScopeMapping cacheScopeMapping, UsedGradleVersions usedGradleVersions) {
+        this(cacheScopeMapping, usedGradleVersions, null);
+    }
+
+    /**
+     * @param readOnlyCacheBaseDir the root of a read-only, pre-populated copy of the caches directory, laid out like the read-only dependency cache.
+     */
+    public DefaultClasspathTransformerCacheFactory(CacheScopeMapping cacheScopeMapping, UsedGradleVersions usedGradleVersions, @Nullable File readOnlyCacheBaseDir) {
         this.cacheDir = cacheScopeMapping.getBaseDirectory(null, CACHE_KEY, VersionStrategy.SharedCache);
+        this.readOnlyCacheDir = readOnlyCacheBaseDir == null
+            ? null
+            : cacheScopeMapping.getBaseDirectory(readOnlyCacheBaseDir, CACHE_KEY, VersionStrategy.SharedCache);
         this.usedGradleVersions = usedGradleVersions;
     }
 
@@ -83,4 +100,9 @@ public PersistentCache createCache(CacheRepository cacheRepository, FileAccessTi
     public FileAccessTracker createFileAccessTracker(FileAccessTimeJournal fileAccessTimeJournal) {
         return new SingleDepthFileAccessTracker(fileAccessTimeJournal, cacheDir, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
     }
+
+    @Override
+    public Optional<File> getReadOnlyCacheDir() {
+        return Optional.ofNullable(readOnlyCacheDir).filter(File::isDirectory);
+    }
 }
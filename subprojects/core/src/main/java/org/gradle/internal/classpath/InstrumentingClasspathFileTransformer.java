@@ -37,6 +37,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 
@@ -77,7 +78,7 @@ private HashCode configHashFor(CachedClasspathTransformer.Transform transform) {
     public File transform(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir) {
         String destDirName = hashOf(sourceSnapshot);
         File destDir = new File(cacheDir, destDirName);
-        String destFileName = sourceSnapshot.getType() == FileType.Directory ? source.getName() + ".jar" : source.getName();
+        String destFileName = destFileNameFor(source, sourceSnapshot);
         File receipt = new File(destDir, destFileName + ".receipt");
         File transformed = new File(destDir, destFileName);
 
@@ -108,6 +109,21 @@ public File transform(File source, FileSystemLocationSnapshot sourceSnapshot, Fi
         }
     }
 
+    @Nullable
+    @Override
+    public File findTransformed(File source, FileSystemLocationSnapshot sourceSnapshot, File cacheDir) {
+        File destDir = new File(cacheDir, hashOf(sourceSnapshot));
+        String destFileName = destFileNameFor(source, sourceSnapshot);
+        // The receipt is only written once the transformed file is complete
+        return new File(destDir, destFileName + ".receipt").isFile()
+            ? new File(destDir, destFileName)
+            : null;
+    }
+
+    private static String destFileNameFor(File source, FileSystemLocationSnapshot sourceSnapshot) {
+        return sourceSnapshot.getType() == FileType.Directory ? source.getName() + ".jar" : source.getName();
+    }
+
     private FileLock exclusiveLockFor(File file) {
         return fileLockManager.lock(
             file,
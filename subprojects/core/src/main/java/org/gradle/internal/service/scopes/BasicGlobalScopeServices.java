@@ -33,8 +33,10 @@
 import org.gradle.cache.FileLockManager;
 import org.gradle.cache.internal.DefaultFileLockManager;
 import org.gradle.cache.internal.DefaultProcessMetaDataProvider;
+import org.gradle.cache.internal.FileLockStatistics;
 import org.gradle.cache.internal.locklistener.DefaultFileLockContentionHandler;
 import org.gradle.cache.internal.locklistener.FileLockContentionHandler;
+import org.gradle.cache.internal.locklistener.FileLockReleaseTable;
 import org.gradle.internal.Factory;
 import org.gradle.internal.concurrent.DefaultExecutorFactory;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -66,11 +68,17 @@ void configure(ServiceRegistration serviceRegistration) {
         serviceRegistration.addProvider(new MessagingServices());
     }
 
-    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler) {
+    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler, FileLockStatistics.Collector fileLockStatisticsCollector) {
         return new DefaultFileLockManager(
             new DefaultProcessMetaDataProvider(
                 processEnvironment),
-            fileLockContentionHandler);
+            fileLockContentionHandler,
+            FileLockReleaseTable.openForCurrentUser(),
+            fileLockStatisticsCollector);
+    }
+
+    FileLockStatistics.Collector createFileLockStatisticsCollector() {
+        return new FileLockStatistics.Collector();
     }
 
 
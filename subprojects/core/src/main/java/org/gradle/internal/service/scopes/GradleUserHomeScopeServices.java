@@ -158,9 +158,11 @@ ClasspathTransformerCacheFactory createClasspathTransformerCache(
         CacheScopeMapping cacheScopeMapping,
         UsedGradleVersions usedGradleVersions
     ) {
+        String readOnlyCache = System.getenv(DefaultClasspathTransformerCacheFactory.READONLY_CACHE_ENV_VAR);
         return new DefaultClasspathTransformerCacheFactory(
             cacheScopeMapping,
-            usedGradleVersions
+            usedGradleVersions,
+            readOnlyCache == null || readOnlyCache.isEmpty() ? null : new File(readOnlyCache).getAbsoluteFile()
         );
     }
 
@@ -28,10 +28,12 @@
 import org.gradle.api.internal.tasks.DefaultTaskDependencyFactory;
 import org.gradle.api.internal.tasks.TaskDependencyFactory;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.internal.CacheCleanupScheduler;
 import org.gradle.cache.internal.CacheFactory;
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
 import org.gradle.cache.internal.DefaultCacheFactory;
 import org.gradle.cache.internal.DefaultCrossBuildInMemoryCacheFactory;
+import org.gradle.cache.internal.PersistentIndexedCacheStatisticsProgressDetails;
 import org.gradle.initialization.DefaultLegacyTypesSupport;
 import org.gradle.initialization.LegacyTypesSupport;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -67,8 +69,16 @@
 
 public class WorkerSharedGlobalScopeServices extends BasicGlobalScopeServices {
 
-    protected CacheFactory createCacheFactory(FileLockManager fileLockManager, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory) {
-        return new DefaultCacheFactory(fileLockManager, executorFactory, progressLoggerFactory);
+    CacheCleanupScheduler createCacheCleanupScheduler() {
+        return new CacheCleanupScheduler();
+    }
+
+    PersistentIndexedCacheStatisticsProgressDetails.Collector createPersistentIndexedCacheStatisticsCollector() {
+        return new PersistentIndexedCacheStatisticsProgressDetails.Collector();
+    }
+
+    protected CacheFactory createCacheFactory(FileLockManager fileLockManager, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory, CacheCleanupScheduler cacheCleanupScheduler, PersistentIndexedCacheStatisticsProgressDetails.Collector cacheStatisticsCollector) {
+        return new DefaultCacheFactory(fileLockManager, executorFactory, progressLoggerFactory, cacheCleanupScheduler, cacheStatisticsCollector);
     }
 
     LegacyTypesSupport createLegacyTypesSupport() {
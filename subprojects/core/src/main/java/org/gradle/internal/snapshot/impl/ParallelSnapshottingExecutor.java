@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Walks the subtrees of large directories when parallel snapshotting is enabled.
+ *
+ * Threads waiting for a subtree walk it themselves when no pool thread has started it yet,
+ * so snapshotting does not depend on this executor making progress.
+ */
+public class ParallelSnapshottingExecutor implements Executor, Stoppable {
+    private final ManagedExecutor executor;
+
+    public ParallelSnapshottingExecutor(ExecutorFactory executorFactory) {
+        this.executor = executorFactory.create("File system snapshotting", Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
@@ -16,7 +16,9 @@
 package org.gradle.testfixtures.internal;
 
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.internal.CacheCleanupScheduler;
 import org.gradle.cache.internal.CacheFactory;
+import org.gradle.cache.internal.PersistentIndexedCacheStatisticsProgressDetails;
 import org.gradle.internal.Factory;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.logging.LoggingManagerInternal;
@@ -29,7 +31,7 @@ public TestGlobalScopeServices() {
     }
 
     @Override
-    protected CacheFactory createCacheFactory(FileLockManager fileLockManager, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory) {
+    protected CacheFactory createCacheFactory(FileLockManager fileLockManager, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory, CacheCleanupScheduler cacheCleanupScheduler, PersistentIndexedCacheStatisticsProgressDetails.Collector cacheStatisticsCollector) {
         return new TestInMemoryCacheFactory();
     }
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.cache.internal.DefaultCacheRepository
+import org.gradle.cache.internal.DefaultCacheScopeMapping
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testfixtures.internal.TestInMemoryCacheFactory
+import org.gradle.util.GradleVersion
+import org.junit.Rule
+import spock.lang.Specification
+
+class DefaultVirtualFileSystemStateStoreTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def userHome = tmpDir.createDir("user-home")
+    def cacheRepository = new DefaultCacheRepository(new DefaultCacheScopeMapping(userHome, null, GradleVersion.current()), new TestInMemoryCacheFactory())
+    def store = new DefaultVirtualFileSystemStateStore(cacheRepository, TestFiles.fileSystem(), new StringInterner())
+    def hierarchy = tmpDir.createDir("project")
+    def sources = hierarchy.createDir("src")
+    def afterSnapshotting = System.currentTimeMillis() + 10000
+
+    def setup() {
+        sources.file("a.txt").text = "a"
+        sources.file("b.txt").text = "b"
+        sources.makeOlder()
+    }
+
+    def cleanup() {
+        store.close()
+    }
+
+    def "loads persisted snapshots which are still up-to-date"() {
+        def snapshot = snapshot(sources)
+
+        when:
+        store.store(hierarchy, [snapshot], afterSnapshotting)
+        def loaded = store.load(hierarchy)
+
+        then:
+        loaded.size() == 1
+        loaded[0].absolutePath == sources.absolutePath
+        loaded[0].hash == snapshot.hash
+    }
+
+    def "discards snapshots with changed files"() {
+        store.store(hierarchy, [snapshot(sources)], afterSnapshotting)
+
+        when:
+        sources.file("a.txt").text = "changed"
+
+        then:
+        store.load(hierarchy).empty
+    }
+
+    def "discards snapshots with added files"() {
+        store.store(hierarchy, [snapshot(sources)], afterSnapshotting)
+
+        when:
+        sources.file("c.txt").text = "c"
+
+        then:
+        store.load(hierarchy).empty
+    }
+
+    def "does not persist snapshots of directories modified while they could have been snapshotted"() {
+        when:
+        store.store(hierarchy, [snapshot(sources)], 0)
+
+        then:
+        store.load(hierarchy).empty
+    }
+
+    def "does not load state persisted for another hierarchy"() {
+        def otherHierarchy = tmpDir.createDir("other")
+
+        when:
+        store.store(hierarchy, [snapshot(sources)], afterSnapshotting)
+
+        then:
+        store.load(otherHierarchy).empty
+    }
+
+    private static FileSystemLocationSnapshot snapshot(File location) {
+        TestFiles.fileSystemAccess().read(location.absolutePath, { it })
+    }
+}
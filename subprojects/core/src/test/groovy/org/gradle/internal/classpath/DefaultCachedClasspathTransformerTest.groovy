@@ -198,6 +198,41 @@ class DefaultCachedClasspathTransformerTest extends ConcurrentSpec {
         0 * fileAccessTimeJournal._
     }
 
+    def "reuses file from read-only cache when transform is none"() {
+        given:
+        def file = testDir.file("thing.jar")
+        jar(file)
+        def classpath = DefaultClassPath.of(file)
+        def readOnlyCacheDir = testDir.file("read-only/jars")
+        def readOnlyFile = readOnlyCacheDir.file("o_e161f24809571a55f09d3f820c8e5942/thing.jar")
+        jar(readOnlyFile)
+        def readOnlyCacheScopeMapping = Stub(CacheScopeMapping) {
+            getBaseDirectory(null, _, _) >> cachedDir
+            getBaseDirectory(testDir.file("read-only"), _, _) >> readOnlyCacheDir
+        }
+        def readOnlyTransformer = new DefaultCachedClasspathTransformer(
+            cacheRepository,
+            new DefaultClasspathTransformerCacheFactory(readOnlyCacheScopeMapping, usedGradleVersions, testDir.file("read-only")),
+            fileAccessTimeJournal,
+            classpathWalker,
+            classpathBuilder,
+            fileSystemAccess,
+            executorFactory,
+            globalCacheLocations,
+            fileLockManager
+        )
+
+        when:
+        def cachedClasspath = readOnlyTransformer.transform(classpath, None)
+
+        then:
+        cachedClasspath.asFiles == [readOnlyFile]
+        !cachedDir.file("o_e161f24809571a55f09d3f820c8e5942").exists()
+
+        and:
+        0 * fileAccessTimeJournal._
+    }
+
     def "copies file into cache when content has changed and transform is none"() {
         given:
         def file = testDir.file("thing.jar")
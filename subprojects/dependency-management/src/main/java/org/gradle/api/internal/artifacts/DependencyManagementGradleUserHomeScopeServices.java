@@ -19,6 +19,7 @@
 import org.gradle.BuildAdapter;
 import org.gradle.BuildResult;
 import org.gradle.api.internal.DocumentationRegistry;
+import org.gradle.api.internal.artifacts.ivyservice.ArtifactCacheMetadata;
 import org.gradle.api.internal.artifacts.ivyservice.ArtifactCachesProvider;
 import org.gradle.api.internal.artifacts.ivyservice.DefaultArtifactCaches;
 import org.gradle.api.internal.artifacts.transform.ImmutableTransformationWorkspaceServices;
@@ -38,6 +39,8 @@
 import org.gradle.internal.file.FileAccessTimeJournal;
 import org.gradle.internal.service.ServiceRegistry;
 
+import java.io.File;
+
 public class DependencyManagementGradleUserHomeScopeServices {
 
     DefaultArtifactCaches.WritableArtifactCacheLockingParameters createWritableArtifactCacheLockingParameters(FileAccessTimeJournal fileAccessTimeJournal, UsedGradleVersions usedGradleVersions) {
@@ -106,7 +109,11 @@ ImmutableTransformationWorkspaceServices createTransformerWorkspaceServices(
                 .map(transformedFiles -> transformedFiles.stream()
                     .allMatch(transformedFile -> globalCacheLocations.isInsideGlobalCache(transformedFile.getAbsolutePath()))
                 ).getOrMapFailure(__ -> false)
-            )
+            ),
+            artifactCaches.getReadOnlyCacheMetadata()
+                .map(ArtifactCacheMetadata::getTransformsStoreDirectory)
+                .filter(File::isDirectory)
+                .orElse(null)
         );
     }
 }
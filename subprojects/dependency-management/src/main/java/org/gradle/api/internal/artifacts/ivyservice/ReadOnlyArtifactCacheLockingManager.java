@@ -28,6 +28,8 @@
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
 import java.util.function.Function;
 
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
@@ -178,6 +180,16 @@ public void put(final K key, final V value) {
             cache.useCache(() -> persistentCache.put(key, value));
         }
 
+        @Override
+        public Map<K, V> getAll(Collection<? extends K> keys) {
+            return cache.useCache(() -> persistentCache.getAll(keys));
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> entries) {
+            cache.useCache(() -> persistentCache.putAll(entries));
+        }
+
         @Override
         public void remove(final K key) {
             cache.useCache(() -> persistentCache.remove(key));
@@ -28,6 +28,7 @@
 import org.gradle.api.internal.project.ProjectStateRegistry;
 import org.gradle.api.internal.provider.Providers;
 import org.gradle.api.provider.Provider;
+import org.gradle.cache.Cache;
 import org.gradle.internal.Try;
 import org.gradle.internal.execution.DeferredExecutionHandler;
 import org.gradle.internal.execution.ExecutionEngine;
@@ -55,6 +56,8 @@
 import org.gradle.internal.time.Time;
 import org.gradle.internal.time.Timer;
 import org.gradle.internal.vfs.FileSystemAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -79,6 +82,7 @@
 import static org.gradle.internal.file.TreeType.FILE;
 
 public class DefaultTransformerInvocationFactory implements TransformerInvocationFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultTransformerInvocationFactory.class);
     private static final CachingDisabledReason NOT_CACHEABLE = new CachingDisabledReason(CachingDisabledReasonCategory.NOT_CACHEABLE, "Caching not enabled.");
     private static final String INPUT_ARTIFACT_PROPERTY_NAME = "inputArtifact";
     private static final String INPUT_ARTIFACT_PATH_PROPERTY_NAME = "inputArtifactPath";
@@ -127,7 +131,8 @@ public CacheableInvocation<ImmutableList<File>> createInvocation(
         ProjectInternal producerProject = determineProducerProject(subject);
         TransformationWorkspaceServices workspaceServices = determineWorkspaceServices(producerProject);
 
-        UnitOfWork execution;
+        AbstractTransformerExecution execution;
+        Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> identityCache;
         if (producerProject == null) {
             execution = new ImmutableTransformerExecution(
                 transformer,
@@ -139,6 +144,7 @@ public CacheableInvocation<ImmutableList<File>> createInvocation(
                 fileSystemAccess,
                 workspaceServices
             );
+            identityCache = new ReadOnlyWorkspaceFallbackCache(workspaceServices.getIdentityCache(), execution);
         } else {
             execution = new MutableTransformerExecution(
                 transformer,
@@ -149,10 +155,11 @@ public CacheableInvocation<ImmutableList<File>> createInvocation(
                 inputFingerprinter,
                 workspaceServices
             );
+            identityCache = workspaceServices.getIdentityCache();
         }
 
         return executionEngine.createRequest(execution)
-            .withIdentityCache(workspaceServices.getIdentityCache())
+            .withIdentityCache(identityCache)
             .getOrDeferExecution(new DeferredExecutionHandler<ImmutableList<File>, CacheableInvocation<ImmutableList<File>>>() {
                 @Override
                 public CacheableInvocation<ImmutableList<File>> processCachedOutput(Try<ImmutableList<File>> cachedOutput) {
@@ -338,6 +345,22 @@ public Object loadRestoredOutput(File workspace) {
             return readResultsFile(workspace);
         }
 
+        /**
+         * Loads the results of the given workspace from the read-only cache, if the workspace has been completed there.
+         */
+        public Optional<ImmutableList<File>> loadFromReadOnlyWorkspace(Identity identity) {
+            return workspaceServices.getReadOnlyWorkspace(identity.getUniqueId())
+                .filter(workspace -> getResultsFile(workspace).isFile())
+                .flatMap(workspace -> {
+                    try {
+                        return Optional.of(readResultsFile(workspace));
+                    } catch (RuntimeException e) {
+                        LOGGER.debug("Could not load results of read-only transform workspace {}.", workspace, e);
+                        return Optional.empty();
+                    }
+                });
+        }
+
         @Override
         public WorkspaceProvider getWorkspaceProvider() {
             return workspaceServices.getWorkspaceProvider();
@@ -469,6 +492,48 @@ public String getDisplayName() {
         }
     }
 
+    /**
+     * Falls through to the read-only cache before executing an immutable transform.
+     *
+     * Immutable workspaces are keyed by everything that goes into the transform, so a workspace that has
+     * been completed in the read-only cache can be used in place, without taking a lock or running the transform.
+     */
+    private static class ReadOnlyWorkspaceFallbackCache implements Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> {
+        private final Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> delegate;
+        private final AbstractTransformerExecution execution;
+
+        public ReadOnlyWorkspaceFallbackCache(Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> delegate, AbstractTransformerExecution execution) {
+            this.delegate = delegate;
+            this.execution = execution;
+        }
+
+        @Override
+        public Try<ImmutableList<File>> get(UnitOfWork.Identity key, Function<? super UnitOfWork.Identity, ? extends Try<ImmutableList<File>>> factory) {
+            return delegate.get(key, identity -> execution.loadFromReadOnlyWorkspace(identity)
+                .map(Try::successful)
+                .orElseGet(() -> factory.apply(identity)));
+        }
+
+        @Nullable
+        @Override
+        public Try<ImmutableList<File>> getIfPresent(UnitOfWork.Identity key) {
+            Try<ImmutableList<File>> cachedOutput = delegate.getIfPresent(key);
+            if (cachedOutput == null) {
+                Optional<ImmutableList<File>> readOnlyOutput = execution.loadFromReadOnlyWorkspace(key);
+                if (readOnlyOutput.isPresent()) {
+                    cachedOutput = Try.successful(readOnlyOutput.get());
+                    delegate.put(key, cachedOutput);
+                }
+            }
+            return cachedOutput;
+        }
+
+        @Override
+        public void put(UnitOfWork.Identity key, Try<ImmutableList<File>> value) {
+            delegate.put(key, value);
+        }
+    }
+
     private static class ImmutableTransformationWorkspaceIdentity implements UnitOfWork.Identity {
         private final ValueSnapshot inputArtifactPath;
         private final ValueSnapshot inputArtifactSnapshot;
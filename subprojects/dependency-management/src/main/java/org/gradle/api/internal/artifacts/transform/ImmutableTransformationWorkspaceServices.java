@@ -25,23 +25,28 @@
 import org.gradle.internal.execution.workspace.impl.DefaultImmutableWorkspaceProvider;
 import org.gradle.internal.file.FileAccessTimeJournal;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.Closeable;
 import java.io.File;
+import java.util.Optional;
 
 @NotThreadSafe
 public class ImmutableTransformationWorkspaceServices implements TransformationWorkspaceServices, Closeable {
     private final CrossBuildInMemoryCache<UnitOfWork.Identity, Try<ImmutableList<File>>> identityCache;
     private final DefaultImmutableWorkspaceProvider workspaceProvider;
+    private final File readOnlyWorkspaceDir;
 
     public ImmutableTransformationWorkspaceServices(
         CacheBuilder cacheBuilder,
         FileAccessTimeJournal fileAccessTimeJournal,
         ExecutionHistoryStore executionHistoryStore,
-        CrossBuildInMemoryCache<UnitOfWork.Identity, Try<ImmutableList<File>>> identityCache
+        CrossBuildInMemoryCache<UnitOfWork.Identity, Try<ImmutableList<File>>> identityCache,
+        @Nullable File readOnlyWorkspaceDir
     ) {
         this.workspaceProvider = DefaultImmutableWorkspaceProvider.withExternalHistory(cacheBuilder, fileAccessTimeJournal, executionHistoryStore);
         this.identityCache = identityCache;
+        this.readOnlyWorkspaceDir = readOnlyWorkspaceDir;
     }
 
     @Override
@@ -54,6 +59,11 @@ public CrossBuildInMemoryCache<UnitOfWork.Identity, Try<ImmutableList<File>>> ge
         return identityCache;
     }
 
+    @Override
+    public Optional<File> getReadOnlyWorkspace(String path) {
+        return Optional.ofNullable(readOnlyWorkspaceDir).map(dir -> workspaceProvider.getWorkspaceLocation(dir, path));
+    }
+
     @Override
     public void close() {
         workspaceProvider.close();
@@ -23,8 +23,19 @@
 import org.gradle.internal.execution.workspace.WorkspaceProvider;
 
 import java.io.File;
+import java.util.Optional;
 
 public interface TransformationWorkspaceServices {
     WorkspaceProvider getWorkspaceProvider();
     Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> getIdentityCache();
+
+    /**
+     * Returns the location of the given workspace in a read-only, pre-populated cache, if one is configured.
+     *
+     * The workspace is not guaranteed to exist there, and is never locked or cleaned up by us.
+     * It is looked up in the same lock stripe as in the writable cache, so the read-only cache needs to be populated with the same number of stripes.
+     */
+    default Optional<File> getReadOnlyWorkspace(String path) {
+        return Optional.empty();
+    }
 }
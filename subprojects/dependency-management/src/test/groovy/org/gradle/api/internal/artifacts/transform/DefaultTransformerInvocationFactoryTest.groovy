@@ -297,6 +297,43 @@ class DefaultTransformerInvocationFactoryTest extends AbstractProjectBuilderSpec
         1 * artifactTransformListener.afterTransformerInvocation(_, _)
     }
 
+    def "uses completed workspace from read-only cache"() {
+        def inputArtifact = temporaryFolder.file("input")
+        inputArtifact.text = "my input"
+        int transformerInvocations = 0
+        def transformer = TestTransformer.create { input, outputDir ->
+            transformerInvocations++
+            def outputFile = new File(outputDir, input.name)
+            outputFile.text = input.text + "transformed"
+            return [outputFile]
+        }
+        def writableTransformsStoreDirectory = temporaryFolder.file("writable")
+        def readOnlyInvoker = new DefaultTransformerInvocationFactory(
+            executionEngine,
+            fileSystemAccess,
+            artifactTransformListener,
+            new TestTransformationWorkspaceServices(writableTransformsStoreDirectory, new TestExecutionHistoryStore(), immutableTransformsStoreDirectory),
+            fileCollectionFactory,
+            projectStateRegistry,
+            buildOperationExecutor
+        )
+
+        when:
+        def result = invoke(transformer, inputArtifact, dependencies, immutableDependency(inputArtifact), inputFingerprinter)
+
+        then:
+        transformerInvocations == 1
+
+        when:
+        def readOnlyResult = readOnlyInvoker.createInvocation(transformer, inputArtifact, dependencies, immutableDependency(inputArtifact), inputFingerprinter).invoke()
+
+        then:
+        transformerInvocations == 1
+        readOnlyResult.get() == result.get()
+        !writableTransformsStoreDirectory.exists()
+        0 * artifactTransformListener._
+    }
+
     def "re-runs transform when previous execution failed"() {
         def inputArtifact = temporaryFolder.file("input")
         inputArtifact.text = "my input"
@@ -24,15 +24,23 @@
 import org.gradle.internal.execution.history.ExecutionHistoryStore;
 import org.gradle.internal.execution.workspace.WorkspaceProvider;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Optional;
 
 public class TestTransformationWorkspaceServices implements TransformationWorkspaceServices {
     private final File transformationsStoreDirectory;
     private final ExecutionHistoryStore executionHistoryStore;
+    private final File readOnlyTransformationsStoreDirectory;
 
     public TestTransformationWorkspaceServices(File transformationsStoreDirectory, ExecutionHistoryStore executionHistoryStore) {
+        this(transformationsStoreDirectory, executionHistoryStore, null);
+    }
+
+    public TestTransformationWorkspaceServices(File transformationsStoreDirectory, ExecutionHistoryStore executionHistoryStore, @Nullable File readOnlyTransformationsStoreDirectory) {
         this.transformationsStoreDirectory = transformationsStoreDirectory;
         this.executionHistoryStore = executionHistoryStore;
+        this.readOnlyTransformationsStoreDirectory = readOnlyTransformationsStoreDirectory;
     }
 
     @Override
@@ -50,4 +58,9 @@ public <T> T withWorkspace(String path, WorkspaceAction<T> action) {
     public Cache<UnitOfWork.Identity, Try<ImmutableList<File>>> getIdentityCache() {
         return new ManualEvictionInMemoryCache<>();
     }
+
+    @Override
+    public Optional<File> getReadOnlyWorkspace(String path) {
+        return Optional.ofNullable(readOnlyTransformationsStoreDirectory).map(dir -> new File(dir, path));
+    }
 }
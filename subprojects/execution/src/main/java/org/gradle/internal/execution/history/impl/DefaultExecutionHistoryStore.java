@@ -57,6 +57,7 @@ public DefaultExecutionHistoryStore(
         this.store = cache.get().createCache(
             PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer)
             .withCacheDecorator(inMemoryCacheDecorator)
+            .withStorageType(PersistentIndexedCacheParameters.StorageType.BTREE_WITH_WRITE_AHEAD_LOG)
         );
     }
 
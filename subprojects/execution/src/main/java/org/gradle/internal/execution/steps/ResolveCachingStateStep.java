@@ -83,7 +83,12 @@ public CachingResult execute(UnitOfWork work, BeforeExecutionContext context) {
         ImmutableList<CachingDisabledReason> disabledReasons = cachingState.getDisabledReasons();
         if (disabledReasons.isEmpty()) {
             //noinspection OptionalGetWithoutIsPresent
-            logCacheKey(cachingState.getKey().get(), work);
+            BuildCacheKey cacheKey = cachingState.getKey().get();
+            logCacheKey(cacheKey, work);
+            // Work that has not been executed before cannot be up-to-date, so its outputs will be loaded from the cache if possible
+            if (!context.getAfterPreviousExecutionState().isPresent() && work.isAllowedToLoadFromCache()) {
+                buildCache.prefetch(ImmutableList.of(cacheKey));
+            }
         } else {
             logDisabledReasons(disabledReasons, work);
         }
@@ -24,6 +24,7 @@
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
+import org.gradle.cache.internal.StripedPersistentCache;
 import org.gradle.internal.execution.history.ExecutionHistoryStore;
 import org.gradle.internal.execution.history.impl.DefaultExecutionHistoryStore;
 import org.gradle.internal.execution.workspace.WorkspaceProvider;
@@ -32,18 +33,31 @@
 
 import java.io.Closeable;
 import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 import static org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup.DEFAULT_MAX_AGE_IN_DAYS_FOR_RECREATABLE_CACHE_ENTRIES;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
 public class DefaultImmutableWorkspaceProvider implements WorkspaceProvider, Closeable {
+    /**
+     * Number of independently locked stripes to partition immutable workspaces into, so that processes working on
+     * different workspaces do not wait for each other. Defaults to a single stripe, i.e. one lock for the whole cache.
+     *
+     * Only caches of immutable workspaces, like transforms-3, are striped. Other caches in the Gradle user home, like modules-2 and jars-9,
+     * keep a single lock.
+     */
+    public static final String LOCK_STRIPES_SYSTEM_PROPERTY = "org.gradle.cache.workspace.lock-stripes";
+
     private static final int DEFAULT_FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
 
-    private final SingleDepthFileAccessTracker fileAccessTracker;
-    private final File baseDirectory;
-    private final ExecutionHistoryStore executionHistoryStore;
+    private final FileAccessTimeJournal fileAccessTimeJournal;
+    private final Function<PersistentCache, ExecutionHistoryStore> historyFactory;
+    private final int treeDepthToTrackAndCleanup;
+    private final int lockStripes;
     private final PersistentCache cache;
+    private final ConcurrentMap<PersistentCache, Stripe> stripes = new ConcurrentHashMap<>();
 
     public static DefaultImmutableWorkspaceProvider withBuiltInHistory(
         CacheBuilder cacheBuilder,
@@ -94,14 +108,15 @@ private DefaultImmutableWorkspaceProvider(
         Function<PersistentCache, ExecutionHistoryStore> historyFactory,
         int treeDepthToTrackAndCleanup
     ) {
-        PersistentCache cache = cacheBuilder
+        this.lockStripes = Integer.getInteger(LOCK_STRIPES_SYSTEM_PROPERTY, 1);
+        this.cache = cacheBuilder
             .withCleanup(createCleanupAction(fileAccessTimeJournal, treeDepthToTrackAndCleanup))
             .withLockOptions(mode(FileLockManager.LockMode.OnDemand)) // Lock on demand
+            .withLockStripes(lockStripes)
             .open();
-        this.cache = cache;
-        this.baseDirectory = cache.getBaseDir();
-        this.fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, baseDirectory, treeDepthToTrackAndCleanup);
-        this.executionHistoryStore = historyFactory.apply(cache);
+        this.fileAccessTimeJournal = fileAccessTimeJournal;
+        this.historyFactory = historyFactory;
+        this.treeDepthToTrackAndCleanup = treeDepthToTrackAndCleanup;
     }
 
     private static CleanupAction createCleanupAction(FileAccessTimeJournal fileAccessTimeJournal, int treeDepthToTrackAndCleanup) {
@@ -114,15 +129,52 @@ private static CleanupAction createCleanupAction(FileAccessTimeJournal fileAcces
 
     @Override
     public <T> T withWorkspace(String path, WorkspaceAction<T> action) {
-        return cache.withFileLock(() -> {
-            File workspace = new File(baseDirectory, path);
-            fileAccessTracker.markAccessed(workspace);
-            return action.executeInWorkspace(workspace, executionHistoryStore);
+        Stripe stripe = stripes.computeIfAbsent(cache.getStripe(path), this::createStripe);
+        return stripe.cache.withFileLock(() -> {
+            File workspace = new File(stripe.cache.getBaseDir(), path);
+            stripe.fileAccessTracker.markAccessed(workspace);
+            return action.executeInWorkspace(workspace, stripe.executionHistoryStore);
         });
     }
 
+    /**
+     * Returns where the workspace for the given path is located in a cache directory with the same layout as this cache,
+     * i.e. in the same stripe as in this cache.
+     */
+    public File getWorkspaceLocation(File cacheDir, String path) {
+        File stripeDir = lockStripes > 1
+            ? StripedPersistentCache.stripeDir(cacheDir, StripedPersistentCache.stripeIndex(path, lockStripes))
+            : cacheDir;
+        return new File(stripeDir, path);
+    }
+
+    private Stripe createStripe(PersistentCache stripeCache) {
+        if (stripeCache != cache) {
+            // Keep the stripe itself from looking unused to the clean-up of a process that does not use stripes
+            fileAccessTimeJournal.setLastAccessTime(stripeCache.getBaseDir(), System.currentTimeMillis());
+        }
+        return new Stripe(
+            stripeCache,
+            new SingleDepthFileAccessTracker(fileAccessTimeJournal, stripeCache.getBaseDir(), treeDepthToTrackAndCleanup),
+            historyFactory.apply(stripeCache)
+        );
+    }
+
     @Override
     public void close() {
+        stripes.clear();
         cache.close();
     }
+
+    private static class Stripe {
+        private final PersistentCache cache;
+        private final SingleDepthFileAccessTracker fileAccessTracker;
+        private final ExecutionHistoryStore executionHistoryStore;
+
+        Stripe(PersistentCache cache, SingleDepthFileAccessTracker fileAccessTracker, ExecutionHistoryStore executionHistoryStore) {
+            this.cache = cache;
+            this.fileAccessTracker = fileAccessTracker;
+            this.executionHistoryStore = executionHistoryStore;
+        }
+    }
 }
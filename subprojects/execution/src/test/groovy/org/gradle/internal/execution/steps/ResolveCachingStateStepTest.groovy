@@ -17,9 +17,14 @@
 package org.gradle.internal.execution.steps
 
 import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSortedMap
 import org.gradle.caching.internal.controller.BuildCacheController
 import org.gradle.internal.execution.caching.CachingDisabledReason
 import org.gradle.internal.execution.caching.CachingDisabledReasonCategory
+import org.gradle.internal.execution.history.AfterPreviousExecutionState
+import org.gradle.internal.execution.history.BeforeExecutionState
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.impl.ImplementationSnapshot
 
 class ResolveCachingStateStepTest extends StepSpec<BeforeExecutionContext> {
 
@@ -69,4 +74,42 @@ class ResolveCachingStateStepTest extends StepSpec<BeforeExecutionContext> {
             context.cachingState.disabledReasons == [disabledReason]
         })
     }
+
+    def "prefetches the cache entry of work that has not been executed before"() {
+        when:
+        step.execute(work, context)
+        then:
+        _ * buildCache.enabled >> true
+        _ * context.beforeExecutionState >> Optional.of(cacheableBeforeExecutionState())
+        _ * context.afterPreviousExecutionState >> Optional.empty()
+        _ * work.shouldDisableCaching(null) >> Optional.empty()
+        _ * work.allowedToLoadFromCache >> true
+        1 * buildCache.prefetch({ it.size() == 1 })
+        1 * delegate.execute(work, { CachingContext context ->
+            context.cachingState.key.present
+        })
+    }
+
+    def "does not prefetch the cache entry of work that may be up-to-date"() {
+        when:
+        step.execute(work, context)
+        then:
+        _ * buildCache.enabled >> true
+        _ * context.beforeExecutionState >> Optional.of(cacheableBeforeExecutionState())
+        _ * context.afterPreviousExecutionState >> Optional.of(Stub(AfterPreviousExecutionState))
+        _ * work.shouldDisableCaching(null) >> Optional.empty()
+        _ * work.allowedToLoadFromCache >> true
+        0 * buildCache.prefetch(_)
+    }
+
+    private BeforeExecutionState cacheableBeforeExecutionState() {
+        Stub(BeforeExecutionState) {
+            getImplementation() >> ImplementationSnapshot.of("org.gradle.WorkType", HashCode.fromInt(1234))
+            getAdditionalImplementations() >> ImmutableList.of()
+            getInputProperties() >> ImmutableSortedMap.of()
+            getInputFileProperties() >> ImmutableSortedMap.of()
+            getOutputFileLocationSnapshots() >> ImmutableSortedMap.of()
+            getDetectedOverlappingOutputs() >> Optional.empty()
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.vfs;
+
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Persists the state retained by the virtual file system, so a new daemon does not need to snapshot unchanged locations again.
+ */
+public interface VirtualFileSystemStateStore {
+    VirtualFileSystemStateStore NONE = new VirtualFileSystemStateStore() {
+        @Override
+        public Collection<FileSystemLocationSnapshot> load(File watchableHierarchy) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void store(File watchableHierarchy, Collection<FileSystemLocationSnapshot> snapshots, long unstableSince) {
+        }
+    };
+
+    /**
+     * Returns the snapshots persisted for the watchable hierarchy which are still up-to-date with the file system.
+     */
+    Collection<FileSystemLocationSnapshot> load(File watchableHierarchy);
+
+    /**
+     * Persists the snapshots for the watchable hierarchy, replacing the previously persisted ones.
+     *
+     * @param unstableSince directories modified at or after this time may have changed after they were snapshotted, so snapshots containing them are not persisted.
+     */
+    void store(File watchableHierarchy, Collection<FileSystemLocationSnapshot> snapshots, long unstableSince);
+}
@@ -22,6 +22,7 @@
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationRunner;
 import org.gradle.internal.operations.CallableBuildOperation;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemNode;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
@@ -36,6 +37,7 @@
 import org.gradle.internal.watch.vfs.BuildStartedFileSystemWatchingBuildOperationType;
 import org.gradle.internal.watch.vfs.FileSystemWatchingStatistics;
 import org.gradle.internal.watch.vfs.VfsLogging;
+import org.gradle.internal.watch.vfs.VirtualFileSystemStateStore;
 import org.gradle.internal.watch.vfs.WatchLogging;
 import org.gradle.internal.watch.vfs.WatchMode;
 import org.gradle.internal.watch.vfs.WatchableFileSystemDetector;
@@ -46,7 +48,9 @@
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -60,22 +64,32 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
     private final LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild;
     private final Set<File> watchableHierarchies = new HashSet<>();
     private final WatchableFileSystemDetector watchableFileSystemDetector;
+    private final VirtualFileSystemStateStore stateStore;
+    /**
+     * Hierarchies for which the state persisted by a previous daemon has already been loaded.
+     */
+    private final Set<File> restoredHierarchies = new HashSet<>();
+    private final Set<File> hierarchiesOfCurrentBuild = new HashSet<>();
 
     private FileWatcherRegistry watchRegistry;
     private Exception reasonForNotWatchingFiles;
+    private long buildStartedTime;
+    private boolean restoringPersistedState = true;
 
     public WatchingVirtualFileSystem(
         FileWatcherRegistryFactory watcherRegistryFactory,
         VfsRootReference rootReference,
         DaemonDocumentationIndex daemonDocumentationIndex,
         LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
-        WatchableFileSystemDetector watchableFileSystemDetector
+        WatchableFileSystemDetector watchableFileSystemDetector,
+        VirtualFileSystemStateStore stateStore
     ) {
         super(rootReference);
         this.watcherRegistryFactory = watcherRegistryFactory;
         this.daemonDocumentationIndex = daemonDocumentationIndex;
         this.locationsWrittenByCurrentBuild = locationsWrittenByCurrentBuild;
         this.watchableFileSystemDetector = watchableFileSystemDetector;
+        this.stateStore = stateStore;
     }
 
     @Override
@@ -94,6 +108,7 @@ protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFuncti
     @Override
     public boolean afterBuildStarted(WatchMode watchMode, VfsLogging vfsLogging, WatchLogging watchLogging, BuildOperationRunner buildOperationRunner) {
         reasonForNotWatchingFiles = null;
+        buildStartedTime = System.currentTimeMillis();
         rootReference.update(currentRoot -> buildOperationRunner.call(new CallableBuildOperation<SnapshotHierarchy>() {
             @Override
             public SnapshotHierarchy call(BuildOperationContext context) {
@@ -104,6 +119,9 @@ public SnapshotHierarchy call(BuildOperationContext context) {
                         context.setStatus("Starting file system watching");
                         startWatching(currentRoot);
                         newRoot = currentRoot.empty();
+                        for (File watchableHierarchy : hierarchiesOfCurrentBuild) {
+                            newRoot = restorePersistedState(watchableHierarchy, newRoot);
+                        }
                         statisticsSinceLastBuild = null;
                     } else {
                         FileWatcherRegistry.FileWatchingStatistics statistics = watchRegistry.getAndResetStatistics();
@@ -163,23 +181,37 @@ public BuildOperationDescriptor.Builder description() {
     @Override
     public void registerWatchableHierarchy(File watchableHierarchy) {
         rootReference.update(currentRoot -> {
+            hierarchiesOfCurrentBuild.add(watchableHierarchy);
             if (watchRegistry == null) {
                 watchableHierarchies.add(watchableHierarchy);
                 return currentRoot;
             }
             return withWatcherChangeErrorHandling(
                 currentRoot,
-                () -> watchRegistry.registerWatchableHierarchy(watchableHierarchy, currentRoot)
+                () -> {
+                    watchRegistry.registerWatchableHierarchy(watchableHierarchy, currentRoot);
+                    return restorePersistedState(watchableHierarchy, currentRoot);
+                }
             );
         });
     }
 
+    @Override
+    public void invalidateAll() {
+        super.invalidateAll();
+        // Don't bring back state from disk for the rest of the build either
+        restoringPersistedState = false;
+    }
+
     @Override
     public void beforeBuildFinished(WatchMode watchMode, VfsLogging vfsLogging, WatchLogging watchLogging, BuildOperationRunner buildOperationRunner, int maximumNumberOfWatchedHierarchies) {
         rootReference.update(currentRoot -> buildOperationRunner.call(new CallableBuildOperation<SnapshotHierarchy>() {
             @Override
             public SnapshotHierarchy call(BuildOperationContext context) {
                 watchableHierarchies.clear();
+                Set<File> hierarchiesToPersist = new HashSet<>(hierarchiesOfCurrentBuild);
+                hierarchiesOfCurrentBuild.clear();
+                restoringPersistedState = true;
                 if (watchMode.isEnabled()) {
                     if (reasonForNotWatchingFiles != null) {
                         // Log exception again so it doesn't get lost.
@@ -199,6 +231,9 @@ public SnapshotHierarchy call(BuildOperationContext context) {
                             newRoot = withWatcherChangeErrorHandling(currentRoot, () -> watchRegistry.buildFinished(currentRoot, watchMode, maximumNumberOfWatchedHierarchies));
                         }
                         statisticsDuringBuild = new DefaultFileSystemWatchingStatistics(statistics, newRoot);
+                        if (watchRegistry != null) {
+                            persistState(newRoot, hierarchiesToPersist);
+                        }
                         if (vfsLogging == VfsLogging.VERBOSE) {
                             LOGGER.warn("Received {} file system events during the current build while watching {} hierarchies",
                                 statisticsDuringBuild.getNumberOfReceivedEvents(),
@@ -242,6 +277,31 @@ public BuildOperationDescriptor.Builder description() {
         }));
     }
 
+    /**
+     * Adds the still up-to-date snapshots persisted by a previous daemon for the hierarchy.
+     *
+     * Only done once the hierarchy is watched, so changes after the snapshots have been validated are picked up by the watcher.
+     */
+    private SnapshotHierarchy restorePersistedState(File watchableHierarchy, SnapshotHierarchy currentRoot) {
+        if (watchRegistry == null || !restoringPersistedState || !restoredHierarchies.add(watchableHierarchy)) {
+            return currentRoot;
+        }
+        SnapshotHierarchy newRoot = currentRoot;
+        for (FileSystemLocationSnapshot snapshot : stateStore.load(watchableHierarchy)) {
+            SnapshotHierarchy root = newRoot;
+            newRoot = updateNotifyingListeners(diffListener -> root.store(snapshot.getAbsolutePath(), snapshot, diffListener));
+        }
+        return newRoot;
+    }
+
+    private void persistState(SnapshotHierarchy root, Set<File> hierarchies) {
+        for (File watchableHierarchy : hierarchies) {
+            List<FileSystemLocationSnapshot> snapshots = new ArrayList<>();
+            root.visitSnapshotRoots(watchableHierarchy.getAbsolutePath(), snapshots::add);
+            stateStore.store(watchableHierarchy, snapshots, buildStartedTime);
+        }
+    }
+
     /**
      * Start watching the known areas of the file system for changes.
      */
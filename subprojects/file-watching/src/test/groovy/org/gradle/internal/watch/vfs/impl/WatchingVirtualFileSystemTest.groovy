@@ -16,8 +16,10 @@
 
 package org.gradle.internal.watch.vfs.impl
 
+import org.gradle.internal.file.FileMetadata
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.snapshot.CaseSensitivity
+import org.gradle.internal.snapshot.MissingFileSnapshot
 import org.gradle.internal.snapshot.SnapshotHierarchy
 import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
 import org.gradle.internal.vfs.impl.VfsRootReference
@@ -25,6 +27,7 @@ import org.gradle.internal.watch.registry.FileWatcherRegistry
 import org.gradle.internal.watch.registry.FileWatcherRegistryFactory
 import org.gradle.internal.watch.registry.impl.DaemonDocumentationIndex
 import org.gradle.internal.watch.vfs.VfsLogging
+import org.gradle.internal.watch.vfs.VirtualFileSystemStateStore
 import org.gradle.internal.watch.vfs.WatchLogging
 import org.gradle.internal.watch.vfs.WatchMode
 import org.gradle.internal.watch.vfs.WatchableFileSystemDetector
@@ -47,7 +50,8 @@ class WatchingVirtualFileSystemTest extends Specification {
         rootReference,
         daemonDocumentationIndex,
         locationsUpdatedByCurrentBuild,
-        watchableFileSystemDetector
+        watchableFileSystemDetector,
+        VirtualFileSystemStateStore.NONE
     )
 
     def "invalidates the virtual file system before and after the build when watching is disabled"() {
@@ -154,4 +158,49 @@ class WatchingVirtualFileSystemTest extends Specification {
         then:
         1 * watcherRegistry.registerWatchableHierarchy(newWatchableHierarchy, _)
     }
+
+    def "restores persisted state of watched hierarchies once and persists it at the end of the build"() {
+        def stateStore = Mock(VirtualFileSystemStateStore)
+        def virtualFileSystem = new WatchingVirtualFileSystem(
+            watcherRegistryFactory,
+            rootReference,
+            daemonDocumentationIndex,
+            locationsUpdatedByCurrentBuild,
+            watchableFileSystemDetector,
+            stateStore
+        )
+        def watchableHierarchy = new File("watchable").absoluteFile
+        def missingFile = new File(watchableHierarchy, "missing")
+        def snapshot = new MissingFileSnapshot(missingFile.absolutePath, missingFile.name, FileMetadata.AccessType.DIRECT)
+
+        when:
+        virtualFileSystem.registerWatchableHierarchy(watchableHierarchy)
+        virtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+        then:
+        1 * watcherRegistryFactory.createFileWatcherRegistry(_) >> watcherRegistry
+        1 * watcherRegistry.registerWatchableHierarchy(watchableHierarchy, _)
+        1 * stateStore.load(watchableHierarchy) >> [snapshot]
+        1 * watcherRegistry.virtualFileSystemContentsChanged([], [snapshot], _)
+        1 * watcherRegistry.setDebugLoggingEnabled(false)
+        0 * _
+
+        rootReference.getRoot().getSnapshot(missingFile.absolutePath).get() == snapshot
+
+        when:
+        virtualFileSystem.beforeBuildFinished(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner, Integer.MAX_VALUE)
+        then:
+        1 * watcherRegistry.getAndResetStatistics() >> Stub(FileWatcherRegistry.FileWatchingStatistics)
+        1 * watcherRegistry.buildFinished(_, WatchMode.ENABLED, Integer.MAX_VALUE) >> { SnapshotHierarchy root, WatchMode watchMode, int maximumNumberOfWatchedHierarchies -> root }
+        1 * stateStore.store(watchableHierarchy, [snapshot], _)
+        0 * _
+
+        when:
+        virtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+        virtualFileSystem.registerWatchableHierarchy(watchableHierarchy)
+        then:
+        1 * watcherRegistry.getAndResetStatistics() >> Stub(FileWatcherRegistry.FileWatchingStatistics)
+        1 * watcherRegistry.setDebugLoggingEnabled(false)
+        1 * watcherRegistry.registerWatchableHierarchy(watchableHierarchy, _)
+        0 * stateStore._
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Lists the entries of a directory together with their metadata in a single batched call,
+ * instead of reading the attributes of each entry separately.
+ */
+public interface DirectoryLister {
+    DirectoryLister UNAVAILABLE = new DirectoryLister() {
+        @Override
+        public boolean isAvailable() {
+            return false;
+        }
+
+        @Override
+        public List<Entry> list(File directory) {
+            throw new UnsupportedOperationException("Batched directory listing is not available.");
+        }
+    };
+
+    /**
+     * Whether batched listing is supported on this platform.
+     * When it is not, callers should fall back to walking the directory with Java NIO.
+     */
+    boolean isAvailable();
+
+    /**
+     * Lists the entries of the given directory, without following symlinks.
+     */
+    List<Entry> list(File directory) throws IOException;
+
+    interface Entry {
+        String getName();
+
+        Type getType();
+
+        /**
+         * The length of the entry, only meaningful for regular files.
+         */
+        long getLength();
+
+        /**
+         * The last modified time of the entry in milliseconds.
+         */
+        long getLastModified();
+    }
+
+    enum Type {
+        RegularFile,
+        Directory,
+        Symlink,
+        Other
+    }
+}
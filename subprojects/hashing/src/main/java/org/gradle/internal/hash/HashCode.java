@@ -22,26 +22,27 @@
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * An immutable hash code. Must be 4-255 bytes long.
  * Inspired by the Google Guava project – https://github.com/google/guava.
+ *
+ * 128 bit hashes, like the MD5 hashes used for file contents, are stored in two primitive longs
+ * instead of a separate byte array, as we keep millions of them in memory in the virtual file system.
  */
-public class HashCode implements Serializable, Comparable<HashCode> {
+public abstract class HashCode implements Serializable, Comparable<HashCode> {
     private static final int MIN_NUMBER_OF_BYTES = 4;
     private static final int MAX_NUMBER_OF_BYTES = 255;
     private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-    private final byte[] bytes;
-
-    private long hashCode;
-
-    private HashCode(byte[] bytes) {
-        this.bytes = bytes;
+    private HashCode() {
     }
 
     static HashCode fromBytesNoCopy(byte[] bytes) {
-        return new HashCode(bytes);
+        return bytes.length == Hash128.LENGTH
+            ? new Hash128(bytes)
+            : new ByteArrayBackedHashCode(bytes);
     }
 
     public static HashCode fromBytes(byte[] bytes) {
@@ -49,7 +50,9 @@ public static HashCode fromBytes(byte[] bytes) {
         if (bytes.length < MIN_NUMBER_OF_BYTES || bytes.length > MAX_NUMBER_OF_BYTES) {
             throw new IllegalArgumentException(String.format("Invalid hash code length: %d bytes", bytes.length));
         }
-        return fromBytesNoCopy(bytes.clone());
+        return bytes.length == Hash128.LENGTH
+            ? new Hash128(bytes)
+            : new ByteArrayBackedHashCode(bytes.clone());
     }
 
     public static HashCode fromInt(int value) {
@@ -94,26 +97,29 @@ private static int decode(char ch) {
         throw new IllegalArgumentException("Illegal hexadecimal character: " + ch);
     }
 
-    public int length() {
-        return bytes.length;
-    }
+    public abstract int length();
+
+    abstract byte getByte(int index);
 
     public byte[] toByteArray() {
-        return bytes.clone();
+        int length = length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = getByte(i);
+        }
+        return bytes;
     }
 
+    /**
+     * Writes the bytes of this hash code to the given buffer, without copying them first.
+     */
+    public abstract void writeTo(ByteBuffer buffer);
+
+    // Package private method used by MessageDigestHasher.putHash for performance reasons
+    abstract void appendToHasher(PrimitiveHasher hasher);
+
     @Override
-    public int hashCode() {
-        if (hashCode == 0) {
-            hashCode = (bytes[0] & 0xFF)
-                | ((bytes[1] & 0xFF) << 8)
-                | ((bytes[2] & 0xFF) << 16)
-                | ((bytes[3] & 0xFF) << 24)
-                // Make sure it's always > 0 but without affecting the lower 32 bits
-                | (1L << 32);
-        }
-        return (int) hashCode;
-    }
+    public abstract int hashCode();
 
     @Override
     public boolean equals(@Nullable Object obj) {
@@ -121,20 +127,19 @@ public boolean equals(@Nullable Object obj) {
             return true;
         }
 
-        if (obj == null || obj.getClass() != HashCode.class) {
+        if (!(obj instanceof HashCode)) {
             return false;
         }
 
-        byte[] a = bytes;
-        byte[] b = ((HashCode) obj).bytes;
-        int length = a.length;
+        HashCode other = (HashCode) obj;
+        int length = length();
 
-        if (b.length != length) {
+        if (other.length() != length) {
             return false;
         }
 
         for (int i = 0; i < length; i++) {
-            if (a[i] != b[i]) {
+            if (getByte(i) != other.getByte(i)) {
                 return false;
             }
         }
@@ -144,13 +149,12 @@ public boolean equals(@Nullable Object obj) {
 
     @Override
     public int compareTo(@Nonnull HashCode o) {
-        byte[] bytes2 = o.bytes;
         int result;
-        int len1 = bytes.length;
-        int len2 = bytes2.length;
+        int len1 = length();
+        int len2 = o.length();
         int length = Math.min(len1, len2);
         for (int idx = 0; idx < length; idx++) {
-            result = bytes[idx] - bytes2[idx];
+            result = getByte(idx) - o.getByte(idx);
             if (result != 0) {
                 return result;
             }
@@ -160,15 +164,116 @@ public int compareTo(@Nonnull HashCode o) {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder(2 * bytes.length);
-        for (byte b : bytes) {
+        int length = length();
+        StringBuilder sb = new StringBuilder(2 * length);
+        for (int i = 0; i < length; i++) {
+            byte b = getByte(i);
             sb.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
         }
         return sb.toString();
     }
 
-    // Package private accessor used by MessageDigestHasher.putHash for performance reasons
-    byte[] getBytes() {
-        return bytes;
+    /**
+     * A 128 bit hash code, stored as two little-endian longs.
+     */
+    private static class Hash128 extends HashCode {
+        private static final int LENGTH = 16;
+
+        private final long bits1;
+        private final long bits2;
+
+        public Hash128(byte[] bytes) {
+            this.bits1 = littleEndianLong(bytes, 0);
+            this.bits2 = littleEndianLong(bytes, 8);
+        }
+
+        private static long littleEndianLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 7; i >= 0; i--) {
+                value = (value << 8) | (bytes[offset + i] & 0xFF);
+            }
+            return value;
+        }
+
+        @Override
+        public int length() {
+            return LENGTH;
+        }
+
+        @Override
+        byte getByte(int index) {
+            long bits = index < 8 ? bits1 : bits2;
+            return (byte) (bits >>> ((index & 7) * 8));
+        }
+
+        @Override
+        public void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < LENGTH; i++) {
+                buffer.put(getByte(i));
+            }
+        }
+
+        @Override
+        void appendToHasher(PrimitiveHasher hasher) {
+            // The hasher writes longs in little-endian order, so this puts the same bytes as the byte array would
+            hasher.putLong(bits1);
+            hasher.putLong(bits2);
+        }
+
+        @Override
+        public int hashCode() {
+            // Same as the first four bytes in little-endian order, like for the other hash codes
+            return (int) bits1;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj instanceof Hash128) {
+                Hash128 other = (Hash128) obj;
+                return bits1 == other.bits1 && bits2 == other.bits2;
+            }
+            return super.equals(obj);
+        }
+    }
+
+    private static class ByteArrayBackedHashCode extends HashCode {
+        private final byte[] bytes;
+
+        public ByteArrayBackedHashCode(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        byte getByte(int index) {
+            return bytes[index];
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return bytes.clone();
+        }
+
+        @Override
+        public void writeTo(ByteBuffer buffer) {
+            buffer.put(bytes);
+        }
+
+        @Override
+        void appendToHasher(PrimitiveHasher hasher) {
+            hasher.putBytes(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return (bytes[0] & 0xFF)
+                | ((bytes[1] & 0xFF) << 8)
+                | ((bytes[2] & 0xFF) << 16)
+                | ((bytes[3] & 0xFF) << 24);
+        }
     }
 }
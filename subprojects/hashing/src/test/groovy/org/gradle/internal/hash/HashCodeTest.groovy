@@ -69,6 +69,7 @@ class HashCodeTest extends Specification {
         toBytes(0x12, 0x34, 0x56, 0x78) | 4      | "12345678"     | 0x78563412 | toBytes(0x12, 0x34, 0x56, 0x78)
         toBytes(0xCA, 0xFE, 0xBA, 0xBE) | 4      | "cafebabe"     | 0xBEBAFECA | toBytes(0xCA, 0xFE, 0xBA, 0xBE)
         toBytes([0xAB, 0xBA] * 3)       | 6      | "abbaabbaabba" | 0xBAABBAAB | toBytes([0xAB, 0xBA] * 3)
+        toBytes(0x00..0x0F)             | 16     | "000102030405060708090a0b0c0d0e0f" | 0x03020100 | toBytes(0x00..0x0F)
         toBytes([0xAB] * 255)           | 255    | "ab" * 255     | 0xABABABAB | toBytes([0xAB] * 255)
     }
 
@@ -106,6 +107,31 @@ class HashCodeTest extends Specification {
         "bcdef123"   | "abcdef12"   | 1
     }
 
+    def "16 byte hashes compare like other hashes"() {
+        def hash = HashCode.fromString("cafebabe" * 4)
+        def smaller = HashCode.fromString("cafebabe" * 3 + "cafebab0")
+
+        expect:
+        hash == HashCode.fromBytes(hash.toByteArray())
+        hash.hashCode() == HashCode.fromBytes(hash.toByteArray()).hashCode()
+        hash != HashCode.fromString("cafebabe" * 3)
+        hash <=> smaller == 1
+        smaller <=> hash == -1
+        Hashing.md5().hashString("abc").toString() == "900150983cd24fb0d6963f7d28e17f72"
+    }
+
+    def "hashing a 16 byte hash hashes its bytes"() {
+        def hash = HashCode.fromString("0123456789abcdef" * 2)
+
+        def viaHash = Hashing.newHasher()
+        viaHash.putHash(hash)
+        def viaBytes = Hashing.newHasher()
+        viaBytes.putBytes(hash.toByteArray())
+
+        expect:
+        viaHash.hash() == viaBytes.hash()
+    }
+
     def "not equals with null"() {
         expect:
         HashCode.fromInt(0x12345678) != null
@@ -45,10 +45,12 @@ public UserHomeScopedCompileCaches(CacheRepository cacheRepository, InMemoryCach
             .withLockOptions(mode(FileLockManager.LockMode.OnDemand)) // Lock on demand
             .open();
         PersistentIndexedCacheParameters<HashCode, ClassSetAnalysisData> jarCacheParameters = PersistentIndexedCacheParameters.of("jarAnalysis", new HashCodeSerializer(), new ClassSetAnalysisData.Serializer(interner))
+            .withStorageType(PersistentIndexedCacheParameters.StorageType.HASH_INDEX)
             .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(20000, true));
         this.classpathEntrySnapshotCache = new MinimalPersistentCache<>(cache.createCache(jarCacheParameters));
 
         PersistentIndexedCacheParameters<HashCode, ClassAnalysis> classCacheParameters = PersistentIndexedCacheParameters.of("classAnalysis", new HashCodeSerializer(), new ClassAnalysis.Serializer(interner))
+            .withStorageType(PersistentIndexedCacheParameters.StorageType.HASH_INDEX)
             .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(400000, true));
         this.classAnalysisCache = new MinimalPersistentCache<>(cache.createCache(classCacheParameters));
     }
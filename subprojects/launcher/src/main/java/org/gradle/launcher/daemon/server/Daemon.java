@@ -17,6 +17,7 @@
 
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.gradle.cache.internal.CacheCleanupScheduler;
 import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.Stoppable;
@@ -51,6 +52,8 @@
  */
 public class Daemon implements Stoppable {
     private static final Logger LOGGER = Logging.getLogger(Daemon.class);
+    private static final long CACHE_CLEANUP_SLICE_MILLIS = 100;
+    private static final long CACHE_CLEANUP_BUDGET_ON_STOP_MILLIS = 1000;
 
     private final DaemonServerConnector connector;
     private final DaemonRegistry daemonRegistry;
@@ -59,6 +62,7 @@ public class Daemon implements Stoppable {
     private final ScheduledExecutorService scheduledExecutorService;
     private final ExecutorFactory executorFactory;
     private final ListenerManager listenerManager;
+    private final CacheCleanupScheduler cacheCleanupScheduler;
 
     private DaemonStateCoordinator stateCoordinator;
 
@@ -73,8 +77,9 @@ public class Daemon implements Stoppable {
      *
      * @param connector The provider of server connections for this daemon
      * @param daemonRegistry The registry that this daemon should advertise itself in
+     * @param cacheCleanupScheduler Runs the clean-up of caches while this daemon is idle
      */
-    public Daemon(DaemonServerConnector connector, DaemonRegistry daemonRegistry, DaemonContext daemonContext, DaemonCommandExecuter commandExecuter, ExecutorFactory executorFactory, ListenerManager listenerManager) {
+    public Daemon(DaemonServerConnector connector, DaemonRegistry daemonRegistry, DaemonContext daemonContext, DaemonCommandExecuter commandExecuter, ExecutorFactory executorFactory, ListenerManager listenerManager, CacheCleanupScheduler cacheCleanupScheduler) {
         this.connector = connector;
         this.daemonRegistry = daemonRegistry;
         this.daemonContext = daemonContext;
@@ -82,6 +87,7 @@ public Daemon(DaemonServerConnector connector, DaemonRegistry daemonRegistry, Da
         this.executorFactory = executorFactory;
         this.scheduledExecutorService = executorFactory.createScheduled("Daemon periodic checks", 1);
         this.listenerManager = listenerManager;
+        this.cacheCleanupScheduler = cacheCleanupScheduler;
     }
 
     public String getUid() {
@@ -134,6 +140,8 @@ public void run() {
             Runnable onStartCommand = new Runnable() {
                 @Override
                 public void run() {
+                    // Release the caches being cleaned up before the build opens them
+                    cacheCleanupScheduler.pause();
                     registryUpdater.onStartActivity();
                 }
             };
@@ -142,6 +150,7 @@ public void run() {
                 @Override
                 public void run() {
                     registryUpdater.onCompleteActivity();
+                    cacheCleanupScheduler.resume();
                 }
             };
 
@@ -169,6 +178,7 @@ public void run() {
             connectorAddress = connector.start(connectionHandler, connectionErrorHandler);
             LOGGER.debug("Daemon starting at: {}, with address: {}", new Date(), connectorAddress);
             registryUpdater.onStart(connectorAddress);
+            scheduleCacheCleanup();
         } finally {
             lifecycleLock.unlock();
         }
@@ -202,6 +212,8 @@ public void stop() {
 
             // Stop periodic checks
             scheduledExecutorService.shutdown();
+            // Spend a bounded time on the pending clean-ups and on those of caches closed during shutdown, the rest is left to the next process
+            cacheCleanupScheduler.disable(CACHE_CLEANUP_BUDGET_ON_STOP_MILLIS);
 
             // Stop the pipeline:
             // 1. mark daemon as stopped, so that any incoming requests will be rejected with 'daemon unavailable'
@@ -227,6 +239,25 @@ private void scheduleExpirationChecks(DaemonExpirationStrategy expirationStrateg
         scheduledExecutorService.scheduleAtFixedRate(periodicCheck, checkIntervalMills, checkIntervalMills, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Defers the clean-up of caches to the time between builds, where it runs in short slices until all caches closed by the builds have been cleaned up.
+     */
+    private void scheduleCacheCleanup() {
+        cacheCleanupScheduler.enable();
+        cacheCleanupScheduler.resume();
+        scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                cacheCleanupScheduler.runSlice(CACHE_CLEANUP_SLICE_MILLIS);
+            } catch (Throwable t) {
+                LOGGER.error("Problem in daemon cache cleanup", t);
+                if (t instanceof Error) {
+                    // never swallow java.lang.Error
+                    throw (Error) t;
+                }
+            }
+        }, CACHE_CLEANUP_SLICE_MILLIS, CACHE_CLEANUP_SLICE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Tell DaemonStateCoordinator to block until it's state is Stopped.
      */
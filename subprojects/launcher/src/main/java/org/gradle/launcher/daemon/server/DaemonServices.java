@@ -18,6 +18,7 @@
 import com.google.common.collect.ImmutableList;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.gradle.cache.internal.CacheCleanupScheduler;
 import org.gradle.internal.classpath.ClassPath;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.event.ListenerManager;
@@ -176,7 +177,8 @@ protected Daemon createDaemon(ImmutableList<DaemonCommandAction> actions, Serial
             get(DaemonContext.class),
             new DaemonCommandExecuter(configuration, actions),
             get(ExecutorFactory.class),
-            get(ListenerManager.class)
+            get(ListenerManager.class),
+            get(CacheCleanupScheduler.class)
         );
     }
 }
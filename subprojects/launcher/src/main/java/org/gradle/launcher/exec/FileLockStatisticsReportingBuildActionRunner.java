@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.launcher.exec;
+
+import org.gradle.cache.internal.FileLockStatistics;
+import org.gradle.internal.buildtree.BuildActionRunner;
+import org.gradle.internal.buildtree.BuildTreeLifecycleController;
+import org.gradle.internal.invocation.BuildAction;
+import org.gradle.internal.operations.BuildOperationProgressEventEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link BuildActionRunner} that reports the file locks acquired during the build, and how long the build waited for them,
+ * as progress of the build operation of the build.
+ */
+public class FileLockStatisticsReportingBuildActionRunner implements BuildActionRunner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileLockStatisticsReportingBuildActionRunner.class);
+
+    private final BuildOperationProgressEventEmitter eventEmitter;
+    private final FileLockStatistics.Collector statisticsCollector;
+    private final BuildActionRunner delegate;
+
+    public FileLockStatisticsReportingBuildActionRunner(
+        BuildOperationProgressEventEmitter eventEmitter,
+        FileLockStatistics.Collector statisticsCollector,
+        BuildActionRunner delegate
+    ) {
+        this.eventEmitter = eventEmitter;
+        this.statisticsCollector = statisticsCollector;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Result run(BuildAction action, BuildTreeLifecycleController buildController) {
+        // Drop what has been collected since the last build
+        statisticsCollector.collect();
+        try {
+            return delegate.run(action, buildController);
+        } finally {
+            FileLockStatistics statistics = statisticsCollector.collect();
+            LOGGER.info("{}.", statistics);
+            eventEmitter.emitNowForCurrent(statistics);
+        }
+    }
+}
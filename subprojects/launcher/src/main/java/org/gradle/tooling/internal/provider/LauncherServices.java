@@ -17,6 +17,8 @@
 package org.gradle.tooling.internal.provider;
 
 import org.gradle.api.execution.internal.TaskInputsListeners;
+import org.gradle.cache.internal.FileLockStatistics;
+import org.gradle.cache.internal.PersistentIndexedCacheStatisticsProgressDetails;
 import org.gradle.deployment.internal.DeploymentRegistryInternal;
 import org.gradle.execution.WorkValidationWarningReporter;
 import org.gradle.initialization.BuildCancellationToken;
@@ -51,6 +53,8 @@
 import org.gradle.launcher.exec.BuildOutcomeReportingBuildActionRunner;
 import org.gradle.launcher.exec.BuildTreeScopeLifecycleBuildActionExecuter;
 import org.gradle.launcher.exec.ChainingBuildActionRunner;
+import org.gradle.launcher.exec.FileLockStatisticsReportingBuildActionRunner;
+import org.gradle.launcher.exec.PersistentIndexedCacheStatisticsReportingBuildActionRunner;
 import org.gradle.launcher.exec.InProcessBuildActionExecuter;
 import org.gradle.launcher.exec.RunAsBuildOperationBuildActionRunner;
 import org.gradle.tooling.internal.provider.serialization.ClassLoaderCache;
@@ -159,17 +163,21 @@ BuildTreeActionExecutor createActionExecutor(List<BuildActionRunner> buildAction
                                                      BuildStateRegistry buildStateRegistry,
                                                      BuildOperationNotificationValve buildOperationNotificationValve,
                                                      BuildOperationProgressEventEmitter eventEmitter,
-                                                     WorkValidationWarningReporter workValidationWarningReporter
+                                                     WorkValidationWarningReporter workValidationWarningReporter,
+                                                     FileLockStatistics.Collector fileLockStatisticsCollector,
+                                                     PersistentIndexedCacheStatisticsProgressDetails.Collector cacheStatisticsCollector
         ) {
             return new InProcessBuildActionExecuter(
                 buildStateRegistry,
                 buildOperationNotificationValve,
                 new RunAsBuildOperationBuildActionRunner(
                     new BuildCompletionNotifyingBuildActionRunner(
-                        new FileSystemWatchingBuildActionRunner(eventEmitter,
-                            new ValidatingBuildActionRunner(
-                                new BuildOutcomeReportingBuildActionRunner(styledTextOutputFactory, workValidationWarningReporter,
-                                    new ChainingBuildActionRunner(buildActionRunners)))))));
+                        new FileLockStatisticsReportingBuildActionRunner(eventEmitter, fileLockStatisticsCollector,
+                            new PersistentIndexedCacheStatisticsReportingBuildActionRunner(eventEmitter, cacheStatisticsCollector,
+                                new FileSystemWatchingBuildActionRunner(eventEmitter,
+                                    new ValidatingBuildActionRunner(
+                                        new BuildOutcomeReportingBuildActionRunner(styledTextOutputFactory, workValidationWarningReporter,
+                                            new ChainingBuildActionRunner(buildActionRunners)))))))));
         }
     }
 }
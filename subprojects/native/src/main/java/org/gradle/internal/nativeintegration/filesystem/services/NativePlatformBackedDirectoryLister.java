@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.nativeintegration.filesystem.services;
+
+import net.rubygrapefruit.platform.NativeException;
+import net.rubygrapefruit.platform.file.DirEntry;
+import net.rubygrapefruit.platform.file.Files;
+import org.gradle.internal.file.DirectoryLister;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NativePlatformBackedDirectoryLister implements DirectoryLister {
+    private final Files files;
+
+    public NativePlatformBackedDirectoryLister(Files files) {
+        this.files = files;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public List<Entry> list(File directory) throws IOException {
+        List<? extends DirEntry> dirEntries;
+        try {
+            dirEntries = files.listDir(directory, false);
+        } catch (NativeException e) {
+            throw new IOException(String.format("Could not list contents of directory '%s'.", directory), e);
+        }
+        List<Entry> entries = new ArrayList<>(dirEntries.size());
+        for (DirEntry dirEntry : dirEntries) {
+            entries.add(new NativeEntry(dirEntry));
+        }
+        return entries;
+    }
+
+    private static class NativeEntry implements Entry {
+        private final DirEntry dirEntry;
+        private final Type type;
+
+        public NativeEntry(DirEntry dirEntry) {
+            this.dirEntry = dirEntry;
+            this.type = convert(dirEntry);
+        }
+
+        private static Type convert(DirEntry dirEntry) {
+            switch (dirEntry.getType()) {
+                case File:
+                    return Type.RegularFile;
+                case Directory:
+                    return Type.Directory;
+                case Symlink:
+                    return Type.Symlink;
+                case Missing:
+                case Other:
+                    return Type.Other;
+                default:
+                    throw new IllegalArgumentException("Unrecognised file type: " + dirEntry.getType());
+            }
+        }
+
+        @Override
+        public String getName() {
+            return dirEntry.getName();
+        }
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public long getLength() {
+            return dirEntry.getSize();
+        }
+
+        @Override
+        public long getLastModified() {
+            return dirEntry.getLastModifiedTime();
+        }
+    }
+}
@@ -35,6 +35,7 @@
 import org.gradle.initialization.GradleUserHomeDirProvider;
 import org.gradle.internal.Cast;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.file.DirectoryLister;
 import org.gradle.internal.jvm.Jvm;
 import org.gradle.internal.nativeintegration.NativeCapabilities;
 import org.gradle.internal.nativeintegration.ProcessEnvironment;
@@ -46,6 +47,7 @@
 import org.gradle.internal.nativeintegration.filesystem.FileMetadataAccessor;
 import org.gradle.internal.nativeintegration.filesystem.services.FallbackFileMetadataAccessor;
 import org.gradle.internal.nativeintegration.filesystem.services.FileSystemServices;
+import org.gradle.internal.nativeintegration.filesystem.services.NativePlatformBackedDirectoryLister;
 import org.gradle.internal.nativeintegration.filesystem.services.NativePlatformBackedFileMetadataAccessor;
 import org.gradle.internal.nativeintegration.filesystem.services.UnavailablePosixFiles;
 import org.gradle.internal.nativeintegration.jansi.JansiBootPathConfigurer;
@@ -82,6 +84,11 @@ public class NativeServices extends DefaultServiceRegistry implements ServiceReg
     private static boolean initialized;
 
     public static final String NATIVE_DIR_OVERRIDE = "org.gradle.native.dir";
+    /**
+     * Set to true to list directories via native-platform when snapshotting.
+     * Opt-in, since native-platform still reads the metadata of each entry with a separate stat call.
+     */
+    public static final String NATIVE_DIRECTORY_LISTING = "org.gradle.native.directory-listing";
 
     /**
      * Initializes the native services to use the given user home directory to store native libs and other resources. Does nothing if already initialized.
@@ -326,6 +333,17 @@ protected FileMetadataAccessor createFileMetadataAccessor(OperatingSystem operat
         return new FallbackFileMetadataAccessor();
     }
 
+    protected DirectoryLister createDirectoryLister() {
+        if (useNativeIntegrations && "true".equalsIgnoreCase(System.getProperty(NATIVE_DIRECTORY_LISTING, "false"))) {
+            try {
+                return new NativePlatformBackedDirectoryLister(net.rubygrapefruit.platform.Native.get(Files.class));
+            } catch (NativeIntegrationUnavailableException e) {
+                LOGGER.debug("Native-platform directory listing is not available. Continuing with fallback.");
+            }
+        }
+        return DirectoryLister.UNAVAILABLE;
+    }
+
     protected NativeCapabilities createNativeCapabilities() {
         return new NativeCapabilities() {
             @Override
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.nativeintegration.filesystem.services
+
+import net.rubygrapefruit.platform.Native
+import net.rubygrapefruit.platform.file.Files
+import org.gradle.internal.file.DirectoryLister
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+@UsesNativeServices
+class NativePlatformBackedDirectoryListerTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def lister = new NativePlatformBackedDirectoryLister(Native.get(Files.class))
+
+    def "lists files and directories with their metadata"() {
+        def dir = tmpDir.createDir("dir")
+        def file = dir.file("file")
+        file.text = "123"
+        dir.file("subdir").createDir()
+
+        when:
+        def entries = lister.list(dir).collectEntries { [it.name, it] }
+
+        then:
+        lister.available
+        entries.keySet() == ["file", "subdir"] as Set
+        entries["file"].type == DirectoryLister.Type.RegularFile
+        entries["file"].length == 3
+        entries["file"].lastModified.intdiv(1000) == file.lastModified().intdiv(1000)
+        entries["subdir"].type == DirectoryLister.Type.Directory
+    }
+
+    @Requires(TestPrecondition.SYMLINKS)
+    def "does not follow symlinks"() {
+        def dir = tmpDir.createDir("dir")
+        def target = tmpDir.createDir("target")
+        dir.file("link").createLink(target)
+
+        when:
+        def entries = lister.list(dir)
+
+        then:
+        entries*.name == ["link"]
+        entries*.type == [DirectoryLister.Type.Symlink]
+    }
+
+    def "fails to list missing directory"() {
+        def dir = tmpDir.file("missing")
+
+        when:
+        lister.list(dir)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "Could not list contents of directory '${dir}'."
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.log.LogStructuredPersistentIndexedCache;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the B-tree and the memory-mapped log storage of indexed caches.
+ *
+ * Access to the B-tree is serialized, as it is in the cache access worker. The log is read without locking.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class PersistentIndexedCacheStorageBenchmark {
+    private static final int ENTRIES = 100_000;
+
+    @Param({"BTREE", "MAPPED_LOG"})
+    String storageType;
+
+    File cacheDir;
+    IndexedCacheStorage<String, String> storage;
+    String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cacheDir = Files.createTempDirectory("indexed-cache-benchmark").toFile();
+        BaseSerializerFactory serializerFactory = new BaseSerializerFactory();
+        Serializer<String> serializer = serializerFactory.getSerializerFor(String.class);
+        IndexedCacheStorage<String, String> delegate = storageType.equals("BTREE")
+            ? new BTreePersistentIndexedCache<>(new File(cacheDir, "cache.bin"), serializer, serializer)
+            : new LogStructuredPersistentIndexedCache<>(cacheDir, "cache", serializer, serializer);
+        storage = storageType.equals("BTREE") ? new SynchronizedStorage<>(delegate) : delegate;
+        keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "/path/to/some/project/build/classes/java/main/org/gradle/File" + i + ".class";
+            storage.put(keys[i], "value-" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        FileUtils.forceDelete(cacheDir);
+    }
+
+    @Benchmark
+    public String get() {
+        return storage.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String get_concurrently() {
+        return storage.get(randomKey());
+    }
+
+    @Benchmark
+    public void put() {
+        storage.put(randomKey(), "updated-value");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String get_concurrently_while_writing() {
+        String key = randomKey();
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            storage.put(key, "updated-value");
+            return key;
+        }
+        return storage.get(key);
+    }
+
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(ENTRIES)];
+    }
+
+    private static class SynchronizedStorage<K, V> implements IndexedCacheStorage<K, V> {
+        private final IndexedCacheStorage<K, V> delegate;
+
+        SynchronizedStorage(IndexedCacheStorage<K, V> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized V get(K key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public synchronized void put(K key, V value) {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public synchronized void remove(K key) {
+            delegate.remove(key);
+        }
+
+        @Override
+        public synchronized void close() {
+            delegate.close();
+        }
+    }
+}
@@ -80,6 +80,17 @@ enum LockTarget {
      */
     CacheBuilder withCleanup(CleanupAction cleanup);
 
+    /**
+     * Partitions the cache into the given number of stripes, each of them a separate cache below the base directory with its own lock file,
+     * indexed caches and clean-up. Use {@link PersistentCache#getStripe(String)} to find the stripe for a key, so that work on keys in
+     * different stripes does not contend for the same cross-process lock. The clean-up action is applied to every stripe instead of to the
+     * cache as a whole. The default is a single stripe, which disables striping.
+     * <p>
+     * Only keys that are resolved through {@link PersistentCache#getStripe(String)} are striped. Indexed caches created on the cache itself
+     * are still shared by all keys and guarded by the lock of the base directory.
+     */
+    CacheBuilder withLockStripes(int stripes);
+
     /**
      * Opens the cache. It is the caller's responsibility to close the cache when finished with it.
      *
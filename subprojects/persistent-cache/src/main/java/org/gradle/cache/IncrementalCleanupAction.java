@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache;
+
+import javax.annotation.Nullable;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link CleanupAction} that can be run in several steps, each step resuming where the previous one stopped.
+ */
+public interface IncrementalCleanupAction extends CleanupAction {
+
+    /**
+     * Cleans up the entries of the store that come after the given cursor, until all of them have been visited or {@code shouldYield} returns true.
+     *
+     * @param cursor the cursor returned by the previous step, or {@code null} to start from the first entry.
+     * @return the cursor to resume from, or {@code null} when all entries have been visited.
+     */
+    @Nullable
+    String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield);
+
+    @Override
+    default void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        cleanIncrementally(cleanableStore, null, progressMonitor, () -> false);
+    }
+}
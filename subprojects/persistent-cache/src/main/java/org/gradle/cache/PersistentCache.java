@@ -60,6 +60,16 @@ public interface PersistentCache extends CacheAccess, Closeable, CleanableStore
 
     <K, V> boolean cacheExists(PersistentIndexedCacheParameters<K, V> parameters);
 
+    /**
+     * Returns the cache that guards the given key. For a cache opened with {@link CacheBuilder#withLockStripes(int)} this is one of its
+     * independently locked stripes, otherwise it is this cache itself.
+     *
+     * <p>The same key is always mapped to the same stripe, also across processes using the same number of stripes.
+     */
+    default PersistentCache getStripe(String key) {
+        return this;
+    }
+
     /**
      * Closes this cache, blocking until all operations are complete.
      */
@@ -16,6 +16,9 @@
 package org.gradle.cache;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 /**
@@ -55,6 +58,33 @@
     @Override
     void put(K key, V value);
 
+    /**
+     * Fetches the values mapped to the given keys from this cache, blocking until they are available.
+     *
+     * Implementations should acquire the file lock and read from the persistent store once for the whole batch, rather than once per key.
+     *
+     * @return The values of the keys present in this cache. Keys with no value associated are not contained in the result.
+     */
+    default Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps the given values to their keys, replacing any existing values.
+     *
+     * Implementations should acquire the file lock and write to the persistent store once for the whole batch, rather than once per entry.
+     */
+    default void putAll(Map<? extends K, ? extends V> entries) {
+        entries.forEach(this::put);
+    }
+
     /**
      * Removes a key-value mapping from this cache. A shared lock is held while updating the value.
      *
@@ -16,6 +16,7 @@
 package org.gradle.cache;
 
 import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.serialize.Serializer;
 
 import javax.annotation.Nullable;
@@ -23,28 +24,57 @@
 public class PersistentIndexedCacheParameters<K, V> {
     private static final BaseSerializerFactory SERIALIZER_FACTORY = new BaseSerializerFactory();
 
+    /**
+     * The kind of on-disk storage used for the cache.
+     */
+    public enum StorageType {
+        /**
+         * A B-tree in a single file. Reads and writes are serialized.
+         */
+        BTREE,
+        /**
+         * A memory-mapped, append-only log that is compacted once it contains too many stale records.
+         * Readers of the storage do not block each other nor the writer, although access from different processes is still coordinated by
+         * the file lock of the cache. Best suited for caches that are read much more often than written.
+         */
+        MAPPED_LOG,
+        /**
+         * A B-tree with a write-ahead log in front of it. Updates are appended to the log and synced once per unit of work,
+         * and are folded into the B-tree in bulk. Best suited for caches that receive many updates.
+         */
+        BTREE_WITH_WRITE_AHEAD_LOG,
+        /**
+         * An open-addressing hash table in a single file, for caches keyed by {@link org.gradle.internal.hash.HashCode}.
+         * The bytes of the key address its slot directly, so keys are neither serialized nor hashed again on lookup.
+         * Requires a {@link HashCodeSerializer} for the keys, and all keys to have the same length.
+         */
+        HASH_INDEX
+    }
+
     private final String cacheName;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final CacheDecorator cacheDecorator;
+    private final StorageType storageType;
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null, StorageType.BTREE);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null, StorageType.BTREE);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Class<V> valueType) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null, StorageType.BTREE);
     }
 
-    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator) {
+    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator, StorageType storageType) {
         this.cacheName = cacheName;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.cacheDecorator = cacheDecorator;
+        this.storageType = storageType;
     }
 
     public String getCacheName() {
@@ -64,7 +94,18 @@ public CacheDecorator getCacheDecorator() {
         return cacheDecorator;
     }
 
+    public StorageType getStorageType() {
+        return storageType;
+    }
+
     public PersistentIndexedCacheParameters<K, V> withCacheDecorator(CacheDecorator cacheDecorator) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, storageType);
+    }
+
+    public PersistentIndexedCacheParameters<K, V> withStorageType(StorageType storageType) {
+        if (storageType == StorageType.HASH_INDEX && !(keySerializer instanceof HashCodeSerializer)) {
+            throw new IllegalArgumentException(String.format("Cache '%s' cannot use %s storage, as its keys are not hash codes.", cacheName, storageType));
+        }
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, storageType);
     }
 }
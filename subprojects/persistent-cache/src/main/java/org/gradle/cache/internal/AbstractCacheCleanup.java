@@ -18,14 +18,17 @@
 
 import org.apache.commons.io.FileUtils;
 import org.gradle.cache.CleanableStore;
-import org.gradle.cache.CleanupAction;
 import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.cache.IncrementalCleanupAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileFilter;
+import java.util.function.BooleanSupplier;
 
-public abstract class AbstractCacheCleanup implements CleanupAction {
+public abstract class AbstractCacheCleanup implements IncrementalCleanupAction {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCacheCleanup.class);
 
@@ -35,21 +38,38 @@ public AbstractCacheCleanup(FilesFinder eligibleFilesFinder) {
         this.eligibleFilesFinder = eligibleFilesFinder;
     }
 
+    /**
+     * Visits the eligible files in the order of their {@link CleanupCursor}, provided the {@link FilesFinder} lists each directory in sorted order.
+     */
     @Override
-    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+    @Nullable
+    public String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
+        File baseDir = cleanableStore.getBaseDir();
+        String lastVisited = cursor;
+        String nextCursor = null;
         int filesDeleted = 0;
-        for (File file : findEligibleFiles(cleanableStore)) {
+        for (File file : findEligibleFiles(cleanableStore, cursor)) {
+            String position = CleanupCursor.of(baseDir, file);
+            if (cursor != null && CleanupCursor.compare(position, cursor) <= 0) {
+                continue;
+            }
+            if (shouldYield.getAsBoolean()) {
+                nextCursor = lastVisited == null ? "" : lastVisited;
+                break;
+            }
             if (shouldDelete(file)) {
                 progressMonitor.incrementDeleted();
                 if (FileUtils.deleteQuietly(file)) {
                     handleDeletion(file);
-                    filesDeleted += 1 + deleteEmptyParentDirectories(cleanableStore.getBaseDir(), file.getParentFile());
+                    filesDeleted += 1 + deleteEmptyParentDirectories(baseDir, file.getParentFile());
                 }
             } else {
                 progressMonitor.incrementSkipped();
             }
+            lastVisited = position;
         }
         LOGGER.info("{} cleanup deleted {} files/directories.", cleanableStore.getDisplayName(), filesDeleted);
+        return nextCursor;
     }
 
     protected int deleteEmptyParentDirectories(File baseDir, File dir) {
@@ -68,8 +88,13 @@ protected int deleteEmptyParentDirectories(File baseDir, File dir) {
 
     protected abstract void handleDeletion(File file);
 
-    private Iterable<File> findEligibleFiles(CleanableStore cleanableStore) {
-        return eligibleFilesFinder.find(cleanableStore.getBaseDir(), new NonReservedFileFilter(cleanableStore.getReservedCacheFiles()));
+    private Iterable<File> findEligibleFiles(CleanableStore cleanableStore, @Nullable String cursor) {
+        FileFilter nonReserved = new NonReservedFileFilter(cleanableStore.getReservedCacheFiles());
+        if (cursor == null) {
+            return eligibleFilesFinder.find(cleanableStore.getBaseDir(), nonReserved);
+        }
+        FileFilter notBeforeCursor = CleanupCursor.notBefore(cleanableStore.getBaseDir(), cursor);
+        return eligibleFilesFinder.find(cleanableStore.getBaseDir(), file -> nonReserved.accept(file) && notBeforeCursor.accept(file));
     }
 
 }
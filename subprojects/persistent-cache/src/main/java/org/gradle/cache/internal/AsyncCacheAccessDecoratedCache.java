@@ -21,11 +21,27 @@
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * Applies updates to the backing cache asynchronously.
+ *
+ * Puts that are queued one after the other are written to the backing cache as a single batch.
+ */
 public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V> {
+    // Bounds the number of puts that occupy a single slot of the work queue
+    private static final int MAX_PUT_BATCH_SIZE = 1000;
+
     private final AsyncCacheAccess asyncCacheAccess;
     private final MultiProcessSafePersistentIndexedCache<K, V> persistentCache;
+    private final Object lock = new Object();
+    @Nullable
+    private PutBatch pendingPuts;
 
     public AsyncCacheAccessDecoratedCache(AsyncCacheAccess asyncCacheAccess, MultiProcessSafePersistentIndexedCache<K, V> persistentCache) {
         this.asyncCacheAccess = asyncCacheAccess;
@@ -50,10 +66,36 @@ public V get(K key, Function<? super K, ? extends V> producer, Runnable completi
 
     @Override
     public void putLater(final K key, final V value, final Runnable completion) {
+        PutBatch batch;
+        synchronized (lock) {
+            if (pendingPuts != null && pendingPuts.add(key, value, completion)) {
+                return;
+            }
+            batch = new PutBatch();
+            batch.add(key, value, completion);
+            pendingPuts = batch;
+        }
+        try {
+            asyncCacheAccess.enqueue(batch);
+        } catch (RuntimeException e) {
+            batch.discard();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        return asyncCacheAccess.read(() -> persistentCache.getAll(keys));
+    }
+
+    @Override
+    public void putAllLater(Map<? extends K, ? extends V> entries, Runnable completion) {
+        Map<K, V> batch = new LinkedHashMap<>(entries);
+        closePendingPuts();
         try {
             asyncCacheAccess.enqueue(() -> {
                 try {
-                    persistentCache.put(key, value);
+                    persistentCache.putAll(batch);
                 } finally {
                     completion.run();
                 }
@@ -66,6 +108,8 @@ public void putLater(final K key, final V value, final Runnable completion) {
 
     @Override
     public void removeLater(final K key, final Runnable completion) {
+        // Later puts of the same key must be applied after the removal
+        closePendingPuts();
         try {
             asyncCacheAccess.enqueue(() -> {
                 try {
@@ -80,6 +124,15 @@ public void removeLater(final K key, final Runnable completion) {
         }
     }
 
+    private void closePendingPuts() {
+        synchronized (lock) {
+            if (pendingPuts != null) {
+                pendingPuts.closed = true;
+                pendingPuts = null;
+            }
+        }
+    }
+
     @Override
     public void afterLockAcquire(FileLock.State currentCacheState) {
         persistentCache.afterLockAcquire(currentCacheState);
@@ -94,4 +147,49 @@ public void finishWork() {
     public void beforeLockRelease(FileLock.State currentCacheState) {
         persistentCache.beforeLockRelease(currentCacheState);
     }
+
+    /**
+     * Puts that are written to the backing cache together. Puts are added until the batch starts running or another update is queued.
+     */
+    private class PutBatch implements Runnable {
+        private final Map<K, V> entries = new LinkedHashMap<>();
+        private final List<Runnable> completions = new ArrayList<>();
+        private boolean closed;
+
+        /**
+         * Adds the put to this batch, or returns false when this batch does not accept any more puts. Called while holding the lock.
+         */
+        boolean add(K key, V value, Runnable completion) {
+            if (closed || entries.size() >= MAX_PUT_BATCH_SIZE) {
+                return false;
+            }
+            entries.put(key, value);
+            completions.add(completion);
+            return true;
+        }
+
+        private void close() {
+            synchronized (lock) {
+                closed = true;
+                if (pendingPuts == this) {
+                    pendingPuts = null;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            close();
+            try {
+                persistentCache.putAll(entries);
+            } finally {
+                completions.forEach(Runnable::run);
+            }
+        }
+
+        void discard() {
+            close();
+            completions.forEach(Runnable::run);
+        }
+    }
 }
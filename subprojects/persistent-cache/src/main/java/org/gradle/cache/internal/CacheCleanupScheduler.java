@@ -0,0 +1,281 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.time.CountdownTimer;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the clean-up of caches in short time slices while the process is otherwise idle, instead of when the caches are closed.
+ *
+ * <p>Clean-ups are only deferred once this scheduler has been enabled by something that drives it, such as the daemon between builds.
+ * Until then, caches are cleaned up when they are closed, as before. Each slice resumes where the previous slice of the same cache stopped,
+ * and yields as soon as the scheduler is paused, the cache is opened again or the time slice is used up.</p>
+ */
+public class CacheCleanupScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheCleanupScheduler.class);
+
+    /**
+     * Set to false to clean up caches when they are closed, even when a driver has enabled background clean-up.
+     */
+    public static final String BACKGROUND_CLEANUP_SYSTEM_PROPERTY = "org.gradle.cache.cleanup.background";
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition sliceFinished = lock.newCondition();
+    private final Map<File, Task> pending = new LinkedHashMap<>();
+    private final boolean allowed;
+    private boolean enabled;
+    @Nullable
+    private CountdownTimer shutdownBudget;
+    private volatile boolean paused = true;
+    private volatile boolean yieldRequested;
+    private Task running;
+
+    public CacheCleanupScheduler() {
+        this(!"false".equals(System.getProperty(BACKGROUND_CLEANUP_SYSTEM_PROPERTY)));
+    }
+
+    CacheCleanupScheduler(boolean allowed) {
+        this.allowed = allowed;
+    }
+
+    /**
+     * A deferred clean-up of a single cache.
+     */
+    public interface Task {
+        File getBaseDir();
+
+        /**
+         * Runs one slice of the clean-up, acquiring and releasing the cross-process lock of the cache as required.
+         *
+         * @return true when the clean-up is complete.
+         */
+        boolean run(BooleanSupplier shouldYield);
+    }
+
+    /**
+     * Allows clean-ups to be deferred to this scheduler. The caller is responsible for calling {@link #runSlice(long)} while the process is idle.
+     */
+    public void enable() {
+        lock.lock();
+        try {
+            enabled = allowed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops deferring clean-ups. Called when the driver of this scheduler stops.
+     *
+     * <p>The pending clean-ups, and the clean-ups of caches closed afterwards, run on the calling thread until the given time budget is used up.
+     * The rest is left to the next process: a clean-up that has not completed stays due, and resumes from where it stopped
+     * the next time the cache is closed.</p>
+     */
+    public void disable(long budgetMillis) {
+        lock.lock();
+        try {
+            enabled = false;
+            shutdownBudget = Time.startCountdownTimer(budgetMillis);
+        } finally {
+            lock.unlock();
+        }
+        pause();
+        Task task;
+        while ((task = takeNextPending()) != null) {
+            runWithinShutdownBudget(task);
+        }
+    }
+
+    /**
+     * Defers the given clean-up, unless this scheduler is not enabled.
+     * Once this scheduler has been disabled, runs the clean-up within what is left of the time budget instead.
+     *
+     * @return true if the clean-up has been deferred or run, false if the caller needs to run it itself.
+     */
+    public boolean schedule(Task task) {
+        lock.lock();
+        try {
+            if (enabled) {
+                pending.put(task.getBaseDir(), task);
+                return true;
+            }
+            if (shutdownBudget == null) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        runWithinShutdownBudget(task);
+        return true;
+    }
+
+    /**
+     * Stops the deferred clean-up of the cache in the given directory, waiting for a slice of it that is currently running.
+     * Called when the cache is opened again, so that the cache does not contend with its own clean-up. The clean-up is scheduled again when the cache is closed.
+     */
+    public void cancel(File baseDir) {
+        lock.lock();
+        try {
+            pending.remove(baseDir);
+            while (running != null && running.getBaseDir().equals(baseDir)) {
+                yieldRequested = true;
+                awaitSliceFinished();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops running slices, waiting for a slice that is currently running to yield.
+     */
+    public void pause() {
+        lock.lock();
+        try {
+            paused = true;
+            while (running != null) {
+                awaitSliceFinished();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public boolean hasPendingCleanups() {
+        lock.lock();
+        try {
+            return !pending.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a slice of the next pending clean-up, unless this scheduler is paused. Pending clean-ups take turns, so one large cache does not hold up the others.
+     */
+    public void runSlice(long maxMillis) {
+        Task task = startSlice();
+        if (task == null) {
+            return;
+        }
+        boolean complete = true;
+        try {
+            Timer timer = Time.startTimer();
+            complete = task.run(() -> paused || yieldRequested || timer.getElapsedMillis() >= maxMillis);
+        } catch (Exception e) {
+            // The cache will be scheduled again the next time it is closed
+            LOGGER.info("Could not clean up {} in the background.", task.getBaseDir(), e);
+        } finally {
+            finishSlice(task, complete);
+        }
+    }
+
+    @Nullable
+    private Task takeNextPending() {
+        lock.lock();
+        try {
+            Iterator<Task> iterator = pending.values().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Task task = iterator.next();
+            iterator.remove();
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWithinShutdownBudget(Task task) {
+        CountdownTimer budget = shutdownBudget;
+        if (budget.hasExpired()) {
+            LOGGER.debug("Leaving the clean-up of {} to the next process.", task.getBaseDir());
+            return;
+        }
+        try {
+            while (!task.run(budget::hasExpired)) {
+                // The task also yields when another process wants the lock of the cache
+                if (budget.hasExpired()) {
+                    LOGGER.debug("Leaving the rest of the clean-up of {} to the next process.", task.getBaseDir());
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.info("Could not clean up {}.", task.getBaseDir(), e);
+        }
+    }
+
+    @Nullable
+    private Task startSlice() {
+        lock.lock();
+        try {
+            if (paused || running != null) {
+                return null;
+            }
+            Iterator<Task> iterator = pending.values().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            running = iterator.next();
+            yieldRequested = false;
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finishSlice(Task task, boolean complete) {
+        lock.lock();
+        try {
+            running = null;
+            if (pending.remove(task.getBaseDir(), task) && !complete) {
+                // Move to the end of the queue
+                pending.put(task.getBaseDir(), task);
+            }
+            sliceFinished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitSliceFinished() {
+        try {
+            sliceFinished.await();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+}
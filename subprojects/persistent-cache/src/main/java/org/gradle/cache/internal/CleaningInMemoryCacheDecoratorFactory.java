@@ -16,6 +16,7 @@
 package org.gradle.cache.internal;
 
 import com.google.common.collect.Lists;
+import org.gradle.internal.serialize.Serializer;
 
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
@@ -29,6 +30,10 @@ public CleaningInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBui
         super(longLivingProcess, cacheFactory);
     }
 
+    public CleaningInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory, long maxOffHeapBytes) {
+        super(longLivingProcess, cacheFactory, maxOffHeapBytes);
+    }
+
     public void clearCaches(Predicate<InMemoryCacheController> predicate) {
         synchronized (inMemoryCaches) {
             for (Iterator<WeakReference<InMemoryCacheController>> iterator = inMemoryCaches.iterator(); iterator.hasNext();) {
@@ -45,7 +50,15 @@ public void clearCaches(Predicate<InMemoryCacheController> predicate) {
 
     @Override
     protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
-        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate = super.applyInMemoryCaching(cacheId, backingCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+        return register(super.applyInMemoryCaching(cacheId, backingCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses));
+    }
+
+    @Override
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyOffHeapCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return register(super.applyOffHeapCaching(cacheId, backingCache, keySerializer, valueSerializer));
+    }
+
+    private <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> register(MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate) {
         if (delegate instanceof InMemoryCacheController) {
             InMemoryCacheController cimc = (InMemoryCacheController) delegate;
             WeakReference<InMemoryCacheController> ref = new WeakReference<>(cimc);
@@ -19,11 +19,16 @@
 import org.gradle.cache.CleanableStore;
 import org.gradle.cache.CleanupAction;
 import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.cache.IncrementalCleanupAction;
+import org.gradle.internal.operations.CallableBuildOperation;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.RunnableBuildOperation;
 
+import javax.annotation.Nullable;
+import java.util.function.BooleanSupplier;
+
 public class CleanupActionFactory {
     private final BuildOperationExecutor buildOperationExecutor;
 
@@ -31,7 +36,14 @@ public CleanupActionFactory(BuildOperationExecutor buildOperationExecutor) {
         this.buildOperationExecutor = buildOperationExecutor;
     }
 
+    /**
+     * Decorates the action so it runs as a build operation.
+     * The decorated action stays an {@link IncrementalCleanupAction} when the given action is one, so it can still be run incrementally in the background.
+     */
     public CleanupAction create(CleanupAction action) {
+        if (action instanceof IncrementalCleanupAction) {
+            return new IncrementalBuildOperationCacheCleanupDecorator((IncrementalCleanupAction) action, buildOperationExecutor);
+        }
         return new BuildOperationCacheCleanupDecorator(action, buildOperationExecutor);
     }
 
@@ -59,4 +71,31 @@ public BuildOperationDescriptor.Builder description() {
             });
         }
     }
+
+    private static class IncrementalBuildOperationCacheCleanupDecorator extends BuildOperationCacheCleanupDecorator implements IncrementalCleanupAction {
+        private final BuildOperationExecutor buildOperationExecutor;
+        private final IncrementalCleanupAction delegate;
+
+        public IncrementalBuildOperationCacheCleanupDecorator(IncrementalCleanupAction delegate, BuildOperationExecutor buildOperationExecutor) {
+            super(delegate, buildOperationExecutor);
+            this.buildOperationExecutor = buildOperationExecutor;
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public String cleanIncrementally(CleanableStore persistentCache, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
+            return buildOperationExecutor.call(new CallableBuildOperation<String>() {
+                @Override
+                public String call(BuildOperationContext context) {
+                    return delegate.cleanIncrementally(persistentCache, cursor, progressMonitor, shouldYield);
+                }
+
+                @Override
+                public BuildOperationDescriptor.Builder description() {
+                    return BuildOperationDescriptor.displayName("Clean up " + persistentCache);
+                }
+            });
+        }
+    }
 }
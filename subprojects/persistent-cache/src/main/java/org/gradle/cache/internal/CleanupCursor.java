@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Path;
+
+/**
+ * Positions within the files of a cache, used to resume an {@link org.gradle.cache.IncrementalCleanupAction}.
+ *
+ * A cursor is the path of the last visited file relative to the base directory of the cache, with '/' separated segments.
+ * Cursors are ordered segment by segment, in the order {@link File#compareTo(File)} gives to the names of files in the same directory,
+ * so a walk that visits the files of every directory in sorted order visits them in cursor order.
+ */
+class CleanupCursor {
+    private static final String SEPARATOR = "/";
+
+    private CleanupCursor() {
+    }
+
+    static String of(File baseDir, File file) {
+        Path relativePath = baseDir.toPath().relativize(file.toPath());
+        StringBuilder builder = new StringBuilder();
+        for (Path segment : relativePath) {
+            if (builder.length() > 0) {
+                builder.append(SEPARATOR);
+            }
+            builder.append(segment);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Compares two cursors. A cursor is ordered before all the cursors it is a prefix of.
+     */
+    static int compare(String left, String right) {
+        return compare(left.split(SEPARATOR), right.split(SEPARATOR), Integer.MAX_VALUE);
+    }
+
+    private static int compare(String[] left, String[] right, int maxSegments) {
+        int segments = Math.min(maxSegments, Math.min(left.length, right.length));
+        for (int i = 0; i < segments; i++) {
+            int result = new File(left[i]).compareTo(new File(right[i]));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(Math.min(maxSegments, left.length), Math.min(maxSegments, right.length));
+    }
+
+    /**
+     * Returns a filter that rejects the files and directories that are entirely before the given cursor, so a walk does not need to descend into them again.
+     */
+    static FileFilter notBefore(File baseDir, @Nullable String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return file -> true;
+        }
+        String[] cursorSegments = cursor.split(SEPARATOR);
+        return file -> {
+            String[] segments = of(baseDir, file).split(SEPARATOR);
+            return compare(segments, cursorSegments, segments.length) >= 0;
+        };
+    }
+}
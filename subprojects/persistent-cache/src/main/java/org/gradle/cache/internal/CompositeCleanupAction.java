@@ -20,14 +20,18 @@
 import org.gradle.cache.CleanableStore;
 import org.gradle.cache.CleanupAction;
 import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.cache.IncrementalCleanupAction;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
-public class CompositeCleanupAction implements CleanupAction {
+public class CompositeCleanupAction implements IncrementalCleanupAction {
+    private static final char CURSOR_SEPARATOR = ':';
 
     public static Builder builder() {
         return new Builder();
@@ -39,11 +43,44 @@ private CompositeCleanupAction(List<CleanupAction> cleanups) {
         this.cleanups = cleanups;
     }
 
+    /**
+     * The cursor is the index of the action to resume, followed by the cursor of that action. Actions that cannot be run incrementally run in a single step.
+     */
     @Override
-    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
-        for (CleanupAction action : cleanups) {
-            action.clean(cleanableStore, progressMonitor);
+    @Nullable
+    public String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
+        int first = 0;
+        String actionCursor = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            try {
+                first = Integer.parseInt(cursor.substring(0, separator));
+                actionCursor = cursor.substring(separator + 1);
+            } catch (RuntimeException e) {
+                // Not written by this action, start over
+                first = 0;
+            }
+        }
+        for (int i = first; i < cleanups.size(); i++) {
+            if (shouldYield.getAsBoolean()) {
+                return i + String.valueOf(CURSOR_SEPARATOR) + (actionCursor == null ? "" : actionCursor);
+            }
+            String nextCursor = cleanIncrementally(cleanups.get(i), cleanableStore, actionCursor, progressMonitor, shouldYield);
+            if (nextCursor != null) {
+                return i + String.valueOf(CURSOR_SEPARATOR) + nextCursor;
+            }
+            actionCursor = null;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String cleanIncrementally(CleanupAction action, CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
+        if (action instanceof IncrementalCleanupAction) {
+            return ((IncrementalCleanupAction) action).cleanIncrementally(cleanableStore, cursor, progressMonitor, shouldYield);
         }
+        action.clean(cleanableStore, progressMonitor);
+        return null;
     }
 
     public static class Builder {
@@ -69,7 +106,7 @@ public CompositeCleanupAction build() {
         }
     }
 
-    private static class ScopedCleanupAction implements CleanupAction {
+    private static class ScopedCleanupAction implements IncrementalCleanupAction {
         private final File baseDir;
         private final CleanupAction action;
 
@@ -79,8 +116,9 @@ private static class ScopedCleanupAction implements CleanupAction {
         }
 
         @Override
-        public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
-            action.clean(new CleanableSubDir(cleanableStore, baseDir), progressMonitor);
+        @Nullable
+        public String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
+            return CompositeCleanupAction.cleanIncrementally(action, new CleanableSubDir(cleanableStore, baseDir), cursor, progressMonitor, shouldYield);
         }
     }
 
@@ -21,6 +21,8 @@
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
 import java.util.function.Function;
 
 /**
@@ -58,6 +60,17 @@ public void put(K key, V value) {
         target.putLater(key, value, runnable);
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        return cacheAccess.withFileLock(() -> target.getAll(keys));
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        Runnable runnable = cacheAccess.acquireFileLock();
+        target.putAllLater(entries, runnable);
+    }
+
     @Override
     public void remove(K key) {
         Runnable runnable = cacheAccess.acquireFileLock();
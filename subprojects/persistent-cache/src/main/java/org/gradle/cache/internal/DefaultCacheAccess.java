@@ -32,6 +32,9 @@
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.hashindex.HashKeyedPersistentIndexedCache;
+import org.gradle.cache.internal.log.LogStructuredPersistentIndexedCache;
+import org.gradle.cache.internal.log.WriteAheadLogIndexedCacheStorage;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -44,6 +47,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.File;
 import java.util.ArrayList;
@@ -73,6 +77,8 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private final Map<String, IndexedCacheEntry<?, ?>> caches = new HashMap<String, IndexedCacheEntry<?, ?>>();
     private final AbstractCrossProcessCacheAccess crossProcessCacheAccess;
     private final CacheAccessOperationsStack operations;
+    @Nullable
+    private final PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector;
 
     private ManagedExecutor cacheUpdateExecutor;
     private CacheAccessWorker cacheAccessWorker;
@@ -87,10 +93,15 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private int cacheClosedCount;
 
     public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, File baseDir, FileLockManager lockManager, CacheInitializationAction initializationAction, CacheCleanupAction cleanupAction, ExecutorFactory executorFactory) {
+        this(cacheDisplayName, lockTarget, lockOptions, baseDir, lockManager, initializationAction, cleanupAction, executorFactory, null);
+    }
+
+    public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, File baseDir, FileLockManager lockManager, CacheInitializationAction initializationAction, CacheCleanupAction cleanupAction, ExecutorFactory executorFactory, @Nullable PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector) {
         this.cacheDisplayName = cacheDisplayName;
         this.baseDir = baseDir;
         this.cleanupAction = cleanupAction;
         this.executorFactory = executorFactory;
+        this.statisticsCollector = statisticsCollector;
         this.operations = new CacheAccessOperationsStack();
 
         Action<FileLock> onFileLockAcquireAction = this::afterLockAcquire;
@@ -163,6 +174,7 @@ public synchronized void close() {
         try {
             // Take ownership
             takeOwnershipNow();
+            compactCaches();
             if (fileLockHeldByOwner != null) {
                 fileLockHeldByOwner.run();
             }
@@ -222,11 +234,15 @@ public <T> T useCache(Factory<? extends T> factory) {
                 stateLock.lock();
                 try {
                     try {
-                        if (wasStarted) {
-                            onEndWork();
-                        }
+                        flushCaches();
                     } finally {
-                        releaseOwnership();
+                        try {
+                            if (wasStarted) {
+                                onEndWork();
+                            }
+                        } finally {
+                            releaseOwnership();
+                        }
                     }
                 } finally {
                     stateLock.unlock();
@@ -274,6 +290,24 @@ private void releaseOwnership() {
         }
     }
 
+    /**
+     * Compacts the storages of the indexed caches used since this cache was opened, if the file lock is still held.
+     * This is done when the cache is closed, rather than each time the file lock is released, as compaction can rewrite whole cache files.
+     * Must be called by the owner.
+     */
+    private void compactCaches() {
+        if (fileLock == null) {
+            return;
+        }
+        try {
+            for (IndexedCacheEntry<?, ?> entry : caches.values()) {
+                entry.getStorage().compact();
+            }
+        } catch (Exception e) {
+            LOG.debug("Cache {} could not compact its indexed caches.", cacheDisplayName, e);
+        }
+    }
+
     @Override
     public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final PersistentIndexedCacheParameters<K, V> parameters) {
         stateLock.lock();
@@ -282,9 +316,10 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
             if (entry == null) {
                 File cacheFile = findCacheFile(parameters);
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                Factory<IndexedCacheStorage<K, V>> indexedCacheFactory = createStorageFactory(parameters, cacheFile);
 
-                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
+                DefaultMultiProcessSafePersistentIndexedCache<K, V> storage = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
+                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = storage;
                 CacheDecorator decorator = parameters.getCacheDecorator();
                 if (decorator != null) {
                     indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
@@ -292,7 +327,7 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
                         useCache(NO_OP);
                     }
                 }
-                entry = new IndexedCacheEntry<>(parameters, indexedCache);
+                entry = new IndexedCacheEntry<>(parameters, indexedCache, storage);
                 caches.put(parameters.getCacheName(), entry);
                 if (fileLock != null) {
                     indexedCache.afterLockAcquire(stateAtOpen);
@@ -306,17 +341,54 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
         }
     }
 
+    private <K, V> Factory<IndexedCacheStorage<K, V>> createStorageFactory(PersistentIndexedCacheParameters<K, V> parameters, File cacheFile) {
+        Serializer<K> keySerializer = parameters.getKeySerializer();
+        Serializer<V> valueSerializer = parameters.getValueSerializer();
+        switch (parameters.getStorageType()) {
+            case MAPPED_LOG:
+                return () -> doCreateLogCache(parameters.getCacheName(), keySerializer, valueSerializer);
+            case BTREE_WITH_WRITE_AHEAD_LOG:
+                return () -> new WriteAheadLogIndexedCacheStorage<>(findWriteAheadLogFile(parameters), () -> doCreateCache(cacheFile, keySerializer, valueSerializer), keySerializer, valueSerializer);
+            case HASH_INDEX:
+                // Keys are known to be hash codes, see PersistentIndexedCacheParameters.withStorageType()
+                return () -> Cast.uncheckedNonnullCast(new HashKeyedPersistentIndexedCache<>(findHashIndexFile(parameters), valueSerializer));
+            default:
+                return () -> doCreateCache(cacheFile, keySerializer, valueSerializer);
+        }
+    }
+
     private <K, V> File findCacheFile(PersistentIndexedCacheParameters<K, V> parameters) {
         return new File(baseDir, parameters.getCacheName() + ".bin");
     }
 
+    private <K, V> File findWriteAheadLogFile(PersistentIndexedCacheParameters<K, V> parameters) {
+        return new File(baseDir, parameters.getCacheName() + ".wal");
+    }
+
+    private <K, V> File findHashIndexFile(PersistentIndexedCacheParameters<K, V> parameters) {
+        return new File(baseDir, parameters.getCacheName() + "-hash.bin");
+    }
+
     @Override
     public <K, V> boolean cacheExists(PersistentIndexedCacheParameters<K, V> parameters) {
+        if (parameters.getStorageType() == PersistentIndexedCacheParameters.StorageType.HASH_INDEX) {
+            return findHashIndexFile(parameters).exists();
+        }
+        if (parameters.getStorageType() == PersistentIndexedCacheParameters.StorageType.MAPPED_LOG) {
+            return LogStructuredPersistentIndexedCache.exists(baseDir, parameters.getCacheName());
+        }
+        if (parameters.getStorageType() == PersistentIndexedCacheParameters.StorageType.BTREE_WITH_WRITE_AHEAD_LOG && findWriteAheadLogFile(parameters).exists()) {
+            return true;
+        }
         return findCacheFile(parameters).exists();
     }
 
     <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new BTreePersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer);
+        return new BTreePersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer, statisticsCollector);
+    }
+
+    <K, V> LogStructuredPersistentIndexedCache<K, V> doCreateLogCache(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return new LogStructuredPersistentIndexedCache<>(baseDir, cacheName, keySerializer, valueSerializer);
     }
 
     /**
@@ -368,6 +440,19 @@ private void notifyFinish() {
         }
     }
 
+    /**
+     * Makes the updates of the unit of work that is about to end durable, for storages that defer this.
+     * Must be called by the owner, before the file lock is released.
+     */
+    private void flushCaches() {
+        if (fileLock == null) {
+            return;
+        }
+        for (IndexedCacheEntry<?, ?> entry : caches.values()) {
+            entry.getStorage().flush();
+        }
+    }
+
     private boolean onStartWork() {
         if (fileLockHeldByOwner != null) {
             return false;
@@ -460,17 +545,26 @@ FileAccess getFileAccess() {
 
     private static class IndexedCacheEntry<K, V> {
         private final MultiProcessSafePersistentIndexedCache<K, V> cache;
+        private final DefaultMultiProcessSafePersistentIndexedCache<K, V> storage;
         private final PersistentIndexedCacheParameters<K, V> parameters;
 
-        IndexedCacheEntry(PersistentIndexedCacheParameters<K, V> parameters, MultiProcessSafePersistentIndexedCache<K, V> cache) {
+        IndexedCacheEntry(PersistentIndexedCacheParameters<K, V> parameters, MultiProcessSafePersistentIndexedCache<K, V> cache, DefaultMultiProcessSafePersistentIndexedCache<K, V> storage) {
             this.parameters = parameters;
             this.cache = cache;
+            this.storage = storage;
         }
 
         public MultiProcessSafePersistentIndexedCache<K, V> getCache() {
             return cache;
         }
 
+        /**
+         * The undecorated cache, which accesses the storage directly.
+         */
+        public DefaultMultiProcessSafePersistentIndexedCache<K, V> getStorage() {
+            return storage;
+        }
+
         public PersistentIndexedCacheParameters<K, V> getParameters() {
             return parameters;
         }
@@ -482,6 +576,7 @@ void assertCompatibleCacheParameters(PersistentIndexedCacheParameters<K, V> para
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleStorageType(faultMessages, parameters.getStorageType());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -524,6 +619,14 @@ private void checkCompatibleCacheDecorator(Collection<String> faultMessages, Cac
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleStorageType(Collection<String> faultMessages, PersistentIndexedCacheParameters.StorageType storageType) {
+            if (storageType != parameters.getStorageType()) {
+                faultMessages.add(
+                    String.format(" * Requested storage type (%s) doesn't match current storage type (%s)",
+                        storageType, parameters.getStorageType()));
+            }
+        }
     }
 
     @VisibleForTesting
@@ -65,6 +65,7 @@ private class PersistentCacheBuilder implements CacheBuilder {
         String displayName;
         VersionStrategy versionStrategy = VersionStrategy.CachePerVersion;
         LockTarget lockTarget = LockTarget.DefaultTarget;
+        int lockStripes = 1;
 
         PersistentCacheBuilder(@Nullable Object scope, String key) {
             this.scope = scope;
@@ -115,6 +116,15 @@ public CacheBuilder withCleanup(CleanupAction cleanup) {
             return this;
         }
 
+        @Override
+        public CacheBuilder withLockStripes(int stripes) {
+            if (stripes < 1) {
+                throw new IllegalArgumentException("Number of lock stripes must be at least 1, got " + stripes + ".");
+            }
+            this.lockStripes = stripes;
+            return this;
+        }
+
         @Override
         public PersistentCache open() {
             File cacheBaseDir;
@@ -123,7 +133,20 @@ public PersistentCache open() {
             } else {
                 cacheBaseDir = cacheScopeMapping.getBaseDirectory(scope, key, versionStrategy);
             }
-            return factory.open(cacheBaseDir, displayName, properties, lockTarget, lockOptions, initializer, cleanup);
+            if (lockStripes == 1) {
+                return factory.open(cacheBaseDir, displayName, properties, lockTarget, lockOptions, initializer, cleanup);
+            }
+            // The stripes live inside the base directory, so they are cleaned up individually rather than as entries of the whole cache
+            PersistentCache cache = factory.open(cacheBaseDir, displayName, properties, lockTarget, lockOptions, initializer, null);
+            return new StripedPersistentCache(cache, lockStripes, stripe -> factory.open(
+                StripedPersistentCache.stripeDir(cacheBaseDir, stripe),
+                displayName == null ? null : displayName + " (stripe " + stripe + ")",
+                Collections.emptyMap(),
+                LockTarget.DefaultTarget,
+                lockOptions,
+                null,
+                cleanup
+            ));
         }
     }
 }
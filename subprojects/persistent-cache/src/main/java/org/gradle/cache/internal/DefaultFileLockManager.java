@@ -32,6 +32,7 @@
 import org.gradle.cache.internal.filelock.LockStateSerializer;
 import org.gradle.cache.internal.filelock.Version1LockStateSerializer;
 import org.gradle.cache.internal.locklistener.FileLockContentionHandler;
+import org.gradle.cache.internal.locklistener.FileLockReleaseTable;
 import org.gradle.internal.Factory;
 import org.gradle.internal.FileUtils;
 import org.gradle.internal.concurrent.CompositeStoppable;
@@ -40,6 +41,8 @@
 import org.gradle.internal.id.RandomLongIdGenerator;
 import org.gradle.internal.io.ExponentialBackoff;
 import org.gradle.internal.io.IOQuery;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
 import org.gradle.util.internal.GFileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,12 +55,15 @@
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.gradle.internal.UncheckedException.throwAsUncheckedException;
 
 /**
  * Uses file system locks on a lock file per target file.
+ *
+ * When a {@link FileLockReleaseTable} is available, each release of a lock is recorded there, so that other processes waiting for the lock can retry immediately.
  */
 public class DefaultFileLockManager implements FileLockManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultFileLockManager.class);
@@ -68,22 +74,35 @@ public class DefaultFileLockManager implements FileLockManager {
     private final int lockTimeoutMs;
     private final IdGenerator<Long> generator;
     private final FileLockContentionHandler fileLockContentionHandler;
+    private final FileLockReleaseTable releaseTable;
+    private final FileLockStatistics.Collector statisticsCollector;
     private final int shortTimeoutMs = 10000;
 
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler);
     }
 
+    public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler, @Nullable FileLockReleaseTable releaseTable, FileLockStatistics.Collector statisticsCollector) {
+        this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler, new RandomLongIdGenerator(), releaseTable, statisticsCollector);
+    }
+
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, new RandomLongIdGenerator());
     }
 
     DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
                            IdGenerator<Long> generator) {
+        this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, generator, null, new FileLockStatistics.Collector());
+    }
+
+    DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
+                           IdGenerator<Long> generator, @Nullable FileLockReleaseTable releaseTable, FileLockStatistics.Collector statisticsCollector) {
         this.metaDataProvider = metaDataProvider;
         this.lockTimeoutMs = lockTimeoutMs;
         this.fileLockContentionHandler = fileLockContentionHandler;
         this.generator = generator;
+        this.releaseTable = releaseTable;
+        this.statisticsCollector = statisticsCollector;
     }
 
     @Override
@@ -263,6 +282,9 @@ public void stop() {
                             }
                         } finally {
                             lockFileAccess.close();
+                            if (releaseTable != null && lock != null) {
+                                releaseTable.released(lockFile);
+                            }
                         }
                     } catch (Exception e) {
                         throw new RuntimeException("Failed to release lock on " + displayName, e);
@@ -299,7 +321,13 @@ private LockState lock(LockMode lockMode) throws Throwable {
             LOGGER.debug("Waiting to acquire {} lock on {}.", lockMode.toString().toLowerCase(), displayName);
 
             // Lock the state region, with the requested mode
-            java.nio.channels.FileLock stateRegionLock = lockStateRegion(lockMode);
+            Timer timer = Time.startTimer();
+            boolean[] contended = new boolean[1];
+            java.nio.channels.FileLock stateRegionLock = lockStateRegion(lockMode, contended);
+            long waitTimeMillis = timer.getElapsedMillis();
+            if (contended[0]) {
+                LOGGER.debug("Waited {} ms to acquire {} lock on {}.", waitTimeMillis, lockMode.toString().toLowerCase(), displayName);
+            }
             if (stateRegionLock == null) {
                 LockInfo lockInfo = readInformationRegion(newExponentialBackoff(shortTimeoutMs));
                 throw new LockTimeoutException(displayName, lockInfo.pid, metaDataProvider.getProcessIdentifier(), lockInfo.operation, operationDisplayName, lockFile);
@@ -329,6 +357,7 @@ private LockState lock(LockMode lockMode) throws Throwable {
                     lockState = lockFileAccess.readLockState();
                 }
                 LOGGER.debug("Lock acquired on {}.", displayName);
+                statisticsCollector.reportLockAcquired(contended[0], waitTimeMillis);
                 lock = stateRegionLock;
                 return lockState;
             } catch (Throwable t) {
@@ -354,18 +383,22 @@ private LockInfo readInformationRegion(ExponentialBackoff<AwaitableFileLockRelea
         }
 
         @Nullable
-        private java.nio.channels.FileLock lockStateRegion(final LockMode lockMode) throws IOException, InterruptedException {
-            final ExponentialBackoff<AwaitableFileLockReleasedSignal> backoff = newExponentialBackoff(lockTimeoutMs);
+        private java.nio.channels.FileLock lockStateRegion(final LockMode lockMode, boolean[] contended) throws IOException, InterruptedException {
+            final ExponentialBackoff<AwaitableFileLockReleasedSignal> backoff = releaseTable == null
+                ? newExponentialBackoff(lockTimeoutMs)
+                : ExponentialBackoff.of(lockTimeoutMs, MILLISECONDS, new AwaitableFileLockReleasedSignal(() -> releaseTable.getReleaseCount(lockFile)));
             return backoff.retryUntil(new IOQuery<java.nio.channels.FileLock>() {
                 private long lastPingTime;
                 private int lastLockHolderPort;
 
                 @Override
                 public java.nio.channels.FileLock run() throws IOException, InterruptedException {
+                    backoff.getSignal().beforeAttempt();
                     java.nio.channels.FileLock fileLock = lockFileAccess.tryLockState(lockMode == LockMode.Shared);
                     if (fileLock != null) {
                         return fileLock;
                     }
+                    contended[0] = true;
                     if (port != -1) { //we don't like the assumption about the port very much
                         LockInfo lockInfo = readInformationRegion(backoff);
                         if (lockInfo.port != -1) {
@@ -397,18 +430,65 @@ private ExponentialBackoff<AwaitableFileLockReleasedSignal> newExponentialBackof
         return ExponentialBackoff.of(shortTimeoutMs, MILLISECONDS, new AwaitableFileLockReleasedSignal());
     }
 
+    /**
+     * Signals that a lock has been released. A signal triggered while nobody is waiting ends the next wait immediately, so it is never lost.
+     * When given the release count of the lock from a {@link FileLockReleaseTable}, waiting also ends as soon as the count changes.
+     */
     @VisibleForTesting
     static class AwaitableFileLockReleasedSignal implements FileLockReleasedSignal, ExponentialBackoff.Signal {
+        private static final long RELEASE_COUNT_POLL_INTERVAL_NANOS = MILLISECONDS.toNanos(2);
 
         private final Lock lock = new ReentrantLock();
         private final Condition condition = lock.newCondition();
+        private final IntSupplier releaseCount;
+        private int expectedReleaseCount;
+        private boolean triggered;
         private int waiting;
 
+        AwaitableFileLockReleasedSignal() {
+            this(null);
+        }
+
+        AwaitableFileLockReleasedSignal(@Nullable IntSupplier releaseCount) {
+            this.releaseCount = releaseCount;
+        }
+
+        /**
+         * Remembers the release count of the lock before trying to acquire it, so that a release happening in between is not missed.
+         */
+        void beforeAttempt() {
+            if (releaseCount != null) {
+                lock.lock();
+                try {
+                    expectedReleaseCount = releaseCount.getAsInt();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
         public boolean await(long millis) throws InterruptedException {
             lock.lock();
             try {
                 waiting++;
-                return condition.await(millis, MILLISECONDS);
+                long remainingNanos = MILLISECONDS.toNanos(millis);
+                while (!triggered) {
+                    if (releaseCount != null) {
+                        int currentReleaseCount = releaseCount.getAsInt();
+                        if (currentReleaseCount != expectedReleaseCount) {
+                            expectedReleaseCount = currentReleaseCount;
+                            return true;
+                        }
+                    }
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    long waitNanos = releaseCount == null ? remainingNanos : Math.min(remainingNanos, RELEASE_COUNT_POLL_INTERVAL_NANOS);
+                    remainingNanos -= waitNanos - condition.awaitNanos(waitNanos);
+                }
+                triggered = false;
+                return true;
             } finally {
                 waiting--;
                 lock.unlock();
@@ -419,6 +499,7 @@ public boolean await(long millis) throws InterruptedException {
         public void trigger() {
             lock.lock();
             try {
+                triggered = true;
                 if (waiting > 0) {
                     condition.signalAll();
                 }
@@ -23,9 +23,12 @@
 import org.gradle.cache.CrossProcessCacheAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+import org.gradle.internal.Cast;
+import org.gradle.internal.serialize.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -33,21 +36,59 @@
  * The in-memory cache is invalidated when the backing cache is changed by another process.
  *
  * Also decorates each cache so that updates to the backing cache are made asynchronously.
+ *
+ * In long living processes, caches created with serializers can also keep entries in off-heap memory, between the in-memory cache and the backing cache.
+ * The off-heap memory is shared by all caches, and its size is set by the {@value #OFF_HEAP_SIZE_SYSTEM_PROPERTY} system property. It is disabled by default.
  */
 public class DefaultInMemoryCacheDecoratorFactory implements InMemoryCacheDecoratorFactory {
+    public static final String OFF_HEAP_SIZE_SYSTEM_PROPERTY = "org.gradle.cache.off-heap.mb";
     private final static Logger LOG = LoggerFactory.getLogger(DefaultInMemoryCacheDecoratorFactory.class);
     private final boolean longLivingProcess;
+    private final long maxOffHeapBytes;
     private final HeapProportionalCacheSizer cacheSizer = new HeapProportionalCacheSizer();
     private final CrossBuildInMemoryCache<String, CacheDetails> caches;
+    private final CrossBuildInMemoryCache<String, OffHeapCacheDetails> offHeapCaches;
+    private OffHeapEntryStore offHeapStore;
 
     public DefaultInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory) {
+        this(longLivingProcess, cacheFactory, Long.getLong(OFF_HEAP_SIZE_SYSTEM_PROPERTY, 0) * 1024 * 1024);
+    }
+
+    public DefaultInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory, long maxOffHeapBytes) {
         this.longLivingProcess = longLivingProcess;
+        this.maxOffHeapBytes = maxOffHeapBytes;
         caches = cacheFactory.newCache();
+        offHeapCaches = cacheFactory.newCache();
     }
 
     @Override
     public CacheDecorator decorator(final int maxEntriesToKeepInMemory, final boolean cacheInMemoryForShortLivedProcesses) {
-        return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+        return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses, null, null);
+    }
+
+    @Override
+    public <K, V> CacheDecorator decorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses, keySerializer, valueSerializer);
+    }
+
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyOffHeapCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        if (!longLivingProcess || maxOffHeapBytes <= 0) {
+            return backingCache;
+        }
+        OffHeapEntryStore store = getOffHeapStore();
+        OffHeapCacheDetails cacheDetails = offHeapCaches.get(cacheId, () -> {
+            LOG.debug("Creating off-heap store for cache {}", cacheId);
+            return new OffHeapCacheDetails(store.newPartition(), new AtomicReference<>(null));
+        });
+        return new OffHeapDecoratedCache<>(backingCache, store, cacheDetails.partition, keySerializer, valueSerializer, cacheId, cacheDetails.lockState);
+    }
+
+    private synchronized OffHeapEntryStore getOffHeapStore() {
+        if (offHeapStore == null) {
+            LOG.debug("Creating off-heap store for caches (max size: {} bytes)", maxOffHeapBytes);
+            offHeapStore = new OffHeapEntryStore(maxOffHeapBytes);
+        }
+        return offHeapStore;
     }
 
     protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
@@ -85,10 +126,18 @@ private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
     private class InMemoryCacheDecorator implements CacheDecorator {
         private final int maxEntriesToKeepInMemory;
         private final boolean cacheInMemoryForShortLivedProcesses;
+        private final Serializer<?> keySerializer;
+        private final Serializer<?> valueSerializer;
 
-        InMemoryCacheDecorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+        InMemoryCacheDecorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses, @Nullable Serializer<?> keySerializer, @Nullable Serializer<?> valueSerializer) {
             this.maxEntriesToKeepInMemory = maxEntriesToKeepInMemory;
             this.cacheInMemoryForShortLivedProcesses = cacheInMemoryForShortLivedProcesses;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+        }
+
+        private boolean isOffHeap() {
+            return keySerializer != null && valueSerializer != null;
         }
 
         @Override
@@ -100,17 +149,20 @@ public boolean equals(Object obj) {
                 return false;
             }
             InMemoryCacheDecorator other = (InMemoryCacheDecorator) obj;
-            return maxEntriesToKeepInMemory == other.maxEntriesToKeepInMemory && cacheInMemoryForShortLivedProcesses == other.cacheInMemoryForShortLivedProcesses;
+            return maxEntriesToKeepInMemory == other.maxEntriesToKeepInMemory && cacheInMemoryForShortLivedProcesses == other.cacheInMemoryForShortLivedProcesses && isOffHeap() == other.isOffHeap();
         }
 
         @Override
         public int hashCode() {
-            return maxEntriesToKeepInMemory ^ (cacheInMemoryForShortLivedProcesses ? 1 : 0);
+            return maxEntriesToKeepInMemory ^ (cacheInMemoryForShortLivedProcesses ? 1 : 0) ^ (isOffHeap() ? 2 : 0);
         }
 
         @Override
         public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<>(asyncCacheAccess, persistentCache);
+            if (isOffHeap()) {
+                asyncCache = applyOffHeapCaching(cacheId, asyncCache, Cast.uncheckedCast(keySerializer), Cast.uncheckedCast(valueSerializer));
+            }
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
             return new CrossProcessSynchronizingCache<>(memCache, crossProcessCacheAccess);
         }
@@ -129,4 +181,14 @@ private static class CacheDetails {
             this.lockState = lockState;
         }
     }
+
+    private static class OffHeapCacheDetails {
+        private final int partition;
+        private final AtomicReference<FileLock.State> lockState;
+
+        OffHeapCacheDetails(int partition, AtomicReference<FileLock.State> lockState) {
+            this.partition = partition;
+            this.lockState = lockState;
+        }
+    }
 }
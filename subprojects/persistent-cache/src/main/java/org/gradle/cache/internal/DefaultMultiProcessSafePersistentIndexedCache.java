@@ -19,17 +19,20 @@
 import org.gradle.cache.FileIntegrityViolationException;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.internal.Factory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Function;
 
 public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V> {
     private final FileAccess fileAccess;
-    private final Factory<BTreePersistentIndexedCache<K, V>> factory;
-    private BTreePersistentIndexedCache<K, V> cache;
+    private final Factory<? extends IndexedCacheStorage<K, V>> factory;
+    private IndexedCacheStorage<K, V> cache;
+    private boolean used;
 
-    public DefaultMultiProcessSafePersistentIndexedCache(Factory<BTreePersistentIndexedCache<K, V>> factory, FileAccess fileAccess) {
+    public DefaultMultiProcessSafePersistentIndexedCache(Factory<? extends IndexedCacheStorage<K, V>> factory, FileAccess fileAccess) {
         this.factory = factory;
         this.fileAccess = fileAccess;
     }
@@ -41,7 +44,7 @@ public String toString() {
 
     @Override
     public V getIfPresent(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final IndexedCacheStorage<K, V> cache = getCache();
         try {
             return fileAccess.readFile((Factory<V>) () -> cache.get(key));
         } catch (FileIntegrityViolationException e) {
@@ -61,15 +64,33 @@ public V get(K key, Function<? super K, ? extends V> producer) {
 
     @Override
     public void put(final K key, final V value) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final IndexedCacheStorage<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
         fileAccess.writeFile(() -> cache.put(key, value));
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final IndexedCacheStorage<K, V> cache = getCache();
+        try {
+            return fileAccess.readFile((Factory<Map<K, V>>) () -> cache.getAll(keys));
+        } catch (FileIntegrityViolationException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        final IndexedCacheStorage<K, V> cache = getCache();
+        // Use writeFile because the cache can internally recover from datafile
+        // corruption, so we don't care at this level if it's corrupt
+        fileAccess.writeFile(() -> cache.putAll(entries));
+    }
+
     @Override
     public void remove(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final IndexedCacheStorage<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
         fileAccess.writeFile(() -> cache.remove(key));
@@ -90,11 +111,37 @@ public void finishWork() {
         }
     }
 
+    /**
+     * Compacts the storage, if it has been used since this cache was created. Must be called while the file lock is held.
+     */
+    public void compact() {
+        if (!used) {
+            return;
+        }
+        IndexedCacheStorage<K, V> cache = getCache();
+        try {
+            fileAccess.writeFile(cache::compactAndClose);
+        } finally {
+            this.cache = null;
+            used = false;
+        }
+    }
+
+    /**
+     * Flushes the updates made to the storage, if it is open. Must be called while the file lock is held.
+     */
+    public void flush() {
+        if (cache != null) {
+            fileAccess.writeFile(() -> cache.flush());
+        }
+    }
+
     @Override
     public void beforeLockRelease(FileLock.State currentCacheState) {
     }
 
-    private BTreePersistentIndexedCache<K, V> getCache() {
+    private IndexedCacheStorage<K, V> getCache() {
+        used = true;
         if (cache == null) {
             // Use writeFile because the cache can internally recover from datafile
             // corruption, so we don't care at this level if it's corrupt
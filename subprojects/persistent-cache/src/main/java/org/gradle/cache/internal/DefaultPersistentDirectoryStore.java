@@ -20,6 +20,8 @@
 import org.gradle.cache.CleanupAction;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.FileLockReleasedSignal;
+import org.gradle.cache.IncrementalCleanupAction;
 import org.gradle.cache.LockOptions;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
@@ -36,9 +38,12 @@
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 public class DefaultPersistentDirectoryStore implements ReferencablePersistentCache {
 
@@ -56,7 +61,12 @@ public class DefaultPersistentDirectoryStore implements ReferencablePersistentCa
     private final String displayName;
     protected final File propertiesFile;
     private final File gcFile;
+    private final File gcCursorFile;
     private final ProgressLoggerFactory progressLoggerFactory;
+    @Nullable
+    private final CacheCleanupScheduler cleanupScheduler;
+    @Nullable
+    private final PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector;
     private CacheCoordinator cacheAccess;
 
     public DefaultPersistentDirectoryStore(
@@ -68,6 +78,21 @@ public DefaultPersistentDirectoryStore(
         FileLockManager fileLockManager,
         ExecutorFactory executorFactory,
         ProgressLoggerFactory progressLoggerFactory
+    ) {
+        this(dir, displayName, lockTarget, lockOptions, cleanupAction, fileLockManager, executorFactory, progressLoggerFactory, null, null);
+    }
+
+    public DefaultPersistentDirectoryStore(
+        File dir,
+        @Nullable String displayName,
+        CacheBuilder.LockTarget lockTarget,
+        LockOptions lockOptions,
+        @Nullable CleanupAction cleanupAction,
+        FileLockManager fileLockManager,
+        ExecutorFactory executorFactory,
+        ProgressLoggerFactory progressLoggerFactory,
+        @Nullable CacheCleanupScheduler cleanupScheduler,
+        @Nullable PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector
     ) {
         this.dir = dir;
         this.lockTarget = lockTarget;
@@ -77,7 +102,10 @@ public DefaultPersistentDirectoryStore(
         this.executorFactory = executorFactory;
         this.propertiesFile = new File(dir, "cache.properties");
         this.gcFile = new File(dir, "gc.properties");
+        this.gcCursorFile = new File(dir, "gc.cursor");
         this.progressLoggerFactory = progressLoggerFactory;
+        this.cleanupScheduler = cleanupScheduler;
+        this.statisticsCollector = statisticsCollector;
         this.displayName = displayName != null ? (displayName + " (" + dir + ")") : ("cache directory " + dir.getName() + " (" + dir + ")");
     }
 
@@ -95,7 +123,7 @@ public DefaultPersistentDirectoryStore open() {
     }
 
     private CacheCoordinator createCacheAccess() {
-        return new DefaultCacheAccess(displayName, getLockTarget(), lockOptions, dir, lockManager, getInitAction(), getCleanupAction(), executorFactory);
+        return new DefaultCacheAccess(displayName, getLockTarget(), lockOptions, dir, lockManager, getInitAction(), getCleanupAction(), executorFactory, statisticsCollector);
     }
 
     private File getLockTarget() {
@@ -146,7 +174,7 @@ public File getBaseDir() {
 
     @Override
     public Collection<File> getReservedCacheFiles() {
-        return Arrays.asList(propertiesFile, gcFile, determineLockTargetFile(getLockTarget()));
+        return Arrays.asList(propertiesFile, gcFile, gcCursorFile, determineLockTargetFile(getLockTarget()));
     }
 
     // TODO: Duplicated in DefaultFileLockManager
@@ -210,10 +238,7 @@ public boolean requiresCleanup() {
                 if (!gcFile.exists()) {
                     GFileUtils.touch(gcFile);
                 } else {
-                    long duration = System.currentTimeMillis() - gcFile.lastModified();
-                    long timeInHours = TimeUnit.MILLISECONDS.toHours(duration);
-                    LOGGER.debug("{} has last been fully cleaned up {} hours ago", DefaultPersistentDirectoryStore.this, timeInHours);
-                    return timeInHours >= CLEANUP_INTERVAL_IN_HOURS;
+                    return isCleanupDue();
                 }
             }
             return false;
@@ -222,12 +247,20 @@ public boolean requiresCleanup() {
         @Override
         public void cleanup() {
             if (cleanupAction != null) {
+                if (cleanupScheduler != null
+                    && cleanupAction instanceof IncrementalCleanupAction
+                    && lockOptions.getMode() == FileLockManager.LockMode.OnDemand
+                    && cleanupScheduler.schedule(new BackgroundCleanup((IncrementalCleanupAction) cleanupAction))) {
+                    LOGGER.debug("{} will be cleaned up in the background.", DefaultPersistentDirectoryStore.this);
+                    return;
+                }
                 String description = "Cleaning " + getDisplayName();
                 ProgressLogger progressLogger = progressLoggerFactory.newOperation(CacheCleanupAction.class).start(description, description);
                 Timer timer = Time.startTimer();
                 try {
                     cleanupAction.clean(DefaultPersistentDirectoryStore.this, new DefaultCleanupProgressMonitor(progressLogger));
                     GFileUtils.touch(gcFile);
+                    GFileUtils.deleteQuietly(gcCursorFile);
                 } finally {
                     LOGGER.info("{} cleaned up in {}.", DefaultPersistentDirectoryStore.this, timer.getElapsed());
                     progressLogger.completed();
@@ -236,4 +269,63 @@ public void cleanup() {
         }
     }
 
+    private boolean isCleanupDue() {
+        long duration = System.currentTimeMillis() - gcFile.lastModified();
+        long timeInHours = TimeUnit.MILLISECONDS.toHours(duration);
+        LOGGER.debug("{} has last been fully cleaned up {} hours ago", this, timeInHours);
+        return timeInHours >= CLEANUP_INTERVAL_IN_HOURS;
+    }
+
+    /**
+     * Runs the clean-up in slices while the cache is closed, taking the cross-process lock for each slice
+     * and keeping the position reached in the cursor file in between.
+     */
+    private class BackgroundCleanup implements CacheCleanupScheduler.Task {
+        private final IncrementalCleanupAction action;
+
+        BackgroundCleanup(IncrementalCleanupAction action) {
+            this.action = action;
+        }
+
+        @Override
+        public File getBaseDir() {
+            return dir;
+        }
+
+        @Override
+        public boolean run(BooleanSupplier shouldYield) {
+            AtomicReference<FileLockReleasedSignal> contended = new AtomicReference<>();
+            FileLock lock = lockManager.lock(getLockTarget(), lockOptions.withMode(FileLockManager.LockMode.Exclusive), displayName, "Clean up", contended::set);
+            try {
+                if (!gcFile.exists() || !isCleanupDue()) {
+                    // Cleaned up by another process in the meantime
+                    GFileUtils.deleteQuietly(gcCursorFile);
+                    return true;
+                }
+                String cursor = gcCursorFile.isFile() ? GFileUtils.readFile(gcCursorFile, StandardCharsets.UTF_8.name()) : null;
+                String description = "Cleaning " + getDisplayName();
+                ProgressLogger progressLogger = progressLoggerFactory.newOperation(CacheCleanupAction.class).start(description, description);
+                try {
+                    String nextCursor = action.cleanIncrementally(DefaultPersistentDirectoryStore.this, cursor, new DefaultCleanupProgressMonitor(progressLogger), () -> contended.get() != null || shouldYield.getAsBoolean());
+                    if (nextCursor != null) {
+                        GFileUtils.writeFile(nextCursor, gcCursorFile, StandardCharsets.UTF_8.name());
+                        return false;
+                    }
+                    GFileUtils.touch(gcFile);
+                    GFileUtils.deleteQuietly(gcCursorFile);
+                    LOGGER.info("{} cleaned up in the background.", DefaultPersistentDirectoryStore.this);
+                    return true;
+                } finally {
+                    progressLogger.completed();
+                }
+            } finally {
+                lock.close();
+                FileLockReleasedSignal signal = contended.get();
+                if (signal != null) {
+                    signal.trigger();
+                }
+            }
+        }
+    }
+
 }
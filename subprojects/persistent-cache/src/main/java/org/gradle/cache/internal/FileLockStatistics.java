@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the file locks acquired by this process. Reported as progress of the build operation of each build.
+ */
+public interface FileLockStatistics {
+    /**
+     * Number of file locks acquired.
+     */
+    long getAcquisitionCount();
+
+    /**
+     * Number of file locks that were held by another lock manager when they were requested.
+     */
+    long getContendedAcquisitionCount();
+
+    /**
+     * Time spent waiting for contended file locks, in milliseconds.
+     */
+    long getTotalWaitTimeMillis();
+
+    /**
+     * Longest time spent waiting for a single contended file lock, in milliseconds.
+     */
+    long getMaxWaitTimeMillis();
+
+    class Collector {
+        private final LongAdder acquisitionCount = new LongAdder();
+        private final LongAdder contendedAcquisitionCount = new LongAdder();
+        private final AtomicLong totalWaitTimeMillis = new AtomicLong();
+        private final LongAccumulator maxWaitTimeMillis = new LongAccumulator(Math::max, 0);
+
+        public void reportLockAcquired(boolean contended, long waitTimeMillis) {
+            acquisitionCount.increment();
+            if (contended) {
+                contendedAcquisitionCount.increment();
+                totalWaitTimeMillis.addAndGet(waitTimeMillis);
+                maxWaitTimeMillis.accumulate(waitTimeMillis);
+            }
+        }
+
+        public FileLockStatistics collect() {
+            long acquisitionCount = this.acquisitionCount.sumThenReset();
+            long contendedAcquisitionCount = this.contendedAcquisitionCount.sumThenReset();
+            long totalWaitTimeMillis = this.totalWaitTimeMillis.getAndSet(0);
+            long maxWaitTimeMillis = this.maxWaitTimeMillis.getThenReset();
+            return new FileLockStatistics() {
+                @Override
+                public long getAcquisitionCount() {
+                    return acquisitionCount;
+                }
+
+                @Override
+                public long getContendedAcquisitionCount() {
+                    return contendedAcquisitionCount;
+                }
+
+                @Override
+                public long getTotalWaitTimeMillis() {
+                    return totalWaitTimeMillis;
+                }
+
+                @Override
+                public long getMaxWaitTimeMillis() {
+                    return maxWaitTimeMillis;
+                }
+
+                @Override
+                public String toString() {
+                    return MessageFormat.format("Acquired {0,number,integer} file locks ({1,number,integer} contended, waited {2,number,integer} ms in total, {3,number,integer} ms at most)",
+                        acquisitionCount, contendedAcquisitionCount, totalWaitTimeMillis, maxWaitTimeMillis
+                    );
+                }
+            };
+        }
+    }
+}
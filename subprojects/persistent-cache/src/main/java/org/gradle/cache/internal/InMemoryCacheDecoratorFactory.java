@@ -16,7 +16,15 @@
 package org.gradle.cache.internal;
 
 import org.gradle.cache.CacheDecorator;
+import org.gradle.internal.serialize.Serializer;
 
 public interface InMemoryCacheDecoratorFactory {
     CacheDecorator decorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses);
+
+    /**
+     * Creates a decorator that may additionally keep entries in serialized form outside of the heap, using the given serializers.
+     */
+    default <K, V> CacheDecorator decorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return decorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+    }
 }
@@ -25,6 +25,11 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -109,6 +114,38 @@ public void putLater(K key, V value, Runnable completion) {
         delegate.putLater(key, value, completion);
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> missing = new ArrayList<>();
+        for (K key : keys) {
+            Object value = inMemoryCache.getIfPresent(key);
+            if (value == null) {
+                missing.add(key);
+            } else if (value != NULL) {
+                result.put(key, Cast.uncheckedCast(value));
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<K, V> loaded = delegate.getAll(missing);
+            for (K key : missing) {
+                V value = loaded.get(key);
+                // Don't replace a value put by another thread while the batch was loaded
+                inMemoryCache.asMap().putIfAbsent(key, value == null ? NULL : value);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void putAllLater(Map<? extends K, ? extends V> entries, Runnable completion) {
+        inMemoryCache.putAll(entries);
+        delegate.putAllLater(entries, completion);
+    }
+
     @Override
     public void removeLater(K key, Runnable completion) {
         inMemoryCache.put(key, NULL);
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The on-disk storage backing a {@link org.gradle.cache.PersistentIndexedCache}.
+ *
+ * Access to the storage is coordinated by the caller, which holds the appropriate file lock.
+ *
+ * @see org.gradle.cache.PersistentIndexedCacheParameters.StorageType
+ */
+public interface IndexedCacheStorage<K, V> {
+    @Nullable
+    V get(K key);
+
+    void put(K key, V value);
+
+    /**
+     * Returns the values of those of the given keys that are present in this storage.
+     * Implementations may reorder the reads to make better use of their layout on disk.
+     */
+    default Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    default void putAll(Map<? extends K, ? extends V> entries) {
+        entries.forEach(this::put);
+    }
+
+    void remove(K key);
+
+    /**
+     * Makes the updates made so far durable, without closing this storage.
+     * Called at the end of each unit of work, while the caller still holds the file lock.
+     */
+    default void flush() {
+    }
+
+    void close();
+
+    /**
+     * Closes this storage when the cache it belongs to is closed, compacting its files first if that is worthwhile.
+     * Compaction can take a while, so it is not done each time the storage is closed at the end of a unit of work.
+     */
+    default void compactAndClose() {
+        close();
+    }
+}
@@ -22,9 +22,11 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * Deletes any cache entries not accessed within the specified number of days.
@@ -45,9 +47,10 @@ public LeastRecentlyUsedCacheCleanup(FilesFinder eligibleFilesFinder, FileAccess
     }
 
     @Override
-    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+    @Nullable
+    public String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
         LOGGER.info("{} removing files not accessed on or after {}.", cleanableStore.getDisplayName(), new Date(minimumTimestamp));
-        super.clean(cleanableStore, progressMonitor);
+        return super.cleanIncrementally(cleanableStore, cursor, progressMonitor, shouldYield);
     }
 
     @Override
@@ -18,6 +18,8 @@
 import org.gradle.cache.UnitOfWorkParticipant;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
 import java.util.function.Function;
 
 /**
@@ -40,6 +42,16 @@
      */
     void putLater(K key, V value, Runnable completion);
 
+    /**
+     * Fetches the given entries, blocking until the result is available. Keys with no value associated are not contained in the result.
+     */
+    Map<K, V> getAll(Collection<? extends K> keys);
+
+    /**
+     * Submits a batch of updates to be applied later. This method may or may not block, and will invoke the given completion action once, when all updates are complete.
+     */
+    void putAllLater(Map<? extends K, ? extends V> entries, Runnable completion);
+
     /**
      * Submits a removal to be applied later. This method may or may not block, and will invoke the given completion action when the operation is complete.
      */
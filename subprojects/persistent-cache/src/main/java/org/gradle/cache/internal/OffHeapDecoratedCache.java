@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.cache.FileLock;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Keeps serialized entries of the backing cache in an {@link OffHeapEntryStore}, so that entries evicted from the heap don't need to be read from disk again.
+ * The entries are invalidated when the backing cache is changed by another process.
+ */
+class OffHeapDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V>, InMemoryCacheController {
+    private final static Logger LOG = LoggerFactory.getLogger(OffHeapDecoratedCache.class);
+    private final MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate;
+    private final OffHeapEntryStore store;
+    private final int partition;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final String cacheId;
+    private final AtomicReference<FileLock.State> fileLockStateReference;
+
+    public OffHeapDecoratedCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate, OffHeapEntryStore store, int partition, Serializer<K> keySerializer, Serializer<V> valueSerializer, String cacheId, AtomicReference<FileLock.State> fileLockStateReference) {
+        this.delegate = delegate;
+        this.store = store;
+        this.partition = partition;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.cacheId = cacheId;
+        this.fileLockStateReference = fileLockStateReference;
+    }
+
+    @Override
+    public String toString() {
+        return "{off-heap-cache cache: " + delegate + "}";
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        byte[] keyBytes = serialize(keySerializer, key);
+        byte[] valueBytes = store.get(partition, keyBytes);
+        if (valueBytes != null) {
+            return deserialize(valueBytes);
+        }
+        V value = delegate.get(key);
+        if (value != null) {
+            store.put(partition, keyBytes, serialize(valueSerializer, value));
+        }
+        return value;
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> producer, Runnable completion) {
+        boolean completed = false;
+        try {
+            V value = get(key);
+            if (value == null) {
+                value = producer.apply(key);
+                completed = true;
+                putLater(key, value, completion);
+            }
+            return value;
+        } finally {
+            if (!completed) {
+                completion.run();
+            }
+        }
+    }
+
+    @Override
+    public void putLater(K key, V value, Runnable completion) {
+        try {
+            store.put(partition, serialize(keySerializer, key), serialize(valueSerializer, value));
+        } catch (RuntimeException e) {
+            completion.run();
+            throw e;
+        }
+        delegate.putLater(key, value, completion);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> missing = new ArrayList<>();
+        for (K key : keys) {
+            byte[] valueBytes = store.get(partition, serialize(keySerializer, key));
+            if (valueBytes != null) {
+                result.put(key, deserialize(valueBytes));
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<K, V> loaded = delegate.getAll(missing);
+            loaded.forEach((key, value) -> store.put(partition, serialize(keySerializer, key), serialize(valueSerializer, value)));
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public void putAllLater(Map<? extends K, ? extends V> entries, Runnable completion) {
+        try {
+            entries.forEach((key, value) -> store.put(partition, serialize(keySerializer, key), serialize(valueSerializer, value)));
+        } catch (RuntimeException e) {
+            completion.run();
+            throw e;
+        }
+        delegate.putAllLater(entries, completion);
+    }
+
+    @Override
+    public void removeLater(K key, Runnable completion) {
+        try {
+            store.remove(partition, serialize(keySerializer, key));
+        } catch (RuntimeException e) {
+            completion.run();
+            throw e;
+        }
+        delegate.removeLater(key, completion);
+    }
+
+    @Override
+    public void afterLockAcquire(FileLock.State currentCacheState) {
+        boolean outOfDate = false;
+        FileLock.State previousState = fileLockStateReference.get();
+        if (previousState == null) {
+            outOfDate = true;
+        } else if (currentCacheState.hasBeenUpdatedSince(previousState)) {
+            LOG.info("Invalidating off-heap cache of {}", cacheId);
+            outOfDate = true;
+        }
+        if (outOfDate) {
+            store.clear(partition);
+        }
+        delegate.afterLockAcquire(currentCacheState);
+    }
+
+    @Override
+    public void finishWork() {
+        delegate.finishWork();
+    }
+
+    @Override
+    public void beforeLockRelease(FileLock.State currentCacheState) {
+        fileLockStateReference.set(currentCacheState);
+        delegate.beforeLockRelease(currentCacheState);
+    }
+
+    @Override
+    public String getCacheId() {
+        return cacheId;
+    }
+
+    @Override
+    public void clearInMemoryCache() {
+        store.clear(partition);
+    }
+
+    private V deserialize(byte[] bytes) {
+        try {
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(bytes)));
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
+    private static <T> byte[] serialize(Serializer<T> serializer, T value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        try {
+            serializer.write(encoder, value);
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.io.BufferCaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A byte-budgeted store of serialized cache entries, kept in direct memory so that they don't add to the work of the garbage collector.
+ *
+ * <p>Entries are appended to fixed-size pages. Once all pages are in use, the oldest page is reclaimed: entries that have been read
+ * since the page was last reclaimed are moved to the start of the page, all other entries are evicted. Like CLOCK, this approximates
+ * least-recently-used eviction without keeping track of the access order.</p>
+ *
+ * <p>The index is an open-addressing hash table made of two primitive arrays, so that it doesn't create garbage either.
+ * Entries of different caches are kept apart by a partition number.</p>
+ */
+@ThreadSafe
+public class OffHeapEntryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapEntryStore.class);
+
+    static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    // Entry layout: [long hash][int partition][int key length][int value length][byte referenced][key][value]
+    private static final int PARTITION_OFFSET = 8;
+    private static final int KEY_LENGTH_OFFSET = 12;
+    private static final int VALUE_LENGTH_OFFSET = 16;
+    private static final int REFERENCED_OFFSET = 20;
+    private static final int ENTRY_HEADER_SIZE = 21;
+
+    private static final long EMPTY = -1;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final int pageSize;
+    private ByteBuffer[] pages;
+    private final int[] pageUsed;
+    private int currentPage;
+    private byte[] scratch = new byte[0];
+
+    private long[] hashes = new long[INITIAL_INDEX_CAPACITY];
+    private long[] addresses = newAddresses(INITIAL_INDEX_CAPACITY);
+    private int size;
+    private int nextPartition;
+
+    public OffHeapEntryStore(long maxBytes) {
+        this(maxBytes, DEFAULT_PAGE_SIZE);
+    }
+
+    OffHeapEntryStore(long maxBytes, int pageSize) {
+        this.pageSize = pageSize;
+        int pageCount = (int) Math.max(1, Math.min(maxBytes / pageSize, Integer.MAX_VALUE));
+        this.pages = new ByteBuffer[pageCount];
+        this.pageUsed = new int[pageCount];
+        this.pages[0] = ByteBuffer.allocateDirect(pageSize);
+    }
+
+    /**
+     * Allocates a new partition, to be used by a single cache.
+     */
+    public synchronized int newPartition() {
+        return nextPartition++;
+    }
+
+    /**
+     * Returns the value stored for the given key, or null when not present.
+     */
+    @Nullable
+    public synchronized byte[] get(int partition, byte[] key) {
+        int slot = findSlot(hash(partition, key));
+        if (slot < 0) {
+            return null;
+        }
+        ByteBuffer page = pages[pageOf(addresses[slot])];
+        int offset = offsetOf(addresses[slot]);
+        if (!hasKey(page, offset, partition, key)) {
+            return null;
+        }
+        page.put(offset + REFERENCED_OFFSET, (byte) 1);
+        byte[] value = new byte[page.getInt(offset + VALUE_LENGTH_OFFSET)];
+        copy(page, offset + ENTRY_HEADER_SIZE + key.length, value, value.length);
+        return value;
+    }
+
+    /**
+     * Stores the given value, replacing any previous value. Values too large for a page are not stored.
+     */
+    public synchronized void put(int partition, byte[] key, byte[] value) {
+        long hash = hash(partition, key);
+        int slot = findSlot(hash);
+        if (slot >= 0) {
+            // The previous entry stays in its page until the page is reclaimed
+            removeSlot(slot);
+        }
+        long entrySize = (long) ENTRY_HEADER_SIZE + key.length + value.length;
+        if (entrySize > pageSize) {
+            return;
+        }
+        long address = allocate((int) entrySize);
+        ByteBuffer page = pages[pageOf(address)].duplicate();
+        BufferCaster.cast(page).position(offsetOf(address));
+        page.putLong(hash)
+            .putInt(partition)
+            .putInt(key.length)
+            .putInt(value.length)
+            .put((byte) 0)
+            .put(key)
+            .put(value);
+        insert(hash, address);
+    }
+
+    public synchronized void remove(int partition, byte[] key) {
+        int slot = findSlot(hash(partition, key));
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * Removes all entries of the given partition.
+     */
+    public synchronized void clear(int partition) {
+        long[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+        hashes = new long[oldHashes.length];
+        addresses = newAddresses(oldAddresses.length);
+        size = 0;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            long address = oldAddresses[i];
+            if (address != EMPTY && pages[pageOf(address)].getInt(offsetOf(address) + PARTITION_OFFSET) != partition) {
+                insert(oldHashes[i], address);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private long allocate(int entrySize) {
+        while (pageUsed[currentPage] + entrySize > pageSize) {
+            int nextPage = (currentPage + 1) % pages.length;
+            if (pages[nextPage] == null) {
+                try {
+                    pages[nextPage] = ByteBuffer.allocateDirect(pageSize);
+                } catch (OutOfMemoryError e) {
+                    // Not enough direct memory for the configured size, make do with the pages we have
+                    LOGGER.debug("Could not allocate more than {} pages of off-heap memory for caches.", nextPage);
+                    pages = Arrays.copyOf(pages, nextPage);
+                    nextPage = 0;
+                    reclaim(nextPage);
+                }
+            } else {
+                reclaim(nextPage);
+            }
+            currentPage = nextPage;
+        }
+        int offset = pageUsed[currentPage];
+        pageUsed[currentPage] += entrySize;
+        return address(currentPage, offset);
+    }
+
+    /**
+     * Keeps the entries of the page that have been read since the page was last reclaimed, and evicts all other entries.
+     */
+    private void reclaim(int pageIndex) {
+        ByteBuffer page = pages[pageIndex];
+        int used = pageUsed[pageIndex];
+        int read = 0;
+        int write = 0;
+        while (read < used) {
+            int entrySize = ENTRY_HEADER_SIZE + page.getInt(read + KEY_LENGTH_OFFSET) + page.getInt(read + VALUE_LENGTH_OFFSET);
+            int slot = findSlot(page.getLong(read));
+            boolean live = slot >= 0 && addresses[slot] == address(pageIndex, read);
+            if (live && page.get(read + REFERENCED_OFFSET) != 0) {
+                if (write != read) {
+                    move(page, read, write, entrySize);
+                }
+                page.put(write + REFERENCED_OFFSET, (byte) 0);
+                addresses[slot] = address(pageIndex, write);
+                write += entrySize;
+            } else if (live) {
+                removeSlot(slot);
+            }
+            read += entrySize;
+        }
+        pageUsed[pageIndex] = write;
+    }
+
+    private void move(ByteBuffer page, int from, int to, int length) {
+        if (scratch.length < length) {
+            scratch = new byte[pageSize];
+        }
+        copy(page, from, scratch, length);
+        ByteBuffer target = page.duplicate();
+        BufferCaster.cast(target).position(to);
+        target.put(scratch, 0, length);
+    }
+
+    private static void copy(ByteBuffer page, int offset, byte[] target, int length) {
+        ByteBuffer source = page.duplicate();
+        BufferCaster.cast(source).position(offset);
+        source.get(target, 0, length);
+    }
+
+    private static boolean hasKey(ByteBuffer page, int offset, int partition, byte[] key) {
+        if (page.getInt(offset + PARTITION_OFFSET) != partition || page.getInt(offset + KEY_LENGTH_OFFSET) != key.length) {
+            return false;
+        }
+        int keyOffset = offset + ENTRY_HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (page.get(keyOffset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int findSlot(long hash) {
+        int mask = addresses.length - 1;
+        for (int slot = spread(hash) & mask; addresses[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long hash, long address) {
+        if (2 * (size + 1) > addresses.length) {
+            resize();
+        }
+        int mask = addresses.length - 1;
+        int slot = spread(hash) & mask;
+        while (addresses[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        addresses[slot] = address;
+        size++;
+    }
+
+    /**
+     * Removes the slot, and shifts the following entries of the probe sequence back so that they can still be found.
+     */
+    private void removeSlot(int slot) {
+        int mask = addresses.length - 1;
+        int free = slot;
+        addresses[free] = EMPTY;
+        size--;
+        for (int current = (free + 1) & mask; addresses[current] != EMPTY; current = (current + 1) & mask) {
+            int ideal = spread(hashes[current]) & mask;
+            boolean reachableFromFree = free <= current
+                ? ideal <= free || ideal > current
+                : ideal <= free && ideal > current;
+            if (reachableFromFree) {
+                hashes[free] = hashes[current];
+                addresses[free] = addresses[current];
+                addresses[current] = EMPTY;
+                free = current;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+        hashes = new long[oldHashes.length * 2];
+        addresses = newAddresses(oldAddresses.length * 2);
+        size = 0;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != EMPTY) {
+                insert(oldHashes[i], oldAddresses[i]);
+            }
+        }
+    }
+
+    private static long[] newAddresses(int capacity) {
+        long[] addresses = new long[capacity];
+        Arrays.fill(addresses, EMPTY);
+        return addresses;
+    }
+
+    private static long address(int page, int offset) {
+        return ((long) page << 32) | offset;
+    }
+
+    private static int pageOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    /**
+     * 64-bit FNV-1a of the key, seeded with the partition.
+     */
+    private static long hash(int partition, byte[] key) {
+        long hash = 0xcbf29ce484222325L ^ (partition * 0x9e3779b97f4a7c15L);
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static int spread(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+}
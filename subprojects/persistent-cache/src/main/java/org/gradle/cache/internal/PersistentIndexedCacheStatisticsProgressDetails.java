@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of an indexed cache file used by a build. Reported once for each cache file as progress of the build operation of the build.
+ */
+public interface PersistentIndexedCacheStatisticsProgressDetails {
+    /**
+     * The absolute path of the cache file.
+     */
+    String getCacheFile();
+
+    /**
+     * The size of the cache file on disk.
+     */
+    long getFileSize();
+
+    /**
+     * The number of bytes of the cache file not held by free blocks.
+     */
+    long getLiveBytes();
+
+    /**
+     * The number of free blocks in the cache file, waiting to be reused.
+     */
+    int getFreeBlockCount();
+
+    /**
+     * The number of lookups made during the build.
+     */
+    long getLookupCount();
+
+    /**
+     * The fraction of lookups that found an entry, or 0 if there were no lookups.
+     */
+    double getHitRate();
+
+    /**
+     * The number of bytes reclaimed by compacting the cache file, or 0 if the cache file was not compacted.
+     */
+    long getReclaimedBytes();
+
+    /**
+     * Collects the statistics of the indexed cache files each time they are closed, so they can be reported once per build.
+     */
+    class Collector {
+        private final Map<String, CacheFileStatistics> statistics = new LinkedHashMap<>();
+
+        /**
+         * Records the state of a cache file that is being closed, along with the lookups made since it was opened.
+         */
+        public synchronized void recordClose(String cacheFile, long fileSize, long liveBytes, int freeBlockCount, long lookupCount, long hitCount, long reclaimedBytes) {
+            CacheFileStatistics cacheFileStatistics = statistics.computeIfAbsent(cacheFile, CacheFileStatistics::new);
+            cacheFileStatistics.fileSize = fileSize;
+            cacheFileStatistics.liveBytes = liveBytes;
+            cacheFileStatistics.freeBlockCount = freeBlockCount;
+            cacheFileStatistics.lookupCount += lookupCount;
+            cacheFileStatistics.hitCount += hitCount;
+            cacheFileStatistics.reclaimedBytes += reclaimedBytes;
+        }
+
+        /**
+         * Returns the statistics of the cache files closed since the last call, and starts collecting anew.
+         */
+        public synchronized List<PersistentIndexedCacheStatisticsProgressDetails> collect() {
+            List<PersistentIndexedCacheStatisticsProgressDetails> result = new ArrayList<>(statistics.values());
+            statistics.clear();
+            return result;
+        }
+
+        private static class CacheFileStatistics implements PersistentIndexedCacheStatisticsProgressDetails {
+            private final String cacheFile;
+            private long fileSize;
+            private long liveBytes;
+            private int freeBlockCount;
+            private long lookupCount;
+            private long hitCount;
+            private long reclaimedBytes;
+
+            private CacheFileStatistics(String cacheFile) {
+                this.cacheFile = cacheFile;
+            }
+
+            @Override
+            public String getCacheFile() {
+                return cacheFile;
+            }
+
+            @Override
+            public long getFileSize() {
+                return fileSize;
+            }
+
+            @Override
+            public long getLiveBytes() {
+                return liveBytes;
+            }
+
+            @Override
+            public int getFreeBlockCount() {
+                return freeBlockCount;
+            }
+
+            @Override
+            public long getLookupCount() {
+                return lookupCount;
+            }
+
+            @Override
+            public double getHitRate() {
+                return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+            }
+
+            @Override
+            public long getReclaimedBytes() {
+                return reclaimedBytes;
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
@@ -85,7 +86,12 @@ private boolean hasNextWithCorrectDepth() {
 
         private Iterator<File> listFiles(File baseDir) {
             File[] files = baseDir.listFiles(filter);
-            return files == null ? Collections.<File>emptyIterator() : Iterators.forArray(files);
+            if (files == null) {
+                return Collections.<File>emptyIterator();
+            }
+            // Sorted, so cleanup can resume from a cursor
+            Arrays.sort(files);
+            return Iterators.forArray(files);
         }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.internal.Factory;
+import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.serialize.Serializer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link PersistentCache} whose key space is partitioned into a fixed number of stripes, each of which is a separate cache with its own lock.
+ *
+ * The stripes are opened lazily the first time a key maps to them. All other operations are delegated to the cache for the base directory.
+ */
+public class StripedPersistentCache implements PersistentCache {
+    public static final String STRIPE_DIR_PREFIX = "stripe-";
+
+    private final PersistentCache delegate;
+    private final IntFunction<? extends PersistentCache> stripeFactory;
+    private final PersistentCache[] stripes;
+
+    public StripedPersistentCache(PersistentCache delegate, int stripeCount, IntFunction<? extends PersistentCache> stripeFactory) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Number of lock stripes must be at least 1, got " + stripeCount + ".");
+        }
+        this.delegate = delegate;
+        this.stripeFactory = stripeFactory;
+        this.stripes = new PersistentCache[stripeCount];
+    }
+
+    public static File stripeDir(File baseDir, int stripe) {
+        return new File(baseDir, STRIPE_DIR_PREFIX + stripe);
+    }
+
+    /**
+     * Uses {@link String#hashCode()}, as it is specified to be the same in every JVM, so all processes agree on the stripe for a key.
+     */
+    public static int stripeIndex(String key, int stripeCount) {
+        return Math.floorMod(key.hashCode(), stripeCount);
+    }
+
+    @Override
+    public PersistentCache getStripe(String key) {
+        int index = stripeIndex(key, stripes.length);
+        synchronized (stripes) {
+            PersistentCache stripe = stripes[index];
+            if (stripe == null) {
+                stripe = stripeFactory.apply(index);
+                stripes[index] = stripe;
+            }
+            return stripe;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return delegate.getDisplayName();
+    }
+
+    @Override
+    public File getBaseDir() {
+        return delegate.getBaseDir();
+    }
+
+    @Override
+    public Collection<File> getReservedCacheFiles() {
+        return delegate.getReservedCacheFiles();
+    }
+
+    @Override
+    public <K, V> PersistentIndexedCache<K, V> createCache(PersistentIndexedCacheParameters<K, V> parameters) {
+        return delegate.createCache(parameters);
+    }
+
+    @Override
+    public <K, V> PersistentIndexedCache<K, V> createCache(String name, Class<K> keyType, Serializer<V> valueSerializer) {
+        return delegate.createCache(name, keyType, valueSerializer);
+    }
+
+    @Override
+    public <K, V> boolean cacheExists(PersistentIndexedCacheParameters<K, V> parameters) {
+        return delegate.cacheExists(parameters);
+    }
+
+    @Override
+    public <T> T withFileLock(Factory<? extends T> action) {
+        return delegate.withFileLock(action);
+    }
+
+    @Override
+    public void withFileLock(Runnable action) {
+        delegate.withFileLock(action);
+    }
+
+    @Override
+    public <T> T useCache(Factory<? extends T> action) {
+        return delegate.useCache(action);
+    }
+
+    @Override
+    public void useCache(Runnable action) {
+        delegate.useCache(action);
+    }
+
+    @Override
+    public void close() {
+        synchronized (stripes) {
+            CompositeStoppable.stoppable(Arrays.asList(stripes)).add(delegate).stop();
+            Arrays.fill(stripes, null);
+        }
+    }
+}
@@ -25,12 +25,14 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,7 +62,11 @@ public Iterable<File> find(File baseDir, FileFilter filter) {
                 FileFilter combinedFilter = FileFilterUtils.and(directoryFileFilter(), new RegexFileFilter(cacheNamePattern), asFileFilter(filter),
                     asFileFilter(new NonReservedFileFilter(singleton(baseDir))));
                 File[] result = baseDir.getParentFile().listFiles(combinedFilter);
-                return result == null ? Collections.<File>emptySet() : Arrays.asList(result);
+                if (result == null) {
+                    return Collections.<File>emptySet();
+                }
+                Arrays.sort(result);
+                return Arrays.asList(result);
             }
         });
         this.cacheNamePattern = cacheNamePattern;
@@ -69,9 +75,10 @@ public Iterable<File> find(File baseDir, FileFilter filter) {
     }
 
     @Override
-    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+    @Nullable
+    public String cleanIncrementally(CleanableStore cleanableStore, @Nullable String cursor, CleanupProgressMonitor progressMonitor, BooleanSupplier shouldYield) {
         determineUsedVersions();
-        super.clean(cleanableStore, progressMonitor);
+        return super.cleanIncrementally(cleanableStore, cursor, progressMonitor, shouldYield);
     }
 
     private void determineUsedVersions() {
@@ -17,23 +17,31 @@
 
 import com.google.common.collect.ImmutableSet;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheStorage;
+import org.gradle.cache.internal.PersistentIndexedCacheStatisticsProgressDetails;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Serializer;
 import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
 import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.util.internal.GFileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 // todo - stream serialised value to file
 // todo - handle hash collisions (properly, this time)
@@ -47,29 +55,67 @@
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements IndexedCacheStorage<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
+    /**
+     * The fraction of the cache file that has to be held by free blocks before the file is compacted when the cache is closed for good.
+     */
+    public static final String FRAGMENTATION_THRESHOLD_PROPERTY = "org.gradle.cache.compaction.fragmentation-threshold";
+    private static final double DEFAULT_FRAGMENTATION_THRESHOLD = 0.5;
+    private static final long DEFAULT_MIN_COMPACTION_BYTES = 1024 * 1024;
+    private static final long COMPACTION_FLUSH_BYTES = 1024 * 1024;
     private final File cacheFile;
+    private final Serializer<K> keySerializer;
     private final KeyHasher<K> keyHasher;
     private final Serializer<V> serializer;
     private final short maxChildIndexEntries;
     private final int minIndexChildNodes;
+    private final int maxFreeListEntries;
+    private final double fragmentationThreshold;
+    private final long minCompactionBytes;
+    @Nullable
+    private final PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector;
+    private final FreeListBlockStore freeListStore;
     private final StateCheckBlockStore store;
     private HeaderBlock header;
+    private long lookupCount;
+    private long hitCount;
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        this(cacheFile, keySerializer, valueSerializer, (short) 512, 512);
+        this(cacheFile, keySerializer, valueSerializer, null);
+    }
+
+    public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                       @Nullable PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector) {
+        this(cacheFile, keySerializer, valueSerializer, (short) 512, 512, getFragmentationThreshold(), DEFAULT_MIN_COMPACTION_BYTES, statisticsCollector);
     }
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
                                        short maxChildIndexEntries, int maxFreeListEntries) {
+        this(cacheFile, keySerializer, valueSerializer, maxChildIndexEntries, maxFreeListEntries, getFragmentationThreshold(), DEFAULT_MIN_COMPACTION_BYTES, null);
+    }
+
+    /**
+     * @param fragmentationThreshold the fraction of the file held by free blocks above which the file is compacted by {@link #compactAndClose()}.
+     * @param minCompactionBytes the number of bytes that need to be held by free blocks before the file is compacted by {@link #compactAndClose()}.
+     */
+    public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                       short maxChildIndexEntries, int maxFreeListEntries,
+                                       double fragmentationThreshold, long minCompactionBytes,
+                                       @Nullable PersistentIndexedCacheStatisticsProgressDetails.Collector statisticsCollector) {
         this.cacheFile = cacheFile;
+        this.keySerializer = keySerializer;
         this.keyHasher = new KeyHasher<K>(keySerializer);
         this.serializer = valueSerializer;
         this.maxChildIndexEntries = maxChildIndexEntries;
         this.minIndexChildNodes = maxChildIndexEntries / 2;
+        this.maxFreeListEntries = maxFreeListEntries;
+        this.fragmentationThreshold = fragmentationThreshold;
+        this.minCompactionBytes = minCompactionBytes;
+        this.statisticsCollector = statisticsCollector;
         BlockStore cachingStore = new CachingBlockStore(new FileBackedBlockStore(cacheFile), ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
-        this.store = new StateCheckBlockStore(new FreeListBlockStore(cachingStore, maxFreeListEntries));
+        this.freeListStore = new FreeListBlockStore(cachingStore, maxFreeListEntries);
+        this.store = new StateCheckBlockStore(freeListStore);
         try {
             open();
         } catch (Exception e) {
@@ -77,6 +123,11 @@ public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer,
         }
     }
 
+    private static double getFragmentationThreshold() {
+        String value = System.getProperty(FRAGMENTATION_THRESHOLD_PROPERTY);
+        return value == null ? DEFAULT_FRAGMENTATION_THRESHOLD : Double.parseDouble(value);
+    }
+
     @Override
     public String toString() {
         return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
@@ -121,11 +172,14 @@ public void run() {
         header = store.readFirst(HeaderBlock.class);
     }
 
+    @Override
     public V get(K key) {
         try {
             try {
+                lookupCount++;
                 DataBlock block = header.getRoot().get(key);
                 if (block != null) {
+                    hitCount++;
                     return block.getValue();
                 }
                 return null;
@@ -138,31 +192,97 @@ public V get(K key) {
         }
     }
 
-    public void put(K key, V value) {
-        try {
-            long hashCode = keyHasher.getHashCode(key);
-            Lookup lookup = header.getRoot().find(hashCode);
-            DataBlock newBlock = null;
-            if (lookup.entry != null) {
-                DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
-                DataBlockUpdateResult updateResult = block.useNewValue(value);
-                if (updateResult.isFailed()) {
-                    store.remove(block);
-                    newBlock = new DataBlock(value, updateResult.getSerializedValue());
+    /**
+     * Looks the keys up in hash code order, so that consecutive lookups walk the index blocks in the order they are laid out.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (HashedKey<K> hashedKey : sortByHashCode(keys, "read entries from")) {
+            K key = hashedKey.key;
+            try {
+                try {
+                    lookupCount++;
+                    Lookup lookup = header.getRoot().find(hashedKey.hashCode);
+                    if (lookup.entry != null) {
+                        hitCount++;
+                        DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
+                        result.put(key, block.getValue());
+                    }
+                } catch (CorruptedCacheException e) {
+                    // The rebuilt cache is empty, so none of the keys are found, including those read before
+                    rebuild();
+                    return Collections.emptyMap();
                 }
-            } else {
-                newBlock = new DataBlock(value);
-            }
-            if (newBlock != null) {
-                store.write(newBlock);
-                lookup.indexBlock.put(hashCode, newBlock.getPos());
+            } catch (Exception e) {
+                throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
             }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            doPut(keyHasher.getHashCode(key), value);
             store.flush();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
         }
     }
 
+    /**
+     * Inserts the entries in hash code order and flushes the store once for the whole batch.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        for (HashedKey<K> hashedKey : sortByHashCode(entries.keySet(), "add entries to")) {
+            try {
+                doPut(hashedKey.hashCode, entries.get(hashedKey.key));
+            } catch (Exception e) {
+                throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", hashedKey.key, this), e);
+            }
+        }
+        try {
+            store.flush();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entries to %s.", this), e);
+        }
+    }
+
+    private List<HashedKey<K>> sortByHashCode(Collection<? extends K> keys, String operation) {
+        List<HashedKey<K>> hashedKeys = new ArrayList<>(keys.size());
+        try {
+            for (K key : keys) {
+                hashedKeys.add(new HashedKey<>(key, keyHasher.getHashCode(key)));
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not %s %s.", operation, this), e);
+        }
+        hashedKeys.sort(Comparator.comparingLong(hashedKey -> hashedKey.hashCode));
+        return hashedKeys;
+    }
+
+    private void doPut(long hashCode, V value) throws Exception {
+        Lookup lookup = header.getRoot().find(hashCode);
+        DataBlock newBlock = null;
+        if (lookup.entry != null) {
+            DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
+            DataBlockUpdateResult updateResult = block.useNewValue(value);
+            if (updateResult.isFailed()) {
+                store.remove(block);
+                newBlock = new DataBlock(value, updateResult.getSerializedValue());
+            }
+        } else {
+            newBlock = new DataBlock(value);
+        }
+        if (newBlock != null) {
+            store.write(newBlock);
+            lookup.indexBlock.put(hashCode, newBlock.getPos());
+        }
+    }
+
+    @Override
     public void remove(K key) {
         try {
             Lookup lookup = header.getRoot().find(key);
@@ -195,15 +315,117 @@ public void reset() {
         }
     }
 
+    @Override
     public void close() {
+        close(false);
+    }
+
+    /**
+     * Closes this cache, compacting the cache file first if it is fragmented.
+     */
+    @Override
+    public void compactAndClose() {
+        close(true);
+    }
+
+    private void close(boolean compact) {
         LOGGER.debug("Closing {}", this);
         try {
+            if (store.isOpen()) {
+                store.flush();
+                long reclaimedBytes = compact ? compactIfFragmented() : 0;
+                recordStatistics(reclaimedBytes);
+            }
             store.close();
         } catch (Exception e) {
             throw new UncheckedIOException(e);
+        } finally {
+            lookupCount = 0;
+            hitCount = 0;
+        }
+    }
+
+    private long compactIfFragmented() {
+        long fileSize = cacheFile.length();
+        long freeBytes = freeListStore.getFreeBytes();
+        if (freeBytes < minCompactionBytes || freeBytes <= fileSize * fragmentationThreshold) {
+            return 0;
+        }
+        try {
+            compact();
+            return fileSize - cacheFile.length();
+        } catch (Exception e) {
+            LOGGER.warn("Could not compact {}.", this, e);
+            return 0;
         }
     }
 
+    /**
+     * Rewrites the live entries of this cache in key order into a new file, which then replaces the cache file.
+     * Leaves this cache closed when the entries have been copied, even if the new file cannot be moved into place.
+     */
+    private void compact() throws Exception {
+        LOGGER.debug("Compacting {}", this);
+        File compactedFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".compact");
+        GFileUtils.deleteQuietly(compactedFile);
+        BTreePersistentIndexedCache<K, V> target = new BTreePersistentIndexedCache<K, V>(compactedFile, keySerializer, serializer, maxChildIndexEntries, maxFreeListEntries, fragmentationThreshold, minCompactionBytes, null);
+        try {
+            target.copyEntriesFrom(this);
+            target.store.close();
+            store.close();
+            Files.move(compactedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            target.store.close();
+            GFileUtils.deleteQuietly(compactedFile);
+        }
+    }
+
+    private void copyEntriesFrom(BTreePersistentIndexedCache<K, V> source) throws Exception {
+        source.copyEntries(source.header.getRoot(), this, 0);
+        store.flush();
+    }
+
+    /**
+     * Copies the entries below the given index block in key order, flushing the target regularly so the copied values are not all held in memory.
+     *
+     * @return the number of bytes copied since the target was last flushed
+     */
+    private long copyEntries(IndexBlock current, BTreePersistentIndexedCache<K, V> target, long unflushedBytes) throws Exception {
+        for (IndexEntry entry : current.entries) {
+            if (!entry.childIndexBlock.isNull()) {
+                unflushedBytes = copyEntries(store.read(entry.childIndexBlock, IndexBlock.class), target, unflushedBytes);
+            }
+            DataBlock block = store.read(entry.dataBlock, DataBlock.class);
+            unflushedBytes += target.putSerialized(entry.hashCode, block.buffer);
+            if (unflushedBytes >= COMPACTION_FLUSH_BYTES) {
+                target.store.flush();
+                unflushedBytes = 0;
+            }
+        }
+        if (!current.tailPos.isNull()) {
+            unflushedBytes = copyEntries(store.read(current.tailPos, IndexBlock.class), target, unflushedBytes);
+        }
+        return unflushedBytes;
+    }
+
+    private int putSerialized(long hashCode, StreamByteBuffer buffer) throws Exception {
+        Lookup lookup = header.getRoot().find(hashCode);
+        DataBlock block = new DataBlock(null, buffer);
+        store.write(block);
+        lookup.indexBlock.put(hashCode, block.getPos());
+        return block.size;
+    }
+
+    private void recordStatistics(long reclaimedBytes) {
+        if (statisticsCollector == null) {
+            return;
+        }
+        long fileSize = cacheFile.length();
+        long liveBytes = reclaimedBytes > 0 ? fileSize : fileSize - freeListStore.getFreeBytes();
+        int freeBlockCount = reclaimedBytes > 0 ? 0 : freeListStore.getFreeBlockCount();
+        statisticsCollector.recordClose(cacheFile.getAbsolutePath(), fileSize, liveBytes, freeBlockCount, lookupCount, hitCount, reclaimedBytes);
+    }
+
     public boolean isOpen() {
         return store.isOpen();
     }
@@ -292,7 +514,7 @@ private void verifyTree(IndexBlock current, String prefix, Collection<BlockPaylo
 
     public void clear() {
         store.clear();
-        close();
+        store.close();
         try {
             doOpen();
         } catch (Exception e) {
@@ -654,6 +876,16 @@ private Lookup(IndexBlock indexBlock, IndexEntry entry) {
         }
     }
 
+    private static class HashedKey<K> {
+        final K key;
+        final long hashCode;
+
+        private HashedKey(K key, long hashCode) {
+            this.key = key;
+            this.hashCode = hashCode;
+        }
+    }
+
     private class DataBlock extends BlockPayload {
         private int size;
         private StreamByteBuffer buffer;
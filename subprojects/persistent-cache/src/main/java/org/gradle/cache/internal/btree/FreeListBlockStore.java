@@ -26,6 +26,8 @@ public class FreeListBlockStore implements BlockStore {
     private final BlockStore freeListStore;
     private final int maxBlockEntries;
     private FreeListBlock freeListBlock;
+    private long freeBytes;
+    private int freeBlockCount;
 
     public FreeListBlockStore(BlockStore store, int maxBlockEntries) {
         this.store = store;
@@ -56,6 +58,37 @@ public Object create(Class<? extends BlockPayload> type) {
 
         store.open(freeListInitAction, freeListFactory);
         freeListBlock = store.readFirst(FreeListBlock.class);
+        countFreeBlocks();
+    }
+
+    private void countFreeBlocks() {
+        freeBytes = 0;
+        freeBlockCount = 0;
+        FreeListBlock block = freeListBlock;
+        while (true) {
+            for (FreeListEntry entry : block.entries) {
+                freeBytes += entry.size;
+            }
+            freeBlockCount += block.entries.size();
+            if (block.nextBlock.isNull()) {
+                return;
+            }
+            block = block.getNextBlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by blocks that have been freed and not been reused yet.
+     */
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * Returns the number of blocks that have been freed and not been reused yet.
+     */
+    public int getFreeBlockCount() {
+        return freeBlockCount;
     }
 
     @Override
@@ -67,6 +100,8 @@ public void close() {
     @Override
     public void clear() {
         store.clear();
+        freeBytes = 0;
+        freeBlockCount = 0;
     }
 
     @Override
@@ -190,6 +225,8 @@ public void add(BlockPointer pos, int size) {
                 index = -index - 1;
             }
             entries.add(index, entry);
+            freeBytes += size;
+            freeBlockCount++;
 
             if (entries.size() > maxBlockEntries) {
                 FreeListBlock newBlock = new FreeListBlock();
@@ -243,6 +280,8 @@ public void alloc(Block block) {
             }
 
             FreeListEntry entry = entries.remove(index);
+            freeBytes -= entry.size;
+            freeBlockCount--;
             block.setPos(entry.pos);
             block.setSize(entry.size);
             freeListStore.write(this);
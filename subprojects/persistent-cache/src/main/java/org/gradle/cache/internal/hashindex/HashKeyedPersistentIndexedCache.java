@@ -0,0 +1,461 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.hashindex;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheStorage;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.io.BufferCaster;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * An indexed cache for keys that are already content hashes, stored as an open-addressing hash table in a single file.
+ *
+ * <p>The first bytes of a key address its slot in the table directly, and collisions are resolved by linear probing.
+ * Each slot holds the full key next to the position and length of its value, so a lookup neither serializes nor
+ * hashes the key again, and only reads the slots it probes and the value it finds. All keys of a cache need to have the same length.</p>
+ *
+ * <p>Values are appended after the table. When the table gets too full, or when more than half of the values are stale,
+ * the live entries are copied to a new file, which then replaces the current one. The file is marked as dirty before
+ * it is first modified and as clean when it is closed, so that a file left behind by a crash is discarded when it is opened again.</p>
+ */
+public class HashKeyedPersistentIndexedCache<V> implements IndexedCacheStorage<HashCode, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashKeyedPersistentIndexedCache.class);
+
+    private static final int MAGIC = 0x47484958;
+    private static final int VERSION = 1;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CLEAN_OFFSET = 8;
+    private static final int KEY_LENGTH_OFFSET = 9;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int LIVE_OFFSET = 16;
+    private static final int TOMBSTONES_OFFSET = 20;
+    private static final int DATA_END_OFFSET = 24;
+    private static final int STALE_BYTES_OFFSET = 32;
+    private static final int HEADER_SIZE = 40;
+
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+    private static final int SLOT_OVERHEAD = 12;
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int SLOTS_PER_READ = 4096;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int DEFAULT_MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final Serializer<V> valueSerializer;
+    private final int initialCapacity;
+    private final int minCompactionSize;
+    private final ByteBuffer keyBuffer = ByteBuffer.allocate(MAX_KEY_LENGTH);
+    private final ByteBuffer slotBuffer = ByteBuffer.allocate(MAX_KEY_LENGTH + SLOT_OVERHEAD);
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private int keyLength;
+    private int capacity;
+    private int live;
+    private int tombstones;
+    private long dataEnd;
+    private long staleBytes;
+    private boolean modified;
+
+    public HashKeyedPersistentIndexedCache(File file, Serializer<V> valueSerializer) {
+        this(file, valueSerializer, DEFAULT_INITIAL_CAPACITY, DEFAULT_MIN_COMPACTION_SIZE);
+    }
+
+    public HashKeyedPersistentIndexedCache(File file, Serializer<V> valueSerializer, int initialCapacity, int minCompactionSize) {
+        if (Integer.bitCount(initialCapacity) != 1) {
+            throw new IllegalArgumentException(String.format("Initial capacity must be a power of two, but was %d.", initialCapacity));
+        }
+        this.file = file;
+        this.valueSerializer = valueSerializer;
+        this.initialCapacity = initialCapacity;
+        this.minCompactionSize = minCompactionSize;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + file.getName() + " (" + file.getParentFile() + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        GFileUtils.mkdirs(file.getParentFile());
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        if (channel.size() == 0) {
+            initialize();
+            return;
+        }
+        BufferCaster.cast(headerBuffer).clear();
+        readFully(headerBuffer, 0);
+        boolean valid = headerBuffer.getInt(MAGIC_OFFSET) == MAGIC
+            && headerBuffer.getInt(VERSION_OFFSET) == VERSION
+            && headerBuffer.get(CLEAN_OFFSET) == 1;
+        if (valid) {
+            keyLength = headerBuffer.get(KEY_LENGTH_OFFSET) & 0xFF;
+            capacity = headerBuffer.getInt(CAPACITY_OFFSET);
+            live = headerBuffer.getInt(LIVE_OFFSET);
+            tombstones = headerBuffer.getInt(TOMBSTONES_OFFSET);
+            dataEnd = headerBuffer.getLong(DATA_END_OFFSET);
+            staleBytes = headerBuffer.getLong(STALE_BYTES_OFFSET);
+            valid = dataEnd >= dataStart() && dataEnd <= channel.size();
+        }
+        if (!valid) {
+            LOGGER.debug("Discarding {}, as it has not been closed properly or has an unexpected format.", this);
+            channel.truncate(0);
+            initialize();
+        }
+    }
+
+    private void initialize() throws IOException {
+        keyLength = 0;
+        capacity = 0;
+        live = 0;
+        tombstones = 0;
+        dataEnd = HEADER_SIZE;
+        staleBytes = 0;
+        writeHeader(channel, true);
+    }
+
+    @Nullable
+    @Override
+    public synchronized V get(HashCode key) {
+        try {
+            if (capacity == 0 || key.length() != keyLength) {
+                return null;
+            }
+            int slot = findSlot(key);
+            if (slot < 0) {
+                return null;
+            }
+            return readValue(slotBuffer.getLong(keyLength), slotBuffer.getInt(keyLength + 8));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void put(HashCode key, V value) {
+        try {
+            if (keyLength == 0) {
+                if (key.length() > MAX_KEY_LENGTH) {
+                    throw new IllegalArgumentException(String.format("Keys can be at most %d bytes long.", MAX_KEY_LENGTH));
+                }
+                markModified();
+                keyLength = key.length();
+            } else if (key.length() != keyLength) {
+                throw new IllegalArgumentException(String.format("All keys need to be %d bytes long, but '%s' is %d bytes long.", keyLength, key, key.length()));
+            }
+            byte[] valueBytes = serialize(value);
+            if ((live + tombstones + 1) * 4L > capacity * 3L) {
+                rewrite(capacityFor(live + 1));
+            }
+            markModified();
+            int slot = findSlot(key);
+            if (slot >= 0) {
+                staleBytes += slotBuffer.getInt(keyLength + 8);
+            } else {
+                slot = -slot - 1;
+                readSlot(slot);
+                if (slotBuffer.getLong(keyLength) == REMOVED) {
+                    tombstones--;
+                }
+                live++;
+            }
+            channel.write(ByteBuffer.wrap(valueBytes), dataEnd);
+            writeSlot(slot, dataEnd, valueBytes.length);
+            dataEnd += valueBytes.length;
+            compactIfNecessary();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(HashCode key) {
+        try {
+            if (capacity == 0 || key.length() != keyLength) {
+                return;
+            }
+            int slot = findSlot(key);
+            if (slot < 0) {
+                return;
+            }
+            markModified();
+            staleBytes += slotBuffer.getInt(keyLength + 8);
+            writeSlot(slot, REMOVED, 0);
+            live--;
+            tombstones++;
+            compactIfNecessary();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        LOGGER.debug("Closing {}", this);
+        try {
+            if (modified) {
+                writeHeader(channel, true);
+                modified = false;
+            }
+            randomAccessFile.close();
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            randomAccessFile = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the number of live entries in the cache.
+     */
+    public synchronized int size() {
+        return live;
+    }
+
+    /**
+     * Looks up the slot of the given key, leaving the contents of the last probed slot in the slot buffer.
+     *
+     * @return the index of the slot holding the key, or {@code -(insertion index) - 1} if the key is not present.
+     */
+    private int findSlot(HashCode key) throws IOException {
+        BufferCaster.cast(keyBuffer).clear();
+        key.writeTo(keyBuffer);
+        int mask = capacity - 1;
+        int index = keyBuffer.getInt(0) & mask;
+        int firstRemoved = -1;
+        for (int probes = 0; probes < capacity; probes++) {
+            readSlot(index);
+            long offset = slotBuffer.getLong(keyLength);
+            if (offset == EMPTY) {
+                return -(firstRemoved >= 0 ? firstRemoved : index) - 1;
+            }
+            if (offset == REMOVED) {
+                if (firstRemoved < 0) {
+                    firstRemoved = index;
+                }
+            } else if (slotHasKey()) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -firstRemoved - 1;
+    }
+
+    private boolean slotHasKey() {
+        for (int i = 0; i < keyLength; i++) {
+            if (slotBuffer.get(i) != keyBuffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readSlot(int index) throws IOException {
+        BufferCaster.cast(slotBuffer).clear();
+        BufferCaster.cast(slotBuffer).limit(slotSize());
+        readFully(slotBuffer, slotPosition(index));
+    }
+
+    private void writeSlot(int index, long offset, int length) throws IOException {
+        BufferCaster.cast(slotBuffer).clear();
+        BufferCaster.cast(keyBuffer).position(0).limit(keyLength);
+        slotBuffer.put(keyBuffer);
+        slotBuffer.putLong(offset);
+        slotBuffer.putInt(length);
+        BufferCaster.cast(slotBuffer).flip();
+        writeFully(channel, slotBuffer, slotPosition(index));
+    }
+
+    private V readValue(long offset, int length) throws Exception {
+        ByteBuffer valueBuffer = ByteBuffer.allocate(length);
+        readFully(valueBuffer, offset);
+        return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(valueBuffer.array())));
+    }
+
+    private byte[] serialize(V value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        valueSerializer.write(encoder, value);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private void compactIfNecessary() throws IOException {
+        if (staleBytes >= minCompactionSize && staleBytes * 2 > dataEnd - dataStart()) {
+            rewrite(capacityFor(live));
+        }
+    }
+
+    private int capacityFor(int entries) {
+        int newCapacity = initialCapacity;
+        while (newCapacity < entries * 2L) {
+            newCapacity *= 2;
+        }
+        return newCapacity;
+    }
+
+    /**
+     * Copies the live entries to a new file with a table of the given capacity, and replaces the current file with it.
+     */
+    private void rewrite(int newCapacity) throws IOException {
+        LOGGER.debug("Rewriting {} with a capacity of {} for {} entries", this, newCapacity, live);
+        File partialFile = new File(file.getPath() + ".part");
+        long newDataStart = HEADER_SIZE + (long) newCapacity * slotSize();
+        long newDataEnd = newDataStart;
+        try (RandomAccessFile target = new RandomAccessFile(partialFile, "rw")) {
+            FileChannel targetChannel = target.getChannel();
+            target.setLength(0);
+            // Zero bytes make up an empty table
+            target.setLength(newDataStart);
+            BitSet occupied = new BitSet(newCapacity);
+            ByteBuffer slots = ByteBuffer.allocate(SLOTS_PER_READ * slotSize());
+            for (int first = 0; first < capacity; first += SLOTS_PER_READ) {
+                int count = Math.min(SLOTS_PER_READ, capacity - first);
+                BufferCaster.cast(slots).clear();
+                BufferCaster.cast(slots).limit(count * slotSize());
+                readFully(slots, slotPosition(first));
+                for (int i = 0; i < count; i++) {
+                    int slotStart = i * slotSize();
+                    long offset = slots.getLong(slotStart + keyLength);
+                    if (offset == EMPTY || offset == REMOVED) {
+                        continue;
+                    }
+                    int length = slots.getInt(slotStart + keyLength + 8);
+                    ByteBuffer value = ByteBuffer.allocate(length);
+                    readFully(value, offset);
+                    BufferCaster.cast(value).flip();
+                    writeFully(targetChannel, value, newDataEnd);
+
+                    int index = slots.getInt(slotStart) & (newCapacity - 1);
+                    while (occupied.get(index)) {
+                        index = (index + 1) & (newCapacity - 1);
+                    }
+                    occupied.set(index);
+                    ByteBuffer slot = ByteBuffer.allocate(slotSize());
+                    for (int k = 0; k < keyLength; k++) {
+                        slot.put(slots.get(slotStart + k));
+                    }
+                    slot.putLong(newDataEnd);
+                    slot.putInt(length);
+                    BufferCaster.cast(slot).flip();
+                    writeFully(targetChannel, slot, HEADER_SIZE + (long) index * slotSize());
+                    newDataEnd += length;
+                }
+            }
+            capacity = newCapacity;
+            tombstones = 0;
+            staleBytes = 0;
+            dataEnd = newDataEnd;
+            writeHeader(targetChannel, false);
+        }
+        randomAccessFile.close();
+        Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        modified = true;
+    }
+
+    private void markModified() throws IOException {
+        if (!modified) {
+            BufferCaster.cast(headerBuffer).clear();
+            BufferCaster.cast(headerBuffer).limit(1);
+            headerBuffer.put(0, (byte) 0);
+            writeFully(channel, headerBuffer, CLEAN_OFFSET);
+            // Make sure the file is known to be dirty before anything else is written to it
+            channel.force(false);
+            modified = true;
+        }
+    }
+
+    private void writeHeader(FileChannel target, boolean clean) throws IOException {
+        BufferCaster.cast(headerBuffer).clear();
+        headerBuffer.putInt(MAGIC_OFFSET, MAGIC);
+        headerBuffer.putInt(VERSION_OFFSET, VERSION);
+        headerBuffer.put(CLEAN_OFFSET, (byte) (clean ? 1 : 0));
+        headerBuffer.put(KEY_LENGTH_OFFSET, (byte) keyLength);
+        headerBuffer.putInt(CAPACITY_OFFSET, capacity);
+        headerBuffer.putInt(LIVE_OFFSET, live);
+        headerBuffer.putInt(TOMBSTONES_OFFSET, tombstones);
+        headerBuffer.putLong(DATA_END_OFFSET, dataEnd);
+        headerBuffer.putLong(STALE_BYTES_OFFSET, staleBytes);
+        writeFully(target, headerBuffer, 0);
+    }
+
+    private int slotSize() {
+        return keyLength + SLOT_OVERHEAD;
+    }
+
+    private long slotPosition(int index) {
+        return HEADER_SIZE + (long) index * slotSize();
+    }
+
+    private long dataStart() {
+        return slotPosition(capacity);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException(String.format("Unexpected end of file at position %d.", current));
+            }
+            current += read;
+        }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += target.write(buffer, current);
+        }
+    }
+}
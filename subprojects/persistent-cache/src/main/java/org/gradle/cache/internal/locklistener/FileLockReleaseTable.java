@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.locklistener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A table in shared memory that counts how often each lock file has been released, so that processes waiting for a lock
+ * notice its release right away, without waiting for a message from the lock holder.
+ * <p>
+ * The table is a memory-mapped file shared by all Gradle processes of the same user. Each lock file is mapped to a slot by the hash of its path.
+ * Lock files sharing a slot only cause waiting processes to retry a bit more often than needed.
+ * <p>
+ * On file systems with POSIX permissions, the table is only readable and writable by its owner, and a table owned by another user
+ * or accessible to other users is not used.
+ */
+public class FileLockReleaseTable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileLockReleaseTable.class);
+    private static final int SLOTS = 8192;
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+    // File region locks held by the same JVM must not overlap, even when they come from different channels
+    private static final Lock SLOT_UPDATE_LOCK = new ReentrantLock();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+
+    private FileLockReleaseTable(FileChannel channel, MappedByteBuffer table) {
+        this.channel = channel;
+        this.table = table;
+    }
+
+    public static FileLockReleaseTable open(File file) throws IOException {
+        Path path = file.toPath();
+        boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            createOwnerOnly(path);
+        }
+        // The channel stays open for the lifetime of the table, to lock slots while they are updated
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+        try {
+            if (posix) {
+                checkOwnerOnly(path);
+            }
+            return new FileLockReleaseTable(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOTS * 4));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void createOwnerOnly(Path path) throws IOException {
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (FileAlreadyExistsException e) {
+            // Created by another process, check its permissions once it has been opened
+        }
+    }
+
+    private static void checkOwnerOnly(Path path) throws IOException {
+        UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal currentUser = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(currentUser)) {
+            throw new IOException(String.format("File lock release table %s is owned by %s.", path, owner.getName()));
+        }
+        if (!OWNER_ONLY.containsAll(Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS))) {
+            throw new IOException(String.format("File lock release table %s is accessible by other users.", path));
+        }
+    }
+
+    /**
+     * Opens the table shared by the processes of the current user, or returns null when it can't be opened.
+     */
+    @Nullable
+    public static FileLockReleaseTable openForCurrentUser() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "gradle-lock-releases-" + Integer.toHexString(System.getProperty("user.name", "").hashCode()) + ".bin");
+        try {
+            return open(file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not open file lock release table {}. Waiting for locks to be released by polling instead.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns how often the given lock file has been released. Only useful to detect whether the count changes.
+     */
+    public int getReleaseCount(File lockFile) {
+        return table.getInt(offsetOf(lockFile));
+    }
+
+    /**
+     * Records that a lock on the given lock file has been released.
+     *
+     * <p>The slot is incremented while holding a lock on its region of the file, so that concurrent releases by other processes are not lost.
+     * The lock is only held for the read and the write of the slot, and is released by the operating system if the process dies.
+     * It is acquired without blocking, as a blocking lock would close the channel of the table when the calling thread is interrupted.</p>
+     */
+    public void released(File lockFile) {
+        int offset = offsetOf(lockFile);
+        SLOT_UPDATE_LOCK.lock();
+        try {
+            java.nio.channels.FileLock slotLock;
+            while ((slotLock = channel.tryLock(offset, 4, false)) == null) {
+                Thread.yield();
+            }
+            try {
+                table.putInt(offset, table.getInt(offset) + 1);
+            } finally {
+                slotLock.release();
+            }
+        } catch (IOException e) {
+            // Processes waiting for the lock still notice the release when they next retry to acquire it
+            LOGGER.debug("Could not record the release of {} in the file lock release table.", lockFile, e);
+        } finally {
+            SLOT_UPDATE_LOCK.unlock();
+        }
+    }
+
+    private static int offsetOf(File lockFile) {
+        return ((lockFile.getPath().hashCode() & Integer.MAX_VALUE) % SLOTS) * 4;
+    }
+}
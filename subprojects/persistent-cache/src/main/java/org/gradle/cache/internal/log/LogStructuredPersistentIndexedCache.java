@@ -0,0 +1,584 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.log;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheStorage;
+import org.gradle.internal.io.BufferCaster;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An indexed cache that appends every update to a memory-mapped log.
+ *
+ * <p>An in-memory index maps the hash of each serialized key to the position of the latest record for that key.
+ * Readers find records through the index and read them straight from the mapped file without taking any lock,
+ * so the key and value serializers need to be thread-safe. Updates are appended by a single writer at a time.</p>
+ *
+ * <p>Records are never modified once written. When more than half of the log consists of stale records, the live
+ * records are copied to the next generation of the log, and the previous generation is deleted. Each record is laid out as
+ * {@code [byte type][int key length][int value length][key][value][int CRC32]}, so that a record torn by a crash is
+ * detected and discarded when the log is opened again.</p>
+ *
+ * <p>The header of the log holds a checkpoint: the end of the records that have been synced to disk. The records before
+ * the checkpoint are trusted when the log is opened, so that only the records appended after it are validated against their checksum.
+ * The checkpoint is advanced when the storage is flushed or closed.</p>
+ *
+ * <p>Two keys with the same hash evict each other, which is fine for a cache.</p>
+ */
+public class LogStructuredPersistentIndexedCache<K, V> implements IndexedCacheStorage<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredPersistentIndexedCache.class);
+
+    private static final int MAGIC = 0x474c4f47;
+    private static final int VERSION = 2;
+    private static final int CHECKPOINT_OFFSET = 8;
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte END = 0;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int KEY_LENGTH_OFFSET = 1;
+    private static final int VALUE_LENGTH_OFFSET = 5;
+    private static final int KEY_OFFSET = 9;
+    private static final int RECORD_OVERHEAD = KEY_OFFSET + 4;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int DEFAULT_MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private static final String FILE_INFIX = "-log.";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    private final File baseDir;
+    private final String cacheName;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final int minCompactionSize;
+
+    /**
+     * The current generation of the log, read without locking. Null once closed.
+     */
+    private volatile Segment segment;
+
+    // The following fields are guarded by this
+    private int generation;
+    private int end;
+    private int checkpoint;
+    private long staleBytes;
+    private boolean modified;
+
+    public LogStructuredPersistentIndexedCache(File baseDir, String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(baseDir, cacheName, keySerializer, valueSerializer, DEFAULT_MIN_COMPACTION_SIZE);
+    }
+
+    public LogStructuredPersistentIndexedCache(File baseDir, String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, int minCompactionSize) {
+        this.baseDir = baseDir;
+        this.cacheName = cacheName;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.minCompactionSize = minCompactionSize;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    /**
+     * Returns whether the given cache has been created in the given directory.
+     */
+    public static boolean exists(File baseDir, String cacheName) {
+        return !findGenerations(baseDir, cacheName).isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheName + " (" + baseDir + ")";
+    }
+
+    private synchronized void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        GFileUtils.mkdirs(baseDir);
+        deletePartialFiles();
+        SortedMap<Integer, File> generations = findGenerations(baseDir, cacheName);
+        generation = generations.isEmpty() ? 0 : generations.lastKey();
+        for (File previousGeneration : generations.headMap(generation).values()) {
+            // May fail on Windows while a previous instance in this process still has the file mapped, we'll try again next time
+            GFileUtils.deleteQuietly(previousGeneration);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(logFile(generation), "rw");
+        try {
+            if (!hasValidHeader(file)) {
+                if (file.length() > 0) {
+                    LOGGER.warn("{} is corrupt. Discarding.", this);
+                }
+                initialize(file);
+            }
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large.", this));
+            }
+            int capacity = (int) Math.max(file.length(), INITIAL_CAPACITY);
+            Segment segment = new Segment(file, map(file, capacity));
+            checkpoint = segment.buffer.getInt(CHECKPOINT_OFFSET);
+            scan(segment);
+            this.segment = segment;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static boolean hasValidHeader(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        return file.readInt() == MAGIC && file.readInt() == VERSION;
+    }
+
+    private static void initialize(RandomAccessFile file) throws IOException {
+        file.setLength(0);
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        file.writeInt(HEADER_SIZE);
+        file.setLength(INITIAL_CAPACITY);
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile file, int capacity) throws IOException {
+        if (file.length() < capacity) {
+            file.setLength(capacity);
+        }
+        return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Rebuilds the index from the records in the log.
+     */
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        staleBytes = 0;
+        int position = HEADER_SIZE;
+        if (checkpoint > HEADER_SIZE && checkpoint <= buffer.capacity()) {
+            position = indexRecords(segment, position, checkpoint, false);
+            if (position != checkpoint) {
+                LOGGER.debug("Checkpoint of {} does not match its records. Validating all records.", this);
+                segment.index.clear();
+                staleBytes = 0;
+                position = HEADER_SIZE;
+            }
+        }
+        end = indexRecords(segment, position, buffer.capacity(), true);
+        if (end < buffer.capacity() && buffer.get(end) != END) {
+            LOGGER.debug("Discarding incomplete record at the end of {}.", this);
+            for (int i = end; i < buffer.capacity(); i++) {
+                buffer.put(i, END);
+            }
+        }
+    }
+
+    /**
+     * Adds the records from the given position up to the limit to the index, and returns the position after the last record added.
+     * When validating, stops at the first record with an invalid checksum.
+     */
+    private int indexRecords(Segment segment, int position, int limit, boolean validate) {
+        ByteBuffer buffer = segment.buffer;
+        while (true) {
+            int recordSize = validate ? validRecordSize(buffer, position) : recordSizeWithin(buffer, position, limit);
+            if (recordSize == 0) {
+                return position;
+            }
+            long hash = hash(buffer, position + KEY_OFFSET, buffer.getInt(position + KEY_LENGTH_OFFSET));
+            Integer previous = buffer.get(position) == PUT
+                ? segment.index.put(hash, position)
+                : segment.index.remove(hash);
+            if (previous != null) {
+                staleBytes += recordSize(buffer, previous);
+            }
+            if (buffer.get(position) == REMOVE) {
+                staleBytes += recordSize;
+            }
+            position += recordSize;
+        }
+    }
+
+    /**
+     * Returns the size of the record at the given position, or 0 if there is no complete record.
+     */
+    private static int validRecordSize(ByteBuffer buffer, int position) {
+        int recordSize = recordSizeWithin(buffer, position, buffer.capacity());
+        if (recordSize == 0) {
+            return 0;
+        }
+        int checksumPosition = position + recordSize - 4;
+        if (buffer.getInt(checksumPosition) != checksum(buffer, position, checksumPosition - position)) {
+            return 0;
+        }
+        return recordSize;
+    }
+
+    /**
+     * Returns the size of the record at the given position without checking its checksum, or 0 if there is no record that ends before the limit.
+     */
+    private static int recordSizeWithin(ByteBuffer buffer, int position, int limit) {
+        if ((long) position + RECORD_OVERHEAD > limit) {
+            return 0;
+        }
+        byte type = buffer.get(position);
+        if (type != PUT && type != REMOVE) {
+            return 0;
+        }
+        int keyLength = buffer.getInt(position + KEY_LENGTH_OFFSET);
+        int valueLength = buffer.getInt(position + VALUE_LENGTH_OFFSET);
+        if (keyLength < 0 || valueLength < 0) {
+            return 0;
+        }
+        long recordSize = (long) RECORD_OVERHEAD + keyLength + valueLength;
+        if (position + recordSize > limit) {
+            return 0;
+        }
+        return (int) recordSize;
+    }
+
+    private static int recordSize(ByteBuffer buffer, int position) {
+        return RECORD_OVERHEAD + buffer.getInt(position + KEY_LENGTH_OFFSET) + buffer.getInt(position + VALUE_LENGTH_OFFSET);
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        Segment segment = getSegment();
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            // Look up the position before reading the buffer, so that the buffer is at least as recent as the position
+            Integer position = segment.index.get(hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length));
+            if (position == null) {
+                return null;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            if (!hasKey(buffer, position, keyBytes)) {
+                return null;
+            }
+            byte[] valueBytes = new byte[buffer.getInt(position + VALUE_LENGTH_OFFSET)];
+            BufferCaster.cast(buffer).position(position + KEY_OFFSET + keyBytes.length);
+            buffer.get(valueBytes);
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(valueBytes)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        getSegment();
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            int position = append(PUT, keyBytes, valueBytes);
+            // The segment may have changed while appending
+            Segment segment = this.segment;
+            Integer previous = segment.index.put(hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length), position);
+            if (previous != null) {
+                staleBytes += recordSize(segment.buffer, previous);
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        getSegment();
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            int tombstoneSize = RECORD_OVERHEAD + keyBytes.length;
+            ensureCapacity(tombstoneSize);
+            Segment segment = this.segment;
+            long hash = hash(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+            Integer previous = segment.index.get(hash);
+            if (previous == null || !hasKey(segment.buffer.duplicate(), previous, keyBytes)) {
+                return;
+            }
+            append(REMOVE, keyBytes, new byte[0]);
+            segment.index.remove(hash);
+            staleBytes += recordSize(segment.buffer, previous) + tombstoneSize;
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (segment == null) {
+            return;
+        }
+        LOGGER.debug("Closing {}", this);
+        try {
+            // Only compact when this process has modified the log, as we then are the only process with access to it
+            if (modified && shouldCompact()) {
+                compact();
+            }
+            flush();
+            Segment segment = this.segment;
+            this.segment = null;
+            // Closing the file doesn't unmap the buffer, so readers that are still in flight can complete
+            segment.file.close();
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Syncs the records appended so far to disk and advances the checkpoint past them.
+     */
+    @Override
+    public synchronized void flush() {
+        Segment segment = getSegment();
+        if (end == checkpoint) {
+            return;
+        }
+        // Sync the records before the checkpoint that covers them
+        segment.buffer.force();
+        segment.buffer.putInt(CHECKPOINT_OFFSET, end);
+        checkpoint = end;
+    }
+
+    private Segment getSegment() {
+        Segment segment = this.segment;
+        if (segment == null) {
+            throw new IllegalStateException(String.format("%s has been closed.", this));
+        }
+        return segment;
+    }
+
+    private int append(byte type, byte[] keyBytes, byte[] valueBytes) throws IOException {
+        int recordSize = RECORD_OVERHEAD + keyBytes.length + valueBytes.length;
+        ensureCapacity(recordSize);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = end;
+        BufferCaster.cast(buffer).position(position);
+        buffer.put(type)
+            .putInt(keyBytes.length)
+            .putInt(valueBytes.length)
+            .put(keyBytes)
+            .put(valueBytes)
+            .putInt(checksum(buffer, position, recordSize - 4));
+        end += recordSize;
+        modified = true;
+        return position;
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        if ((long) end + recordSize <= segment.buffer.capacity()) {
+            return;
+        }
+        if (shouldCompact()) {
+            compact();
+            if ((long) end + recordSize <= segment.buffer.capacity()) {
+                return;
+            }
+        }
+        long required = (long) end + recordSize;
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException(String.format("%s has exceeded its maximum size.", this));
+        }
+        int capacity = (int) Math.min(Math.max(required, 2L * segment.buffer.capacity()), Integer.MAX_VALUE);
+        // The previous mapping stays valid for readers that are still using it
+        segment.buffer = map(segment.file, capacity);
+    }
+
+    private boolean shouldCompact() {
+        return end >= minCompactionSize && staleBytes * 2 > end;
+    }
+
+    /**
+     * Copies the live records to the next generation of the log.
+     */
+    private void compact() throws IOException {
+        Segment previous = segment;
+        int nextGeneration = generation + 1;
+        File nextFile = logFile(nextGeneration);
+        File partialFile = new File(nextFile.getPath() + PARTIAL_FILE_SUFFIX);
+        LOGGER.debug("Compacting {} ({} of {} bytes are stale).", this, staleBytes, end);
+
+        // Keep the records in log order, so that the previous generation is read sequentially
+        int[] positions = previous.index.values().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(positions);
+        ConcurrentHashMap<Long, Integer> index = new ConcurrentHashMap<>(Math.max(16, positions.length * 2));
+        ByteBuffer source = previous.buffer.duplicate();
+        byte[] record = new byte[0];
+        int nextEnd = HEADER_SIZE;
+        int liveBytes = 0;
+        for (int position : positions) {
+            liveBytes += recordSize(source, position);
+        }
+        try (FileOutputStream fileOutput = new FileOutputStream(partialFile)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(HEADER_SIZE + liveBytes);
+            for (int position : positions) {
+                int recordSize = recordSize(source, position);
+                if (record.length < recordSize) {
+                    record = new byte[recordSize];
+                }
+                BufferCaster.cast(source).position(position);
+                source.get(record, 0, recordSize);
+                output.write(record, 0, recordSize);
+                index.put(hash(source, position + KEY_OFFSET, source.getInt(position + KEY_LENGTH_OFFSET)), nextEnd);
+                nextEnd += recordSize;
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(partialFile.toPath(), nextFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        RandomAccessFile file = new RandomAccessFile(nextFile, "rw");
+        int capacity = (int) Math.min(Math.max(2L * nextEnd, INITIAL_CAPACITY), Integer.MAX_VALUE);
+        Segment next = new Segment(file, map(file, capacity), index);
+        segment = next;
+        generation = nextGeneration;
+        end = nextEnd;
+        checkpoint = nextEnd;
+        staleBytes = 0;
+
+        previous.file.close();
+        // Readers may still be using the previous generation, which stays mapped until it is garbage collected.
+        // Deleting the file fails on Windows in that case, and is retried when the cache is opened again.
+        GFileUtils.deleteQuietly(logFile(nextGeneration - 1));
+    }
+
+    private static boolean hasKey(ByteBuffer buffer, int position, byte[] keyBytes) {
+        if (buffer.getInt(position + KEY_LENGTH_OFFSET) != keyBytes.length) {
+            return false;
+        }
+        int keyPosition = position + KEY_OFFSET;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(keyPosition + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        ByteBuffer region = buffer.duplicate();
+        BufferCaster.cast(region).position(position);
+        BufferCaster.cast(region).limit(position + length);
+        CRC32 checksum = new CRC32();
+        checksum.update(region);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a, which spreads serialized keys well enough for the index.
+     */
+    private static long hash(ByteBuffer buffer, int position, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = position; i < position + length; i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        serializer.write(encoder, value);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private File logFile(int generation) {
+        return new File(baseDir, cacheName + FILE_INFIX + generation + FILE_SUFFIX);
+    }
+
+    private void deletePartialFiles() {
+        File[] files = baseDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = cacheName + FILE_INFIX;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && file.getName().endsWith(FILE_SUFFIX + PARTIAL_FILE_SUFFIX)) {
+                GFileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private static SortedMap<Integer, File> findGenerations(File baseDir, String cacheName) {
+        SortedMap<Integer, File> generations = new TreeMap<>();
+        File[] files = baseDir.listFiles();
+        if (files == null) {
+            return generations;
+        }
+        String prefix = cacheName + FILE_INFIX;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(FILE_SUFFIX)) {
+                try {
+                    generations.put(Integer.parseInt(name.substring(prefix.length(), name.length() - FILE_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // Not a generation of this cache
+                }
+            }
+        }
+        return generations;
+    }
+
+    private static class Segment {
+        final RandomAccessFile file;
+        final ConcurrentHashMap<Long, Integer> index;
+        volatile MappedByteBuffer buffer;
+
+        Segment(RandomAccessFile file, MappedByteBuffer buffer) {
+            this(file, buffer, new ConcurrentHashMap<>());
+        }
+
+        Segment(RandomAccessFile file, MappedByteBuffer buffer, ConcurrentHashMap<Long, Integer> index) {
+            this.file = file;
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.log;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheStorage;
+import org.gradle.internal.Factory;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Puts a write-ahead log in front of another storage, usually a B-tree.
+ *
+ * <p>Updates are appended to the log and kept in memory, instead of being applied to the backing storage in place.
+ * The records are buffered and written to the log sequentially, and the log is synced to disk once at the end of each unit of work
+ * and when the storage is closed, so all updates of a batch are committed together.
+ * Once the log has grown past a threshold, its updates are folded into the backing storage and the log is truncated.</p>
+ *
+ * <p>When the storage is opened, the log is replayed into memory. A record torn by a crash is detected by its checksum and discarded.
+ * Since the log is only truncated after its updates have been folded into the backing storage, updates also survive
+ * the backing storage being discarded because it was corrupted by a crash while folding.</p>
+ *
+ * <p>Each record is laid out as {@code [byte type][int key length][int value length][key][value][int CRC32]}.</p>
+ */
+public class WriteAheadLogIndexedCacheStorage<K, V> implements IndexedCacheStorage<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLogIndexedCacheStorage.class);
+
+    private static final int MAGIC = 0x4757414c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_OVERHEAD = 13;
+
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024;
+    private static final long DEFAULT_FOLD_THRESHOLD = 4 * 1024 * 1024;
+
+    private final File logFile;
+    private final Factory<? extends IndexedCacheStorage<K, V>> backingStorageFactory;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long foldThreshold;
+
+    /**
+     * The serialized value of each key updated in the log, or null when the key has been removed.
+     */
+    private final Map<ByteBuffer, byte[]> updates = new LinkedHashMap<>();
+    /**
+     * The records appended since the log was last written to.
+     */
+    private final GroupBuffer group = new GroupBuffer();
+    private final CRC32 checksum = new CRC32();
+    private RandomAccessFile log;
+    private long logLength;
+    private boolean unsynced;
+    private IndexedCacheStorage<K, V> backingStorage;
+
+    public WriteAheadLogIndexedCacheStorage(File logFile, Factory<? extends IndexedCacheStorage<K, V>> backingStorageFactory, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(logFile, backingStorageFactory, keySerializer, valueSerializer, DEFAULT_FOLD_THRESHOLD);
+    }
+
+    public WriteAheadLogIndexedCacheStorage(File logFile, Factory<? extends IndexedCacheStorage<K, V>> backingStorageFactory, Serializer<K> keySerializer, Serializer<V> valueSerializer, long foldThreshold) {
+        this.logFile = logFile;
+        this.backingStorageFactory = backingStorageFactory;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.foldThreshold = foldThreshold;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "write-ahead log " + logFile.getName() + " (" + logFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        log = new RandomAccessFile(logFile, "rw");
+        byte[] content = new byte[(int) log.length()];
+        log.readFully(content);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (content.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            if (content.length > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            log.writeInt(VERSION);
+            logLength = HEADER_SIZE;
+            unsynced = true;
+            return;
+        }
+        logLength = replay(buffer);
+        if (logLength < content.length) {
+            LOGGER.debug("Discarding incomplete record at the end of {}.", this);
+            log.setLength(logLength);
+        }
+        log.seek(logLength);
+    }
+
+    /**
+     * Loads the updates recorded in the log, and returns the length of the valid part of the log.
+     */
+    private long replay(ByteBuffer buffer) {
+        int position = HEADER_SIZE;
+        while (buffer.limit() - position >= RECORD_OVERHEAD) {
+            byte type = buffer.get(position);
+            int keyLength = buffer.getInt(position + 1);
+            int valueLength = buffer.getInt(position + 5);
+            if ((type != PUT && type != REMOVE) || keyLength < 0 || valueLength < 0
+                || (long) buffer.limit() - position - RECORD_OVERHEAD < (long) keyLength + valueLength) {
+                break;
+            }
+            int length = RECORD_OVERHEAD + keyLength + valueLength;
+            checksum.reset();
+            checksum.update(buffer.array(), position, length - 4);
+            if ((int) checksum.getValue() != buffer.getInt(position + length - 4)) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            System.arraycopy(buffer.array(), position + 9, key, 0, keyLength);
+            byte[] value = null;
+            if (type == PUT) {
+                value = new byte[valueLength];
+                System.arraycopy(buffer.array(), position + 9 + keyLength, value, 0, valueLength);
+            }
+            updates.put(ByteBuffer.wrap(key), value);
+            position += length;
+        }
+        return position;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            ByteBuffer keyBytes = ByteBuffer.wrap(serialize(keySerializer, key));
+            if (updates.containsKey(keyBytes)) {
+                byte[] value = updates.get(keyBytes);
+                return value == null ? null : valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value)));
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+        return getBackingStorage().get(key);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> notInLog = new ArrayList<>();
+        for (K key : keys) {
+            try {
+                ByteBuffer keyBytes = ByteBuffer.wrap(serialize(keySerializer, key));
+                if (updates.containsKey(keyBytes)) {
+                    byte[] value = updates.get(keyBytes);
+                    if (value != null) {
+                        result.put(key, valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value))));
+                    }
+                } else {
+                    notInLog.add(key);
+                }
+            } catch (Exception e) {
+                throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+            }
+        }
+        if (!notInLog.isEmpty()) {
+            result.putAll(getBackingStorage().getAll(notInLog));
+        }
+        return result;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            append(PUT, serialize(keySerializer, key), serialize(valueSerializer, value));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            append(REMOVE, serialize(keySerializer, key), null);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    private void append(byte type, byte[] key, @Nullable byte[] value) throws Exception {
+        int start = group.size();
+        DataOutputStream output = new DataOutputStream(group);
+        output.writeByte(type);
+        output.writeInt(key.length);
+        output.writeInt(value == null ? 0 : value.length);
+        output.write(key);
+        if (value != null) {
+            output.write(value);
+        }
+        checksum.reset();
+        checksum.update(group.buffer(), start, group.size() - start);
+        output.writeInt((int) checksum.getValue());
+        updates.put(ByteBuffer.wrap(key), value);
+        if (logLength + group.size() > foldThreshold) {
+            sync();
+            fold();
+        } else if (group.size() >= MAX_BUFFERED_BYTES) {
+            writeGroup();
+        }
+    }
+
+    private void writeGroup() throws IOException {
+        if (group.size() == 0) {
+            return;
+        }
+        log.write(group.buffer(), 0, group.size());
+        logLength += group.size();
+        group.reset();
+        unsynced = true;
+    }
+
+    /**
+     * Writes the buffered records and syncs the log to disk, if there have been updates since the last sync.
+     */
+    private void sync() throws IOException {
+        writeGroup();
+        if (unsynced) {
+            log.getChannel().force(false);
+            unsynced = false;
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            sync();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not flush %s.", this), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            sync();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not close %s.", this), e);
+        } finally {
+            try {
+                if (backingStorage != null) {
+                    backingStorage.close();
+                }
+            } finally {
+                backingStorage = null;
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Could not close {}.", this, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void compactAndClose() {
+        try {
+            IndexedCacheStorage<K, V> storage = getBackingStorage();
+            backingStorage = null;
+            storage.compactAndClose();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Applies the updates in the log to the backing storage, and truncates the log afterwards.
+     */
+    private void fold() throws Exception {
+        LOGGER.debug("Folding {} updates from {} into the backing storage.", updates.size(), this);
+        IndexedCacheStorage<K, V> storage = getBackingStorage();
+        Map<K, V> puts = new LinkedHashMap<>();
+        for (Map.Entry<ByteBuffer, byte[]> update : updates.entrySet()) {
+            K key = keySerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(update.getKey().array())));
+            byte[] value = update.getValue();
+            if (value == null) {
+                storage.remove(key);
+            } else {
+                puts.put(key, valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value))));
+            }
+        }
+        // The log holds only the latest update for each key, so removals and puts can be applied independently
+        storage.putAll(puts);
+        // Make sure the backing storage has written everything before the log is truncated
+        backingStorage = null;
+        storage.close();
+        updates.clear();
+        log.setLength(HEADER_SIZE);
+        log.getChannel().force(false);
+        logLength = HEADER_SIZE;
+    }
+
+    private IndexedCacheStorage<K, V> getBackingStorage() {
+        if (backingStorage == null) {
+            backingStorage = backingStorageFactory.create();
+        }
+        return backingStorage;
+    }
+
+    private static <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        serializer.write(encoder, value);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private static class GroupBuffer extends ByteArrayOutputStream {
+        GroupBuffer() {
+            super(MAX_BUFFERED_BYTES);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
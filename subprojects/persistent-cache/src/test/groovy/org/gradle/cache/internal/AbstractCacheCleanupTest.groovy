@@ -110,6 +110,30 @@ class AbstractCacheCleanupTest extends Specification {
         deletedFiles == [file, parent]
     }
 
+    def "resumes incremental cleanup from cursor"() {
+        given:
+        def files = (0..<10).collect { cacheDir.createDir("dir-$it").createFile("entry") }
+        def action = cleanupAction(new SingleDepthFilesFinder(2), { true })
+
+        when:
+        int budget = 4
+        def cursor = action.cleanIncrementally(cleanableStore, null, progressMonitor, { budget-- <= 0 })
+
+        then:
+        cursor == "dir-3/entry"
+        4 * progressMonitor.incrementDeleted()
+        files[0..3].every { !it.exists() }
+        files[4..9].every { it.exists() }
+
+        when:
+        cursor = action.cleanIncrementally(cleanableStore, cursor, progressMonitor, { false })
+
+        then:
+        cursor == null
+        6 * progressMonitor.incrementDeleted()
+        files.every { !it.exists() }
+    }
+
     FilesFinder finder(files) {
         Stub(FilesFinder) {
             find(_, _) >> { baseDir, filter ->
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal
+
+import org.gradle.cache.AsyncCacheAccess
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache
+import spock.lang.Specification
+
+class AsyncCacheAccessDecoratedCacheTest extends Specification {
+    def queue = []
+    def asyncCacheAccess = Stub(AsyncCacheAccess) {
+        enqueue(_) >> { Runnable task -> queue << task }
+    }
+    def target = Mock(MultiProcessSafePersistentIndexedCache)
+    def cache = new AsyncCacheAccessDecoratedCache(asyncCacheAccess, target)
+
+    def "writes consecutive puts as one batch"() {
+        def completion = Mock(Runnable)
+
+        when:
+        cache.putLater("a", "1", completion)
+        cache.putLater("b", "2", completion)
+        cache.putLater("a", "3", completion)
+
+        then:
+        queue.size() == 1
+
+        when:
+        queue.each { it.run() }
+
+        then:
+        1 * target.putAll([a: "3", b: "2"])
+        3 * completion.run()
+        0 * target._
+    }
+
+    def "applies puts queued after a removal after the removal"() {
+        when:
+        cache.putLater("a", "1", Stub(Runnable))
+        cache.removeLater("a", Stub(Runnable))
+        cache.putLater("a", "2", Stub(Runnable))
+        queue.each { it.run() }
+
+        then:
+        1 * target.putAll([a: "1"])
+
+        then:
+        1 * target.remove("a")
+
+        then:
+        1 * target.putAll([a: "2"])
+        0 * target._
+    }
+
+    def "starts a new batch for puts queued while a batch is written"() {
+        when:
+        cache.putLater("a", "1", Stub(Runnable))
+        queue.remove(0).run()
+        cache.putLater("b", "2", Stub(Runnable))
+
+        then:
+        1 * target.putAll([a: "1"])
+        queue.size() == 1
+    }
+}
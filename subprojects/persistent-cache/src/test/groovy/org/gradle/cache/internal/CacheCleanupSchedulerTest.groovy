@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+
+import java.util.function.BooleanSupplier
+
+class CacheCleanupSchedulerTest extends ConcurrentSpec {
+    def scheduler = new CacheCleanupScheduler(true)
+
+    def "does not defer cleanup until enabled"() {
+        def task = task("cache", { true })
+
+        expect:
+        !scheduler.schedule(task)
+        !scheduler.hasPendingCleanups()
+
+        when:
+        scheduler.enable()
+
+        then:
+        scheduler.schedule(task)
+        scheduler.hasPendingCleanups()
+    }
+
+    def "does not defer cleanup when background cleanup is not allowed"() {
+        def scheduler = new CacheCleanupScheduler(false)
+        scheduler.enable()
+
+        expect:
+        !scheduler.schedule(task("cache", { true }))
+    }
+
+    def "runs slices only while resumed and takes turns between caches"() {
+        def visited = []
+        def first = task("first", { visited << "first"; visited.count("first") == 2 })
+        def second = task("second", { visited << "second"; true })
+        scheduler.enable()
+        scheduler.schedule(first)
+        scheduler.schedule(second)
+
+        when:
+        scheduler.runSlice(100)
+
+        then:
+        visited.empty
+
+        when:
+        scheduler.resume()
+        3.times { scheduler.runSlice(100) }
+
+        then:
+        visited == ["first", "second", "first"]
+        !scheduler.hasPendingCleanups()
+    }
+
+    def "pausing waits for the running slice to yield"() {
+        def task = task("cache", { BooleanSupplier shouldYield ->
+            instant.sliceStarted
+            while (!shouldYield.asBoolean) {
+                Thread.sleep(10)
+            }
+            instant.sliceYielded
+            false
+        })
+        scheduler.enable()
+        scheduler.resume()
+        scheduler.schedule(task)
+
+        when:
+        async {
+            start {
+                scheduler.runSlice(Long.MAX_VALUE)
+            }
+            thread.blockUntil.sliceStarted
+            scheduler.pause()
+            instant.paused
+        }
+
+        then:
+        instant.paused > instant.sliceYielded
+        scheduler.hasPendingCleanups()
+    }
+
+    def "reopening a cache cancels its cleanup"() {
+        def task = task("cache", { false })
+        scheduler.enable()
+        scheduler.resume()
+        scheduler.schedule(task)
+
+        when:
+        scheduler.cancel(task.baseDir)
+        scheduler.runSlice(100)
+
+        then:
+        !scheduler.hasPendingCleanups()
+    }
+
+    def "disabling runs pending cleanups within the budget and runs cleanups scheduled afterwards"() {
+        def slices = 0
+        def task = task("cache", { slices++ == 2 })
+        def visited = []
+        scheduler.enable()
+        scheduler.resume()
+        scheduler.schedule(task)
+
+        when:
+        scheduler.disable(60_000)
+
+        then:
+        slices == 3
+        !scheduler.hasPendingCleanups()
+
+        when:
+        def scheduled = scheduler.schedule(task("other", { visited << "other"; true }))
+
+        then:
+        scheduled
+        visited == ["other"]
+        !scheduler.hasPendingCleanups()
+    }
+
+    def "disabling leaves cleanups to the next process once the budget is used up"() {
+        def visited = []
+        scheduler.enable()
+        scheduler.resume()
+        scheduler.schedule(task("cache", { visited << "cache"; true }))
+
+        when:
+        scheduler.disable(0)
+        def scheduled = scheduler.schedule(task("other", { visited << "other"; true }))
+
+        then:
+        scheduled
+        visited.empty
+        !scheduler.hasPendingCleanups()
+    }
+
+    private static CacheCleanupScheduler.Task task(String name, Closure<Boolean> slice) {
+        def baseDir = new File(name)
+        return new CacheCleanupScheduler.Task() {
+            @Override
+            File getBaseDir() {
+                return baseDir
+            }
+
+            @Override
+            boolean run(BooleanSupplier shouldYield) {
+                return slice.call(shouldYield)
+            }
+        }
+    }
+}
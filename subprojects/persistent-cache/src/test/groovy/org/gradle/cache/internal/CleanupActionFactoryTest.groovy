@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal
+
+import org.gradle.cache.CleanableStore
+import org.gradle.cache.CleanupAction
+import org.gradle.cache.CleanupProgressMonitor
+import org.gradle.cache.IncrementalCleanupAction
+import org.gradle.internal.operations.TestBuildOperationExecutor
+import spock.lang.Specification
+
+import java.util.function.BooleanSupplier
+
+class CleanupActionFactoryTest extends Specification {
+    def buildOperationExecutor = new TestBuildOperationExecutor()
+    def factory = new CleanupActionFactory(buildOperationExecutor)
+    def store = Stub(CleanableStore) {
+        toString() >> "some cache"
+    }
+    def progressMonitor = Stub(CleanupProgressMonitor)
+
+    def "keeps incremental cleanup actions incremental"() {
+        def action = Mock(IncrementalCleanupAction)
+        def shouldYield = Stub(BooleanSupplier)
+
+        when:
+        def decorated = factory.create(action)
+
+        then:
+        decorated instanceof IncrementalCleanupAction
+
+        when:
+        def cursor = ((IncrementalCleanupAction) decorated).cleanIncrementally(store, "a", progressMonitor, shouldYield)
+
+        then:
+        1 * action.cleanIncrementally(store, "a", progressMonitor, shouldYield) >> "b"
+        cursor == "b"
+        buildOperationExecutor.operations*.displayName == ["Clean up some cache"]
+    }
+
+    def "runs full cleanup as a build operation"() {
+        def action = Mock(IncrementalCleanupAction)
+
+        when:
+        factory.create(action).clean(store, progressMonitor)
+
+        then:
+        1 * action.clean(store, progressMonitor)
+        buildOperationExecutor.operations*.displayName == ["Clean up some cache"]
+    }
+
+    def "does not make other cleanup actions incremental"() {
+        expect:
+        !(factory.create(Stub(CleanupAction)) instanceof IncrementalCleanupAction)
+    }
+}
@@ -437,6 +437,60 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         !access.owner
     }
 
+    def "flushes the storage of caches at the end of each use cache operation"() {
+        def access = newAccess(OnDemand)
+        access.open()
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        lock.writeFile(_) >> { Runnable action -> action.run() }
+
+        when:
+        access.useCache { cache.put("key", 1) }
+
+        then:
+        1 * lockManager.lock(lockFile, mode(Exclusive), "<display-name>", "", _) >> lock
+        1 * backingCache.put("key", 1)
+
+        then:
+        1 * backingCache.flush()
+
+        when:
+        access.useCache { cache.put("other", 2) }
+
+        then:
+        1 * backingCache.put("other", 2)
+
+        then:
+        1 * backingCache.flush()
+        0 * backingCache._
+    }
+
+    def "compacts the storage of used caches only when closed"() {
+        def access = newAccess(OnDemand)
+        access.open()
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        def unusedCache = access.newCache(PersistentIndexedCacheParameters.of('unused', String.class, Integer.class))
+        lockManager.lock(lockFile, mode(Exclusive), "<display-name>", "", _) >> lock
+        lock.writeFile(_) >> { Runnable action -> action.run() }
+
+        when:
+        access.useCache { cache.put("key", 1) }
+
+        then:
+        1 * backingCache.put("key", 1)
+        1 * backingCache.flush()
+        0 * backingCache._
+
+        when:
+        access.close()
+
+        then:
+        1 * backingCache.compactAndClose()
+
+        then:
+        1 * lock.close()
+        0 * backingCache._
+    }
+
     def "use cache operation does not allow shared locks"() {
         def access = newAccess(Shared)
 
@@ -700,6 +754,20 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "throws InvalidCacheReuseException when storage type differs"() {
+        def access = newAccess(OnDemand)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withStorageType(PersistentIndexedCacheParameters.StorageType.MAPPED_LOG))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
     def "throws InvalidCacheReuseException when cache decorator differs"() {
         def access = newAccess(OnDemand)
         def decorator = Mock(CacheDecorator)
@@ -17,6 +17,7 @@ package org.gradle.cache.internal
 
 import org.gradle.api.Action
 import org.gradle.cache.CacheBuilder
+import org.gradle.cache.CleanupAction
 import org.gradle.cache.PersistentCache
 import org.gradle.test.fixtures.file.TestFile
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -112,4 +113,48 @@ class DefaultCacheRepositoryTest extends Specification {
         1 * scopeMapping.getBaseDirectory(null, "a", VersionStrategy.CachePerVersion) >> sharedCacheDir
         1 * cacheFactory.open(sharedCacheDir, "<cache>", [:], CacheBuilder.LockTarget.DefaultTarget, mode(Shared), null, null) >> cache
     }
+
+    void opensStripesOfStripedCacheOnDemandWithTheirOwnCleanup() {
+        CleanupAction cleanup = Mock()
+        PersistentCache stripe = Mock()
+
+        when:
+        def result = repository.cache("a").withDisplayName("<cache>").withLockOptions(mode(OnDemand)).withCleanup(cleanup).withLockStripes(4).open()
+
+        then:
+        1 * scopeMapping.getBaseDirectory(null, "a", VersionStrategy.CachePerVersion) >> sharedCacheDir
+        1 * cacheFactory.open(sharedCacheDir, "<cache>", [:], CacheBuilder.LockTarget.DefaultTarget, mode(OnDemand), null, null) >> cache
+        0 * cacheFactory._
+
+        when:
+        def index = StripedPersistentCache.stripeIndex("key", 4)
+        def first = result.getStripe("key")
+        def second = result.getStripe("key")
+
+        then:
+        first == stripe
+        second == stripe
+        1 * cacheFactory.open(sharedCacheDir.file("stripe-$index"), "<cache> (stripe $index)".toString(), [:], CacheBuilder.LockTarget.DefaultTarget, mode(OnDemand), null, cleanup) >> stripe
+        0 * cacheFactory._
+
+        when:
+        result.close()
+
+        then:
+        1 * stripe.close()
+        1 * cache.close()
+    }
+
+    void stripedCacheMapsKeysToAllStripes() {
+        expect:
+        (0..<100).collect { StripedPersistentCache.stripeIndex("key" + it, 4) }.toSet() == [0, 1, 2, 3] as Set
+    }
+
+    void rejectsInvalidNumberOfStripes() {
+        when:
+        repository.cache("a").withLockStripes(0)
+
+        then:
+        thrown IllegalArgumentException
+    }
 }
@@ -71,4 +71,33 @@ class DefaultFileLockManagerAwaitableFileLockReleasedSignalTest extends Concurre
         then:
         notThrown(Exception)
     }
+
+    def "signal triggered without anyone waiting ends next wait"() {
+        given:
+        signal.trigger()
+
+        expect:
+        signal.await(10000)
+        !signal.await(0)
+    }
+
+    def "ends wait when release count changes"() {
+        given:
+        def releaseCount = new AtomicInteger()
+        def signal = new DefaultFileLockManager.AwaitableFileLockReleasedSignal({ releaseCount.get() })
+        signal.beforeAttempt()
+
+        expect:
+        !signal.await(10)
+
+        when:
+        start {
+            Thread.sleep(50)
+            releaseCount.incrementAndGet()
+        }
+
+        then:
+        signal.await(10000)
+        !signal.await(10)
+    }
 }
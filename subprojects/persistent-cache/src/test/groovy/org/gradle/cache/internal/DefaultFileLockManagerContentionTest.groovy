@@ -24,6 +24,7 @@ import org.gradle.cache.LockTimeoutException
 import org.gradle.cache.internal.filelock.LockOptionsBuilder
 import org.gradle.cache.internal.locklistener.DefaultFileLockContentionHandler
 import org.gradle.cache.internal.locklistener.FileLockContentionHandler
+import org.gradle.cache.internal.locklistener.FileLockReleaseTable
 import org.gradle.internal.concurrent.CompositeStoppable
 import org.gradle.internal.id.LongIdGenerator
 import org.gradle.internal.remote.internal.inet.InetAddressFactory
@@ -117,6 +118,31 @@ class DefaultFileLockManagerContentionTest extends ConcurrentSpec {
         }
     }
 
+    def "acquires lock as soon as the release table records its release and records the wait time"() {
+        given:
+        def releaseTable = FileLockReleaseTable.open(tmpDir.file("releases.bin"))
+        def statisticsCollector = new FileLockStatistics.Collector()
+        def holderManager = new DefaultFileLockManager(Stub(ProcessMetaDataProvider), 2000, Stub(FileLockContentionHandler) { reservePort() >> -1 }, new LongIdGenerator(), releaseTable, new FileLockStatistics.Collector())
+        def waitingManager = new DefaultFileLockManager(Stub(ProcessMetaDataProvider), 20000, Stub(FileLockContentionHandler) { reservePort() >> -1 }, new LongIdGenerator(), releaseTable, statisticsCollector)
+        def file = tmpDir.file("lock-file.bin")
+        def lock = createLock(Exclusive, file, holderManager)
+
+        when:
+        start {
+            Thread.sleep(500)
+            lock.close()
+        }
+        createLock(Exclusive, file, waitingManager)
+        def statistics = statisticsCollector.collect()
+
+        then:
+        statistics.acquisitionCount == 1
+        statistics.contendedAcquisitionCount == 1
+        statistics.maxWaitTimeMillis >= 400
+        statistics.maxWaitTimeMillis < 2000
+        statistics.totalWaitTimeMillis == statistics.maxWaitTimeMillis
+    }
+
     FileLock createLock(FileLockManager.LockMode lockMode, File file, FileLockManager lockManager = manager, Action<FileLockReleasedSignal> whenContended = null) {
         def lock = lockManager.lock(file, LockOptionsBuilder.mode(lockMode), "foo", "operation", whenContended)
         openedLocks << lock
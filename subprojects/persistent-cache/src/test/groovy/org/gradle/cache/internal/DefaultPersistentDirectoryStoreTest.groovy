@@ -19,6 +19,7 @@ import org.gradle.cache.CacheBuilder
 import org.gradle.cache.CleanupAction
 import org.gradle.cache.FileLock
 import org.gradle.cache.FileLockManager
+import org.gradle.cache.IncrementalCleanupAction
 import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.logging.progress.ProgressLogger
 import org.gradle.internal.logging.progress.ProgressLoggerFactory
@@ -195,6 +196,65 @@ class DefaultPersistentDirectoryStoreTest extends Specification {
         gcFile.assertDoesNotExist()
     }
 
+    def "runs deferred cleanup within the budget when background cleanup is disabled and cleans up caches closed afterwards"() {
+        def scheduler = new CacheCleanupScheduler(true)
+        def incrementalCleanupAction = Mock(IncrementalCleanupAction)
+        store = new DefaultPersistentDirectoryStore(cacheDir, "<display>", CacheBuilder.LockTarget.DefaultTarget, mode(OnDemand), incrementalCleanupAction, lockManager, Mock(ExecutorFactory), progressLoggerFactory, scheduler, null)
+        lockManager.lock(*_) >> lock
+        scheduler.enable()
+        store.open()
+        store.close()
+        markCacheForCleanup(gcFile)
+
+        when:
+        store.open()
+        store.close()
+
+        then:
+        0 * incrementalCleanupAction._
+
+        when:
+        def modificationTimeBefore = gcFile.lastModified()
+        scheduler.disable(TimeUnit.MINUTES.toMillis(1))
+
+        then:
+        1 * incrementalCleanupAction.cleanIncrementally(store, null, _, _) >> null
+        gcFile.lastModified() > modificationTimeBefore
+
+        when:
+        markCacheForCleanup(gcFile)
+        modificationTimeBefore = gcFile.lastModified()
+        store.open()
+        store.close()
+
+        then:
+        1 * incrementalCleanupAction.cleanIncrementally(store, null, _, _) >> null
+        gcFile.lastModified() > modificationTimeBefore
+    }
+
+    def "leaves deferred cleanup due for the next process when the budget is used up"() {
+        def scheduler = new CacheCleanupScheduler(true)
+        def incrementalCleanupAction = Mock(IncrementalCleanupAction)
+        store = new DefaultPersistentDirectoryStore(cacheDir, "<display>", CacheBuilder.LockTarget.DefaultTarget, mode(OnDemand), incrementalCleanupAction, lockManager, Mock(ExecutorFactory), progressLoggerFactory, scheduler, null)
+        lockManager.lock(*_) >> lock
+        scheduler.enable()
+        store.open()
+        store.close()
+        markCacheForCleanup(gcFile)
+        store.open()
+        store.close()
+        def modificationTimeBefore = gcFile.lastModified()
+
+        when:
+        scheduler.disable(0)
+        store.open()
+        store.close()
+
+        then:
+        0 * incrementalCleanupAction._
+        gcFile.lastModified() == modificationTimeBefore
+    }
+
     private void markCacheForCleanup(TestFile gcFile) {
         gcFile.setLastModified(gcFile.lastModified() - TimeUnit.DAYS.toMillis(2))
     }
@@ -20,6 +20,7 @@ import org.gradle.cache.AsyncCacheAccess
 import org.gradle.cache.CrossProcessCacheAccess
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache
 import org.gradle.internal.Factory
+import org.gradle.internal.serialize.BaseSerializerFactory
 import spock.lang.Specification
 
 class InMemoryCacheDecoratorFactoryTest extends Specification {
@@ -200,4 +201,47 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
     }
 
+    def "reads entries evicted from heap from off-heap store"() {
+        given:
+        def cacheFactory = new CleaningInMemoryCacheDecoratorFactory(true, new TestCrossBuildInMemoryCacheFactory(), 1024 * 1024)
+        def decorator = cacheFactory.decorator(100, true, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER)
+        def cache = decorator.decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        def result = cache.getIfPresent("key")
+
+        then:
+        result == "result"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.getIfPresent("key") >> "result"
+        0 * target._
+
+        when:
+        cacheFactory.clearCaches { it instanceof InMemoryDecoratedCache }
+        result = cache.getIfPresent("key")
+
+        then:
+        result == "result"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * asyncCacheAccess._
+        0 * target._
+
+        when:
+        cacheFactory.clearCaches { true }
+        result = cache.getIfPresent("key")
+
+        then:
+        result == "result"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.getIfPresent("key") >> "result"
+        0 * target._
+    }
 }
@@ -111,6 +111,47 @@ class InMemoryDecoratedCacheTest extends ConcurrentSpec {
         0 * _
     }
 
+    def "fetches entries missing from memory from backing cache in one batch"() {
+        given:
+        cache.putLater("key1", "value1", Stub(Runnable))
+        cache.removeLater("key2", Stub(Runnable))
+
+        when:
+        def result = cache.getAll(["key1", "key2", "key3", "key4"])
+
+        then:
+        result == [key1: "value1", key3: "value3"]
+
+        and:
+        1 * target.getAll(["key3", "key4"]) >> [key3: "value3"]
+        0 * _
+
+        when:
+        def cached = cache.getAll(["key3", "key4"])
+
+        then:
+        cached == [key3: "value3"]
+        0 * _
+    }
+
+    def "stores batch in memory and in backing cache later"() {
+        def completion = Mock(Runnable)
+
+        when:
+        cache.putAllLater([key1: "value1", key2: "value2"], completion)
+
+        then:
+        1 * target.putAllLater([key1: "value1", key2: "value2"], completion)
+        0 * _
+
+        when:
+        def result = cache.getAll(["key1", "key2"])
+
+        then:
+        result == [key1: "value1", key2: "value2"]
+        0 * _
+    }
+
     def "propagates failure to produce value and marks completed"() {
         def producer = Mock(Function)
         def completion = Mock(Runnable)
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import spock.lang.Specification
+
+class OffHeapEntryStoreTest extends Specification {
+    static final int PAGE_SIZE = 4096
+    def store = new OffHeapEntryStore(4 * PAGE_SIZE, PAGE_SIZE)
+    def partition = store.newPartition()
+
+    def "stores and replaces values"() {
+        when:
+        store.put(partition, key("a"), value(1, 10))
+        store.put(partition, key("b"), value(2, 10))
+        store.put(partition, key("a"), value(3, 20))
+
+        then:
+        store.get(partition, key("a")) == value(3, 20)
+        store.get(partition, key("b")) == value(2, 10)
+        store.get(partition, key("c")) == null
+        store.size() == 2
+
+        when:
+        store.remove(partition, key("a"))
+
+        then:
+        store.get(partition, key("a")) == null
+        store.size() == 1
+    }
+
+    def "keeps partitions apart"() {
+        def other = store.newPartition()
+
+        when:
+        store.put(partition, key("a"), value(1, 10))
+        store.put(other, key("a"), value(2, 10))
+
+        then:
+        store.get(partition, key("a")) == value(1, 10)
+        store.get(other, key("a")) == value(2, 10)
+
+        when:
+        store.clear(partition)
+
+        then:
+        store.get(partition, key("a")) == null
+        store.get(other, key("a")) == value(2, 10)
+    }
+
+    def "stays within its size and evicts entries that are not read"() {
+        when:
+        store.put(partition, key("hot"), value(1, 100))
+        1000.times {
+            assert store.get(partition, key("hot")) == value(1, 100)
+            store.put(partition, key("cold-$it"), value(it, 100))
+        }
+
+        then:
+        store.get(partition, key("hot")) == value(1, 100)
+        store.get(partition, key("cold-0")) == null
+        store.get(partition, key("cold-999")) == value(999, 100)
+        store.size() <= 4 * PAGE_SIZE / 100
+    }
+
+    def "does not store entries larger than a page"() {
+        when:
+        store.put(partition, key("a"), value(1, 10))
+        store.put(partition, key("a"), value(2, PAGE_SIZE))
+
+        then:
+        store.get(partition, key("a")) == null
+        store.size() == 0
+    }
+
+    def "finds entries after many removals"() {
+        def store = new OffHeapEntryStore(64 * PAGE_SIZE, PAGE_SIZE)
+        def partition = store.newPartition()
+
+        when:
+        2000.times {
+            store.put(partition, key("key-$it"), value(it, 1))
+        }
+        2000.times {
+            if (it % 3 != 0) {
+                store.remove(partition, key("key-$it"))
+            }
+        }
+
+        then:
+        (0..<2000).every { (it % 3 == 0) == (store.get(partition, key("key-$it")) == value(it, 1)) }
+    }
+
+    private static byte[] key(String key) {
+        return key.bytes
+    }
+
+    private static byte[] value(int seed, int size) {
+        def bytes = new byte[size]
+        new Random(seed).nextBytes(bytes)
+        return bytes
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.gradle.cache.internal.btree;
 
+import org.gradle.cache.internal.PersistentIndexedCacheStatisticsProgressDetails;
 import org.gradle.internal.serialize.DefaultSerializer;
 import org.gradle.internal.serialize.Serializer;
 import org.gradle.test.fixtures.file.TestFile;
@@ -260,6 +261,95 @@ public void canHandleLargeNumberOfEntries() {
         cache.close();
     }
 
+    @Test
+    public void persistsEntriesAddedAndReadInBatches() {
+        createCache();
+        Map<String, Integer> entries = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(String.format("key_%d", i), i);
+        }
+        cache.putAll(entries);
+        cache.reset();
+
+        List<String> keys = new ArrayList<String>(entries.keySet());
+        keys.add("unknown");
+        Collections.reverse(keys);
+        assertThat(cache.getAll(keys), equalTo(entries));
+        assertThat(cache.get("key_42"), equalTo(42));
+
+        verifyAndCloseCache();
+    }
+
+    @Test
+    public void compactsFragmentedCacheOnlyWhenClosedForGood() {
+        PersistentIndexedCacheStatisticsProgressDetails.Collector statistics = new PersistentIndexedCacheStatisticsProgressDetails.Collector();
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, 0.5, 0, statistics);
+        fragment();
+
+        long len = cacheFile.length();
+        cache.close();
+
+        assertThat(cacheFile.length(), equalTo(len));
+
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, 0.5, 0, statistics);
+        cache.compactAndClose();
+
+        assertTrue(cacheFile.length() < len / 2);
+        List<PersistentIndexedCacheStatisticsProgressDetails> collected = statistics.collect();
+        assertThat(collected.size(), equalTo(1));
+        assertThat(collected.get(0).getReclaimedBytes(), equalTo(len - cacheFile.length()));
+        assertThat(collected.get(0).getLiveBytes(), equalTo(cacheFile.length()));
+        assertThat(collected.get(0).getFreeBlockCount(), equalTo(0));
+
+        createCache();
+        for (int i = 0; i < 1000; i++) {
+            assertThat(cache.get(String.format("key_%d", i)), equalTo(i % 10 == 0 ? i : null));
+        }
+        verifyAndCloseCache();
+    }
+
+    @Test
+    public void collectsStatisticsOncePerCacheFile() {
+        PersistentIndexedCacheStatisticsProgressDetails.Collector statistics = new PersistentIndexedCacheStatisticsProgressDetails.Collector();
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, 1.0, 0, statistics);
+        checkAdds(1, 2, 3, 4, 5);
+        cache.remove("key_2");
+        cache.close();
+        statistics.collect();
+
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, 1.0, 0, statistics);
+        cache.get("key_1");
+        cache.get("key_2");
+        cache.close();
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, 1.0, 0, statistics);
+        cache.get("key_3");
+        cache.get("key_4");
+        cache.close();
+
+        List<PersistentIndexedCacheStatisticsProgressDetails> collected = statistics.collect();
+        assertThat(collected.size(), equalTo(1));
+        PersistentIndexedCacheStatisticsProgressDetails details = collected.get(0);
+        assertThat(details.getCacheFile(), equalTo(cacheFile.getAbsolutePath()));
+        assertThat(details.getFileSize(), equalTo(cacheFile.length()));
+        assertTrue(details.getLiveBytes() < details.getFileSize());
+        assertTrue(details.getFreeBlockCount() > 0);
+        assertThat(details.getLookupCount(), equalTo(4L));
+        assertThat(details.getHitRate(), equalTo(0.75));
+        assertThat(details.getReclaimedBytes(), equalTo(0L));
+        assertTrue(statistics.collect().isEmpty());
+    }
+
+    private void fragment() {
+        for (int i = 0; i < 1000; i++) {
+            cache.put(String.format("key_%d", i), i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                cache.remove(String.format("key_%d", i));
+            }
+        }
+    }
+
     @Test
     public void persistsRemovalOfEntries() {
         createCache();
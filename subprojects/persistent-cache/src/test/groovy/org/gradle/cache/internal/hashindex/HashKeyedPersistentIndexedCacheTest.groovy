@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.hashindex
+
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.hash.Hashing
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class HashKeyedPersistentIndexedCacheTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def cacheFile = tmpDir.file("caches/cache-hash.bin")
+    def cache = createCache()
+
+    def cleanup() {
+        cache.close()
+    }
+
+    def "returns null for unknown entry"() {
+        expect:
+        cache.get(key("unknown")) == null
+    }
+
+    def "can add, replace and remove entries"() {
+        when:
+        cache.put(key("a"), 1)
+        cache.put(key("b"), 2)
+        cache.put(key("a"), 3)
+
+        then:
+        cache.get(key("a")) == 3
+        cache.get(key("b")) == 2
+        cache.size() == 2
+
+        when:
+        cache.remove(key("a"))
+        cache.remove(key("unknown"))
+
+        then:
+        cache.get(key("a")) == null
+        cache.get(key("b")) == 2
+        cache.size() == 1
+    }
+
+    def "grows the table and persists entries"() {
+        given:
+        (1..1000).each { cache.put(key("key$it"), it) }
+        cache.remove(key("key10"))
+        cache.close()
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.size() == 999
+        (1..1000).every { it == 10 || cache.get(key("key$it")) == it }
+        cache.get(key("key10")) == null
+    }
+
+    def "reuses slots of removed entries and compacts stale values"() {
+        when:
+        10.times { round ->
+            (1..100).each { cache.put(key("key$it"), round) }
+            (1..100).each { cache.remove(key("key$it")) }
+        }
+        (1..100).each { cache.put(key("key$it"), it) }
+
+        then:
+        (1..100).every { cache.get(key("key$it")) == it }
+        cacheFile.length() < 16 * 1024
+    }
+
+    def "discards file that has not been closed"() {
+        given:
+        cache.put(key("a"), 1)
+        cache.close()
+        cache = createCache()
+        cache.put(key("b"), 2)
+        def copy = tmpDir.file("copy-hash.bin")
+        copy.bytes = cacheFile.bytes
+        cache.close()
+
+        when:
+        def crashed = new HashKeyedPersistentIndexedCache<Integer>(copy, BaseSerializerFactory.INTEGER_SERIALIZER, 16, 64)
+
+        then:
+        crashed.get(key("a")) == null
+        crashed.get(key("b")) == null
+
+        cleanup:
+        crashed?.close()
+    }
+
+    def "rejects keys of different lengths"() {
+        given:
+        cache.put(key("a"), 1)
+
+        when:
+        cache.put(HashCode.fromInt(1), 2)
+
+        then:
+        thrown(RuntimeException)
+        cache.get(HashCode.fromInt(1)) == null
+    }
+
+    private static HashCode key(String value) {
+        return Hashing.hashString(value)
+    }
+
+    private HashKeyedPersistentIndexedCache<Integer> createCache() {
+        return new HashKeyedPersistentIndexedCache<Integer>(cacheFile, BaseSerializerFactory.INTEGER_SERIALIZER, 16, 64)
+    }
+}
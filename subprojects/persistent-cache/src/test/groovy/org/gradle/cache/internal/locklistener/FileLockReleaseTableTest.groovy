@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.locklistener
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+
+class FileLockReleaseTableTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def "counts releases per lock file"() {
+        given:
+        def table = FileLockReleaseTable.open(tmpDir.file("releases.bin"))
+        def lockFile = tmpDir.file("a.lock")
+        def otherLockFile = tmpDir.file("b.lock")
+        def count = table.getReleaseCount(lockFile)
+        def otherCount = table.getReleaseCount(otherLockFile)
+
+        when:
+        table.released(lockFile)
+
+        then:
+        table.getReleaseCount(lockFile) == count + 1
+        table.getReleaseCount(otherLockFile) == otherCount
+    }
+
+    def "shares release counts between tables opened on the same file"() {
+        given:
+        def file = tmpDir.file("releases.bin")
+        def table = FileLockReleaseTable.open(file)
+        def other = FileLockReleaseTable.open(file)
+        def lockFile = tmpDir.file("a.lock")
+
+        when:
+        table.released(lockFile)
+        table.released(lockFile)
+
+        then:
+        other.getReleaseCount(lockFile) == 2
+    }
+
+    def "does not lose releases recorded concurrently through different tables"() {
+        given:
+        def file = tmpDir.file("releases.bin")
+        def tables = (1..4).collect { FileLockReleaseTable.open(file) }
+        def lockFile = tmpDir.file("a.lock")
+
+        when:
+        def threads = tables.collect { table ->
+            Thread.start {
+                1000.times { table.released(lockFile) }
+            }
+        }
+        threads*.join()
+
+        then:
+        tables[0].getReleaseCount(lockFile) == 4000
+    }
+
+    @Requires(TestPrecondition.FILE_PERMISSIONS)
+    def "creates table only accessible by its owner"() {
+        given:
+        def file = tmpDir.file("releases.bin")
+
+        when:
+        FileLockReleaseTable.open(file)
+
+        then:
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())) == "rw-------"
+    }
+
+    @Requires(TestPrecondition.FILE_PERMISSIONS)
+    def "does not use table accessible by other users"() {
+        given:
+        def file = tmpDir.file("releases.bin")
+        file.createFile()
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"))
+
+        when:
+        FileLockReleaseTable.open(file)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "File lock release table ${file} is accessible by other users."
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.log
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+
+class LogStructuredPersistentIndexedCacheTest extends ConcurrentSpec {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def cacheDir = tmpDir.file("caches")
+    def cache = createCache()
+
+    def cleanup() {
+        cache.close()
+    }
+
+    def "returns null for unknown entry"() {
+        expect:
+        cache.get("unknown") == null
+    }
+
+    def "can add, replace and remove entries"() {
+        when:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.put("a", 3)
+
+        then:
+        cache.get("a") == 3
+        cache.get("b") == 2
+
+        when:
+        cache.remove("a")
+        cache.remove("unknown")
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == 2
+    }
+
+    def "persists entries"() {
+        given:
+        (1..1000).each { cache.put("key$it".toString(), it) }
+        cache.remove("key10")
+        cache.close()
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("key1") == 1
+        cache.get("key1000") == 1000
+        cache.get("key10") == null
+        LogStructuredPersistentIndexedCache.exists(cacheDir, "cache")
+        !LogStructuredPersistentIndexedCache.exists(cacheDir, "other")
+    }
+
+    def "compacts stale records into the next generation"() {
+        when:
+        10.times { round ->
+            (1..1000).each { cache.put("key$it".toString(), round) }
+        }
+
+        then:
+        cache.get("key1") == 9
+        cacheDir.list() as List != ["cache-log.0.bin"]
+        cacheDir.list().size() == 1
+
+        when:
+        cache.close()
+        cache = createCache()
+
+        then:
+        cache.get("key1") == 9
+        cache.get("key1000") == 9
+    }
+
+    def "discards incomplete record at the end of the log"() {
+        given:
+        cache.put("a", 1)
+        cache.flush()
+        def logFile = cacheDir.file("cache-log.0.bin")
+        def checkpoint = readCheckpoint(logFile)
+        cache.put("b", 2)
+        cache.close()
+        def content = logFile.bytes
+        def end = content.length - 1
+        while (content[end] == 0) {
+            end--
+        }
+        // Simulate a crash before the checkpoint was advanced past the last record, and corrupt its checksum
+        content[end] = (byte) (content[end] + 1)
+        logFile.bytes = content
+        writeCheckpoint(logFile, checkpoint)
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == null
+
+        when:
+        cache.put("c", 3)
+        cache.close()
+        cache = createCache()
+
+        then:
+        cache.get("a") == 1
+        cache.get("c") == 3
+    }
+
+    def "flush advances the checkpoint past the appended records"() {
+        given:
+        def logFile = cacheDir.file("cache-log.0.bin")
+        def initialCheckpoint = readCheckpoint(logFile)
+
+        when:
+        cache.put("a", 1)
+
+        then:
+        readCheckpoint(logFile) == initialCheckpoint
+
+        when:
+        cache.flush()
+        def checkpoint = readCheckpoint(logFile)
+
+        then:
+        checkpoint > initialCheckpoint
+
+        when:
+        cache.flush()
+
+        then:
+        readCheckpoint(logFile) == checkpoint
+    }
+
+    def "validates all records when the checkpoint does not match the records"() {
+        given:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.close()
+        def logFile = cacheDir.file("cache-log.0.bin")
+        writeCheckpoint(logFile, readCheckpoint(logFile) - 1)
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == 2
+    }
+
+    def "discards log with unknown format"() {
+        given:
+        cache.put("a", 1)
+        cache.close()
+        cacheDir.file("cache-log.0.bin").text = "not a log"
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == null
+
+        when:
+        cache.put("a", 2)
+
+        then:
+        cache.get("a") == 2
+    }
+
+    def "readers see consistent values while entries are written"() {
+        given:
+        (1..100).each { cache.put("key$it".toString(), it) }
+
+        when:
+        async {
+            4.times {
+                start {
+                    10000.times { n ->
+                        def key = n % 100 + 1
+                        def value = cache.get("key$key".toString())
+                        assert value % 1000 == key
+                    }
+                }
+            }
+            start {
+                100.times { round ->
+                    (1..100).each { cache.put("key$it".toString(), round * 1000 + it) }
+                }
+            }
+        }
+
+        then:
+        cache.get("key1") == 99001
+    }
+
+    private static int readCheckpoint(File logFile) {
+        new RandomAccessFile(logFile, "r").withCloseable {
+            it.seek(8)
+            it.readInt()
+        }
+    }
+
+    private static void writeCheckpoint(File logFile, int checkpoint) {
+        new RandomAccessFile(logFile, "rw").withCloseable {
+            it.seek(8)
+            it.writeInt(checkpoint)
+        }
+    }
+
+    private LogStructuredPersistentIndexedCache<String, Integer> createCache() {
+        def serializerFactory = new BaseSerializerFactory()
+        return new LogStructuredPersistentIndexedCache<String, Integer>(cacheDir, "cache", serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(Integer), 16 * 1024)
+    }
+}
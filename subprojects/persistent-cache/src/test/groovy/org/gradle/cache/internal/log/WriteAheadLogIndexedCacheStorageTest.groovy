@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.log
+
+import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class WriteAheadLogIndexedCacheStorageTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def logFile = tmpDir.file("cache.wal")
+    def btreeFile = tmpDir.file("cache.bin")
+
+    def "keeps updates in the log until it is folded"() {
+        given:
+        def storage = createStorage()
+
+        when:
+        (1..100).each { storage.put("key$it".toString(), it) }
+        storage.remove("key5")
+
+        then:
+        storage.get("key7") == 7
+        storage.get("key5") == null
+
+        when:
+        storage.close()
+
+        then:
+        !btreeFile.exists()
+
+        when:
+        storage = createStorage()
+
+        then:
+        storage.get("key100") == 100
+        storage.get("key5") == null
+
+        cleanup:
+        storage.close()
+    }
+
+    def "folds updates into the backing storage once the log is large enough"() {
+        given:
+        def storage = createStorage(100)
+
+        when:
+        (1..100).each { storage.put("key$it".toString(), it) }
+        storage.remove("key5")
+        (101..110).each { storage.put("key$it".toString(), it) }
+
+        then:
+        logFile.length() <= 100
+        storage.get("key5") == null
+        storage.get("key100") == 100
+
+        when:
+        storage.close()
+
+        then:
+        def btree = createBTree()
+        btree.get("key100") == 100
+        btree.get("key5") == null
+
+        cleanup:
+        btree?.close()
+    }
+
+    def "flushed updates are visible without closing the storage"() {
+        given:
+        def storage = createStorage()
+        storage.put("a", 1)
+        storage.remove("b")
+
+        when:
+        storage.flush()
+        def other = createStorage()
+
+        then:
+        other.get("a") == 1
+        !btreeFile.exists()
+
+        cleanup:
+        other?.close()
+        storage.close()
+    }
+
+    def "discards torn record at the end of the log"() {
+        given:
+        def storage = createStorage()
+        storage.put("a", 1)
+        storage.close()
+        logFile << ([1, 0, 0, 0, 9] as byte[])
+
+        when:
+        storage = createStorage()
+        storage.put("b", 2)
+        storage.close()
+        storage = createStorage()
+
+        then:
+        storage.get("a") == 1
+        storage.get("b") == 2
+
+        cleanup:
+        storage.close()
+    }
+
+    def "keeps updates when backing storage is discarded"() {
+        given:
+        def storage = createStorage()
+        storage.put("a", 1)
+        storage.close()
+        btreeFile.text = ""
+
+        when:
+        storage = createStorage()
+
+        then:
+        storage.get("a") == 1
+        storage.get("unknown") == null
+
+        cleanup:
+        storage.close()
+    }
+
+    def "discards log with unknown header"() {
+        given:
+        logFile.text = "not a log"
+
+        when:
+        def storage = createStorage()
+
+        then:
+        storage.get("a") == null
+
+        cleanup:
+        storage.close()
+    }
+
+    private WriteAheadLogIndexedCacheStorage<String, Integer> createStorage(long foldThreshold = 1024 * 1024) {
+        return new WriteAheadLogIndexedCacheStorage<String, Integer>(logFile, { createBTree() }, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.INTEGER_SERIALIZER, foldThreshold)
+    }
+
+    private BTreePersistentIndexedCache<String, Integer> createBTree() {
+        return new BTreePersistentIndexedCache<String, Integer>(btreeFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.INTEGER_SERIALIZER)
+    }
+}
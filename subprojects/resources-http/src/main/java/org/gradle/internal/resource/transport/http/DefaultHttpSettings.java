@@ -44,6 +44,7 @@ public class DefaultHttpSettings implements HttpSettings {
     private HttpProxySettings proxySettings;
     private HttpProxySettings secureProxySettings;
     private HttpTimeoutSettings timeoutSettings;
+    private HttpConnectionPoolSettings connectionPoolSettings;
 
     public static Builder builder() {
         return new Builder();
@@ -86,6 +87,14 @@ public HttpTimeoutSettings getTimeoutSettings() {
         return timeoutSettings;
     }
 
+    @Override
+    public HttpConnectionPoolSettings getConnectionPoolSettings() {
+        if (connectionPoolSettings == null) {
+            connectionPoolSettings = new JavaSystemPropertiesHttpConnectionPoolSettings();
+        }
+        return connectionPoolSettings;
+    }
+
     @Override
     public boolean isFollowRedirects() {
         return followRedirects;
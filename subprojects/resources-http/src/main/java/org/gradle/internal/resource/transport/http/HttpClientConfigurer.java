@@ -90,7 +90,6 @@
 public class HttpClientConfigurer {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpClientConfigurer.class);
     private static final String HTTPS_PROTOCOLS = "https.protocols";
-    private static final int MAX_HTTP_CONNECTIONS = 20;
 
     /**
      * Determines the HTTPS protocols to support for the client.
@@ -149,9 +148,14 @@ public void configure(HttpClientBuilder builder) {
         configureRequestConfig(builder);
         configureSocketConfig(builder);
         configureRedirectStrategy(builder);
+        configureConnectionPool(builder);
         builder.setDefaultCredentialsProvider(credentialsProvider);
-        builder.setMaxConnTotal(MAX_HTTP_CONNECTIONS);
-        builder.setMaxConnPerRoute(MAX_HTTP_CONNECTIONS);
+    }
+
+    private void configureConnectionPool(HttpClientBuilder builder) {
+        HttpConnectionPoolSettings connectionPoolSettings = httpSettings.getConnectionPoolSettings();
+        builder.setMaxConnTotal(connectionPoolSettings.getMaxConnections());
+        builder.setMaxConnPerRoute(connectionPoolSettings.getMaxConnectionsPerHost());
     }
 
     private void configureSslSocketConnectionFactory(HttpClientBuilder builder, SslContextFactory sslContextFactory, HostnameVerifier hostnameVerifier) {
@@ -29,6 +29,8 @@ public interface HttpSettings {
 
     HttpTimeoutSettings getTimeoutSettings();
 
+    HttpConnectionPoolSettings getConnectionPoolSettings();
+
     boolean isFollowRedirects();
 
     HttpRedirectVerifier getRedirectVerifier();
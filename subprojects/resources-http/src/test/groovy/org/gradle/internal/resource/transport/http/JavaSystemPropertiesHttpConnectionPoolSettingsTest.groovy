@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.resource.transport.http
+
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
+import spock.lang.Specification
+
+import static org.gradle.internal.resource.transport.http.JavaSystemPropertiesHttpConnectionPoolSettings.*
+
+class JavaSystemPropertiesHttpConnectionPoolSettingsTest extends Specification {
+
+    @Rule SetSystemProperties setSystemProperties = new SetSystemProperties()
+
+    def "can retrieve default values"() {
+        def settings = new JavaSystemPropertiesHttpConnectionPoolSettings()
+
+        expect:
+        settings.maxConnectionsPerHost == DEFAULT_MAX_CONNECTIONS
+        settings.maxConnections == DEFAULT_MAX_CONNECTIONS
+    }
+
+    def "can parse custom value from system property"() {
+        System.setProperty(MAX_CONNECTIONS_PER_HOST_SYSTEM_PROPERTY, "8")
+        System.setProperty(MAX_CONNECTIONS_SYSTEM_PROPERTY, "64")
+        def settings = new JavaSystemPropertiesHttpConnectionPoolSettings()
+
+        expect:
+        settings.maxConnectionsPerHost == 8
+        settings.maxConnections == 64
+    }
+
+    def "total connections are at least connections per host"() {
+        System.setProperty(MAX_CONNECTIONS_PER_HOST_SYSTEM_PROPERTY, "64")
+        def settings = new JavaSystemPropertiesHttpConnectionPoolSettings()
+
+        expect:
+        settings.maxConnectionsPerHost == 64
+        settings.maxConnections == 64
+    }
+
+    def "uses default value if provided limit is not valid"() {
+        System.setProperty(MAX_CONNECTIONS_PER_HOST_SYSTEM_PROPERTY, limit)
+        def settings = new JavaSystemPropertiesHttpConnectionPoolSettings()
+
+        expect:
+        settings.maxConnectionsPerHost == DEFAULT_MAX_CONNECTIONS
+
+        where:
+        limit << ["", "abc", "0", "-1"]
+    }
+}
@@ -1,6 +1,7 @@
 plugins {
     id("gradlebuild.distribution.implementation-java")
     id("gradlebuild.publish-public-libraries")
+    id("gradlebuild.jmh")
 }
 
 description = "Tools to take immutable, comparable snapshots of files and other things"
@@ -20,6 +21,7 @@ dependencies {
     testImplementation(project(":persistent-cache"))
     testImplementation(libs.ant)
     testImplementation(libs.commonsIo)
+    testImplementation(libs.nativePlatform)
     testImplementation(testFixtures(project(":core")))
     testImplementation(testFixtures(project(":core-api")))
     testImplementation(testFixtures(project(":base-services")))
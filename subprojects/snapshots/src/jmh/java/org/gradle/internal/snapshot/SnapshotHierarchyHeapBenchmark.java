@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder.EmptyDirectoryHandlingStrategy.INCLUDE_EMPTY_DIRS;
+
+/**
+ * Measures the heap retained by a {@link SnapshotHierarchy} holding a large source tree.
+ *
+ * The retained bytes per file are reported as the {@code retainedBytesPerFile} secondary result.
+ * The {@code previous} layout stores the same tree the way it was stored before child maps and hash codes were compacted,
+ * so the two layouts can be compared in the same run.
+ */
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xmx2g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@State(Scope.Benchmark)
+public class SnapshotHierarchyHeapBenchmark {
+    private static final String ROOT = "/home/user/project";
+    private static final int PACKAGES_PER_MODULE = 20;
+
+    @Param({"100", "500"})
+    int modules;
+
+    @Param({"50"})
+    int filesPerPackage;
+
+    @Param({"compact", "previous"})
+    String layout;
+
+    String[] fileNames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fileNames = new String[filesPerPackage];
+        for (int i = 0; i < filesPerPackage; i++) {
+            fileNames[i] = "File" + i + ".java";
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedHeap {
+        public long retainedBytesPerFile;
+    }
+
+    @Benchmark
+    public SnapshotHierarchy storeHierarchy(RetainedHeap retainedHeap) {
+        long before = usedHeap();
+        FileSystemLocationSnapshot snapshot = snapshotTree();
+        if (layout.equals("previous")) {
+            snapshot = withPreviousLayout(snapshot);
+        }
+        SnapshotHierarchy hierarchy = DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)
+            .store(ROOT, snapshot, SnapshotHierarchy.NodeDiffListener.NOOP);
+        long after = usedHeap();
+        retainedHeap.retainedBytesPerFile = (after - before) / ((long) modules * PACKAGES_PER_MODULE * filesPerPackage);
+        return hierarchy;
+    }
+
+    private FileSystemLocationSnapshot snapshotTree() {
+        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+        builder.enterDirectory(AccessType.DIRECT, ROOT, "project", INCLUDE_EMPTY_DIRS);
+        for (int module = 0; module < modules; module++) {
+            String moduleName = "module" + module;
+            String modulePath = ROOT + "/" + moduleName;
+            builder.enterDirectory(AccessType.DIRECT, modulePath, moduleName, INCLUDE_EMPTY_DIRS);
+            for (int pkg = 0; pkg < PACKAGES_PER_MODULE; pkg++) {
+                String packageName = "pkg" + pkg;
+                String packagePath = modulePath + "/" + packageName;
+                builder.enterDirectory(AccessType.DIRECT, packagePath, packageName, INCLUDE_EMPTY_DIRS);
+                for (int file = 0; file < filesPerPackage; file++) {
+                    String fileName = fileNames[file];
+                    String filePath = packagePath + "/" + fileName;
+                    builder.visitLeafElement(new RegularFileSnapshot(filePath, fileName, Hashing.hashString(filePath), DefaultFileMetadata.file(file, file, AccessType.DIRECT)));
+                }
+                builder.leaveDirectory();
+            }
+            builder.leaveDirectory();
+        }
+        builder.leaveDirectory();
+        return builder.getResult();
+    }
+
+    private static FileSystemLocationSnapshot withPreviousLayout(FileSystemLocationSnapshot snapshot) {
+        return snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotTransformer<FileSystemLocationSnapshot>() {
+            @Override
+            public FileSystemLocationSnapshot visitDirectory(DirectorySnapshot directorySnapshot) {
+                List<ChildMap.Entry<FileSystemLocationSnapshot>> entries = directorySnapshot.getChildren().stream()
+                    .map(child -> new ChildMap.Entry<>(child.getName(), withPreviousLayout(child)))
+                    .collect(Collectors.toList());
+                return new DirectorySnapshot(directorySnapshot.getAbsolutePath(), directorySnapshot.getName(), directorySnapshot.getAccessType(), previousHash(directorySnapshot.getHash()), new EntryListChildMap<>(entries));
+            }
+
+            @Override
+            public FileSystemLocationSnapshot visitRegularFile(RegularFileSnapshot fileSnapshot) {
+                return new RegularFileSnapshot(fileSnapshot.getAbsolutePath(), fileSnapshot.getName(), previousHash(fileSnapshot.getHash()), fileSnapshot.getMetadata());
+            }
+
+            @Override
+            public FileSystemLocationSnapshot visitMissing(MissingFileSnapshot missingSnapshot) {
+                return missingSnapshot;
+            }
+        });
+    }
+
+    /**
+     * Hash codes used to keep their bytes in a separate array.
+     * With compressed references, an array of 15 bytes is padded to the same 32 bytes as the array of a 16 byte hash,
+     * and it is still backed by an array instead of two longs.
+     */
+    private static HashCode previousHash(HashCode hash) {
+        return HashCode.fromBytes(Arrays.copyOf(hash.toByteArray(), 15));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The child map layout used before the compaction, with an {@link ChildMap.Entry} per child.
+     *
+     * Only supports what is needed to store a complete snapshot in the hierarchy.
+     */
+    private static class EntryListChildMap<T> implements ChildMap<T> {
+        private final List<Entry<T>> entries;
+
+        EntryListChildMap(List<Entry<T>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public List<T> values() {
+            return entries.stream()
+                .map(Entry::getValue)
+                .collect(Collectors.toList());
+        }
+
+        @Override
+        public List<Entry<T>> entries() {
+            return entries;
+        }
+
+        @Override
+        public void visitChildren(BiConsumer<String, ? super T> visitor) {
+            for (Entry<T> entry : entries) {
+                visitor.accept(entry.getPath(), entry.getValue());
+            }
+        }
+
+        @Override
+        public boolean anyMatch(Predicate<? super T> predicate) {
+            for (Entry<T> entry : entries) {
+                if (predicate.test(entry.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public <RESULT> RESULT withNode(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, NodeHandler<T, RESULT> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <RESULT> ChildMap<RESULT> invalidate(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, InvalidationHandler<T, RESULT> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ChildMap<T> store(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, StoreHandler<T> storeHandler) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -19,7 +19,6 @@
 import org.gradle.internal.file.FileType;
 
 import java.util.Optional;
-import java.util.function.Predicate;
 
 public abstract class AbstractIncompleteFileSystemNode implements FileSystemNode {
     protected final ChildMap<FileSystemNode> children;
@@ -102,7 +101,7 @@ public FileSystemNode createChild() {
 
             @Override
             public FileSystemNode createNodeFromChildren(ChildMap<FileSystemNode> children) {
-                boolean isDirectory = anyChildMatches(children, node -> node.getSnapshot().map(this::isRegularFileOrDirectory).orElse(false));
+                boolean isDirectory = children.anyMatch(node -> node.getSnapshot().map(this::isRegularFileOrDirectory).orElse(false));
                 return isDirectory ? new PartialDirectoryNode(children) : new UnknownFileSystemNode(children);
             }
 
@@ -148,12 +147,6 @@ public void accept(SnapshotHierarchy.SnapshotVisitor snapshotVisitor) {
 
     @Override
     public boolean hasDescendants() {
-        return anyChildMatches(children, FileSystemNode::hasDescendants);
-    }
-
-    private static boolean anyChildMatches(ChildMap<FileSystemNode> children, Predicate<FileSystemNode> predicate) {
-        return children.entries().stream()
-            .map(ChildMap.Entry::getValue)
-            .anyMatch(predicate);
+        return children.anyMatch(FileSystemNode::hasDescendants);
     }
 }
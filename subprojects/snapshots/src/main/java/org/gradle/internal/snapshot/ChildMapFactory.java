@@ -32,6 +32,12 @@ public class ChildMapFactory {
      */
     private static final int MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH = 10;
 
+    /**
+     * If a node has at least this many children, we look up the child by the hash of its first segment, see {@link HashTrieChildMap}.
+     * For fewer children, the binary search is as fast, and the sorted array takes less memory.
+     */
+    private static final int MINIMUM_CHILD_COUNT_FOR_HASH_TRIE = 256;
+
     public static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, Collection<ChildMap.Entry<T>> entries) {
         List<ChildMap.Entry<T>> sortedEntries = new ArrayList<>(entries);
         sortedEntries.sort(Comparator.comparing(ChildMap.Entry::getPath, PathUtil.getPathComparator(caseSensitivity)));
@@ -46,12 +52,45 @@ public static <T> ChildMap<T> childMapFromSorted(List<ChildMap.Entry<T>> sortedE
             case 1:
                 return new SingletonChildMap<>(sortedEntries.get(0));
             default:
-                return (size < MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH)
-                    ? new MediumChildMap<>(sortedEntries)
-                    : new LargeChildMap<>(sortedEntries);
+                if (size < MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH) {
+                    return new MediumChildMap<>(sortedEntries);
+                }
+                if (usesHashTrie(size)) {
+                    String[] sortedPaths = new String[size];
+                    @SuppressWarnings("unchecked")
+                    T[] children = (T[]) new Object[size];
+                    for (int i = 0; i < size; i++) {
+                        ChildMap.Entry<T> entry = sortedEntries.get(i);
+                        sortedPaths[i] = entry.getPath();
+                        children[i] = entry.getValue();
+                    }
+                    return new HashTrieChildMap<>(sortedPaths, children);
+                }
+                return new LargeChildMap<>(sortedEntries);
         }
     }
 
+    static <T> ChildMap<T> childMapFromSorted(String[] sortedPaths, T[] children) {
+        int size = sortedPaths.length;
+        switch (size) {
+            case 0:
+                return EmptyChildMap.getInstance();
+            case 1:
+                return new SingletonChildMap<>(sortedPaths[0], children[0]);
+            default:
+                if (size < MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH) {
+                    return new MediumChildMap<>(sortedPaths, children);
+                }
+                return usesHashTrie(size)
+                    ? new HashTrieChildMap<>(sortedPaths, children)
+                    : new LargeChildMap<>(sortedPaths, children);
+        }
+    }
+
+    static boolean usesHashTrie(int childCount) {
+        return childCount >= MINIMUM_CHILD_COUNT_FOR_HASH_TRIE;
+    }
+
     static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, ChildMap.Entry<T> entry1, ChildMap.Entry<T> entry2) {
         int compared = PathUtil.getPathComparator(caseSensitivity).compare(entry1.getPath(), entry2.getPath());
         List<ChildMap.Entry<T>> sortedEntries = compared < 0
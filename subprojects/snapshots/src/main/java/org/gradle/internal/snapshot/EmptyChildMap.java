@@ -19,6 +19,7 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 public class EmptyChildMap<T> implements ChildMap<T> {
     private static final EmptyChildMap<Object> INSTANCE = new EmptyChildMap<>();
@@ -51,6 +52,11 @@ public ChildMap<T> store(VfsRelativePath targetPath, CaseSensitivity caseSensiti
     public void visitChildren(BiConsumer<String, ? super T> visitor) {
     }
 
+    @Override
+    public boolean anyMatch(Predicate<? super T> predicate) {
+        return false;
+    }
+
     @Override
     public boolean isEmpty() {
         return true;
@@ -0,0 +1,603 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.snapshot;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * A child map for directories with a lot of children, backed by a persistent hash trie.
+ *
+ * Children are found by the hash of the first segment of their path, see {@link PathUtil#hashCodeOfFirstSegment(String, int)},
+ * so a lookup doesn't need to compare the target path to other children.
+ * Updates only copy the trie nodes on the way to the updated child, all the other nodes are shared with the original map.
+ *
+ * The trie is a compressed hash-array mapped prefix tree (CHAMP): each node holds the children in its slots directly,
+ * and only uses a sub-node when more than one child falls into the same slot.
+ *
+ * Children are still visited in the order defined by {@link PathUtil}.
+ * The sorted order is not kept, it is computed by the methods which need it, like {@link #visitChildren(BiConsumer)}.
+ * Checks which don't depend on the order, like {@link #anyMatch(Predicate)}, walk the trie directly.
+ */
+public class HashTrieChildMap<T> implements ChildMap<T> {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    private static final int HASH_CODE_LENGTH = 32;
+
+    /**
+     * When the children of the map differ ignoring the case, both comparators return the same result.
+     * That is always the case for case-insensitive file systems, so we can use the case-sensitive comparator for sorting.
+     */
+    private static final Comparator<String> PATH_COMPARATOR = PathUtil.getPathComparator(CaseSensitivity.CASE_SENSITIVE);
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * Creates a child map from sorted paths and their children.
+     */
+    HashTrieChildMap(String[] sortedPaths, T[] children) {
+        int size = sortedPaths.length;
+        int[] hashes = new int[size];
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = hashOf(sortedPaths[i]);
+            indices[i] = i;
+        }
+        this.root = buildNode(hashes, sortedPaths, children, indices, 0);
+        this.size = size;
+    }
+
+    private HashTrieChildMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public List<T> values() {
+        return new ArrayList<>(Arrays.asList(sortChildren().children));
+    }
+
+    @Override
+    public List<Entry<T>> entries() {
+        return sortEntries();
+    }
+
+    @Override
+    public void visitChildren(BiConsumer<String, ? super T> visitor) {
+        for (Entry<T> entry : sortEntries()) {
+            visitor.accept(entry.getPath(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean anyMatch(Predicate<? super T> predicate) {
+        return root.anyMatch(child -> predicate.test((T) child));
+    }
+
+    @Override
+    public <RESULT> RESULT withNode(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, NodeHandler<T, RESULT> handler) {
+        Entry<T> child = findChild(targetPath, caseSensitivity);
+        return child == null
+            ? handler.handleUnrelatedToAnyChild()
+            : Entry.withNode(child.getPath(), child.getValue(), targetPath, caseSensitivity, handler);
+    }
+
+    @Override
+    public <RESULT> ChildMap<RESULT> invalidate(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, InvalidationHandler<T, RESULT> handler) {
+        Entry<T> child = findChild(targetPath, caseSensitivity);
+        if (child == null) {
+            handler.handleUnrelatedToAnyChild();
+            return castThis();
+        }
+        String childPath = child.getPath();
+        return Entry.withNode(childPath, child.getValue(), targetPath, caseSensitivity, new AbstractInvalidateChildHandler<T, RESULT>(handler) {
+            @Override
+            public HashTrieChildMap<RESULT> getChildMap() {
+                return castThis();
+            }
+
+            @Override
+            public ChildMap<RESULT> withReplacedChild(RESULT newChild) {
+                return withReplacedChild(childPath, newChild);
+            }
+
+            @Override
+            public ChildMap<RESULT> withReplacedChild(String newChildPath, RESULT newChild) {
+                return getChildMap().withReplacedChild(childPath, newChildPath, newChild);
+            }
+
+            @Override
+            public ChildMap<RESULT> withRemovedChild() {
+                return getChildMap().withRemovedChild(childPath);
+            }
+        });
+    }
+
+    @Override
+    public ChildMap<T> store(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, StoreHandler<T> storeHandler) {
+        Entry<T> child = findChild(targetPath, caseSensitivity);
+        if (child == null) {
+            return withNewChild(targetPath.getAsString(), storeHandler.createChild());
+        }
+        String childPath = child.getPath();
+        return Entry.handlePath(childPath, child.getValue(), targetPath, caseSensitivity, new AbstractStorePathRelationshipHandler<T>(caseSensitivity, storeHandler) {
+            @Override
+            public ChildMap<T> withReplacedChild(T newChild) {
+                return withReplacedChild(childPath, newChild);
+            }
+
+            @Override
+            public ChildMap<T> withReplacedChild(String newChildPath, T newChild) {
+                return HashTrieChildMap.this.withReplacedChild(childPath, newChildPath, newChild);
+            }
+
+            @Override
+            public ChildMap<T> withNewChild(String newChildPath, T newChild) {
+                return HashTrieChildMap.this.withNewChild(newChildPath, newChild);
+            }
+        });
+    }
+
+    @Nullable
+    private Entry<T> findChild(VfsRelativePath targetPath, CaseSensitivity caseSensitivity) {
+        int hash = spread(targetPath.hashCodeOfFirstSegment());
+        Node node = root;
+        for (int shift = 0; ; shift += BITS_PER_LEVEL) {
+            if (node instanceof CollisionNode) {
+                Object[] content = ((CollisionNode) node).content;
+                for (int i = 0; i < content.length; i += 2) {
+                    Entry<T> child = matchingChild(content, i, targetPath, caseSensitivity);
+                    if (child != null) {
+                        return child;
+                    }
+                }
+                return null;
+            }
+            BitmapNode bitmapNode = (BitmapNode) node;
+            int bit = bitpos(hash, shift);
+            if ((bitmapNode.dataMap & bit) != 0) {
+                return matchingChild(bitmapNode.content, 2 * index(bitmapNode.dataMap, bit), targetPath, caseSensitivity);
+            }
+            if ((bitmapNode.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = bitmapNode.nodeAt(bit);
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T> matchingChild(Object[] content, int pathIndex, VfsRelativePath targetPath, CaseSensitivity caseSensitivity) {
+        String path = (String) content[pathIndex];
+        return targetPath.compareToFirstSegment(path, caseSensitivity) == 0
+            ? new Entry<>(path, (T) content[pathIndex + 1])
+            : null;
+    }
+
+    private <RESULT> ChildMap<RESULT> withReplacedChild(String childPath, String newChildPath, RESULT newChild) {
+        Node newRoot = root.put(hashOf(childPath), 0, childPath, newChildPath, newChild);
+        return newRoot == root
+            ? castThis()
+            : new HashTrieChildMap<>(newRoot, size);
+    }
+
+    private ChildMap<T> withNewChild(String newChildPath, T newChild) {
+        return new HashTrieChildMap<>(root.put(hashOf(newChildPath), 0, null, newChildPath, newChild), size + 1);
+    }
+
+    private <RESULT> ChildMap<RESULT> withRemovedChild(String childPath) {
+        HashTrieChildMap<RESULT> newChildMap = new HashTrieChildMap<>(root.remove(hashOf(childPath), 0, childPath), size - 1);
+        if (ChildMapFactory.usesHashTrie(newChildMap.size)) {
+            return newChildMap;
+        }
+        SortedChildren<RESULT> sortedChildren = newChildMap.sortChildren();
+        return ChildMapFactory.childMapFromSorted(sortedChildren.paths, sortedChildren.children);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<T>> sortEntries() {
+        List<Entry<T>> entries = new ArrayList<>(size);
+        root.visit((path, child) -> entries.add(new Entry<>(path, (T) child)));
+        entries.sort(Comparator.comparing(Entry::getPath, PATH_COMPARATOR));
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SortedChildren<T> sortChildren() {
+        List<Entry<T>> entries = sortEntries();
+        String[] paths = new String[size];
+        T[] children = (T[]) new Object[size];
+        for (int i = 0; i < size; i++) {
+            Entry<T> entry = entries.get(i);
+            paths[i] = entry.getPath();
+            children[i] = entry.getValue();
+        }
+        return new SortedChildren<>(paths, children);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <RESULT> HashTrieChildMap<RESULT> castThis() {
+        return (HashTrieChildMap<RESULT>) this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        HashTrieChildMap<?> that = (HashTrieChildMap<?>) o;
+        return size == that.size && sortEntries().equals(that.sortEntries());
+    }
+
+    @Override
+    public int hashCode() {
+        // Independent of the order of the children, so we don't need to sort them
+        int[] hashCode = {0};
+        root.visit((path, child) -> hashCode[0] += path.hashCode() ^ child.hashCode());
+        return hashCode[0];
+    }
+
+    @Override
+    public String toString() {
+        return entries().toString();
+    }
+
+    private static int hashOf(String path) {
+        return spread(PathUtil.hashCodeOfFirstSegment(path, 0));
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int mask(int hash, int shift) {
+        return (hash >>> shift) & LEVEL_MASK;
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << mask(hash, shift);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * Builds the trie for the given children in one go, without creating intermediate nodes.
+     */
+    private static Node buildNode(int[] hashes, String[] paths, Object[] children, int[] indices, int shift) {
+        if (shift >= HASH_CODE_LENGTH) {
+            Object[] content = new Object[2 * indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                content[2 * i] = paths[indices[i]];
+                content[2 * i + 1] = children[indices[i]];
+            }
+            return new CollisionNode(content);
+        }
+        int[] slotStarts = new int[LEVEL_MASK + 2];
+        for (int index : indices) {
+            slotStarts[mask(hashes[index], shift) + 1]++;
+        }
+        int dataMap = 0;
+        int nodeMap = 0;
+        for (int slot = 0; slot <= LEVEL_MASK; slot++) {
+            int count = slotStarts[slot + 1];
+            if (count == 1) {
+                dataMap |= 1 << slot;
+            } else if (count > 1) {
+                nodeMap |= 1 << slot;
+            }
+            slotStarts[slot + 1] += slotStarts[slot];
+        }
+        int[] indicesBySlot = new int[indices.length];
+        int[] nextPositions = Arrays.copyOf(slotStarts, LEVEL_MASK + 1);
+        for (int index : indices) {
+            indicesBySlot[nextPositions[mask(hashes[index], shift)]++] = index;
+        }
+
+        Object[] content = new Object[2 * Integer.bitCount(dataMap) + Integer.bitCount(nodeMap)];
+        int dataIndex = 0;
+        int nodeIndex = 0;
+        for (int slot = 0; slot <= LEVEL_MASK; slot++) {
+            int start = slotStarts[slot];
+            int end = slotStarts[slot + 1];
+            if (end - start == 1) {
+                content[2 * dataIndex] = paths[indicesBySlot[start]];
+                content[2 * dataIndex + 1] = children[indicesBySlot[start]];
+                dataIndex++;
+            } else if (end - start > 1) {
+                content[content.length - 1 - nodeIndex] = buildNode(hashes, paths, children, Arrays.copyOfRange(indicesBySlot, start, end), shift + BITS_PER_LEVEL);
+                nodeIndex++;
+            }
+        }
+        return new BitmapNode(dataMap, nodeMap, content);
+    }
+
+    private static Node mergeTwoChildren(int hash1, String path1, Object child1, int hash2, String path2, Object child2, int shift) {
+        if (shift >= HASH_CODE_LENGTH) {
+            return new CollisionNode(new Object[]{path1, child1, path2, child2});
+        }
+        int mask1 = mask(hash1, shift);
+        int mask2 = mask(hash2, shift);
+        if (mask1 != mask2) {
+            Object[] content = mask1 < mask2
+                ? new Object[]{path1, child1, path2, child2}
+                : new Object[]{path2, child2, path1, child1};
+            return new BitmapNode((1 << mask1) | (1 << mask2), 0, content);
+        }
+        Node subNode = mergeTwoChildren(hash1, path1, child1, hash2, path2, child2, shift + BITS_PER_LEVEL);
+        return new BitmapNode(0, 1 << mask1, new Object[]{subNode});
+    }
+
+    private static Node singleChildNode(String path, Object child) {
+        // A node with a single child is always inlined into its parent, unless it becomes the root of the trie
+        return new BitmapNode(bitpos(hashOf(path), 0), 0, new Object[]{path, child});
+    }
+
+    private static final class SortedChildren<T> {
+        private final String[] paths;
+        private final T[] children;
+
+        SortedChildren(String[] paths, T[] children) {
+            this.paths = paths;
+            this.children = children;
+        }
+    }
+
+    private static abstract class Node {
+        /**
+         * Replaces the child with the path {@code replacedPath}, or adds a new child when {@code replacedPath} is {@code null}.
+         */
+        abstract Node put(int hash, int shift, @Nullable String replacedPath, String path, Object child);
+
+        /**
+         * Removes the child with the given path, which must be in the trie.
+         */
+        abstract Node remove(int hash, int shift, String path);
+
+        abstract boolean hasSingleChild();
+
+        abstract void visit(BiConsumer<String, Object> visitor);
+
+        abstract boolean anyMatch(Predicate<Object> predicate);
+    }
+
+    private static final class BitmapNode extends Node {
+        private final int dataMap;
+        private final int nodeMap;
+        /**
+         * The paths and children stored in this node, followed by the sub-nodes in reverse order.
+         */
+        private final Object[] content;
+
+        BitmapNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        Node nodeAt(int bit) {
+            return (Node) content[content.length - 1 - index(nodeMap, bit)];
+        }
+
+        @Override
+        Node put(int hash, int shift, @Nullable String replacedPath, String path, Object child) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int pathIndex = 2 * index(dataMap, bit);
+                String existingPath = (String) content[pathIndex];
+                Object existingChild = content[pathIndex + 1];
+                if (existingPath.equals(replacedPath)) {
+                    if (existingPath.equals(path) && existingChild.equals(child)) {
+                        return this;
+                    }
+                    Object[] newContent = content.clone();
+                    newContent[pathIndex] = path;
+                    newContent[pathIndex + 1] = child;
+                    return new BitmapNode(dataMap, nodeMap, newContent);
+                }
+                Node subNode = mergeTwoChildren(hashOf(existingPath), existingPath, existingChild, hash, path, child, shift + BITS_PER_LEVEL);
+                return withChildMovedToSubNode(bit, pathIndex, subNode);
+            }
+            if ((nodeMap & bit) != 0) {
+                Node subNode = nodeAt(bit);
+                Node newSubNode = subNode.put(hash, shift + BITS_PER_LEVEL, replacedPath, path, child);
+                return newSubNode == subNode
+                    ? this
+                    : withReplacedSubNode(bit, newSubNode);
+            }
+            int pathIndex = 2 * index(dataMap, bit);
+            Object[] newContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, newContent, 0, pathIndex);
+            newContent[pathIndex] = path;
+            newContent[pathIndex + 1] = child;
+            System.arraycopy(content, pathIndex, newContent, pathIndex + 2, content.length - pathIndex);
+            return new BitmapNode(dataMap | bit, nodeMap, newContent);
+        }
+
+        @Override
+        Node remove(int hash, int shift, String path) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int pathIndex = 2 * index(dataMap, bit);
+                if (nodeMap == 0 && Integer.bitCount(dataMap) == 2) {
+                    int remainingIndex = pathIndex == 0 ? 2 : 0;
+                    return singleChildNode((String) content[remainingIndex], content[remainingIndex + 1]);
+                }
+                Object[] newContent = new Object[content.length - 2];
+                System.arraycopy(content, 0, newContent, 0, pathIndex);
+                System.arraycopy(content, pathIndex + 2, newContent, pathIndex, content.length - pathIndex - 2);
+                return new BitmapNode(dataMap ^ bit, nodeMap, newContent);
+            }
+            Node newSubNode = nodeAt(bit).remove(hash, shift + BITS_PER_LEVEL, path);
+            if (!newSubNode.hasSingleChild()) {
+                return withReplacedSubNode(bit, newSubNode);
+            }
+            if (dataMap == 0 && Integer.bitCount(nodeMap) == 1) {
+                // Let the parent inline the remaining child
+                return newSubNode;
+            }
+            Object[] remainingChild = ((BitmapNode) newSubNode).content;
+            return withSubNodeInlined(bit, (String) remainingChild[0], remainingChild[1]);
+        }
+
+        @Override
+        boolean hasSingleChild() {
+            return nodeMap == 0 && Integer.bitCount(dataMap) == 1;
+        }
+
+        @Override
+        void visit(BiConsumer<String, Object> visitor) {
+            int dataLength = 2 * Integer.bitCount(dataMap);
+            for (int i = 0; i < dataLength; i += 2) {
+                visitor.accept((String) content[i], content[i + 1]);
+            }
+            for (int i = dataLength; i < content.length; i++) {
+                ((Node) content[i]).visit(visitor);
+            }
+        }
+
+        @Override
+        boolean anyMatch(Predicate<Object> predicate) {
+            int dataLength = 2 * Integer.bitCount(dataMap);
+            for (int i = 1; i < dataLength; i += 2) {
+                if (predicate.test(content[i])) {
+                    return true;
+                }
+            }
+            for (int i = dataLength; i < content.length; i++) {
+                if (((Node) content[i]).anyMatch(predicate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Node withReplacedSubNode(int bit, Node newSubNode) {
+            Object[] newContent = content.clone();
+            newContent[content.length - 1 - index(nodeMap, bit)] = newSubNode;
+            return new BitmapNode(dataMap, nodeMap, newContent);
+        }
+
+        private Node withChildMovedToSubNode(int bit, int pathIndex, Node subNode) {
+            int oldNodeIndex = content.length - 1 - index(nodeMap, bit);
+            // The new content is two elements shorter, and the sub-node is inserted before the moved sub-nodes
+            int newNodeIndex = oldNodeIndex - 2 + 1;
+            Object[] newContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, newContent, 0, pathIndex);
+            System.arraycopy(content, pathIndex + 2, newContent, pathIndex, oldNodeIndex + 1 - pathIndex - 2);
+            newContent[newNodeIndex] = subNode;
+            System.arraycopy(content, oldNodeIndex + 1, newContent, newNodeIndex + 1, content.length - oldNodeIndex - 1);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, newContent);
+        }
+
+        private Node withSubNodeInlined(int bit, String path, Object child) {
+            int oldNodeIndex = content.length - 1 - index(nodeMap, bit);
+            int pathIndex = 2 * index(dataMap, bit);
+            Object[] newContent = new Object[content.length + 1];
+            System.arraycopy(content, 0, newContent, 0, pathIndex);
+            newContent[pathIndex] = path;
+            newContent[pathIndex + 1] = child;
+            System.arraycopy(content, pathIndex, newContent, pathIndex + 2, oldNodeIndex - pathIndex);
+            System.arraycopy(content, oldNodeIndex + 1, newContent, oldNodeIndex + 2, content.length - oldNodeIndex - 1);
+            return new BitmapNode(dataMap | bit, nodeMap ^ bit, newContent);
+        }
+    }
+
+    /**
+     * Holds the children whose paths have the same hash code.
+     */
+    private static final class CollisionNode extends Node {
+        private final Object[] content;
+
+        CollisionNode(Object[] content) {
+            this.content = content;
+        }
+
+        @Override
+        Node put(int hash, int shift, @Nullable String replacedPath, String path, Object child) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (content[i].equals(replacedPath)) {
+                    Object[] newContent = content.clone();
+                    newContent[i] = path;
+                    newContent[i + 1] = child;
+                    return new CollisionNode(newContent);
+                }
+            }
+            Object[] newContent = Arrays.copyOf(content, content.length + 2);
+            newContent[content.length] = path;
+            newContent[content.length + 1] = child;
+            return new CollisionNode(newContent);
+        }
+
+        @Override
+        Node remove(int hash, int shift, String path) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (content[i].equals(path)) {
+                    if (content.length == 4) {
+                        int remainingIndex = i == 0 ? 2 : 0;
+                        return singleChildNode((String) content[remainingIndex], content[remainingIndex + 1]);
+                    }
+                    Object[] newContent = new Object[content.length - 2];
+                    System.arraycopy(content, 0, newContent, 0, i);
+                    System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+                    return new CollisionNode(newContent);
+                }
+            }
+            throw new IllegalStateException("Child '" + path + "' not found");
+        }
+
+        @Override
+        boolean hasSingleChild() {
+            return false;
+        }
+
+        @Override
+        void visit(BiConsumer<String, Object> visitor) {
+            for (int i = 0; i < content.length; i += 2) {
+                visitor.accept((String) content[i], content[i + 1]);
+            }
+        }
+
+        @Override
+        boolean anyMatch(Predicate<Object> predicate) {
+            for (int i = 1; i < content.length; i += 2) {
+                if (predicate.test(content[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -165,6 +165,27 @@ static boolean equalChars(char char1, char char2, CaseSensitivity caseSensitivit
         }
     }
 
+    /**
+     * Computes a hash code for the first segment of the path starting at the given offset.
+     *
+     * Segments which are equal ignoring case have the same hash code, so the hash code can be used for both case sensitivities.
+     * Consistent with {@link VfsRelativePath#compareToFirstSegment(String, CaseSensitivity)}.
+     */
+    static int hashCodeOfFirstSegment(String path, int offset) {
+        int hash = 0;
+        for (int pos = offset; pos < path.length(); pos++) {
+            char currentChar = path.charAt(pos);
+            if (isFileSeparator(currentChar)) {
+                if (pos > offset) {
+                    break;
+                }
+                currentChar = UNIX_SEPARATOR;
+            }
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(currentChar));
+        }
+        return hash;
+    }
+
     private static int comparePaths(String relativePath1, String relativePath2, CaseSensitivity caseSensitivity) {
         int maxPos = Math.min(relativePath1.length(), relativePath2.length());
         int accumulatedValue = 0;
@@ -204,6 +204,13 @@ public int compareToFirstSegment(String relativePath, CaseSensitivity caseSensit
         return isFileSeparator(relativePath.charAt(maxPos)) ? accumulatedValue : -1;
     }
 
+    /**
+     * The hash code of the first segment of this path, see {@link PathUtil#hashCodeOfFirstSegment(String, int)}.
+     */
+    int hashCodeOfFirstSegment() {
+        return PathUtil.hashCodeOfFirstSegment(absolutePath, offset);
+    }
+
     /**
      * Checks whether this path has the prefix.
      */
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.internal.file.DirectoryLister;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+/**
+ * Walks a file tree like {@link Files#walkFileTree(Path, FileVisitor)}, without following symlinks.
+ *
+ * The entries of each directory are read together with their attributes via a single call to the {@link DirectoryLister},
+ * instead of reading the attributes of every entry separately.
+ */
+class DirectoryListerFileTreeWalker {
+    private final DirectoryLister directoryLister;
+
+    public DirectoryListerFileTreeWalker(DirectoryLister directoryLister) {
+        this.directoryLister = directoryLister;
+    }
+
+    public void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            visitor.visitFileFailed(start, e);
+            return;
+        }
+        if (attributes.isDirectory()) {
+            walkDirectory(start, attributes, visitor);
+        } else {
+            visitor.visitFile(start, attributes);
+        }
+    }
+
+    private FileVisitResult walkDirectory(Path dir, BasicFileAttributes attributes, FileVisitor<Path> visitor) throws IOException {
+        // Like Files.walkFileTree, report a directory that can't be listed as a failed file, without entering it
+        List<DirectoryLister.Entry> entries;
+        try {
+            entries = directoryLister.list(dir.toFile());
+        } catch (IOException e) {
+            return visitor.visitFileFailed(dir, e);
+        }
+        FileVisitResult preVisitResult = visitor.preVisitDirectory(dir, attributes);
+        if (preVisitResult != FileVisitResult.CONTINUE) {
+            return preVisitResult == FileVisitResult.SKIP_SUBTREE
+                ? FileVisitResult.CONTINUE
+                : preVisitResult;
+        }
+        for (DirectoryLister.Entry entry : entries) {
+            String name = entry.getName();
+            if (name.equals(".") || name.equals("..")) {
+                continue;
+            }
+            Path child = dir.resolve(name);
+            BasicFileAttributes childAttributes = new EntryAttributes(entry);
+            FileVisitResult result = entry.getType() == DirectoryLister.Type.Directory
+                ? walkDirectory(child, childAttributes, visitor)
+                : visitor.visitFile(child, childAttributes);
+            if (result == FileVisitResult.TERMINATE) {
+                return FileVisitResult.TERMINATE;
+            }
+            if (result == FileVisitResult.SKIP_SIBLINGS) {
+                break;
+            }
+        }
+        return visitor.postVisitDirectory(dir, null);
+    }
+
+    private static class EntryAttributes implements BasicFileAttributes {
+        private final DirectoryLister.Entry entry;
+
+        public EntryAttributes(DirectoryLister.Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(entry.getLastModified());
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return entry.getType() == DirectoryLister.Type.RegularFile;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return entry.getType() == DirectoryLister.Type.Directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return entry.getType() == DirectoryLister.Type.Symlink;
+        }
+
+        @Override
+        public boolean isOther() {
+            return entry.getType() == DirectoryLister.Type.Other;
+        }
+
+        @Override
+        public long size() {
+            return entry.getLength();
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
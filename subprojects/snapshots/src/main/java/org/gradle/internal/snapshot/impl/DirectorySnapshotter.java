@@ -17,10 +17,12 @@
 package org.gradle.internal.snapshot.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import org.gradle.internal.file.DirectoryLister;
 import org.gradle.internal.file.FileMetadata;
 import org.gradle.internal.file.FileMetadata.AccessType;
 import org.gradle.internal.file.impl.DefaultFileMetadata;
@@ -45,23 +47,38 @@
 import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 import static org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder.EmptyDirectoryHandlingStrategy.INCLUDE_EMPTY_DIRS;
 
 public class DirectorySnapshotter {
     private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySnapshotter.class);
+    public static final String PARALLEL_SNAPSHOTTING_PROPERTY = "org.gradle.vfs.parallel-snapshotting";
+    public static final String PARALLEL_SNAPSHOTTING_THRESHOLD_PROPERTY = "org.gradle.vfs.parallel-snapshotting.threshold";
+    public static final int SEQUENTIAL_SNAPSHOTTING = -1;
+    private static final int DEFAULT_PARALLEL_SNAPSHOTTING_THRESHOLD = 1000;
+    // Only fork new subtrees while the executor is not already saturated with subtrees of the same snapshot
+    private static final int MAX_QUEUED_SUBTREES = 8;
     private static final EnumSet<FileVisitOption> DONT_FOLLOW_SYMLINKS = EnumSet.noneOf(FileVisitOption.class);
+    private static final FileTreeWalker NIO_FILE_TREE_WALKER = (start, visitor) -> Files.walkFileTree(start, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
     private static final SymbolicLinkMapping EMPTY_SYMBOLIC_LINK_MAPPING = new SymbolicLinkMapping() {
 
         @Override
@@ -84,22 +101,164 @@ public Iterable<String> getRemappedSegments(Iterable<String> segments) {
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
     private final DirectorySnapshotterStatistics.Collector collector;
+    private final FileTreeWalker fileTreeWalker;
+    private final int parallelSnapshottingThreshold;
+    private final Executor parallelSnapshottingExecutor;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector) {
+        this(hasher, stringInterner, defaultExcludes, collector, DirectoryLister.UNAVAILABLE);
+    }
+
+    /**
+     * Creates a snapshotter which lists directories via the given {@link DirectoryLister} when it is available,
+     * and via {@link Files#walkFileTree(Path, java.util.Set, int, FileVisitor)} otherwise.
+     * Trees are snapshotted sequentially on the calling thread.
+     */
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector, DirectoryLister directoryLister) {
+        this(hasher, stringInterner, defaultExcludes, collector, directoryLister, SEQUENTIAL_SNAPSHOTTING, Runnable::run);
+    }
+
+    /**
+     * Creates a snapshotter which walks subtrees on the given executor when parallel snapshotting is enabled via {@value #PARALLEL_SNAPSHOTTING_PROPERTY}.
+     */
+    public DirectorySnapshotter(
+        FileHasher hasher,
+        Interner<String> stringInterner,
+        Collection<String> defaultExcludes,
+        DirectorySnapshotterStatistics.Collector collector,
+        DirectoryLister directoryLister,
+        Executor parallelSnapshottingExecutor
+    ) {
+        this(hasher, stringInterner, defaultExcludes, collector, directoryLister, defaultParallelSnapshottingThreshold(), parallelSnapshottingExecutor);
+    }
+
+    /**
+     * Creates a snapshotter which walks the subdirectories of a tree and hashes their files concurrently on the given executor
+     * once more than {@code parallelSnapshottingThreshold} files have been visited during a single snapshot.
+     * Smaller trees are snapshotted sequentially on the calling thread.
+     *
+     * Pass {@link #SEQUENTIAL_SNAPSHOTTING} to always snapshot sequentially.
+     */
+    public DirectorySnapshotter(
+        FileHasher hasher,
+        Interner<String> stringInterner,
+        Collection<String> defaultExcludes,
+        DirectorySnapshotterStatistics.Collector collector,
+        DirectoryLister directoryLister,
+        int parallelSnapshottingThreshold,
+        Executor parallelSnapshottingExecutor
+    ) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
         this.collector = collector;
+        this.fileTreeWalker = directoryLister.isAvailable()
+            ? new DirectoryListerFileTreeWalker(directoryLister)::walkFileTree
+            : NIO_FILE_TREE_WALKER;
+        this.parallelSnapshottingThreshold = parallelSnapshottingThreshold;
+        this.parallelSnapshottingExecutor = parallelSnapshottingExecutor;
+    }
+
+    private static int defaultParallelSnapshottingThreshold() {
+        return Boolean.getBoolean(PARALLEL_SNAPSHOTTING_PROPERTY)
+            ? Integer.getInteger(PARALLEL_SNAPSHOTTING_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_SNAPSHOTTING_THRESHOLD)
+            : SEQUENTIAL_SNAPSHOTTING;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate, final AtomicBoolean hasBeenFiltered) {
-        try {
-            Path rootPath = Paths.get(absolutePath);
-            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING);
-            Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
-            return visitor.getResult();
-        } catch (IOException e) {
-            throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", absolutePath), e);
+        Path rootPath = Paths.get(absolutePath);
+        if (parallelSnapshottingThreshold < 0) {
+            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING,
+                fileTreeWalker, null, new ArrayDeque<>(), false);
+            return visitor.walk(rootPath);
+        }
+        PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING,
+            fileTreeWalker, new ParallelWalk(parallelSnapshottingThreshold, parallelSnapshottingExecutor), new ArrayDeque<>(), false);
+        return visitor.walk(rootPath);
+    }
+
+    private interface FileTreeWalker {
+        void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException;
+    }
+
+    /**
+     * State shared by all the subtree walks of a single parallel snapshot.
+     */
+    private static class ParallelWalk {
+        private final int threshold;
+        private final Executor executor;
+        private final AtomicLong visitedFiles = new AtomicLong();
+        private final AtomicInteger queuedSubtrees = new AtomicInteger();
+
+        public ParallelWalk(int threshold, Executor executor) {
+            this.threshold = threshold;
+            this.executor = executor;
+        }
+
+        public void recordVisitedFile() {
+            visitedFiles.incrementAndGet();
+        }
+
+        public boolean shouldForkSubtree() {
+            return visitedFiles.get() >= threshold && queuedSubtrees.get() < MAX_QUEUED_SUBTREES;
+        }
+
+        public SubtreeSnapshot fork(Path directory, PathVisitor visitor) {
+            SubtreeSnapshot subtree = new SubtreeSnapshot(directory, visitor, queuedSubtrees);
+            queuedSubtrees.incrementAndGet();
+            try {
+                executor.execute(subtree::walk);
+            } catch (RejectedExecutionException e) {
+                // The subtree is walked when its snapshot is requested
+            }
+            return subtree;
+        }
+    }
+
+    /**
+     * A subtree which is walked on the executor of a parallel snapshot.
+     * A thread which requests the snapshot of a subtree that has not been started yet walks the subtree itself,
+     * so that threads never wait for subtrees which are queued behind them.
+     */
+    private static class SubtreeSnapshot {
+        private final Path directory;
+        private final PathVisitor visitor;
+        private final AtomicInteger queuedSubtrees;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CompletableFuture<FileSystemLocationSnapshot> result = new CompletableFuture<>();
+
+        public SubtreeSnapshot(Path directory, PathVisitor visitor, AtomicInteger queuedSubtrees) {
+            this.directory = directory;
+            this.visitor = visitor;
+            this.queuedSubtrees = queuedSubtrees;
+        }
+
+        public void walk() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            queuedSubtrees.decrementAndGet();
+            try {
+                result.complete(visitor.walk(directory));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        public FileSystemLocationSnapshot getSnapshot() {
+            walk();
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
         }
     }
 
@@ -229,7 +388,10 @@ private static class PathVisitor extends DirectorySnapshotterStatistics.Collecti
         private final Interner<String> stringInterner;
         private final DefaultExcludes defaultExcludes;
         private final SymbolicLinkMapping symbolicLinkMapping;
-        private final Deque<String> parentDirectories = new ArrayDeque<>();
+        private final FileTreeWalker fileTreeWalker;
+        private final Deque<String> parentDirectories;
+        private final ParallelWalk parallelWalk;
+        private final Deque<List<SubtreeSnapshot>> forkedSubtrees = new ArrayDeque<>();
 
         public PathVisitor(
             @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate,
@@ -238,9 +400,16 @@ public PathVisitor(
             Interner<String> stringInterner,
             DefaultExcludes defaultExcludes,
             DirectorySnapshotterStatistics.Collector statisticsCollector,
-            SymbolicLinkMapping symbolicLinkMapping
+            SymbolicLinkMapping symbolicLinkMapping,
+            FileTreeWalker fileTreeWalker,
+            @Nullable ParallelWalk parallelWalk,
+            Deque<String> parentDirectories,
+            boolean continuesHierarchy
         ) {
-            super(statisticsCollector);
+            super(statisticsCollector, continuesHierarchy);
+            this.fileTreeWalker = fileTreeWalker;
+            this.parallelWalk = parallelWalk;
+            this.parentDirectories = parentDirectories;
             this.builder = MerkleDirectorySnapshotBuilder.sortingRequired();
             this.predicate = predicate;
             this.hasBeenFiltered = hasBeenFiltered;
@@ -255,8 +424,16 @@ protected FileVisitResult doPreVisitDirectory(Path dir, BasicFileAttributes attr
             String fileName = getInternedFileName(dir);
             pathTracker.enter(fileName);
             if (pathTracker.isRoot() || shouldVisit(dir, fileName, true, pathTracker.getSegments())) {
+                if (!pathTracker.isRoot() && parallelWalk != null && parallelWalk.shouldForkSubtree()) {
+                    forkSubtree(dir);
+                    pathTracker.leave();
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
                 builder.enterDirectory(AccessType.DIRECT, intern(symbolicLinkMapping.remapAbsolutePath(dir)), fileName, INCLUDE_EMPTY_DIRS);
                 parentDirectories.addFirst(dir.toString());
+                if (parallelWalk != null) {
+                    forkedSubtrees.addFirst(new ArrayList<>());
+                }
                 return FileVisitResult.CONTINUE;
             } else {
                 pathTracker.leave();
@@ -264,8 +441,39 @@ protected FileVisitResult doPreVisitDirectory(Path dir, BasicFileAttributes attr
             }
         }
 
+        /**
+         * Walks the given directory on the executor of the parallel walk.
+         * The result is added to the current directory when leaving it, before the directory is folded,
+         * so the resulting Merkle tree is the same as for a sequential walk.
+         */
+        private void forkSubtree(Path dir) {
+            String dirString = dir.toString();
+            SymbolicLinkMapping subtreeMapping = new DefaultSymbolicLinkMapping(
+                symbolicLinkMapping.remapAbsolutePath(dir),
+                dirString,
+                ImmutableList.copyOf(symbolicLinkMapping.getRemappedSegments(pathTracker.getSegments()))
+            );
+            PathVisitor subtreeVisitor = new PathVisitor(
+                predicate,
+                hasBeenFiltered,
+                hasher,
+                stringInterner,
+                defaultExcludes,
+                collector,
+                subtreeMapping,
+                fileTreeWalker,
+                parallelWalk,
+                new ArrayDeque<>(parentDirectories),
+                true
+            );
+            forkedSubtrees.getFirst().add(parallelWalk.fork(dir, subtreeVisitor));
+        }
+
         @Override
         protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
+            if (parallelWalk != null) {
+                parallelWalk.recordVisitedFile();
+            }
             String internedFileName = getInternedFileName(file);
             pathTracker.enter(internedFileName);
             try {
@@ -286,10 +494,13 @@ protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
                                     stringInterner,
                                     defaultExcludes,
                                     collector,
-                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker)
+                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker),
+                                    fileTreeWalker,
+                                    parallelWalk,
+                                    new ArrayDeque<>(),
+                                    false
                                 );
-                                Files.walkFileTree(targetDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, subtreeVisitor);
-                                DirectorySnapshot result = (DirectorySnapshot) subtreeVisitor.getResult();
+                                DirectorySnapshot result = (DirectorySnapshot) subtreeVisitor.walkSubtree(targetDir);
                                 builder.visitDirectory(new DirectorySnapshot(
                                     result.getAbsolutePath(),
                                     internedFileName,
@@ -382,6 +593,11 @@ protected FileVisitResult doPostVisitDirectory(Path dir, IOException exc) {
             if (isNotFileSystemLoopException(exc)) {
                 throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), exc);
             }
+            if (parallelWalk != null) {
+                for (SubtreeSnapshot forkedSubtree : forkedSubtrees.removeFirst()) {
+                    builder.visitDirectory((DirectorySnapshot) forkedSubtree.getSnapshot());
+                }
+            }
             builder.leaveDirectory();
             parentDirectories.removeFirst();
             return FileVisitResult.CONTINUE;
@@ -424,7 +640,16 @@ private String getInternedFileName(Path dir) {
             return fileName == null ? "" : intern(fileName.toString());
         }
 
-        public FileSystemLocationSnapshot getResult() {
+        public FileSystemLocationSnapshot walk(Path root) {
+            try {
+                return walkSubtree(root);
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", root), e);
+            }
+        }
+
+        private FileSystemLocationSnapshot walkSubtree(Path root) throws IOException {
+            fileTreeWalker.walkFileTree(root, this);
             return builder.getResult();
         }
     }
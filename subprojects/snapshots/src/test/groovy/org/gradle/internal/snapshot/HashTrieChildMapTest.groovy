@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.snapshot
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.gradle.internal.snapshot.CaseSensitivity.CASE_INSENSITIVE
+import static org.gradle.internal.snapshot.CaseSensitivity.CASE_SENSITIVE
+
+@Unroll
+class HashTrieChildMapTest extends Specification {
+
+    def "finds all of #count children (#caseSensitivity)"() {
+        def paths = sortedPaths((0..<count).collect { "File${it}.java".toString() }, caseSensitivity)
+        def children = childMap(paths)
+
+        expect:
+        children instanceof HashTrieChildMap
+        children.entries()*.path == paths
+        paths.every { path ->
+            findChild(children, path, caseSensitivity) == "exact ${path}" &&
+                findChild(children, "${path}/some/descendant", caseSensitivity) == "descendant some/descendant of ${path}"
+        }
+        findChild(children, "File${count}.java", caseSensitivity) == "unrelated"
+        findChild(children, "File1.jav", caseSensitivity) == "unrelated"
+        findChild(children, "FILE1.JAVA", caseSensitivity) == (caseSensitivity == CASE_INSENSITIVE ? "exact File1.java" : "unrelated")
+        paths.every { path -> children.anyMatch { it == path } }
+        !children.anyMatch { it == "File${count}.java" }
+
+        where:
+        [count, caseSensitivity] << [[256, 1000, 20000], CaseSensitivity.values().toList()].combinations()
+    }
+
+    def "finds children with colliding hashes (#caseSensitivity)"() {
+        // Blocks with the same hash code, so all combinations of them have the same hash code, too
+        def collidingNames = (0..<64).collect { index -> (0..<6).collect { bit -> (index >> bit) & 1 ? "y@" : "x_" }.join("") }
+        def otherNames = (0..<300).collect { "file${it}".toString() }
+        def paths = sortedPaths(collidingNames + otherNames, caseSensitivity)
+        def children = childMap(paths)
+
+        expect:
+        collidingNames*.hashCode().unique().size() == 1
+        collidingNames.collect { PathUtil.hashCodeOfFirstSegment(it, 0) }.unique().size() == 1
+        paths.every { findChild(children, it, caseSensitivity) == "exact ${it}" }
+
+        when:
+        def withoutCollision = collidingNames.inject(children) { ChildMap<String> current, String name -> invalidate(current, name, caseSensitivity) }
+        then:
+        withoutCollision instanceof HashTrieChildMap
+        withoutCollision.entries()*.path == sortedPaths(otherNames, caseSensitivity)
+
+        when:
+        def withCollisionAgain = collidingNames.inject(withoutCollision) { ChildMap<String> current, String name -> store(current, name, caseSensitivity) }
+        then:
+        withCollisionAgain.entries()*.path == paths
+        collidingNames.every { findChild(withCollisionAgain, it, caseSensitivity) == "exact new ${it}" }
+
+        where:
+        caseSensitivity << CaseSensitivity.values()
+    }
+
+    def "finds children differing only in case on case sensitive file systems"() {
+        def paths = sortedPaths((0..<300).collect { "file${it}".toString() } + ["Case", "CASE", "case"], CASE_SENSITIVE)
+        def children = childMap(paths)
+
+        expect:
+        ["Case", "CASE", "case"].every { findChild(children, it, CASE_SENSITIVE) == "exact ${it}" }
+        findChild(children, "cASE", CASE_SENSITIVE) == "unrelated"
+        invalidate(children, "CASE", CASE_SENSITIVE).entries()*.path == paths - "CASE"
+    }
+
+    def "uses hash trie only for large number of children"() {
+        def paths = sortedPaths((0..<256).collect { "file${it}".toString() }, CASE_SENSITIVE)
+
+        when:
+        def children = childMap(paths.subList(0, 255))
+        then:
+        children instanceof LargeChildMap
+
+        when:
+        children = store(children, paths[255], CASE_SENSITIVE)
+        then:
+        children instanceof HashTrieChildMap
+        children.entries()*.path == paths
+
+        when:
+        children = invalidate(children, paths[17], CASE_SENSITIVE)
+        then:
+        children instanceof LargeChildMap
+        children.entries()*.path == paths - paths[17]
+    }
+
+    def "behaves like sorted child map for random updates (#caseSensitivity)"() {
+        def random = new Random(1234)
+        def names = (0..<500).collect { "File${it}.java".toString() } + (0..<20).collect { "dir${it}/sub/deeper".toString() }
+        def paths = sortedPaths(names.findAll { random.nextInt(3) > 0 }, caseSensitivity)
+        ChildMap<String> expected = new LargeChildMap<String>(paths as String[], paths as String[])
+        ChildMap<String> children = childMap(paths)
+
+        expect:
+        1000.times {
+            def name = names[random.nextInt(names.size())]
+            def targetPath = [name, "${name}/child".toString(), name.toUpperCase(), name.split("/")[0], "new${random.nextInt(100)}".toString()][random.nextInt(5)]
+            switch (random.nextInt(3)) {
+                case 0:
+                    assert findChild(children, targetPath, caseSensitivity) == findChild(expected, targetPath, caseSensitivity)
+                    break
+                case 1:
+                    children = store(children, targetPath, caseSensitivity)
+                    expected = store(expected, targetPath, caseSensitivity)
+                    break
+                default:
+                    children = invalidate(children, targetPath, caseSensitivity)
+                    expected = invalidate(expected, targetPath, caseSensitivity)
+            }
+            assert children.entries() == expected.entries()
+        }
+
+        where:
+        caseSensitivity << CaseSensitivity.values()
+    }
+
+    private static List<String> sortedPaths(List<String> paths, CaseSensitivity caseSensitivity) {
+        return paths.toSorted(PathUtil.getPathComparator(caseSensitivity))
+    }
+
+    private static ChildMap<String> childMap(List<String> sortedPaths) {
+        ChildMapFactory.childMapFromSorted(sortedPaths.collect { new ChildMap.Entry<String>(it, it) })
+    }
+
+    private static String findChild(ChildMap<String> children, String relativePath, CaseSensitivity caseSensitivity) {
+        children.withNode(VfsRelativePath.of("/root/${relativePath}").suffixStartingFrom(5), caseSensitivity, new ChildMap.NodeHandler<String, String>() {
+            @Override
+            String handleAsDescendantOfChild(VfsRelativePath pathInChild, String child) {
+                "descendant ${pathInChild} of ${child}"
+            }
+
+            @Override
+            String handleAsAncestorOfChild(String childPath, String child) {
+                "ancestor of ${child}"
+            }
+
+            @Override
+            String handleExactMatchWithChild(String child) {
+                "exact ${child}"
+            }
+
+            @Override
+            String handleUnrelatedToAnyChild() {
+                "unrelated"
+            }
+        })
+    }
+
+    private static ChildMap<String> store(ChildMap<String> children, String relativePath, CaseSensitivity caseSensitivity) {
+        children.store(VfsRelativePath.of("/root/${relativePath}").suffixStartingFrom(5), caseSensitivity, new ChildMap.StoreHandler<String>() {
+            @Override
+            String handleAsDescendantOfChild(VfsRelativePath pathInChild, String child) {
+                "${child} with ${pathInChild}"
+            }
+
+            @Override
+            String handleAsAncestorOfChild(String childPath, String child) {
+                "parent of ${child}"
+            }
+
+            @Override
+            String mergeWithExisting(String child) {
+                "merged ${child}"
+            }
+
+            @Override
+            String createChild() {
+                "new ${relativePath}"
+            }
+
+            @Override
+            String createNodeFromChildren(ChildMap<String> newChildren) {
+                "node with ${newChildren.entries()*.value}"
+            }
+        })
+    }
+
+    private static ChildMap<String> invalidate(ChildMap<String> children, String relativePath, CaseSensitivity caseSensitivity) {
+        children.invalidate(VfsRelativePath.of("/root/${relativePath}").suffixStartingFrom(5), caseSensitivity, new ChildMap.InvalidationHandler<String, String>() {
+            @Override
+            Optional<String> handleAsDescendantOfChild(VfsRelativePath pathInChild, String child) {
+                Optional.of("${child} without ${pathInChild}".toString())
+            }
+
+            @Override
+            void handleAsAncestorOfChild(String childPath, String child) {
+            }
+
+            @Override
+            void handleExactMatchWithChild(String child) {
+            }
+
+            @Override
+            void handleUnrelatedToAnyChild() {
+            }
+        })
+    }
+}
@@ -37,4 +37,19 @@ class PathUtilTest extends Specification {
         "C:${File.separator}Windows/system${File.separator}win32" | "win32"
     }
 
+    def "hash code of first segment of '#path' is the hash code of '#segment' ignoring case"() {
+        expect:
+        PathUtil.hashCodeOfFirstSegment(path, offset) == PathUtil.hashCodeOfFirstSegment(segment, 0)
+        PathUtil.hashCodeOfFirstSegment(path, offset) == PathUtil.hashCodeOfFirstSegment(segment.toUpperCase(), 0)
+
+        where:
+        path                            | offset | segment
+        "some/path"                     | 0      | "some"
+        "Some/Other"                    | 0      | "some"
+        "/root/SOME"                    | 6      | "some"
+        "some${File.separator}path"     | 0      | "some"
+        "some"                          | 0      | "some"
+        ""                              | 0      | ""
+    }
+
 }
@@ -16,13 +16,17 @@
 
 package org.gradle.internal.snapshot.impl
 
+import net.rubygrapefruit.platform.Native
+import net.rubygrapefruit.platform.file.Files
 import org.apache.tools.ant.DirectoryScanner
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
 import org.gradle.api.tasks.util.PatternSet
+import org.gradle.internal.file.DirectoryLister
 import org.gradle.internal.file.FileMetadata.AccessType
 import org.gradle.internal.fingerprint.impl.PatternSetSnapshottingFilter
 import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.nativeintegration.filesystem.services.NativePlatformBackedDirectoryLister
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.MissingFileSnapshot
 import org.gradle.internal.snapshot.RegularFileSnapshot
@@ -38,6 +42,7 @@ import spock.lang.Issue
 import spock.lang.Specification
 
 import java.nio.file.Paths
+import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicBoolean
 
 @UsesNativeServices
@@ -332,16 +337,17 @@ class DirectorySnapshotterTest extends Specification {
     }
 
     @Requires(TestPrecondition.FILE_PERMISSIONS)
-    def "unreadable files and directories are snapshotted as missing"() {
+    def "unreadable files and directories are snapshotted as missing (#listing)"() {
         given:
         def rootDir = tmpDir.createDir("root")
         rootDir.file('readableFile').createFile()
         rootDir.file('readableDirectory').createDir()
         rootDir.file('unreadableFile').createFile().makeUnreadable()
         rootDir.file('unreadableDirectory').createDir().makeUnreadable()
+        def snapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, directoryLister())
 
         when:
-        def snapshot = directorySnapshotter.snapshot(rootDir.absolutePath, null, actuallyFiltered)
+        def snapshot = snapshotter.snapshot(rootDir.absolutePath, null, actuallyFiltered)
 
         then:
         ! actuallyFiltered.get()
@@ -357,6 +363,11 @@ class DirectorySnapshotterTest extends Specification {
 
         cleanup:
         rootDir.listFiles()*.makeReadable()
+
+        where:
+        listing  | directoryLister
+        "NIO"    | { DirectoryLister.UNAVAILABLE }
+        "native" | { new NativePlatformBackedDirectoryLister(Native.get(Files.class)) }
     }
 
 
@@ -382,6 +393,66 @@ class DirectorySnapshotterTest extends Specification {
         pipe.delete()
     }
 
+    @Requires(TestPrecondition.SYMLINKS)
+    def "parallel snapshotting produces the same snapshot as sequential snapshotting"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        (1..5).each { first ->
+            (1..5).each { second ->
+                rootDir.file("dir${first}/sub${second}/file.txt").text = "content ${first} ${second}"
+                rootDir.file("dir${first}/sub${second}/file.html").text = "html ${first} ${second}"
+            }
+        }
+        rootDir.file("dir6/empty").createDir()
+        rootDir.file("subdir1/a/b/c.txt").createFile()
+        rootDir.file("dir1/link").createLink(rootDir.file("dir2"))
+        rootDir.file("dir3/cycle").createLink(rootDir.file("dir3"))
+        def patterns = new PatternSet()
+        patterns.include("**/*.txt")
+        patterns.exclude("subdir1/**")
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, DirectoryLister.UNAVAILABLE)
+        def executor = Executors.newFixedThreadPool(2)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, DirectoryLister.UNAVAILABLE, 0, executor)
+        def parallelFiltered = new AtomicBoolean(false)
+
+        when:
+        def sequentialSnapshot = sequentialSnapshotter.snapshot(rootDir.absolutePath, directoryWalkerPredicate(patterns), actuallyFiltered)
+        def parallelSnapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, directoryWalkerPredicate(patterns), parallelFiltered)
+
+        then:
+        parallelSnapshot.hash == sequentialSnapshot.hash
+        SnapshotVisitorUtil.getAbsolutePaths(parallelSnapshot, true) == SnapshotVisitorUtil.getAbsolutePaths(sequentialSnapshot, true)
+        SnapshotVisitorUtil.getRelativePaths(parallelSnapshot, true) == SnapshotVisitorUtil.getRelativePaths(sequentialSnapshot, true)
+        parallelFiltered.get() == actuallyFiltered.get()
+        actuallyFiltered.get()
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    @Requires(TestPrecondition.SYMLINKS)
+    def "snapshots the same tree when listing directories natively"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("a.txt").text = "a"
+        rootDir.file("a/b/c.txt").text = "c"
+        rootDir.file("a/b/c.html").text = "html"
+        rootDir.file("empty").createDir()
+        rootDir.file("a/link").createLink(rootDir.file("a/b"))
+        rootDir.file("broken").createLink(rootDir.file("missing"))
+        def nativeSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, new NativePlatformBackedDirectoryLister(Native.get(Files.class)))
+
+        when:
+        def snapshot = directorySnapshotter.snapshot(rootDir.absolutePath, null, actuallyFiltered)
+        def nativeSnapshot = nativeSnapshotter.snapshot(rootDir.absolutePath, null, actuallyFiltered)
+
+        then:
+        nativeSnapshot.hash == snapshot.hash
+        SnapshotVisitorUtil.getAbsolutePaths(nativeSnapshot, true) == SnapshotVisitorUtil.getAbsolutePaths(snapshot, true)
+        nativeSnapshot.children*.accessType == snapshot.children*.accessType
+        !actuallyFiltered.get()
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes() as List)
 